@@ -27,7 +27,6 @@ import org.jdom2.Attribute;
 import org.jdom2.Content;
 import org.jdom2.DataConversionException;
 import org.jdom2.Namespace;
-import org.jdom2.output.XMLOutputter;
 import org.osgi.annotation.versioning.ConsumerType;
 
 /**
@@ -292,16 +291,19 @@ public abstract class AbstractElement<T extends AbstractElement> extends org.jdo
     }
   }
 
+  /**
+   * @return Element serialized as HTML markup
+   */
   @Override
   public String toString() {
-    return new XMLOutputter().outputString(this);
+    return HtmlSerializer.serialize(this);
   }
 
   /**
    * @return Content of element serialized as string
    */
   public String toStringContentOnly() {
-    return new XMLOutputter().outputElementContentString(this);
+    return HtmlSerializer.serializeContentOnly(this);
   }
 
 }
@@ -20,7 +20,6 @@
 package io.wcm.handler.commons.dom;
 
 import org.jdom2.Comment;
-import org.jdom2.output.XMLOutputter;
 import org.osgi.annotation.versioning.ProviderType;
 
 /**
@@ -40,7 +39,7 @@ public final class HtmlComment extends Comment {
 
   @Override
   public String toString() {
-    return new XMLOutputter().outputString(this);
+    return HtmlSerializer.serialize(this);
   }
 
 }
@@ -0,0 +1,241 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.commons.dom;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.jdom2.Attribute;
+import org.jdom2.CDATA;
+import org.jdom2.Comment;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.Text;
+import org.jdom2.output.XMLOutputter;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ProviderType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Serializes DOM elements to HTML markup.
+ * <p>
+ * The serializer writes the elements directly into a string builder, and does no namespace processing. The markup is the same as produced by JDOM's {@link XMLOutputter} in raw format, with
+ * one exception: HTML void elements (e.g. img, source, area) are always written as self-closing tags. Content added
+ * to them is not written, a warning is logged instead.
+ * </p>
+ * <p>
+ * Content that is not handled natively (elements or attributes with namespaces, CDATA sections, entity references,
+ * processing instructions, and text containing line breaks, tabs or characters outside the basic multilingual plane)
+ * is serialized via {@link XMLOutputter}.
+ * </p>
+ */
+@ProviderType
+public final class HtmlSerializer {
+
+  /**
+   * HTML void elements that have no content and no end tag.
+   */
+  private static final Set<String> VOID_ELEMENTS = ImmutableSet.of(
+      "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "track", "wbr");
+
+  // estimated markup length per element or content item, used for the initial string builder capacity
+  private static final int ESTIMATED_CONTENT_LENGTH = 64;
+
+  private static final XMLOutputter XML_OUTPUTTER = new XMLOutputter();
+
+  private static final Logger log = LoggerFactory.getLogger(HtmlSerializer.class);
+
+  private HtmlSerializer() {
+    // static methods only
+  }
+
+  /**
+   * Serializes the given content.
+   * @param content Content (element, text or comment)
+   * @return Markup
+   */
+  public static @NotNull String serialize(@NotNull Content content) {
+    StringBuilder sb = new StringBuilder(estimateLength(content));
+    serialize(content, sb);
+    return sb.toString();
+  }
+
+  /**
+   * Serializes the given content and appends the markup to the given string builder.
+   * @param content Content (element, text or comment)
+   * @param sb String builder
+   */
+  public static void serialize(@NotNull Content content, @NotNull StringBuilder sb) {
+    if (content instanceof Element) {
+      appendElement((Element)content, sb);
+    }
+    else if (content instanceof CDATA) {
+      sb.append(XML_OUTPUTTER.outputString((CDATA)content));
+    }
+    else if (content instanceof Text) {
+      appendText((Text)content, sb);
+    }
+    else if (content instanceof Comment) {
+      sb.append("<!--").append(((Comment)content).getText()).append("-->");
+    }
+    else {
+      sb.append(XML_OUTPUTTER.outputString(Collections.singletonList(content)));
+    }
+  }
+
+  /**
+   * Serializes the content of the given element, without the element itself.
+   * @param element Element
+   * @return Markup
+   */
+  public static @NotNull String serializeContentOnly(@NotNull Element element) {
+    StringBuilder sb = new StringBuilder(estimateLength(element));
+    appendContent(element, sb);
+    return sb.toString();
+  }
+
+  /**
+   * Estimates the markup length from the number of direct child content items.
+   */
+  private static int estimateLength(Content content) {
+    if (content instanceof Element) {
+      return ESTIMATED_CONTENT_LENGTH * (((Element)content).getContentSize() + 1);
+    }
+    return ESTIMATED_CONTENT_LENGTH;
+  }
+
+  private static void appendElement(Element element, StringBuilder sb) {
+    if (!isPlainElement(element)) {
+      sb.append(XML_OUTPUTTER.outputString(element));
+      return;
+    }
+
+    String name = element.getName();
+    sb.append('<').append(name);
+    if (element.hasAttributes()) {
+      List<Attribute> attributes = element.getAttributes();
+      for (int i = 0; i < attributes.size(); i++) {
+        Attribute attribute = attributes.get(i);
+        sb.append(' ').append(attribute.getName()).append("=\"");
+        escape(attribute.getValue(), true, sb);
+        sb.append('"');
+      }
+    }
+
+    int size = element.getContentSize();
+    if (size == 0) {
+      sb.append(" />");
+    }
+    else if (VOID_ELEMENTS.contains(name)) {
+      log.warn("Skipping content of HTML void element '{}' with {} content item(s).", name, size);
+      sb.append(" />");
+    }
+    else {
+      sb.append('>');
+      appendContent(element, sb);
+      sb.append("</").append(name).append('>');
+    }
+  }
+
+  private static void appendContent(Element element, StringBuilder sb) {
+    int size = element.getContentSize();
+    for (int i = 0; i < size; i++) {
+      serialize(element.getContent(i), sb);
+    }
+  }
+
+  private static void appendText(Text text, StringBuilder sb) {
+    String value = text.getText();
+    if (needsXmlOutputter(value)) {
+      sb.append(XML_OUTPUTTER.outputString(text));
+    }
+    else {
+      escape(value, false, sb);
+    }
+  }
+
+  /**
+   * Checks if element and attributes are without namespace, and attribute values can be escaped natively.
+   */
+  private static boolean isPlainElement(Element element) {
+    if (element.getNamespace() != Namespace.NO_NAMESPACE || !element.getAdditionalNamespaces().isEmpty()) {
+      return false;
+    }
+    if (element.hasAttributes()) {
+      List<Attribute> attributes = element.getAttributes();
+      for (int i = 0; i < attributes.size(); i++) {
+        Attribute attribute = attributes.get(i);
+        if (attribute.getNamespace() != Namespace.NO_NAMESPACE || needsXmlOutputter(attribute.getValue())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks for characters that XMLOutputter escapes depending on format and encoding.
+   */
+  private static boolean needsXmlOutputter(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\r' || c == '\n' || c == '\t' || Character.isSurrogate(c)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void escape(String value, boolean attribute, StringBuilder sb) {
+    int length = value.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      String replacement;
+      switch (value.charAt(i)) {
+        case '<':
+          replacement = "&lt;";
+          break;
+        case '>':
+          replacement = "&gt;";
+          break;
+        case '&':
+          replacement = "&amp;";
+          break;
+        case '"':
+          replacement = attribute ? "&quot;" : null;
+          break;
+        default:
+          replacement = null;
+          break;
+      }
+      if (replacement != null) {
+        sb.append(value, start, i).append(replacement);
+        start = i + 1;
+      }
+    }
+    sb.append(value, start, length);
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.commons.dom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.jdom2.CDATA;
+import org.jdom2.Namespace;
+import org.jdom2.Text;
+import org.jdom2.output.XMLOutputter;
+import org.junit.jupiter.api.Test;
+
+class HtmlSerializerTest {
+
+  @Test
+  void testPicture() {
+    Picture picture = new Picture();
+    picture.add(new Source().setMedia("(min-width: 1024px)").setSrcSet("/image1.jpg 1x, /image2.jpg 2x"));
+    picture.add(new Source().setMedia("(min-width: 480px)").setSrcSet("/image3.jpg"));
+    picture.add(new Image("/image4.jpg").setAlt("Alt \"Text\" <1> & <2>").setWidth(100).setHeight(50)
+        .setCssClass("class1"));
+
+    assertEquals("<picture>"
+        + "<source media=\"(min-width: 1024px)\" srcset=\"/image1.jpg 1x, /image2.jpg 2x\" />"
+        + "<source media=\"(min-width: 480px)\" srcset=\"/image3.jpg\" />"
+        + "<img src=\"/image4.jpg\" alt=\"Alt &quot;Text&quot; &lt;1&gt; &amp; &lt;2&gt;\" "
+        + "width=\"100\" height=\"50\" class=\"class1\" />"
+        + "</picture>", HtmlSerializer.serialize(picture));
+    assertEquals(new XMLOutputter().outputString(picture), HtmlSerializer.serialize(picture));
+  }
+
+  @Test
+  void testAnchor() {
+    Anchor anchor = new Anchor("/path/page.html?a=1&b=2", "_blank");
+    anchor.setData("attr1", "value1");
+    anchor.addContent("Text \"1\" <&> ");
+    anchor.add(new Span("Span"));
+
+    assertEquals("<a href=\"/path/page.html?a=1&amp;b=2\" target=\"_blank\" data-attr1=\"value1\">"
+        + "Text \"1\" &lt;&amp;&gt; <span>Span</span></a>", HtmlSerializer.serialize(anchor));
+    assertEquals(new XMLOutputter().outputString(anchor), HtmlSerializer.serialize(anchor));
+    assertEquals("Text \"1\" &lt;&amp;&gt; <span>Span</span>", HtmlSerializer.serializeContentOnly(anchor));
+  }
+
+  @Test
+  void testVoidElements() {
+    Map map = new Map();
+    map.add(new Area().setShape("rect").setCoords("0,0,10,10"));
+    Image image = new Image("/image.jpg");
+    image.addContent("ignored");
+
+    assertEquals("<map><area shape=\"rect\" coords=\"0,0,10,10\" /></map>", HtmlSerializer.serialize(map));
+    assertEquals("<img src=\"/image.jpg\" />", HtmlSerializer.serialize(image));
+  }
+
+  @Test
+  void testEmptyElement() {
+    assertEquals("<test />", HtmlSerializer.serialize(new HtmlElement("test")));
+    assertEquals("<div />", HtmlSerializer.serialize(new Div()));
+    assertEquals(new XMLOutputter().outputString(new Div()), HtmlSerializer.serialize(new Div()));
+  }
+
+  @Test
+  void testComment() {
+    assertEquals("<!--comment-->", HtmlSerializer.serialize(new HtmlComment("comment")));
+  }
+
+  @Test
+  void testXmlOutputterFallback() {
+    Div div = new Div();
+    div.addContent(new Text("line1\nline2\ttab"));
+    div.addContent(new CDATA("<cdata>"));
+    HtmlElement<?> element = div.create("test");
+    element.setAttribute("attr1", "value1", Namespace.getNamespace("ns1", "http://ns1"));
+    element.setText("\ud83d\ude00");
+
+    assertEquals(new XMLOutputter().outputString(div), HtmlSerializer.serialize(div));
+  }
+
+  @Test
+  void testLargeContent() {
+    Div div = new Div();
+    for (int i = 0; i < 5000; i++) {
+      div.add(new Span(Integer.toString(i)));
+    }
+    String markup = HtmlSerializer.serialize(div);
+    assertEquals(new XMLOutputter().outputString(div), markup);
+    assertEquals("<span>1</span>", HtmlSerializer.serialize(new Span("1")));
+  }
+
+}
@@ -19,6 +19,9 @@
  */
 package io.wcm.handler.link;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.apache.sling.api.resource.Resource;
 import org.jetbrains.annotations.NotNull;
 import org.osgi.annotation.versioning.ProviderType;
@@ -74,6 +77,16 @@ public interface LinkHandler {
   @NotNull
   LinkBuilder get(@NotNull LinkRequest linkRequest);
 
+  /**
+   * Resolves a list of link requests at once, e.g. for navigation or sitemap components.
+   * Link types, processors and markup builders are instantiated only once for the whole batch,
+   * and identical link requests are resolved only once.
+   * @param linkRequests Link handling requests
+   * @return Resolved links in the same order as the link requests
+   */
+  @NotNull
+  List<Link> resolve(@NotNull Collection<LinkRequest> linkRequests);
+
   /**
    * Returns an empty link that is marked as invalid.
    * @return Invalid link
@@ -19,6 +19,8 @@
  */
 package io.wcm.handler.link.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
@@ -44,7 +46,6 @@ import io.wcm.handler.link.spi.LinkHandlerConfig;
 import io.wcm.handler.link.spi.LinkMarkupBuilder;
 import io.wcm.handler.link.spi.LinkProcessor;
 import io.wcm.handler.link.spi.LinkType;
-import io.wcm.sling.commons.adapter.AdaptTo;
 import io.wcm.sling.models.annotations.AemObject;
 import io.wcm.wcm.commons.component.ComponentPropertyResolverFactory;
 
@@ -65,6 +66,8 @@ public final class LinkHandlerImpl implements LinkHandler {
   @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
   private ComponentPropertyResolverFactory componentPropertyResolverFactory;
 
+  private LinkProcessorChain resourceChain;
+
   @Override
   public @NotNull LinkBuilder get(Resource resource) {
     return new LinkBuilderImpl(resource, this, componentPropertyResolverFactory);
@@ -94,15 +97,66 @@ public final class LinkHandlerImpl implements LinkHandler {
   @SuppressWarnings({ "null", "unused" })
   @SuppressFBWarnings({ "CORRECTNESS", "STYLE" })
   Link processRequest(@NotNull LinkRequest linkRequest) {
+    return processRequest(linkRequest, LinkRequestCache.get(adaptable));
+  }
+
+  @NotNull
+  @SuppressWarnings({ "null", "unused" })
+  @SuppressFBWarnings({ "CORRECTNESS", "STYLE" })
+  private Link processRequest(@NotNull LinkRequest linkRequest, @Nullable LinkRequestCache cache) {
+    if (cache == null) {
+      return resolveRequest(linkRequest);
+    }
+
+    // reuse link resolved for an identical top-level link request in the current request
+    boolean topLevel = cache.enter();
+    try {
+      LinkRequestCache.Key cacheKey = null;
+      if (topLevel) {
+        cacheKey = LinkRequestCache.buildKey(linkRequest, linkHandlerConfig, currentPage, adaptable);
+        if (cacheKey != null) {
+          Link cachedLink = cache.get(cacheKey, linkRequest);
+          if (cachedLink != null) {
+            return cachedLink;
+          }
+        }
+      }
+
+      Link link = resolveRequest(linkRequest);
+
+      if (cacheKey != null && isRequestCacheable(link)) {
+        cache.put(cacheKey, linkRequest, link);
+      }
+      return link;
+    }
+    finally {
+      cache.leave();
+    }
+  }
+
+  /**
+   * Checks if the link type, all processors and the markup builders involved in resolving the link allow caching.
+   * @param link Resolved link
+   * @return true if the link can be cached for the current request
+   */
+  private boolean isRequestCacheable(@NotNull Link link) {
+    LinkType linkType = link.getLinkType();
+    return linkType != null && linkType.isRequestCacheable() && getChain().isRequestCacheable();
+  }
+
+  @NotNull
+  @SuppressWarnings({ "null", "unused" })
+  @SuppressFBWarnings({ "CORRECTNESS", "STYLE" })
+  private Link resolveRequest(@NotNull LinkRequest linkRequest) {
 
     // detect link type - first accepting wins
-    LinkType linkType = null;
-    List<Class<? extends LinkType>> linkTypes = linkHandlerConfig.getLinkTypes();
-    if (linkTypes == null || linkTypes.isEmpty()) {
+    LinkProcessorChain chain = getChain();
+    if (chain.getLinkTypeCount() == 0) {
       throw new RuntimeException("No link types defined.");
     }
-    for (Class<? extends LinkType> candidateLinkTypeClass : linkTypes) {
-      LinkType candidateLinkType = AdaptTo.notNull(adaptable, candidateLinkTypeClass);
+    LinkType linkType = null;
+    for (int i = 0; i < chain.getLinkTypeCount(); i++) {
+      LinkType candidateLinkType = chain.getLinkType(i);
       if (candidateLinkType.accepts(linkRequest)) {
         linkType = candidateLinkType;
         break;
@@ -111,14 +165,11 @@ public final class LinkHandlerImpl implements LinkHandler {
     Link link = new Link(linkType, linkRequest);
 
     // preprocess link before resolving
-    List<Class<? extends LinkProcessor>> linkPreProcessors = linkHandlerConfig.getPreProcessors();
-    if (linkPreProcessors != null) {
-      for (Class<? extends LinkProcessor> processorClass : linkPreProcessors) {
-        LinkProcessor processor = AdaptTo.notNull(adaptable, processorClass);
-        link = processor.process(link);
-        if (link == null) {
-          throw new RuntimeException("LinkPreProcessor '" + processor + "' returned null, page '" + (currentPage != null ? currentPage.getPath() : "-") + "'.");
-        }
+    for (int i = 0; i < chain.getPreProcessorCount(); i++) {
+      LinkProcessor processor = chain.getPreProcessor(i);
+      link = processor.process(link);
+      if (link == null) {
+        throw new RuntimeException("LinkPreProcessor '" + processor + "' returned null, page '" + (currentPage != null ? currentPage.getPath() : "-") + "'.");
       }
     }
 
@@ -142,41 +193,63 @@ public final class LinkHandlerImpl implements LinkHandler {
     }
 
     // generate markup (if markup builder is available) - first accepting wins
-    List<Class<? extends LinkMarkupBuilder>> linkMarkupBuilders = linkHandlerConfig.getMarkupBuilders();
-    if (linkMarkupBuilders != null) {
-      for (Class<? extends LinkMarkupBuilder> linkMarkupBuilderClass : linkMarkupBuilders) {
-        LinkMarkupBuilder linkMarkupBuilder = AdaptTo.notNull(adaptable, linkMarkupBuilderClass);
-        if (linkMarkupBuilder.accepts(link)) {
-          link.setAnchor(linkMarkupBuilder.build(link));
-          break;
-        }
+    for (int i = 0; i < chain.getMarkupBuilderCount(); i++) {
+      LinkMarkupBuilder linkMarkupBuilder = chain.getMarkupBuilder(i);
+      if (linkMarkupBuilder.accepts(link)) {
+        link.setAnchor(linkMarkupBuilder.build(link));
+        break;
       }
     }
 
     // postprocess link after resolving
-    List<Class<? extends LinkProcessor>> linkPostProcessors = linkHandlerConfig.getPostProcessors();
-    if (linkPostProcessors != null) {
-      for (Class<? extends LinkProcessor> processorClass : linkPostProcessors) {
-        LinkProcessor processor = AdaptTo.notNull(adaptable, processorClass);
-        link = processor.process(link);
-        if (link == null) {
-          throw new RuntimeException("LinkPostProcessor '" + processor + "' returned null, page '" + (currentPage != null ? currentPage.getPath() : "-") + "'.");
-        }
+    for (int i = 0; i < chain.getPostProcessorCount(); i++) {
+      LinkProcessor processor = chain.getPostProcessor(i);
+      link = processor.process(link);
+      if (link == null) {
+        throw new RuntimeException("LinkPostProcessor '" + processor + "' returned null, page '" + (currentPage != null ? currentPage.getPath() : "-") + "'.");
       }
     }
 
     return link;
   }
 
+  @Override
+  public @NotNull List<Link> resolve(@NotNull Collection<LinkRequest> linkRequests) {
+    // identical link requests within the batch are resolved only once, even if not in a request
+    LinkRequestCache cache = LinkRequestCache.getOrCreate(adaptable);
+    List<Link> links = new ArrayList<>(linkRequests.size());
+    for (LinkRequest linkRequest : linkRequests) {
+      // clone link args to make sure the original object is not modified
+      LinkRequest request = new LinkRequest(linkRequest.getResource(), linkRequest.getPage(),
+          linkRequest.getReference(), linkRequest.getLinkArgs().clone());
+      links.add(processRequest(request, cache));
+    }
+    return links;
+  }
+
   @Override
   public Link invalid() {
     // build invalid link with first link type
-    Class<? extends LinkType> linkTypeClass = linkHandlerConfig.getLinkTypes().stream().findFirst().orElse(null);
-    if (linkTypeClass == null) {
+    LinkProcessorChain chain = getChain();
+    if (chain.getLinkTypeCount() == 0) {
       throw new RuntimeException("No link types defined.");
     }
-    LinkType linkType = AdaptTo.notNull(adaptable, linkTypeClass);
-    return new Link(linkType, new LinkRequest(null, null, null));
+    return new Link(chain.getLinkType(0), new LinkRequest(null, null, null));
+  }
+
+  /**
+   * Get link types, processors and markup builders instantiated for this adaptable.
+   * Within a request the chain is shared between all link handler instances adapted from the same request.
+   * @return Chain
+   */
+  private @NotNull LinkProcessorChain getChain() {
+    if (adaptable instanceof SlingHttpServletRequest) {
+      return LinkProcessorChain.get(adaptable, linkHandlerConfig, currentPage);
+    }
+    if (resourceChain == null) {
+      resourceChain = LinkProcessorChain.get(adaptable, linkHandlerConfig, currentPage);
+    }
+    return resourceChain;
   }
 
   /**
@@ -0,0 +1,260 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.adapter.Adaptable;
+import org.apache.sling.api.resource.Resource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.WCMMode;
+
+import io.wcm.handler.link.spi.LinkHandlerConfig;
+import io.wcm.handler.link.spi.LinkMarkupBuilder;
+import io.wcm.handler.link.spi.LinkProcessor;
+import io.wcm.handler.link.spi.LinkType;
+import io.wcm.sling.commons.adapter.AdaptTo;
+
+/**
+ * Link types, processors and markup builders configured in the link handler config, adapted from the adaptable
+ * only once and reused for all links resolved with the same adaptable.
+ * Instances are adapted lazily on first usage, so e.g. link types after the accepting one are never instantiated.
+ * Within a request the chain is stored in a request attribute and shared between all link handler instances
+ * adapted from the same request object with the same current page, current resource and WCM mode. Link types and
+ * processors may keep state of the resource they are adapted from, so instances are not shared across includes of
+ * other resources.
+ */
+final class LinkProcessorChain {
+
+  private static final String REQUEST_ATTRIBUTE = LinkProcessorChain.class.getName();
+
+  private final Adaptable adaptable;
+  private final Slots<LinkType> linkTypes;
+  private final Slots<LinkProcessor> preProcessors;
+  private final Slots<LinkMarkupBuilder> markupBuilders;
+  private final Slots<LinkProcessor> postProcessors;
+
+  LinkProcessorChain(@NotNull Adaptable adaptable, @NotNull LinkHandlerConfig linkHandlerConfig) {
+    this.adaptable = adaptable;
+    this.linkTypes = new Slots<>(linkHandlerConfig.getLinkTypes());
+    this.preProcessors = new Slots<>(linkHandlerConfig.getPreProcessors());
+    this.markupBuilders = new Slots<>(linkHandlerConfig.getMarkupBuilders());
+    this.postProcessors = new Slots<>(linkHandlerConfig.getPostProcessors());
+  }
+
+  /**
+   * Get chain for the given adaptable. Within a request the chain is reused.
+   * @param adaptable Adaptable
+   * @param linkHandlerConfig Link handler config
+   * @param currentPage Current page
+   * @return Chain
+   */
+  @SuppressWarnings("unchecked")
+  static @NotNull LinkProcessorChain get(@NotNull Adaptable adaptable, @NotNull LinkHandlerConfig linkHandlerConfig,
+      @Nullable Page currentPage) {
+    if (!(adaptable instanceof SlingHttpServletRequest)) {
+      return new LinkProcessorChain(adaptable, linkHandlerConfig);
+    }
+    SlingHttpServletRequest request = (SlingHttpServletRequest)adaptable;
+    Map<Key, LinkProcessorChain> chains;
+    Object attribute = request.getAttribute(REQUEST_ATTRIBUTE);
+    if (attribute instanceof Map) {
+      chains = (Map<Key, LinkProcessorChain>)attribute;
+    }
+    else {
+      chains = new HashMap<>();
+      request.setAttribute(REQUEST_ATTRIBUTE, chains);
+    }
+    Resource currentResource = request.getResource();
+    Key key = new Key(request, linkHandlerConfig, currentPage != null ? currentPage.getPath() : null,
+        currentResource != null ? currentResource.getPath() : null, WCMMode.fromRequest(request));
+    return chains.computeIfAbsent(key, k -> new LinkProcessorChain(adaptable, linkHandlerConfig));
+  }
+
+  /**
+   * @return Number of configured link types
+   */
+  int getLinkTypeCount() {
+    return linkTypes.size();
+  }
+
+  /**
+   * @param index Index
+   * @return Link type instance
+   */
+  @NotNull
+  LinkType getLinkType(int index) {
+    return linkTypes.get(index, adaptable);
+  }
+
+  /**
+   * @return Number of configured pre processors
+   */
+  int getPreProcessorCount() {
+    return preProcessors.size();
+  }
+
+  /**
+   * @param index Index
+   * @return Pre processor instance
+   */
+  @NotNull
+  LinkProcessor getPreProcessor(int index) {
+    return preProcessors.get(index, adaptable);
+  }
+
+  /**
+   * @return Number of configured markup builders
+   */
+  int getMarkupBuilderCount() {
+    return markupBuilders.size();
+  }
+
+  /**
+   * @param index Index
+   * @return Markup builder instance
+   */
+  @NotNull
+  LinkMarkupBuilder getMarkupBuilder(int index) {
+    return markupBuilders.get(index, adaptable);
+  }
+
+  /**
+   * @return Number of configured post processors
+   */
+  int getPostProcessorCount() {
+    return postProcessors.size();
+  }
+
+  /**
+   * @param index Index
+   * @return Post processor instance
+   */
+  @NotNull
+  LinkProcessor getPostProcessor(int index) {
+    return postProcessors.get(index, adaptable);
+  }
+
+
+  /**
+   * Checks if all pre processors, post processors and markup builders instantiated so far allow caching resolved
+   * links for the current request. Markup builders are instantiated up to the first accepting one.
+   * @return true if resolved links can be cached for the current request
+   */
+  boolean isRequestCacheable() {
+    return preProcessors.allInstantiated(LinkProcessor::isRequestCacheable)
+        && markupBuilders.allInstantiated(LinkMarkupBuilder::isRequestCacheable)
+        && postProcessors.allInstantiated(LinkProcessor::isRequestCacheable);
+  }
+
+
+  /**
+   * Lazily adapted instances for a list of configured classes.
+   */
+  private static final class Slots<T> {
+
+    private final List<Class<? extends T>> classes;
+    private final Object[] instances;
+
+    Slots(@Nullable List<Class<? extends T>> classes) {
+      this.classes = classes != null ? classes : Collections.emptyList();
+      this.instances = new Object[this.classes.size()];
+    }
+
+    int size() {
+      return instances.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    T get(int index, @NotNull Adaptable adaptable) {
+      Object instance = instances[index];
+      if (instance == null) {
+        instance = AdaptTo.notNull(adaptable, classes.get(index));
+        instances[index] = instance;
+      }
+      return (T)instance;
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean allInstantiated(@NotNull Predicate<T> predicate) {
+      for (Object instance : instances) {
+        if (instance != null && !predicate.test((T)instance)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+  /**
+   * Chain key. The request and link handler config are compared by identity.
+   */
+  private static final class Key {
+
+    private final SlingHttpServletRequest request;
+    private final LinkHandlerConfig linkHandlerConfig;
+    private final String currentPagePath;
+    private final String currentResourcePath;
+    private final WCMMode wcmMode;
+    private final int hashCode;
+
+    Key(SlingHttpServletRequest request, LinkHandlerConfig linkHandlerConfig, String currentPagePath,
+        String currentResourcePath, WCMMode wcmMode) {
+      this.request = request;
+      this.linkHandlerConfig = linkHandlerConfig;
+      this.currentPagePath = currentPagePath;
+      this.currentResourcePath = currentResourcePath;
+      this.wcmMode = wcmMode;
+      this.hashCode = Objects.hash(System.identityHashCode(request), System.identityHashCode(linkHandlerConfig),
+          currentPagePath, currentResourcePath, wcmMode);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)obj;
+      return request == other.request
+          && linkHandlerConfig == other.linkHandlerConfig
+          && Objects.equals(currentPagePath, other.currentPagePath)
+          && Objects.equals(currentResourcePath, other.currentResourcePath)
+          && wcmMode == other.wcmMode;
+    }
+
+  }
+
+}
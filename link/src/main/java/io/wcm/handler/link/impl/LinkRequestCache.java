@@ -0,0 +1,278 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.adapter.Adaptable;
+import org.apache.sling.api.resource.Resource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.WCMMode;
+
+import io.wcm.handler.commons.dom.Anchor;
+import io.wcm.handler.link.Link;
+import io.wcm.handler.link.LinkArgs;
+import io.wcm.handler.link.LinkRequest;
+import io.wcm.handler.link.spi.LinkHandlerConfig;
+
+/**
+ * Caches links resolved for page or reference link requests during the current request.
+ * Pages often link to the same targets multiple times (e.g. in header, footer, breadcrumb and teasers).
+ * Only copies of the cached links are handed out. Only top-level link resolutions are cached, not those nested in
+ * the resolution of another link (e.g. redirect targets), which depend on the state of the outer resolution.
+ */
+final class LinkRequestCache {
+
+  private static final String REQUEST_ATTRIBUTE = LinkRequestCache.class.getName();
+
+  private final Map<Key, Entry> entries = new HashMap<>();
+  private int depth;
+
+  private LinkRequestCache() {
+    // created via get methods
+  }
+
+  /**
+   * Get link request cache for the current request.
+   * @param adaptable Adaptable
+   * @return Cache or null if not in a request
+   */
+  static @Nullable LinkRequestCache get(@NotNull Adaptable adaptable) {
+    if (!(adaptable instanceof SlingHttpServletRequest)) {
+      return null;
+    }
+    SlingHttpServletRequest request = (SlingHttpServletRequest)adaptable;
+    Object cache = request.getAttribute(REQUEST_ATTRIBUTE);
+    if (cache instanceof LinkRequestCache) {
+      return (LinkRequestCache)cache;
+    }
+    LinkRequestCache newCache = new LinkRequestCache();
+    request.setAttribute(REQUEST_ATTRIBUTE, newCache);
+    return newCache;
+  }
+
+  /**
+   * Get link request cache for the current request, or a new cache instance if not in a request.
+   * @param adaptable Adaptable
+   * @return Cache
+   */
+  static @NotNull LinkRequestCache getOrCreate(@NotNull Adaptable adaptable) {
+    LinkRequestCache cache = get(adaptable);
+    if (cache == null) {
+      cache = new LinkRequestCache();
+    }
+    return cache;
+  }
+
+  /**
+   * Marks the start of a link resolution.
+   * @return true if this is a top-level link resolution, not nested in the resolution of another link
+   */
+  boolean enter() {
+    return depth++ == 0;
+  }
+
+  /**
+   * Marks the end of a link resolution.
+   */
+  void leave() {
+    depth--;
+  }
+
+  /**
+   * Build cache key for link request.
+   * @param linkRequest Link request
+   * @param linkHandlerConfig Link handler config
+   * @param currentPage Current page
+   * @param adaptable Adaptable
+   * @return Cache key or null if the link request cannot be cached
+   */
+  static @Nullable Key buildKey(@NotNull LinkRequest linkRequest, @NotNull LinkHandlerConfig linkHandlerConfig,
+      @Nullable Page currentPage, @NotNull Adaptable adaptable) {
+    // links resolved from resources depend on the resource properties
+    if (linkRequest.getResource() != null) {
+      return null;
+    }
+    String pagePath = linkRequest.getPage() != null ? linkRequest.getPage().getPath() : null;
+    String reference = linkRequest.getReference();
+    if (pagePath == null && reference == null) {
+      return null;
+    }
+    String currentResourcePath = null;
+    WCMMode wcmMode = null;
+    if (adaptable instanceof SlingHttpServletRequest) {
+      SlingHttpServletRequest request = (SlingHttpServletRequest)adaptable;
+      Resource currentResource = request.getResource();
+      currentResourcePath = currentResource != null ? currentResource.getPath() : null;
+      wcmMode = WCMMode.fromRequest(request);
+    }
+    return new Key(pagePath, reference, linkRequest.getLinkArgs(), linkHandlerConfig,
+        currentPage != null ? currentPage.getPath() : null, currentResourcePath, wcmMode);
+  }
+
+  /**
+   * @param key Cache key
+   * @param linkRequest Link request of the caller
+   * @return Copy of cached link or null. It carries the given link request, unless it was replaced by a processor.
+   */
+  @Nullable
+  Link get(@NotNull Key key, @NotNull LinkRequest linkRequest) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      LinkRequest cachedLinkRequest = entry.link.getLinkRequest();
+      return copy(entry.link, cachedLinkRequest == entry.linkRequest ? linkRequest : cachedLinkRequest);
+    }
+    return null;
+  }
+
+  /**
+   * @param key Cache key
+   * @param linkRequest Link request the link was resolved for
+   * @param link Resolved link - a copy is cached
+   */
+  void put(@NotNull Key key, @NotNull LinkRequest linkRequest, @NotNull Link link) {
+    entries.put(key, new Entry(linkRequest, copy(link, link.getLinkRequest())));
+  }
+
+  /**
+   * Shallow copy of the link. The anchor is copied as well because it is often modified by the caller.
+   */
+  @SuppressWarnings("null")
+  static @NotNull Link copy(@NotNull Link link, @NotNull LinkRequest linkRequest) {
+    Link copy = new Link(link.getLinkType(), linkRequest);
+    copy.setLinkReferenceInvalid(link.isLinkReferenceInvalid());
+    if (link.getAnchor() != null) {
+      copy.setAnchor((Anchor)link.getAnchor().clone());
+    }
+    copy.setUrl(link.getUrl());
+    copy.setTargetPage(link.getTargetPage());
+    copy.setTargetAsset(link.getTargetAsset());
+    copy.setTargetRendition(link.getTargetRendition());
+    List<Page> redirectPages = link.getRedirectPages();
+    for (int i = redirectPages.size() - 1; i >= 0; i--) {
+      copy.addRedirectPage(redirectPages.get(i));
+    }
+    return copy;
+  }
+
+
+  /**
+   * Cached link with the link request it was resolved for.
+   */
+  private static final class Entry {
+
+    private final LinkRequest linkRequest;
+    private final Link link;
+
+    Entry(LinkRequest linkRequest, Link link) {
+      this.linkRequest = linkRequest;
+      this.link = link;
+    }
+
+  }
+
+  /**
+   * Cache key built from the normalized link request inputs.
+   */
+  static final class Key {
+
+    private final String pagePath;
+    private final String reference;
+    private final LinkArgs linkArgs;
+    private final Map<String, Object> properties;
+    private final LinkHandlerConfig linkHandlerConfig;
+    private final String currentPagePath;
+    private final String currentResourcePath;
+    private final WCMMode wcmMode;
+    private final int hashCode;
+
+    Key(String pagePath, String reference, LinkArgs linkArgs, LinkHandlerConfig linkHandlerConfig,
+        String currentPagePath, String currentResourcePath, WCMMode wcmMode) {
+      this.pagePath = pagePath;
+      this.reference = reference;
+      // clone link args to be independent from later changes, and to not initialize the properties map in the original
+      this.linkArgs = linkArgs.clone();
+      this.properties = new HashMap<>(this.linkArgs.getProperties());
+      this.linkHandlerConfig = linkHandlerConfig;
+      this.currentPagePath = currentPagePath;
+      this.currentResourcePath = currentResourcePath;
+      this.wcmMode = wcmMode;
+      this.hashCode = new HashCodeBuilder()
+          .append(pagePath)
+          .append(reference)
+          .append(this.linkArgs.getUrlMode())
+          .append(this.linkArgs.isDummyLink())
+          .append(this.linkArgs.getDummyLinkUrl())
+          .append(this.linkArgs.getSelectors())
+          .append(this.linkArgs.getExtension())
+          .append(this.linkArgs.getSuffix())
+          .append(this.linkArgs.getQueryString())
+          .append(this.linkArgs.getFragment())
+          .append(this.linkArgs.getLinkTargetUrlFallbackProperty())
+          .append(properties)
+          .append(currentPagePath)
+          .append(currentResourcePath)
+          .append(wcmMode)
+          .toHashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)obj;
+      return hashCode == other.hashCode
+          && linkHandlerConfig == other.linkHandlerConfig
+          && new EqualsBuilder()
+              .append(pagePath, other.pagePath)
+              .append(reference, other.reference)
+              .append(linkArgs.getUrlMode(), other.linkArgs.getUrlMode())
+              .append(linkArgs.isDummyLink(), other.linkArgs.isDummyLink())
+              .append(linkArgs.getDummyLinkUrl(), other.linkArgs.getDummyLinkUrl())
+              .append(linkArgs.getSelectors(), other.linkArgs.getSelectors())
+              .append(linkArgs.getExtension(), other.linkArgs.getExtension())
+              .append(linkArgs.getSuffix(), other.linkArgs.getSuffix())
+              .append(linkArgs.getQueryString(), other.linkArgs.getQueryString())
+              .append(linkArgs.getFragment(), other.linkArgs.getFragment())
+              .append(linkArgs.getLinkTargetUrlFallbackProperty(), other.linkArgs.getLinkTargetUrlFallbackProperty())
+              .append(properties, other.properties)
+              .append(currentPagePath, other.currentPagePath)
+              .append(currentResourcePath, other.currentResourcePath)
+              .append(wcmMode, other.wcmMode)
+              .isEquals();
+    }
+
+  }
+
+}
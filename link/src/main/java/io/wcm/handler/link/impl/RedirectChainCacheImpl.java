@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.impl;
+
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+
+import io.wcm.handler.link.type.helpers.RedirectChainCache;
+
+/**
+ * Implements {@link RedirectChainCache}.
+ * <p>
+ * Redirect pages are rarely changed, so all entries are removed when a page that is part of any cached chain, or one
+ * of its ancestors, changes. The paths of all pages in cached chains are kept in a sorted set to check changes
+ * without iterating the cache entries.
+ * </p>
+ */
+@Component(service = { RedirectChainCache.class, ResourceChangeListener.class },
+    property = {
+        ResourceChangeListener.PATHS + "=/content"
+    })
+public final class RedirectChainCacheImpl implements RedirectChainCache, ResourceChangeListener,
+    ExternalResourceChangeListener {
+
+  private static final String JCR_CONTENT_PATH_PART = "/" + JcrConstants.JCR_CONTENT;
+
+  private static final Logger log = LoggerFactory.getLogger(RedirectChainCacheImpl.class);
+
+  private final Cache<Key, List<String>> cache = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .build();
+
+  // paths of all pages in cached chains, guarded by this for modifications
+  private final NavigableSet<String> pagePaths = new ConcurrentSkipListSet<>();
+
+  private volatile long invalidationCount;
+
+  @Override
+  public @Nullable List<String> get(@Nullable String contextPath, @NotNull String redirectPagePath) {
+    return cache.getIfPresent(new Key(contextPath, redirectPagePath));
+  }
+
+  @Override
+  public long getInvalidationCount() {
+    return invalidationCount;
+  }
+
+  @Override
+  public synchronized void put(@Nullable String contextPath, @NotNull List<String> redirectPagePaths,
+      long expectedInvalidationCount) {
+    if (redirectPagePaths.isEmpty() || expectedInvalidationCount != invalidationCount) {
+      return;
+    }
+    pagePaths.addAll(redirectPagePaths);
+    cache.put(new Key(contextPath, redirectPagePaths.get(0)), ImmutableList.copyOf(redirectPagePaths));
+  }
+
+  /**
+   * Remove all cache entries if a page of a cached chain or one of its ancestors changed.
+   */
+  @Override
+  public void onChange(@NotNull List<ResourceChange> changes) {
+    for (ResourceChange change : changes) {
+      String path = getPagePath(change.getPath());
+      if (isCachedPageOrAncestor(path)) {
+        log.debug("Clear redirect chain cache after change of {}", path);
+        invalidateAll();
+        return;
+      }
+    }
+  }
+
+  private boolean isCachedPageOrAncestor(@NotNull String path) {
+    if (pagePaths.isEmpty()) {
+      return false;
+    }
+    if ("/".equals(path) || pagePaths.contains(path)) {
+      return true;
+    }
+    String descendantPath = pagePaths.ceiling(path + "/");
+    return descendantPath != null && descendantPath.startsWith(path + "/");
+  }
+
+  private synchronized void invalidateAll() {
+    invalidationCount++;
+    cache.invalidateAll();
+    pagePaths.clear();
+  }
+
+  /**
+   * @param path Resource path
+   * @return Path of the page owning the jcr:content node, or the path itself if it is not located in a jcr:content node
+   */
+  private static @NotNull String getPagePath(@NotNull String path) {
+    int pos = path.indexOf(JCR_CONTENT_PATH_PART);
+    while (pos >= 0) {
+      int end = pos + JCR_CONTENT_PATH_PART.length();
+      if (end == path.length() || path.charAt(end) == '/') {
+        return path.substring(0, pos);
+      }
+      pos = path.indexOf(JCR_CONTENT_PATH_PART, end);
+    }
+    return path;
+  }
+
+
+  private static final class Key {
+
+    private final String contextPath;
+    private final String redirectPagePath;
+
+    Key(String contextPath, String redirectPagePath) {
+      this.contextPath = contextPath;
+      this.redirectPagePath = redirectPagePath;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(contextPath, redirectPagePath);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)obj;
+      return Objects.equals(contextPath, other.contextPath)
+          && redirectPagePath.equals(other.redirectPagePath);
+    }
+
+  }
+
+}
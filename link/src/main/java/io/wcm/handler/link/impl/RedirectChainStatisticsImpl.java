@@ -0,0 +1,98 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.component.annotations.Component;
+
+import io.wcm.handler.link.type.helpers.RedirectChainStatistics;
+
+/**
+ * Implements {@link RedirectChainStatistics} and exposes the statistics via JMX.
+ */
+@Component(service = { RedirectChainStatistics.class, RedirectChainStatisticsMBean.class },
+    immediate = true,
+    property = "jmx.objectname=io.wcm.handler.link:type=RedirectChainStatistics")
+public final class RedirectChainStatisticsImpl implements RedirectChainStatistics, RedirectChainStatisticsMBean {
+
+  private final AtomicLong resolvedChainCount = new AtomicLong();
+  private final AtomicLong totalChainLength = new AtomicLong();
+  private final AtomicInteger maxChainLength = new AtomicInteger();
+  private final AtomicLong cycleCount = new AtomicLong();
+  private final AtomicLong maxLengthExceededCount = new AtomicLong();
+
+  @Override
+  public void chainResolved(int chainLength) {
+    resolvedChainCount.incrementAndGet();
+    totalChainLength.addAndGet(chainLength);
+    maxChainLength.accumulateAndGet(chainLength, Math::max);
+  }
+
+  @Override
+  public void cycleDetected() {
+    cycleCount.incrementAndGet();
+  }
+
+  @Override
+  public void maxLengthExceeded() {
+    maxLengthExceededCount.incrementAndGet();
+  }
+
+  @Override
+  public long getResolvedChainCount() {
+    return resolvedChainCount.get();
+  }
+
+  @Override
+  public double getAverageChainLength() {
+    long count = resolvedChainCount.get();
+    if (count == 0) {
+      return 0d;
+    }
+    return (double)totalChainLength.get() / count;
+  }
+
+  @Override
+  public int getMaxChainLength() {
+    return maxChainLength.get();
+  }
+
+  @Override
+  public long getCycleCount() {
+    return cycleCount.get();
+  }
+
+  @Override
+  public long getMaxLengthExceededCount() {
+    return maxLengthExceededCount.get();
+  }
+
+  @Override
+  public void reset() {
+    resolvedChainCount.set(0);
+    totalChainLength.set(0);
+    maxChainLength.set(0);
+    cycleCount.set(0);
+    maxLengthExceededCount.set(0);
+  }
+
+}
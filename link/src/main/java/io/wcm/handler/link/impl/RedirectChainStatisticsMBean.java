@@ -0,0 +1,57 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.impl;
+
+/**
+ * JMX management interface for {@link RedirectChainStatisticsImpl}.
+ */
+public interface RedirectChainStatisticsMBean {
+
+  /**
+   * @return Number of links resolved via redirect or integrator pages
+   */
+  long getResolvedChainCount();
+
+  /**
+   * @return Average number of redirect pages followed per resolved link
+   */
+  double getAverageChainLength();
+
+  /**
+   * @return Maximum number of redirect pages followed for a resolved link
+   */
+  int getMaxChainLength();
+
+  /**
+   * @return Number of redirect cycles detected
+   */
+  long getCycleCount();
+
+  /**
+   * @return Number of redirect chains that exceeded the maximum length
+   */
+  long getMaxLengthExceededCount();
+
+  /**
+   * Reset all statistics.
+   */
+  void reset();
+
+}
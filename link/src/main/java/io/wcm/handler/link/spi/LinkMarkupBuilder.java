@@ -51,4 +51,13 @@ public interface LinkMarkupBuilder {
   @Nullable
   Anchor build(@NotNull Link link);
 
+  /**
+   * Checks whether links with markup built by this builder can be reused for identical link requests within the
+   * same request. Markup builders that depend on state of the current component should return false.
+   * @return true if resolved links can be cached for the current request
+   */
+  default boolean isRequestCacheable() {
+    return true;
+  }
+
 }
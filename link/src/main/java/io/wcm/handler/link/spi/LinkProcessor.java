@@ -42,4 +42,13 @@ public interface LinkProcessor {
   @NotNull
   Link process(@NotNull Link link);
 
+  /**
+   * Checks whether links processed by this processor can be reused for identical link requests within the same
+   * request. Processors that depend on state of the current component should return false.
+   * @return true if resolved links can be cached for the current request
+   */
+  default boolean isRequestCacheable() {
+    return true;
+  }
+
 }
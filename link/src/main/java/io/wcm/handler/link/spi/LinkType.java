@@ -101,4 +101,13 @@ public abstract class LinkType {
    */
   public abstract @NotNull Link resolveLink(@NotNull Link link);
 
+  /**
+   * Checks whether links of this type resolved for a page or link reference can be reused for identical link
+   * requests within the same request. Link types that depend on state of the current component should return false.
+   * @return true if resolved links can be cached for the current request
+   */
+  public boolean isRequestCacheable() {
+    return true;
+  }
+
 }
@@ -19,6 +19,11 @@
  */
 package io.wcm.handler.link.type.helpers;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
@@ -84,6 +89,13 @@ public final class InternalLinkResolver {
   private WCMMode wcmMode;
   @OSGiService
   private SlingSettingsService slingSettings;
+  @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+  private RedirectChainStatistics redirectChainStatistics;
+  @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+  private RedirectChainCache redirectChainCache;
+
+  // URL handler and config adapted from target page content resources, reused for links pointing to the same target
+  private final Map<String, TargetContext> targetContexts = new HashMap<>();
 
   /**
    * Check if a given page is valid and acceptable to link upon.
@@ -152,17 +164,17 @@ public final class InternalLinkResolver {
 
     // use URL handler from target context for link URL building
     if (targetPage != null && useTargetContext(options)) {
-      Resource resource = targetPage.getContentResource();
-      resolvingUrlHandlerConfig = AdaptTo.notNull(resource, UrlHandlerConfig.class);
-      resolvingUrlHandler = AdaptTo.notNull(resource, UrlHandler.class);
+      TargetContext targetContext = getTargetContext(targetPage.getContentResource());
+      resolvingUrlHandlerConfig = targetContext.urlHandlerConfig;
+      resolvingUrlHandler = targetContext.urlHandler;
     }
 
-    // if target page is a redirect or integrator page recursively resolve link to which the redirect points to
+    // if target page is a redirect or integrator page resolve link to which the redirect points to
     // (skip this redirection if edit mode is active)
     if (targetPage != null
         && (linkHandlerConfig.isRedirect(targetPage) || resolvingUrlHandlerConfig.isIntegrator(targetPage))
         && wcmMode != WCMMode.EDIT) {
-      return recursiveResolveLink(targetPage, link);
+      return resolveRedirectChain(targetPage, link, options);
     }
 
     // build link url
@@ -206,38 +218,139 @@ public final class InternalLinkResolver {
   /**
    * Resolves link of redirect or integrator page. Those pages contain the link reference information in their
    * content resource (jcr:content node). This information is used to resolve the link.
+   * If this link points to another redirect page, it is followed iteratively until the final link is resolved.
    * @param redirectPage Redirect or integrator page
    * @param link Link metadata
+   * @param options Options
    * @return Link metadata
    */
-  private Link recursiveResolveLink(Page redirectPage, Link link) {
+  private Link resolveRedirectChain(Page redirectPage, Link link, InternalLinkResolverOptions options) {
+
+    // link of a page in a redirect chain that is currently followed - let the chain continue with this page
+    RedirectChain currentRedirectChain = RedirectChain.current();
+    if (currentRedirectChain != null) {
+      currentRedirectChain.setNextPage(redirectPage);
+      link.setUrl(null);
+      return link;
+    }
 
-    // set link reference to content resource of redirect page, keep other parameters
-    LinkRequest linkRequest = link.getLinkRequest();
-    LinkRequest redirectLinkRequest = new LinkRequest(
-        redirectPage.getContentResource(),
-        null,
-        linkRequest.getLinkArgs());
+    // continue with the last page of a cached redirect chain
+    String contextPath = null;
+    List<Page> cachedRedirectPages = null;
+    long cacheInvalidationCount = 0;
+    if (redirectChainCache != null) {
+      contextPath = getContextPath();
+      cacheInvalidationCount = redirectChainCache.getInvalidationCount();
+      cachedRedirectPages = getCachedRedirectPages(contextPath, redirectPage, options);
+    }
+    List<Page> redirectPages = new ArrayList<>(RedirectChain.MAX_LENGTH);
+    if (cachedRedirectPages != null) {
+      redirectPages.addAll(cachedRedirectPages);
+    }
+    else {
+      redirectPages.add(redirectPage);
+    }
 
-    // check of maximum recursive calls via threadlocal to avoid endless loops, return invalid link if one is detected
-    LinkResolveCounter linkResolveCounter = LinkResolveCounter.get();
+    // keep link args, set link reference to content resource of each redirect page
+    LinkArgs linkArgs = link.getLinkRequest().getLinkArgs();
+    RedirectChain redirectChain = RedirectChain.start();
     try {
-      linkResolveCounter.increaseCount();
+      while (true) {
+        Page page = redirectPages.get(redirectPages.size() - 1);
+        Link resolvedLink = linkHandler.get(new LinkRequest(page.getContentResource(), null, linkArgs)).build();
+        Page nextPage = redirectChain.takeNextPage();
+
+        // link resolved - add redirect pages in order of the chain
+        if (nextPage == null) {
+          for (int i = redirectPages.size() - 1; i >= 0; i--) {
+            resolvedLink.addRedirectPage(redirectPages.get(i));
+          }
+          if (redirectChainStatistics != null) {
+            redirectChainStatistics.chainResolved(redirectPages.size());
+          }
+          if (redirectChainCache != null && redirectPages.size() > 1
+              && (cachedRedirectPages == null || redirectPages.size() > cachedRedirectPages.size())) {
+            List<String> redirectPagePaths = new ArrayList<>(redirectPages.size());
+            for (Page redirectChainPage : redirectPages) {
+              redirectPagePaths.add(redirectChainPage.getPath());
+            }
+            redirectChainCache.put(contextPath, redirectPagePaths, cacheInvalidationCount);
+          }
+          return resolvedLink;
+        }
+
+        // check for redirect cycles and maximum chain length, return invalid link if one is detected
+        boolean cycle = containsPage(redirectPages, nextPage);
+        if (cycle || redirectPages.size() >= RedirectChain.MAX_LENGTH) {
+          if (redirectChainStatistics != null) {
+            if (cycle) {
+              redirectChainStatistics.cycleDetected();
+            }
+            else {
+              redirectChainStatistics.maxLengthExceeded();
+            }
+          }
+          // set link to invalid link
+          link.setUrl(null);
+          return link;
+        }
+        redirectPages.add(nextPage);
+      }
+    }
+    finally {
+      redirectChain.end();
+    }
+  }
 
-      if (linkResolveCounter.isMaximumReached()) {
-        // endless loop detected - set link to invalid link
-        link.setUrl(null);
-        return link;
+  /**
+   * Get redirect pages of cached chain, if all of them are still valid redirect or integrator pages.
+   * @param contextPath Context path
+   * @param redirectPage First redirect page
+   * @param options Options
+   * @return Redirect pages or null
+   */
+  private @Nullable List<Page> getCachedRedirectPages(@Nullable String contextPath, @NotNull Page redirectPage,
+      @NotNull InternalLinkResolverOptions options) {
+    List<String> redirectPagePaths = redirectChainCache.get(contextPath, redirectPage.getPath());
+    if (redirectPagePaths == null) {
+      return null;
+    }
+    List<Page> redirectPages = new ArrayList<>(redirectPagePaths.size());
+    redirectPages.add(redirectPage);
+    for (int i = 1; i < redirectPagePaths.size(); i++) {
+      Page page = pageManager.getPage(redirectPagePaths.get(i));
+      if (!acceptPage(page, options)
+          || !(linkHandlerConfig.isRedirect(page) || urlHandlerConfig.isIntegrator(page))) {
+        return null;
       }
+      redirectPages.add(page);
+    }
+    return redirectPages;
+  }
 
-      // resolve link by recursive call to link handler, track recursion count
-      Link resolvedLink = linkHandler.get(redirectLinkRequest).build();
-      resolvedLink.addRedirectPage(redirectPage);
-      return resolvedLink;
+  /**
+   * Redirect targets may be rewritten to the site of the current page, so cached chains are separated by site.
+   * @return Root path of the current site or null
+   */
+  private @Nullable String getContextPath() {
+    if (currentPage == null) {
+      return null;
     }
-    finally {
-      linkResolveCounter.decreaseCount();
+    Resource currentPageResource = currentPage.adaptTo(Resource.class);
+    int rootLevel = urlHandlerConfig.getSiteRootLevel(currentPageResource);
+    if (rootLevel > 0) {
+      return Path.getAbsoluteParent(currentPage.getPath(), rootLevel, resourceResolver);
     }
+    return null;
+  }
+
+  private static boolean containsPage(@NotNull List<Page> pages, @NotNull Page page) {
+    for (Page item : pages) {
+      if (item.getPath().equals(page.getPath())) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -291,4 +404,27 @@ public final class InternalLinkResolver {
     return false;
   }
 
+  /**
+   * Get URL handler and config for the context of the given target page content resource.
+   * @param resource Target page content resource
+   * @return Target context
+   */
+  private @NotNull TargetContext getTargetContext(@NotNull Resource resource) {
+    return targetContexts.computeIfAbsent(resource.getPath(), path -> new TargetContext(
+        AdaptTo.notNull(resource, UrlHandlerConfig.class),
+        AdaptTo.notNull(resource, UrlHandler.class)));
+  }
+
+  private static final class TargetContext {
+
+    private final UrlHandlerConfig urlHandlerConfig;
+    private final UrlHandler urlHandler;
+
+    TargetContext(UrlHandlerConfig urlHandlerConfig, UrlHandler urlHandler) {
+      this.urlHandlerConfig = urlHandlerConfig;
+      this.urlHandler = urlHandler;
+    }
+
+  }
+
 }
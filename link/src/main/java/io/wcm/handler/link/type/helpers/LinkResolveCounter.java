@@ -24,7 +24,9 @@ import org.jetbrains.annotations.NotNull;
 /**
  * Counts number of recursive link resolve requests to detect endless loops.
  * Max. 5 hops are allowed in {@link #isMaximumReached()} method.
+ * @deprecated No longer used by {@link InternalLinkResolver}, which detects redirect cycles directly.
  */
+@Deprecated
 public final class LinkResolveCounter {
 
   private static final ThreadLocal<LinkResolveCounter> THREAD_LOCAL = new ThreadLocal<LinkResolveCounter>() {
@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.type.helpers;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.day.cq.wcm.api.Page;
+
+/**
+ * Marks that the redirect and integrator pages of a link are currently followed in this thread.
+ * Links of the pages in the chain are resolved one after another. When the link of a page in the chain points to
+ * another redirect page, it is not followed recursively but recorded as next page of the chain.
+ */
+final class RedirectChain {
+
+  /**
+   * Maximum number of redirect pages allowed in a redirect chain.
+   */
+  static final int MAX_LENGTH = 5;
+
+  private static final ThreadLocal<RedirectChain> THREAD_LOCAL = new ThreadLocal<>();
+
+  private Page nextPage;
+
+  private RedirectChain() {
+    // created via start method
+  }
+
+  /**
+   * @return Redirect chain currently followed in this thread, or null
+   */
+  static @Nullable RedirectChain current() {
+    return THREAD_LOCAL.get();
+  }
+
+  /**
+   * Start following a redirect chain in this thread.
+   * @return Redirect chain
+   */
+  static @NotNull RedirectChain start() {
+    RedirectChain chain = new RedirectChain();
+    THREAD_LOCAL.set(chain);
+    return chain;
+  }
+
+  /**
+   * End following the redirect chain in this thread.
+   */
+  void end() {
+    THREAD_LOCAL.remove();
+  }
+
+  /**
+   * @param page Redirect page the link of the current page in the chain points to
+   */
+  void setNextPage(@NotNull Page page) {
+    nextPage = page;
+  }
+
+  /**
+   * @return Redirect page the link of the current page in the chain points to, or null if it was resolved
+   */
+  @Nullable
+  Page takeNextPage() {
+    Page page = nextPage;
+    nextPage = null;
+    return page;
+  }
+
+}
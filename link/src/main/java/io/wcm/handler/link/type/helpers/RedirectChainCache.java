@@ -0,0 +1,57 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.type.helpers;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Caches the redirect and integrator pages followed by {@link InternalLinkResolver} across requests, so only the
+ * link of the last page of a chain has to be resolved. Entries are removed when pages of the chain change.
+ * This interface is implemented by the link handler, it is not intended to be implemented by applications.
+ */
+@ProviderType
+public interface RedirectChainCache {
+
+  /**
+   * @param contextPath Root path of the site the link is resolved in, redirect targets may be rewritten to it
+   * @param redirectPagePath Path of the first redirect page
+   * @return Paths of all redirect pages in the chain, starting with the given page, or null if not cached
+   */
+  @Nullable
+  List<String> get(@Nullable String contextPath, @NotNull String redirectPagePath);
+
+  /**
+   * @return Counter that is incremented whenever cache entries are removed due to changes
+   */
+  long getInvalidationCount();
+
+  /**
+   * Stores a redirect chain, unless cache entries were removed since the given invalidation count was read.
+   * @param contextPath Root path of the site the link is resolved in
+   * @param redirectPagePaths Paths of all redirect pages in the chain
+   * @param invalidationCount Invalidation count read before the chain was resolved
+   */
+  void put(@Nullable String contextPath, @NotNull List<String> redirectPagePaths, long invalidationCount);
+
+}
@@ -0,0 +1,47 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.type.helpers;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Collects statistics about redirect and integrator page chains followed by {@link InternalLinkResolver}.
+ * This interface is implemented by the link handler, it is not intended to be implemented by applications.
+ */
+@ProviderType
+public interface RedirectChainStatistics {
+
+  /**
+   * Record a link resolved via redirect pages.
+   * @param chainLength Number of redirect pages followed
+   */
+  void chainResolved(int chainLength);
+
+  /**
+   * Record a detected redirect cycle.
+   */
+  void cycleDetected();
+
+  /**
+   * Record a redirect chain exceeding the maximum length.
+   */
+  void maxLengthExceeded();
+
+}
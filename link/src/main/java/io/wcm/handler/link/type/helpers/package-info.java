@@ -20,5 +20,5 @@
 /**
  * Convenience classes for implementing link types.
  */
-@org.osgi.annotation.versioning.Version("1.0.1")
+@org.osgi.annotation.versioning.Version("1.1.0")
 package io.wcm.handler.link.type.helpers;
@@ -24,8 +24,10 @@ import static io.wcm.handler.link.LinkNameConstants.PN_LINK_TYPE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
@@ -33,6 +35,7 @@ import org.apache.sling.api.adapter.Adaptable;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.models.annotations.Model;
+import org.apache.sling.models.annotations.injectorspecific.Self;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.osgi.framework.Constants;
@@ -180,11 +183,166 @@ class LinkHandlerImplTest {
   }
 
 
+  @Test
+  void testRequestCache() {
+    LinkHandler linkHandler = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    int resolveCount = TestLinkType.RESOLVE_COUNT.get();
+
+    Link link1 = linkHandler.get("/path1").build();
+    Link link2 = AdaptTo.notNull(adaptable(), LinkHandler.class).get("/path1").build();
+    Link link3 = linkHandler.get("/path1").selectors("sel1").build();
+
+    assertEquals("http://xyz/path1/post1", link1.getUrl());
+    assertEquals("http://xyz/path1/post1", link2.getUrl());
+    assertEquals("http://xyz/path1/post1", link3.getUrl());
+    assertNotSame(link1, link2);
+    assertNotSame(link1.getAnchor(), link2.getAnchor());
+    assertEquals(link1.getAnchor().getHRef(), link2.getAnchor().getHRef());
+
+    int expectedResolveCount = (adaptable() instanceof SlingHttpServletRequest) ? 2 : 3;
+    assertEquals(expectedResolveCount, TestLinkType.RESOLVE_COUNT.get() - resolveCount);
+  }
+
+  @Test
+  void testRequestCache_NotCacheableLinkType() {
+    LinkHandler linkHandler = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    int resolveCount = TestNotCacheableLinkType.RESOLVE_COUNT.get();
+
+    assertEquals("http://xyz/nocache/path1/post1", linkHandler.get("nocache:/path1").build().getUrl());
+    assertEquals("http://xyz/nocache/path1/post1", linkHandler.get("nocache:/path1").build().getUrl());
+
+    assertEquals(2, TestNotCacheableLinkType.RESOLVE_COUNT.get() - resolveCount);
+  }
+
+  @Test
+  void testRequestCache_CallerLinkRequest() {
+    LinkHandler linkHandler = AdaptTo.notNull(adaptable(), LinkHandler.class);
+
+    Link link1 = linkHandler.get("/path1").build();
+    Link link2 = linkHandler.get("/path1").build();
+
+    assertEquals("http://xyz/path1/post1", link2.getUrl());
+    assertNotSame(link1.getLinkRequest(), link2.getLinkRequest());
+    assertEquals("/path1", link2.getLinkRequest().getReference());
+  }
+
+  @Test
+  void testRequestCache_CurrentResource() {
+    LinkHandler linkHandler = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    int resolveCount = TestLinkType.RESOLVE_COUNT.get();
+
+    context.currentResource(context.create().resource("/content/resource1"));
+    assertEquals("http://xyz/path1/post1", linkHandler.get("/path1").build().getUrl());
+    context.currentResource(context.create().resource("/content/resource2"));
+    assertEquals("http://xyz/path1/post1", linkHandler.get("/path1").build().getUrl());
+    context.currentResource("/content/resource1");
+    assertEquals("http://xyz/path1/post1", linkHandler.get("/path1").build().getUrl());
+
+    // links are cached per current resource
+    int expectedResolveCount = (adaptable() instanceof SlingHttpServletRequest) ? 2 : 3;
+    assertEquals(expectedResolveCount, TestLinkType.RESOLVE_COUNT.get() - resolveCount);
+  }
+
+  @Test
+  void testRequestCache_NotCacheableProcessor() {
+    context.registerService(LinkHandlerConfig.class, new TestNotCacheableProcessorLinkHandlerConfig(),
+        Constants.SERVICE_RANKING, 2000);
+    LinkHandler linkHandler = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    int resolveCount = TestLinkType.RESOLVE_COUNT.get();
+
+    assertEquals("http://xyz/path1/post1", linkHandler.get("/path1").build().getUrl());
+    assertEquals("http://xyz/path1/post1", linkHandler.get("/path1").build().getUrl());
+
+    assertEquals(2, TestLinkType.RESOLVE_COUNT.get() - resolveCount);
+  }
+
+  @Test
+  void testRequestCache_NestedResolution() {
+    LinkHandler linkHandler = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    int resolveCount = TestLinkType.RESOLVE_COUNT.get();
+
+    assertEquals("http://xyz/path1/post1/post1", linkHandler.get("nested:/path1").build().getUrl());
+    assertEquals("http://xyz/path1/post1", linkHandler.get("/path1").build().getUrl());
+
+    // link resolved within the resolution of another link is not cached
+    assertEquals(2, TestLinkType.RESOLVE_COUNT.get() - resolveCount);
+  }
+
+  @Test
+  void testResolve() {
+    LinkHandler linkHandler = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    int resolveCount = TestLinkType.RESOLVE_COUNT.get();
+
+    LinkArgs linkArgs = new LinkArgs().selectors("sel1");
+    List<Link> links = linkHandler.resolve(ImmutableList.of(
+        new LinkRequest(null, null, "/path1", linkArgs),
+        new LinkRequest(null, null, "/path2", null),
+        new LinkRequest(null, null, "/path1", linkArgs),
+        new LinkRequest(null, null, "nocache:/path3", null)));
+
+    assertEquals(4, links.size());
+    assertEquals("http://xyz/path1/post1", links.get(0).getUrl());
+    assertEquals("http://xyz/path2/post1", links.get(1).getUrl());
+    assertEquals("http://xyz/path1/post1", links.get(2).getUrl());
+    assertEquals("http://xyz/nocache/path3/post1", links.get(3).getUrl());
+    assertNotSame(links.get(0), links.get(2));
+
+    // identical link requests are resolved only once
+    assertEquals(2, TestLinkType.RESOLVE_COUNT.get() - resolveCount);
+  }
+
+  @Test
+  void testLinkProcessorChain() {
+    LinkHandler linkHandler1 = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    LinkHandler linkHandler2 = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    int instanceCount = TestNotCacheableLinkType.INSTANCE_COUNT.get();
+
+    // link type after the accepting one is not instantiated
+    assertEquals("http://xyz/path1/post1", linkHandler1.get("/path1").build().getUrl());
+    assertEquals(0, TestNotCacheableLinkType.INSTANCE_COUNT.get() - instanceCount);
+
+    assertEquals("http://xyz/nocache/path1/post1", linkHandler1.get("nocache:/path1").build().getUrl());
+    assertEquals("http://xyz/nocache/path2/post1", linkHandler1.get("nocache:/path2").build().getUrl());
+    assertEquals("http://xyz/nocache/path3/post1", linkHandler2.get("nocache:/path3").build().getUrl());
+
+    // link type instances are shared between link handlers adapted from the same request
+    int expectedInstanceCount = (adaptable() instanceof SlingHttpServletRequest) ? 1 : 2;
+    assertEquals(expectedInstanceCount, TestNotCacheableLinkType.INSTANCE_COUNT.get() - instanceCount);
+  }
+
+  @Test
+  void testLinkProcessorChain_CurrentResource() {
+    int instanceCount = TestNotCacheableLinkType.INSTANCE_COUNT.get();
+
+    context.currentResource(context.create().resource("/content/resource1"));
+    LinkHandler linkHandler1 = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    assertEquals("http://xyz/nocache/path1/post1", linkHandler1.get("nocache:/path1").build().getUrl());
+
+    // link type instances are not shared with the include of another resource
+    context.currentResource(context.create().resource("/content/resource2"));
+    LinkHandler linkHandler2 = AdaptTo.notNull(adaptable(), LinkHandler.class);
+    assertEquals("http://xyz/nocache/path2/post1", linkHandler2.get("nocache:/path2").build().getUrl());
+
+    assertEquals(2, TestNotCacheableLinkType.INSTANCE_COUNT.get() - instanceCount);
+  }
+
+
+  public static class TestNotCacheableProcessorLinkHandlerConfig extends TestLinkHandlerConfig {
+
+    @Override
+    public List<Class<? extends LinkProcessor>> getPostProcessors() {
+      return ImmutableList.<Class<? extends LinkProcessor>>of(TestLinkPostProcessor.class,
+          TestNotCacheableLinkPostProcessor.class);
+    }
+
+  }
+
   public static class TestLinkHandlerConfig extends LinkHandlerConfig {
 
     @Override
     public List<Class<? extends LinkType>> getLinkTypes() {
-      return ImmutableList.<Class<? extends LinkType>>of(TestLinkType.class);
+      return ImmutableList.<Class<? extends LinkType>>of(TestLinkType.class, TestNotCacheableLinkType.class,
+          TestNestedLinkType.class);
     }
 
     @Override
@@ -228,6 +386,8 @@ class LinkHandlerImplTest {
   })
   public static class TestLinkType extends LinkType {
 
+    static final AtomicInteger RESOLVE_COUNT = new AtomicInteger();
+
     @Override
     public String getId() {
       return "dummy";
@@ -247,6 +407,80 @@ class LinkHandlerImplTest {
     public Link resolveLink(Link link) {
       String contentRef = link.getLinkRequest().getResourceProperties().get("dummyLinkRef", link.getLinkRequest().getReference());
       link.setUrl("http://xyz" + contentRef);
+      RESOLVE_COUNT.incrementAndGet();
+      return link;
+    }
+
+  }
+
+  @Model(adaptables = {
+      SlingHttpServletRequest.class, Resource.class
+  })
+  public static class TestNotCacheableLinkType extends LinkType {
+
+    static final AtomicInteger RESOLVE_COUNT = new AtomicInteger();
+    static final AtomicInteger INSTANCE_COUNT = new AtomicInteger();
+
+    public TestNotCacheableLinkType() {
+      INSTANCE_COUNT.incrementAndGet();
+    }
+
+    @Override
+    public String getId() {
+      return "notCacheable";
+    }
+
+    @Override
+    public String getPrimaryLinkRefProperty() {
+      return null;
+    }
+
+    @Override
+    public boolean accepts(String linkRef) {
+      return StringUtils.startsWith(linkRef, "nocache:");
+    }
+
+    @Override
+    public Link resolveLink(Link link) {
+      link.setUrl("http://xyz/nocache" + StringUtils.substringAfter(link.getLinkRequest().getReference(), "nocache:"));
+      RESOLVE_COUNT.incrementAndGet();
+      return link;
+    }
+
+    @Override
+    public boolean isRequestCacheable() {
+      return false;
+    }
+
+  }
+
+  @Model(adaptables = {
+      SlingHttpServletRequest.class, Resource.class
+  })
+  public static class TestNestedLinkType extends LinkType {
+
+    @Self
+    private LinkHandler linkHandler;
+
+    @Override
+    public String getId() {
+      return "nested";
+    }
+
+    @Override
+    public String getPrimaryLinkRefProperty() {
+      return null;
+    }
+
+    @Override
+    public boolean accepts(String linkRef) {
+      return StringUtils.startsWith(linkRef, "nested:");
+    }
+
+    @Override
+    public Link resolveLink(Link link) {
+      Link nestedLink = linkHandler.get(StringUtils.substringAfter(link.getLinkRequest().getReference(), "nested:")).build();
+      link.setUrl(nestedLink.getUrl());
       return link;
     }
 
@@ -264,4 +498,18 @@ class LinkHandlerImplTest {
     }
   }
 
+  @Model(adaptables = {
+      SlingHttpServletRequest.class, Resource.class
+  })
+  public static class TestNotCacheableLinkPostProcessor implements LinkProcessor {
+    @Override
+    public Link process(Link link) {
+      return link;
+    }
+    @Override
+    public boolean isRequestCacheable() {
+      return false;
+    }
+  }
+
 }
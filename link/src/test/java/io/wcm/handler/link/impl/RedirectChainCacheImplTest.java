@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+
+class RedirectChainCacheImplTest {
+
+  private static final String CONTEXT_PATH = "/content/site1";
+  private static final List<String> CHAIN = ImmutableList.of(
+      "/content/site1/redirect1", "/content/site1/section1/redirect2");
+
+  private final RedirectChainCacheImpl underTest = new RedirectChainCacheImpl();
+
+  @Test
+  void testPutGet() {
+    assertNull(underTest.get(CONTEXT_PATH, "/content/site1/redirect1"));
+
+    underTest.put(CONTEXT_PATH, CHAIN, underTest.getInvalidationCount());
+
+    assertEquals(CHAIN, underTest.get(CONTEXT_PATH, "/content/site1/redirect1"));
+    assertNull(underTest.get("/content/site2", "/content/site1/redirect1"));
+    assertNull(underTest.get(CONTEXT_PATH, "/content/site1/section1/redirect2"));
+  }
+
+  @Test
+  void testPut_Invalidated() {
+    long invalidationCount = underTest.getInvalidationCount();
+    underTest.put(CONTEXT_PATH, CHAIN, invalidationCount);
+    notifyChange("/content/site1/redirect1/jcr:content");
+
+    // chain resolved before the change is not stored
+    underTest.put(CONTEXT_PATH, CHAIN, invalidationCount);
+    assertNull(underTest.get(CONTEXT_PATH, "/content/site1/redirect1"));
+  }
+
+  @Test
+  void testOnChange_OtherPages() {
+    underTest.put(CONTEXT_PATH, CHAIN, underTest.getInvalidationCount());
+
+    notifyChange("/content/site1/page1/jcr:content");
+    notifyChange("/content/site1/redirect10");
+    notifyChange("/content/site1/redirect1-copy/jcr:content/par");
+    notifyChange("/content/site1/section1/redirect2/child1");
+
+    assertNotNull(underTest.get(CONTEXT_PATH, "/content/site1/redirect1"));
+  }
+
+  @Test
+  void testOnChange_PageInChain() {
+    underTest.put(CONTEXT_PATH, CHAIN, underTest.getInvalidationCount());
+    notifyChange("/content/site1/section1/redirect2/jcr:content/par/comp1");
+    assertNull(underTest.get(CONTEXT_PATH, "/content/site1/redirect1"));
+  }
+
+  @Test
+  void testOnChange_Ancestor() {
+    underTest.put(CONTEXT_PATH, CHAIN, underTest.getInvalidationCount());
+    notifyChange("/content/site1/section1");
+    assertNull(underTest.get(CONTEXT_PATH, "/content/site1/redirect1"));
+  }
+
+  private void notifyChange(String path) {
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, path, false)));
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.link.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class RedirectChainStatisticsImplTest {
+
+  private final RedirectChainStatisticsImpl underTest = new RedirectChainStatisticsImpl();
+
+  @Test
+  void testEmpty() {
+    assertEquals(0, underTest.getResolvedChainCount());
+    assertEquals(0d, underTest.getAverageChainLength(), 0.0001d);
+    assertEquals(0, underTest.getMaxChainLength());
+    assertEquals(0, underTest.getCycleCount());
+    assertEquals(0, underTest.getMaxLengthExceededCount());
+  }
+
+  @Test
+  void testStatistics() {
+    underTest.chainResolved(1);
+    underTest.chainResolved(3);
+    underTest.chainResolved(2);
+    underTest.cycleDetected();
+    underTest.maxLengthExceeded();
+    underTest.maxLengthExceeded();
+
+    assertEquals(3, underTest.getResolvedChainCount());
+    assertEquals(2d, underTest.getAverageChainLength(), 0.0001d);
+    assertEquals(3, underTest.getMaxChainLength());
+    assertEquals(1, underTest.getCycleCount());
+    assertEquals(2, underTest.getMaxLengthExceededCount());
+
+    underTest.reset();
+    assertEquals(0, underTest.getResolvedChainCount());
+    assertEquals(0, underTest.getMaxChainLength());
+    assertEquals(0, underTest.getCycleCount());
+  }
+
+}
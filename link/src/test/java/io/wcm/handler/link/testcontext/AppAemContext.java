@@ -29,6 +29,8 @@ import org.jetbrains.annotations.NotNull;
 
 import io.wcm.handler.link.impl.DefaultLinkHandlerConfig;
 import io.wcm.handler.link.impl.LinkHandlerConfigAdapterFactory;
+import io.wcm.handler.link.impl.RedirectChainCacheImpl;
+import io.wcm.handler.link.impl.RedirectChainStatisticsImpl;
 import io.wcm.handler.link.spi.LinkHandlerConfig;
 import io.wcm.handler.media.format.impl.MediaFormatProviderManagerImpl;
 import io.wcm.handler.media.impl.DefaultMediaHandlerConfig;
@@ -100,6 +102,8 @@ public final class AppAemContext {
       context.registerInjectActivateService(new LinkHandlerConfigAdapterFactory());
       context.registerInjectActivateService(new DefaultLinkHandlerConfig());
       context.registerService(LinkHandlerConfig.class, new DummyLinkHandlerConfig());
+      context.registerInjectActivateService(new RedirectChainStatisticsImpl());
+      context.registerInjectActivateService(new RedirectChainCacheImpl());
 
       // context path strategy
       MockCAConfig.contextPathStrategyAbsoluteParent(context, DummyUrlHandlerConfig.SITE_ROOT_LEVEL);
@@ -29,21 +29,28 @@ import java.util.List;
 
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.adapter.Adaptable;
+import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
 import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.WCMMode;
+import com.google.common.collect.ImmutableList;
 
 import io.wcm.handler.link.Link;
 import io.wcm.handler.link.LinkHandler;
 import io.wcm.handler.link.LinkNameConstants;
 import io.wcm.handler.link.SyntheticLinkResource;
+import io.wcm.handler.link.impl.RedirectChainCacheImpl;
+import io.wcm.handler.link.impl.RedirectChainStatisticsMBean;
 import io.wcm.handler.link.testcontext.AppAemContext;
 import io.wcm.handler.link.testcontext.DummyAppTemplate;
+import io.wcm.handler.link.type.helpers.RedirectChainCache;
 import io.wcm.handler.url.UrlModes;
 import io.wcm.handler.url.integrator.IntegratorModes;
 import io.wcm.handler.url.integrator.IntegratorNameConstants;
@@ -331,6 +338,91 @@ class InternalLinkTypeTest {
     assertFalse(link.isValid(), "link valid");
     assertNull(link.getUrl(), "link url");
     assertNull(link.getAnchor(), "anchor");
+
+    RedirectChainStatisticsMBean statistics = context.getService(RedirectChainStatisticsMBean.class);
+    assertEquals(2, statistics.getCycleCount());
+    assertEquals(0, statistics.getMaxLengthExceededCount());
+  }
+
+  @Test
+  void testRedirectChainMaxLength() throws Exception {
+    LinkHandler linkHandler = AdaptTo.notNull(adaptable(), LinkHandler.class);
+
+    // build chain of redirect pages, each pointing to the previous one, the first pointing to a content page
+    String targetPath = context.create().page("/content/unittest/de_test/brand/de/section/redirectChainTarget",
+        DummyAppTemplate.CONTENT.getTemplatePath()).getPath();
+    Page[] redirectPages = new Page[6];
+    for (int i = 0; i < redirectPages.length; i++) {
+      redirectPages[i] = context.create().page("/content/unittest/de_test/brand/de/section/redirectChain" + i,
+          DummyAppTemplate.REDIRECT.getTemplatePath(), ImmutableValueMap.builder()
+              .put(LinkNameConstants.PN_LINK_TYPE, InternalLinkType.ID)
+              .put(LinkNameConstants.PN_LINK_CONTENT_REF, targetPath)
+              .build());
+      targetPath = redirectPages[i].getPath();
+    }
+
+    // chain with 5 redirect pages
+    Link link = linkHandler.get(redirectPages[4]).build();
+    assertTrue(link.isValid(), "link valid");
+    assertEquals("http://www.dummysite.org/content/unittest/de_test/brand/de/section/redirectChainTarget.html",
+        link.getUrl(), "link url");
+    assertEquals(5, link.getRedirectPages().size());
+
+    // chain with 6 redirect pages
+    link = linkHandler.get(redirectPages[5]).build();
+    assertFalse(link.isValid(), "link valid");
+    assertNull(link.getUrl(), "link url");
+
+    RedirectChainStatisticsMBean statistics = context.getService(RedirectChainStatisticsMBean.class);
+    assertEquals(0, statistics.getCycleCount());
+    assertEquals(1, statistics.getMaxLengthExceededCount());
+    assertEquals(5, statistics.getMaxChainLength());
+  }
+
+  @Test
+  void testRedirectChainCache() throws Exception {
+    String section = "/content/unittest/de_test/brand/de/section";
+    Page otherTargetPage = context.create().page(section + "/otherContent", DummyAppTemplate.CONTENT.getTemplatePath());
+    Page redirect1Page = context.create().page(section + "/redirect1",
+        DummyAppTemplate.REDIRECT.getTemplatePath(), ImmutableValueMap.builder()
+            .put(LinkNameConstants.PN_LINK_TYPE, InternalLinkType.ID)
+            .put(LinkNameConstants.PN_LINK_CONTENT_REF, targetPage.getPath())
+            .build());
+    Page redirect2Page = context.create().page(section + "/redirect2",
+        DummyAppTemplate.REDIRECT.getTemplatePath(), ImmutableValueMap.builder()
+            .put(LinkNameConstants.PN_LINK_TYPE, InternalLinkType.ID)
+            .put(LinkNameConstants.PN_LINK_CONTENT_REF, redirect1Page.getPath())
+            .build());
+    Page redirect3Page = context.create().page(section + "/redirect3",
+        DummyAppTemplate.REDIRECT.getTemplatePath(), ImmutableValueMap.builder()
+            .put(LinkNameConstants.PN_LINK_TYPE, InternalLinkType.ID)
+            .put(LinkNameConstants.PN_LINK_CONTENT_REF, redirect2Page.getPath())
+            .build());
+
+    LinkHandler linkHandler = AdaptTo.notNull(adaptable(), LinkHandler.class);
+
+    // use different query strings to bypass the request link cache
+    Link link = linkHandler.get(redirect3Page).queryString("step=1").build();
+    assertEquals("http://www.dummysite.org" + targetPage.getPath() + ".html?step=1", link.getUrl(), "link url");
+    assertEquals(3, link.getRedirectPages().size());
+
+    // target of last page in cached chain is always resolved again, other pages are taken from the cached chain
+    redirect1Page.getContentResource().adaptTo(ModifiableValueMap.class)
+        .put(LinkNameConstants.PN_LINK_CONTENT_REF, otherTargetPage.getPath());
+    redirect2Page.getContentResource().adaptTo(ModifiableValueMap.class)
+        .put(LinkNameConstants.PN_LINK_CONTENT_REF, targetPage.getPath());
+    link = linkHandler.get(redirect3Page).queryString("step=2").build();
+    assertEquals("http://www.dummysite.org" + otherTargetPage.getPath() + ".html?step=2", link.getUrl(), "link url");
+    assertEquals(3, link.getRedirectPages().size());
+    assertEquals(redirect3Page.getPath(), link.getRedirectPages().get(0).getPath());
+    assertEquals(redirect1Page.getPath(), link.getRedirectPages().get(2).getPath());
+
+    // chain is resolved again after the change of a page in the cached chain was reported
+    ((RedirectChainCacheImpl)context.getService(RedirectChainCache.class)).onChange(ImmutableList.of(
+        new ResourceChange(ChangeType.CHANGED, redirect2Page.getContentResource().getPath(), false)));
+    link = linkHandler.get(redirect3Page).queryString("step=3").build();
+    assertEquals("http://www.dummysite.org" + targetPage.getPath() + ".html?step=3", link.getUrl(), "link url");
+    assertEquals(2, link.getRedirectPages().size());
   }
 
   @Test
@@ -20,12 +20,9 @@
 package io.wcm.handler.media.format.impl;
 
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.models.annotations.Model;
@@ -36,13 +33,9 @@ import org.jetbrains.annotations.Nullable;
 
 import com.google.common.collect.ImmutableSortedSet;
 
-import io.wcm.handler.media.MediaFileType;
 import io.wcm.handler.media.format.MediaFormat;
 import io.wcm.handler.media.format.MediaFormatHandler;
 import io.wcm.handler.media.format.MediaFormatProviderManager;
-import io.wcm.handler.media.format.MediaFormatRankingComparator;
-import io.wcm.handler.media.format.MediaFormatSizeRankingComparator;
-import io.wcm.handler.media.format.Ratio;
 
 /**
  * Media format handling.
@@ -57,25 +50,21 @@ public final class MediaFormatHandlerImpl implements MediaFormatHandler {
   @OSGiService
   private MediaFormatProviderManager mediaFormatProviderManager;
 
-  // do not access directly - used for caching. use getMediaFormatsForCurrentResource() and getMediaFormatMap() instead
-  private SortedSet<MediaFormat> mediaFormats;
-  private Map<String, MediaFormat> mediaFormatMap;
+  // do not access directly - used for caching. use getMediaFormatIndex() instead
+  private MediaFormatIndex mediaFormatIndex;
 
-  private SortedSet<MediaFormat> getMediaFormatsForCurrentResource() {
-    if (this.mediaFormats == null) {
-      this.mediaFormats = mediaFormatProviderManager.getMediaFormats(currentResource);
-    }
-    return this.mediaFormats;
-  }
-
-  private Map<String, MediaFormat> getMediaFormatMap() {
-    if (this.mediaFormatMap == null) {
-      this.mediaFormatMap = new HashMap<>();
-      for (MediaFormat mediaFormat : getMediaFormatsForCurrentResource()) {
-        this.mediaFormatMap.put(mediaFormat.getName(), mediaFormat);
+  private MediaFormatIndex getMediaFormatIndex() {
+    if (this.mediaFormatIndex == null) {
+      if (mediaFormatProviderManager instanceof MediaFormatProviderManagerImpl) {
+        // shared index cached per combined key of media format providers
+        this.mediaFormatIndex = ((MediaFormatProviderManagerImpl)mediaFormatProviderManager)
+            .getMediaFormatIndex(currentResource);
+      }
+      else {
+        this.mediaFormatIndex = new MediaFormatIndex(mediaFormatProviderManager.getMediaFormats(currentResource));
       }
     }
-    return this.mediaFormatMap;
+    return this.mediaFormatIndex;
   }
 
   /**
@@ -85,7 +74,7 @@ public final class MediaFormatHandlerImpl implements MediaFormatHandler {
    */
   @Override
   public MediaFormat getMediaFormat(@NotNull String mediaFormatName) {
-    return getMediaFormatMap().get(mediaFormatName);
+    return getMediaFormatIndex().getMediaFormat(mediaFormatName);
   }
 
   /**
@@ -94,7 +83,7 @@ public final class MediaFormatHandlerImpl implements MediaFormatHandler {
    */
   @Override
   public @NotNull SortedSet<MediaFormat> getMediaFormats() {
-    return getMediaFormatsForCurrentResource();
+    return getMediaFormatIndex().getMediaFormats();
   }
 
   /**
@@ -105,7 +94,7 @@ public final class MediaFormatHandlerImpl implements MediaFormatHandler {
   @Override
   public @NotNull SortedSet<MediaFormat> getMediaFormats(@NotNull Comparator<MediaFormat> comparator) {
     SortedSet<MediaFormat> set = new TreeSet<>(comparator);
-    set.addAll(getMediaFormatsForCurrentResource());
+    set.addAll(getMediaFormats());
     return ImmutableSortedSet.copyOf(set);
   }
 
@@ -118,42 +107,7 @@ public final class MediaFormatHandlerImpl implements MediaFormatHandler {
    */
   @Override
   public @NotNull SortedSet<MediaFormat> getSameBiggerMediaFormats(@NotNull MediaFormat mediaFormatRequested, boolean filterRenditionGroup) {
-    SortedSet<MediaFormat> matchingFormats = new TreeSet<>(new MediaFormatSizeRankingComparator());
-
-    // if filter by rendition group is enabled, but the requested media format does not define one,
-    // use only the requested format
-    if (filterRenditionGroup && StringUtils.isEmpty(mediaFormatRequested.getRenditionGroup())) {
-      matchingFormats.add(mediaFormatRequested);
-    }
-    else {
-      for (MediaFormat mediaFormat : getMediaFormats()) {
-
-        // if filter by rendition group is enabled, check only media formats of same rendition group
-        if (!filterRenditionGroup
-            || StringUtils.equals(mediaFormat.getRenditionGroup(), mediaFormatRequested.getRenditionGroup())) {
-
-          // check if size matched (image size is same or bigger)
-          if (isRenditionMatchSizeSameBigger(mediaFormat, mediaFormatRequested)) { //NOPMD
-
-            // if media formats have ratios, check ratio (with tolerance)
-            // otherwise add to list anyway, it *can* contain matching media items
-            if (Ratio.matches(mediaFormat, mediaFormatRequested) //NOPMD
-                || !mediaFormat.hasRatio() || !mediaFormatRequested.hasRatio()) {
-
-              // check for supported file extension
-              if (isRenditionMatchExtension(mediaFormat)) { //NOPMD
-                matchingFormats.add(mediaFormat);
-              }
-            }
-
-          }
-
-        }
-
-      }
-    }
-
-    return matchingFormats;
+    return getMediaFormatIndex().getSameBiggerMediaFormats(mediaFormatRequested, filterRenditionGroup);
   }
 
   /**
@@ -165,89 +119,7 @@ public final class MediaFormatHandlerImpl implements MediaFormatHandler {
    */
   @Override
   public @NotNull SortedSet<MediaFormat> getSameSmallerMediaFormats(@NotNull MediaFormat mediaFormatRequested, boolean filterRenditionGroup) {
-    SortedSet<MediaFormat> matchingFormats = new TreeSet<>(new MediaFormatSizeRankingComparator());
-
-    // if filter by rendition group is enabled, but the requested media format does not define one,
-    // use only the requested format
-    if (filterRenditionGroup && StringUtils.isEmpty(mediaFormatRequested.getRenditionGroup())) {
-      matchingFormats.add(mediaFormatRequested);
-    }
-    else {
-      for (MediaFormat mediaFormat : getMediaFormats()) {
-
-        // if filter by rendition group is enabled, check only media formats of same rendition group
-        if (!filterRenditionGroup
-            || StringUtils.equals(mediaFormat.getRenditionGroup(), mediaFormatRequested.getRenditionGroup())) {
-
-          // check if size matched (image size is same or smaller)
-          if (isRenditionMatchSizeSameSmaller(mediaFormat, mediaFormatRequested)) { //NOPMD
-
-            // if media formats have ratios, check ratio (with tolerance)
-            // otherwise add to list anyway, it *can* contain matching media items
-            if (Ratio.matches(mediaFormat, mediaFormatRequested) //NOPMD
-                || !mediaFormat.hasRatio() || !mediaFormatRequested.hasRatio()) {
-
-              // check for supported file extension
-              if (isRenditionMatchExtension(mediaFormat)) { //NOPMD
-                matchingFormats.add(mediaFormat);
-              }
-            }
-
-          }
-
-        }
-
-      }
-    }
-
-    return matchingFormats;
-  }
-
-  /**
-   * Checks if the given media format size is same size or bigger than the requested one.
-   * @param mediaFormat Media format
-   * @param mediaFormatRequested Requested media format
-   * @return true if media format is same size or bigger
-   */
-  private boolean isRenditionMatchSizeSameBigger(MediaFormat mediaFormat, MediaFormat mediaFormatRequested) {
-    long widthRequested = mediaFormatRequested.getEffectiveMinWidth();
-    long heightRequested = mediaFormatRequested.getEffectiveMinHeight();
-
-    long widthMax = mediaFormat.getEffectiveMaxWidth();
-    long heightMax = mediaFormat.getEffectiveMaxHeight();
-
-    return ((widthMax >= widthRequested) || (widthMax == 0))
-        && ((heightMax >= heightRequested) || (heightMax == 0));
-  }
-
-  /**
-   * Checks if the given media format size is same size or smaller than the requested one.
-   * @param mediaFormat Media format
-   * @param mediaFormatRequested Requested media format
-   * @return true if media format is same size or smaller
-   */
-  private boolean isRenditionMatchSizeSameSmaller(MediaFormat mediaFormat, MediaFormat mediaFormatRequested) {
-    long widthRequested = mediaFormatRequested.getEffectiveMinWidth();
-    long heightRequested = mediaFormatRequested.getEffectiveMinHeight();
-
-    long widthMin = mediaFormat.getEffectiveMinWidth();
-    long heightMin = mediaFormat.getEffectiveMinHeight();
-
-    return widthMin <= widthRequested && heightMin <= heightRequested;
-  }
-
-  /**
-   * Checks if one of the extensions of the given media format are supported for renditions.
-   * @param mediaFormat Media format
-   * @return true if supported extension found
-   */
-  private boolean isRenditionMatchExtension(MediaFormat mediaFormat) {
-    for (String extension : mediaFormat.getExtensions()) {
-      if (MediaFileType.isImage(extension)) {
-        return true;
-      }
-    }
-    return false;
+    return getMediaFormatIndex().getSameSmallerMediaFormats(mediaFormatRequested, filterRenditionGroup);
   }
 
   /**
@@ -274,68 +146,7 @@ public final class MediaFormatHandlerImpl implements MediaFormatHandler {
    */
   @Override
   public @NotNull SortedSet<MediaFormat> detectMediaFormats(@Nullable String extension, long fileSize, long width, long height) {
-
-    // sort media formats by ranking
-    SortedSet<MediaFormat> matchingFormats = new TreeSet<>(new MediaFormatRankingComparator());
-
-    for (MediaFormat mediaFormat : getMediaFormats()) {
-
-      // skip media formats with negative ranking
-      if (mediaFormat.getRanking() < 0) {
-        continue;
-      }
-
-      // check extension
-      boolean extensionMatch = false;
-      if (mediaFormat.getExtensions() != null) {
-        for (String ext : mediaFormat.getExtensions()) {
-          if (StringUtils.equalsIgnoreCase(ext, extension)) {
-            extensionMatch = true;
-            break;
-          }
-        }
-      }
-      else {
-        extensionMatch = true;
-      }
-
-      // check file size
-      boolean fileSizeMatch = false;
-      if (mediaFormat.getFileSizeMax() > 0) {
-        fileSizeMatch = (fileSize <= mediaFormat.getFileSizeMax());
-      }
-      else {
-        fileSizeMatch = true;
-      }
-
-      // width/height match
-      boolean dimensionMatch = false;
-      if (width > 0 && height > 0) {
-        dimensionMatch = (mediaFormat.getEffectiveMinWidth() == 0 || width >= mediaFormat.getEffectiveMinWidth())
-            && (mediaFormat.getEffectiveMaxWidth() == 0 || width <= mediaFormat.getEffectiveMaxWidth())
-            && (mediaFormat.getEffectiveMinHeight() == 0 || height >= mediaFormat.getEffectiveMinHeight())
-            && (mediaFormat.getEffectiveMaxHeight() == 0 || height <= mediaFormat.getEffectiveMaxHeight());
-      }
-      else {
-        dimensionMatch = true;
-      }
-
-      boolean ratioMatch = false;
-      if (mediaFormat.hasRatio() && width > 0 && height > 0) {
-        double formatRatio = mediaFormat.getRatio();
-        double ratio = (double)width / height;
-        ratioMatch = Ratio.matches(ratio, formatRatio);
-      }
-      else {
-        ratioMatch = true;
-      }
-
-      if (extensionMatch && fileSizeMatch && dimensionMatch && ratioMatch) {
-        matchingFormats.add(mediaFormat);
-      }
-    }
-
-    return matchingFormats;
+    return getMediaFormatIndex().detectMediaFormats(extension, fileSize, width, height);
   }
 
 }
@@ -0,0 +1,316 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.format.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+import io.wcm.handler.media.MediaFileType;
+import io.wcm.handler.media.format.MediaFormat;
+import io.wcm.handler.media.format.MediaFormatRankingComparator;
+import io.wcm.handler.media.format.MediaFormatSizeRankingComparator;
+import io.wcm.handler.media.format.Ratio;
+
+/**
+ * Immutable index of a set of media formats with precomputed lookup structures.
+ * Instances are shared across requests for all context resources resolving to the same set of media format providers.
+ * Results of same bigger/same smaller lookups for media formats that are part of the index are memoized.
+ */
+final class MediaFormatIndex {
+
+  private static final Comparator<MediaFormat> SIZE_RANKING_COMPARATOR = new MediaFormatSizeRankingComparator();
+  private static final Comparator<MediaFormat> RANKING_COMPARATOR = new MediaFormatRankingComparator();
+
+  private final SortedSet<MediaFormat> mediaFormats;
+  private final Map<String, MediaFormat> mediaFormatsByName;
+  private final Map<String, List<MediaFormat>> mediaFormatsByRenditionGroup;
+  // media formats with at least one image file extension, i.e. formats that renditions can be rendered for
+  private final Set<MediaFormat> imageMediaFormats;
+  // media formats with ranking >= 0 per lower-case file extension, and those without extension restriction
+  private final Map<String, List<MediaFormat>> detectableMediaFormatsByExtension;
+  private final List<MediaFormat> detectableMediaFormatsAnyExtension;
+
+  private final ConcurrentMap<String, SortedSet<MediaFormat>> sameBiggerMediaFormats = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, SortedSet<MediaFormat>> sameSmallerMediaFormats = new ConcurrentHashMap<>();
+
+  /**
+   * @param mediaFormats Media formats
+   */
+  MediaFormatIndex(@NotNull SortedSet<MediaFormat> mediaFormats) {
+    this.mediaFormats = mediaFormats;
+
+    Map<String, MediaFormat> byName = new HashMap<>();
+    Map<String, List<MediaFormat>> byRenditionGroup = new HashMap<>();
+    Set<MediaFormat> imageFormats = new LinkedHashSet<>();
+    Map<String, List<MediaFormat>> byExtension = new HashMap<>();
+    List<MediaFormat> anyExtension = new ArrayList<>();
+
+    for (MediaFormat mediaFormat : mediaFormats) {
+      byName.put(mediaFormat.getName(), mediaFormat);
+      if (StringUtils.isNotEmpty(mediaFormat.getRenditionGroup())) {
+        byRenditionGroup.computeIfAbsent(mediaFormat.getRenditionGroup(), key -> new ArrayList<>()).add(mediaFormat);
+      }
+
+      String[] extensions = mediaFormat.getExtensions();
+      if (extensions != null) {
+        for (String extension : extensions) {
+          if (MediaFileType.isImage(extension)) {
+            imageFormats.add(mediaFormat);
+            break;
+          }
+        }
+      }
+
+      if (mediaFormat.getRanking() >= 0) {
+        if (extensions != null) {
+          Set<String> normalizedExtensions = new LinkedHashSet<>();
+          for (String extension : extensions) {
+            normalizedExtensions.add(normalizeExtension(extension));
+          }
+          for (String extension : normalizedExtensions) {
+            byExtension.computeIfAbsent(extension, key -> new ArrayList<>()).add(mediaFormat);
+          }
+        }
+        else {
+          anyExtension.add(mediaFormat);
+        }
+      }
+    }
+
+    this.mediaFormatsByName = Collections.unmodifiableMap(byName);
+    this.mediaFormatsByRenditionGroup = Collections.unmodifiableMap(byRenditionGroup);
+    this.imageMediaFormats = Collections.unmodifiableSet(imageFormats);
+    this.detectableMediaFormatsByExtension = Collections.unmodifiableMap(byExtension);
+    this.detectableMediaFormatsAnyExtension = Collections.unmodifiableList(anyExtension);
+  }
+
+  private static String normalizeExtension(String extension) {
+    return StringUtils.lowerCase(extension, Locale.ENGLISH);
+  }
+
+  /**
+   * @return Media formats sorted by name
+   */
+  @NotNull
+  SortedSet<MediaFormat> getMediaFormats() {
+    return this.mediaFormats;
+  }
+
+  /**
+   * @param mediaFormatName Media format name
+   * @return Media format or null
+   */
+  @Nullable
+  MediaFormat getMediaFormat(@NotNull String mediaFormatName) {
+    return this.mediaFormatsByName.get(mediaFormatName);
+  }
+
+  /**
+   * Get media formats that have the same (or bigger) resolution as the requested media format
+   * and (nearly) the same aspect ratio.
+   * @param mediaFormatRequested Requested media format
+   * @param filterRenditionGroup Only check media formats of the same rendition group.
+   * @return Matching media formats, sorted by size (biggest first), ranking, name
+   */
+  @NotNull
+  SortedSet<MediaFormat> getSameBiggerMediaFormats(@NotNull MediaFormat mediaFormatRequested,
+      boolean filterRenditionGroup) {
+    return getMatchingMediaFormats(sameBiggerMediaFormats, mediaFormatRequested, filterRenditionGroup, true);
+  }
+
+  /**
+   * Get media formats that can be rendered from the given media format, i.e. same size or smaller
+   * and (nearly) the same aspect ratio.
+   * @param mediaFormatRequested Available media format
+   * @param filterRenditionGroup Only check media formats of the same rendition group.
+   * @return Matching media formats, sorted by size (biggest first), ranking, name
+   */
+  @NotNull
+  SortedSet<MediaFormat> getSameSmallerMediaFormats(@NotNull MediaFormat mediaFormatRequested,
+      boolean filterRenditionGroup) {
+    return getMatchingMediaFormats(sameSmallerMediaFormats, mediaFormatRequested, filterRenditionGroup, false);
+  }
+
+  private SortedSet<MediaFormat> getMatchingMediaFormats(ConcurrentMap<String, SortedSet<MediaFormat>> memo,
+      MediaFormat mediaFormatRequested, boolean filterRenditionGroup, boolean sameBigger) {
+    // memoize only for media formats defined in this index - others may differ in their definition
+    if (mediaFormatsByName.get(mediaFormatRequested.getName()) != mediaFormatRequested) {
+      return collectMatchingMediaFormats(mediaFormatRequested, filterRenditionGroup, sameBigger);
+    }
+    String key = mediaFormatRequested.getName() + (filterRenditionGroup ? "|group" : "");
+    SortedSet<MediaFormat> result = memo.computeIfAbsent(key, k -> ImmutableSortedSet.copyOfSorted(
+        collectMatchingMediaFormats(mediaFormatRequested, filterRenditionGroup, sameBigger)));
+    // return a modifiable copy as callers may expect - copying a sorted set with the same comparator is linear
+    return new TreeSet<>(result);
+  }
+
+  private SortedSet<MediaFormat> collectMatchingMediaFormats(MediaFormat mediaFormatRequested,
+      boolean filterRenditionGroup, boolean sameBigger) {
+    SortedSet<MediaFormat> matchingFormats = new TreeSet<>(SIZE_RANKING_COMPARATOR);
+
+    // if filter by rendition group is enabled, but the requested media format does not define one,
+    // use only the requested format
+    String renditionGroup = mediaFormatRequested.getRenditionGroup();
+    if (filterRenditionGroup && StringUtils.isEmpty(renditionGroup)) {
+      matchingFormats.add(mediaFormatRequested);
+      return matchingFormats;
+    }
+
+    // if filter by rendition group is enabled, check only media formats of same rendition group
+    Iterable<MediaFormat> candidates = filterRenditionGroup
+        ? mediaFormatsByRenditionGroup.getOrDefault(renditionGroup, Collections.emptyList())
+        : mediaFormats;
+    double ratioRequested = mediaFormatRequested.getRatio();
+
+    for (MediaFormat mediaFormat : candidates) {
+
+      // check for supported file extension
+      if (!imageMediaFormats.contains(mediaFormat)) {
+        continue;
+      }
+
+      // check if size matched (image size is same or bigger/smaller)
+      boolean sizeMatch = sameBigger
+          ? isRenditionMatchSizeSameBigger(mediaFormat, mediaFormatRequested)
+          : isRenditionMatchSizeSameSmaller(mediaFormat, mediaFormatRequested);
+      if (!sizeMatch) {
+        continue;
+      }
+
+      // if media formats have ratios, check ratio (with tolerance)
+      // otherwise add to list anyway, it *can* contain matching media items
+      double ratio = mediaFormat.getRatio();
+      if (ratio > 0 && ratioRequested > 0 && !Ratio.matches(ratio, ratioRequested)) {
+        continue;
+      }
+
+      matchingFormats.add(mediaFormat);
+    }
+
+    return matchingFormats;
+  }
+
+  /**
+   * Checks if the given media format size is same size or bigger than the requested one.
+   * @param mediaFormat Media format
+   * @param mediaFormatRequested Requested media format
+   * @return true if media format is same size or bigger
+   */
+  private static boolean isRenditionMatchSizeSameBigger(MediaFormat mediaFormat, MediaFormat mediaFormatRequested) {
+    long widthRequested = mediaFormatRequested.getEffectiveMinWidth();
+    long heightRequested = mediaFormatRequested.getEffectiveMinHeight();
+
+    long widthMax = mediaFormat.getEffectiveMaxWidth();
+    long heightMax = mediaFormat.getEffectiveMaxHeight();
+
+    return ((widthMax >= widthRequested) || (widthMax == 0))
+        && ((heightMax >= heightRequested) || (heightMax == 0));
+  }
+
+  /**
+   * Checks if the given media format size is same size or smaller than the requested one.
+   * @param mediaFormat Media format
+   * @param mediaFormatRequested Requested media format
+   * @return true if media format is same size or smaller
+   */
+  private static boolean isRenditionMatchSizeSameSmaller(MediaFormat mediaFormat, MediaFormat mediaFormatRequested) {
+    long widthRequested = mediaFormatRequested.getEffectiveMinWidth();
+    long heightRequested = mediaFormatRequested.getEffectiveMinHeight();
+
+    long widthMin = mediaFormat.getEffectiveMinWidth();
+    long heightMin = mediaFormat.getEffectiveMinHeight();
+
+    return widthMin <= widthRequested && heightMin <= heightRequested;
+  }
+
+  /**
+   * Detect all matching media formats.
+   * @param extension File extension
+   * @param fileSize File size
+   * @param width Image width (or 0 if not image)
+   * @param height Image height (or 0 if not image)
+   * @return Matching media formats sorted by their ranking or an empty list if no matching format was found
+   */
+  @NotNull
+  SortedSet<MediaFormat> detectMediaFormats(@Nullable String extension, long fileSize, long width, long height) {
+
+    // sort media formats by ranking
+    SortedSet<MediaFormat> matchingFormats = new TreeSet<>(RANKING_COMPARATOR);
+
+    // check only media formats matching the extension or without extension restriction
+    if (extension != null) {
+      List<MediaFormat> extensionMatches = detectableMediaFormatsByExtension.get(normalizeExtension(extension));
+      if (extensionMatches != null) {
+        addDetectedMediaFormats(matchingFormats, extensionMatches, fileSize, width, height);
+      }
+    }
+    addDetectedMediaFormats(matchingFormats, detectableMediaFormatsAnyExtension, fileSize, width, height);
+
+    return matchingFormats;
+  }
+
+  private static void addDetectedMediaFormats(SortedSet<MediaFormat> matchingFormats, List<MediaFormat> candidates,
+      long fileSize, long width, long height) {
+    for (MediaFormat mediaFormat : candidates) {
+
+      // check file size
+      if (mediaFormat.getFileSizeMax() > 0 && fileSize > mediaFormat.getFileSizeMax()) {
+        continue;
+      }
+
+      if (width > 0 && height > 0) {
+        // width/height match
+        boolean dimensionMatch = (mediaFormat.getEffectiveMinWidth() == 0
+            || width >= mediaFormat.getEffectiveMinWidth())
+            && (mediaFormat.getEffectiveMaxWidth() == 0 || width <= mediaFormat.getEffectiveMaxWidth())
+            && (mediaFormat.getEffectiveMinHeight() == 0 || height >= mediaFormat.getEffectiveMinHeight())
+            && (mediaFormat.getEffectiveMaxHeight() == 0 || height <= mediaFormat.getEffectiveMaxHeight());
+        if (!dimensionMatch) {
+          continue;
+        }
+
+        // ratio match
+        if (mediaFormat.hasRatio() && !Ratio.matches((double)width / height, mediaFormat.getRatio())) {
+          continue;
+        }
+      }
+
+      matchingFormats.add(mediaFormat);
+    }
+  }
+
+}
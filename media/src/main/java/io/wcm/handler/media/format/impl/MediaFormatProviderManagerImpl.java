@@ -24,25 +24,40 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
 import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.wcm.handler.media.format.MediaFormat;
 import io.wcm.handler.media.format.MediaFormatProviderManager;
@@ -52,38 +67,174 @@ import io.wcm.sling.commons.caservice.ContextAwareServiceResolver.ResolveAllResu
 
 /**
  * Default implementation of {@link MediaFormatProviderManager}.
+ * <p>
+ * Resolved media formats are cached per combined key of the context-aware media format providers. The cache is
+ * invalidated whenever a media format provider is registered, modified or removed. Cache statistics are exposed
+ * via JMX.
+ * </p>
  */
-@Component(service = MediaFormatProviderManager.class, immediate = true)
-public final class MediaFormatProviderManagerImpl implements MediaFormatProviderManager {
+@Component(service = { MediaFormatProviderManager.class, MediaFormatProviderManagerImplMBean.class },
+    immediate = true,
+    property = {
+        "jmx.objectname=io.wcm.handler.media:type=MediaFormatProviderManager"
+    })
+@Designate(ocd = MediaFormatProviderManagerImpl.Config.class)
+public final class MediaFormatProviderManagerImpl
+    implements MediaFormatProviderManager, MediaFormatProviderManagerImplMBean {
+
+  @ObjectClassDefinition(
+      name = "wcm.io Media Handler Media Format Provider Manager",
+      description = "Caches media formats resolved from context-aware media format providers.")
+  @interface Config {
+
+    @AttributeDefinition(name = "Max. cache size", description = "Maximum number of media format sets "
+        + "(one per distinct combination of context-aware media format providers) kept in the cache.")
+    long cacheMaxSize() default 1000;
+
+    @AttributeDefinition(name = "Warm-up context paths", description = "Resource paths for which media formats "
+        + "are resolved on activation and after each change of the media format providers, "
+        + "e.g. the root paths of all sites.")
+    String[] warmupContextPaths() default {};
+
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(MediaFormatProviderManagerImpl.class);
 
   @Reference
   private ContextAwareServiceResolver serviceResolver;
+  @Reference
+  private ResourceResolverFactory resourceResolverFactory;
 
-  @Reference(cardinality = ReferenceCardinality.MULTIPLE,
-      policy = ReferencePolicy.STATIC,
-      policyOption = ReferencePolicyOption.GREEDY)
-  private Collection<ServiceReference<MediaFormatProvider>> mediaFormatProviderServiceReferences;
+  private final Collection<ServiceReference<MediaFormatProvider>> mediaFormatProviderServiceReferences =
+      ConcurrentHashMap.newKeySet();
 
   private BundleContext bundleContext;
+  private String[] warmupContextPaths;
+  private ExecutorService warmupExecutor;
 
   // cache resolving of media formats per combined cache key of context-aware services
-  private final Cache<String, SortedSet<MediaFormat>> cache = CacheBuilder.newBuilder()
-      .expireAfterWrite(1, TimeUnit.HOURS)
-      .build();
+  private volatile Cache<String, CacheEntry> cache = CacheBuilder.newBuilder().build();
+  // incremented on each invalidation, acts as generation to detect entries loaded before the last invalidation
+  private final AtomicLong invalidationCount = new AtomicLong();
 
   @Activate
-  private void activate(BundleContext bc) {
+  private void activate(BundleContext bc, Config config) {
     this.bundleContext = bc;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(config.cacheMaxSize())
+        .recordStats()
+        .build();
+    this.warmupContextPaths = config.warmupContextPaths();
+    if (this.warmupContextPaths != null && this.warmupContextPaths.length > 0) {
+      this.warmupExecutor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat(getClass().getSimpleName() + "-warmup").setDaemon(true).build());
+      warmup();
+    }
+  }
+
+  @Deactivate
+  private void deactivate() {
+    if (warmupExecutor != null) {
+      warmupExecutor.shutdownNow();
+      warmupExecutor = null;
+    }
+  }
+
+  @Reference(service = MediaFormatProvider.class, cardinality = ReferenceCardinality.MULTIPLE,
+      policy = ReferencePolicy.DYNAMIC, policyOption = ReferencePolicyOption.GREEDY,
+      unbind = "unbindMediaFormatProvider", updated = "updatedMediaFormatProvider")
+  void bindMediaFormatProvider(ServiceReference<MediaFormatProvider> serviceReference) {
+    mediaFormatProviderServiceReferences.add(serviceReference);
+    invalidate();
+  }
+
+  void unbindMediaFormatProvider(ServiceReference<MediaFormatProvider> serviceReference) {
+    mediaFormatProviderServiceReferences.remove(serviceReference);
+    invalidate();
+  }
+
+  void updatedMediaFormatProvider(ServiceReference<MediaFormatProvider> serviceReference) {
+    invalidate();
+  }
+
+  /**
+   * Drop all cached media formats after media format providers have changed, and warm up the cache again.
+   */
+  private void invalidate() {
+    invalidationCount.incrementAndGet();
+    cache.invalidateAll();
+    warmup();
+  }
+
+  /**
+   * Resolve media formats for the configured warm-up context paths asynchronously.
+   */
+  private void warmup() {
+    ExecutorService executor = this.warmupExecutor;
+    if (executor == null || executor.isShutdown()) {
+      return;
+    }
+    executor.execute(() -> {
+      ResourceResolver resourceResolver = null;
+      try {
+        resourceResolver = resourceResolverFactory.getServiceResourceResolver(null);
+        for (String path : warmupContextPaths) {
+          Resource resource = resourceResolver.getResource(path);
+          if (resource != null) {
+            getMediaFormatIndex(resource);
+          }
+          else {
+            log.debug("Media format warm-up context path not found: {}", path);
+          }
+        }
+      }
+      catch (LoginException ex) {
+        log.warn("Unable to warm up media format cache - missing service user mapping "
+            + "for 'io.wcm.handler.media'.", ex);
+      }
+      finally {
+        if (resourceResolver != null) {
+          resourceResolver.close();
+        }
+      }
+    });
   }
 
   @Override
   public SortedSet<MediaFormat> getMediaFormats(Resource contextResource) {
-    ResolveAllResult<MediaFormatProvider> result = serviceResolver.resolveAll(MediaFormatProvider.class, contextResource);
+    return getMediaFormatIndex(contextResource).getMediaFormats();
+  }
+
+  /**
+   * Get media formats with precomputed lookup structures for the given context resource.
+   * @param contextResource Context resource to get media formats for
+   * @return Media format index
+   */
+  MediaFormatIndex getMediaFormatIndex(Resource contextResource) {
+    ResolveAllResult<MediaFormatProvider> result = serviceResolver.resolveAll(MediaFormatProvider.class,
+        contextResource);
     String key = result.getCombinedKey();
+    CacheEntry entry = getCacheEntry(key, result);
+    if (entry.generation != invalidationCount.get()) {
+      // entry was loaded while the cache was invalidated and may be outdated - drop it and load again
+      cache.asMap().remove(key, entry);
+      entry = getCacheEntry(key, serviceResolver.resolveAll(MediaFormatProvider.class, contextResource));
+      if (entry.generation != invalidationCount.get()) {
+        // invalidated again while loading - use the result for this call, but do not keep it in cache
+        cache.asMap().remove(key, entry);
+      }
+    }
+    return entry.index;
+  }
+
+  private CacheEntry getCacheEntry(String key, ResolveAllResult<MediaFormatProvider> result) {
     try {
-      return cache.get(key, () -> result.getServices()
-          .flatMap(provider -> provider.getMediaFormats().stream())
-          .collect(Collectors.toCollection(() -> new TreeSet<MediaFormat>())));
+      return cache.get(key, () -> {
+        long generation = invalidationCount.get();
+        return new CacheEntry(generation, new MediaFormatIndex(result.getServices()
+            .flatMap(provider -> provider.getMediaFormats().stream())
+            .collect(Collectors.toCollection(() -> new TreeSet<MediaFormat>()))));
+      });
     }
     catch (ExecutionException ex) {
       throw new RuntimeException("Error accessing media format provider result cache.", ex);
@@ -111,4 +262,63 @@ public final class MediaFormatProviderManagerImpl implements MediaFormatProvider
     return result;
   }
 
+  @Override
+  public long getCacheSize() {
+    return cache.size();
+  }
+
+  @Override
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  @Override
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  @Override
+  public double getHitRate() {
+    return cache.stats().hitRate();
+  }
+
+  @Override
+  public long getLoadCount() {
+    return cache.stats().loadCount();
+  }
+
+  @Override
+  public double getAverageLoadTimeMillis() {
+    CacheStats stats = cache.stats();
+    return stats.averageLoadPenalty() / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+  @Override
+  public long getInvalidationCount() {
+    return invalidationCount.get();
+  }
+
+  @Override
+  public void invalidateCache() {
+    invalidate();
+  }
+
+
+  private static final class CacheEntry {
+
+    private final long generation;
+    private final MediaFormatIndex index;
+
+    CacheEntry(long generation, MediaFormatIndex index) {
+      this.generation = generation;
+      this.index = index;
+    }
+
+  }
+
 }
@@ -0,0 +1,72 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.format.impl;
+
+/**
+ * JMX management interface for the media format cache of {@link MediaFormatProviderManagerImpl}.
+ */
+public interface MediaFormatProviderManagerImplMBean {
+
+  /**
+   * @return Number of cached media format sets
+   */
+  long getCacheSize();
+
+  /**
+   * @return Number of cache hits
+   */
+  long getHitCount();
+
+  /**
+   * @return Number of cache misses
+   */
+  long getMissCount();
+
+  /**
+   * @return Ratio of cache hits to all cache requests
+   */
+  double getHitRate();
+
+  /**
+   * @return Number of cache entries that were loaded
+   */
+  long getLoadCount();
+
+  /**
+   * @return Average time in milliseconds to resolve media format providers and build a cache entry
+   */
+  double getAverageLoadTimeMillis();
+
+  /**
+   * @return Number of cache entries that were evicted because the max. cache size was reached
+   */
+  long getEvictionCount();
+
+  /**
+   * @return Number of cache invalidations caused by registered, modified or removed media format providers
+   */
+  long getInvalidationCount();
+
+  /**
+   * Invalidate all cached media formats.
+   */
+  void invalidateCache();
+
+}
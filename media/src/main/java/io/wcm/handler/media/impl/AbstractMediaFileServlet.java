@@ -19,9 +19,11 @@
  */
 package io.wcm.handler.media.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
@@ -42,6 +44,8 @@ import io.wcm.wcm.commons.contenttype.ContentType;
 /**
  * Stream binary data stored in a nt:file or nt:resource node.
  * Optional support for Content-Disposition header ("download_attachment").
+ * Binary data is streamed directly to the response without buffering it completely in memory,
+ * single byte ranges requested via <code>Range</code> header are supported for plain binaries.
  */
 abstract class AbstractMediaFileServlet extends SlingSafeMethodsServlet {
   private static final long serialVersionUID = 1L;
@@ -56,6 +60,13 @@ abstract class AbstractMediaFileServlet extends SlingSafeMethodsServlet {
    */
   public static final String HEADER_CONTENT_DISPOSITION = "Content-Disposition";
 
+  private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+  /**
+   * Size of the buffer that is used to detect the content length of small binaries if it is not known up front.
+   */
+  static final int BUFFER_SIZE = 64 * 1024;
+
   @Override
   @SuppressFBWarnings("RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE")
   protected void doGet(@NotNull SlingHttpServletRequest request, @NotNull SlingHttpServletResponse response) throws ServletException, IOException {
@@ -72,15 +83,10 @@ abstract class AbstractMediaFileServlet extends SlingSafeMethodsServlet {
       return;
     }
 
-    // get binary data and send to client
-    byte[] binaryData = getBinaryData(resource, request);
-    if (binaryData == null || binaryData.length == 0) {
+    // stream binary data to client
+    if (!sendBinaryData(resource, request, response)) {
       response.sendError(HttpServletResponse.SC_NOT_FOUND);
     }
-    else {
-      String contentType = getContentType(resource, request);
-      sendBinaryData(binaryData, contentType, request, response);
-    }
 
   }
 
@@ -109,17 +115,70 @@ abstract class AbstractMediaFileServlet extends SlingSafeMethodsServlet {
   }
 
   /**
-   * Get binary data from the referenced nt:file or nt:resourcer resource.
+   * Stream binary data from the referenced nt:file or nt:resource resource to the response.
+   * The content length is set only if it is known up front; in this case single byte ranges are supported as well.
    * @param resource Resource
-   * @return Binary data or null if not binary data found
+   * @param request Request
+   * @param response Response
+   * @return false if no binary data was found - nothing is written to the response in this case
    */
-  protected byte[] getBinaryData(Resource resource, @SuppressWarnings("unused") SlingHttpServletRequest request) throws IOException {
+  protected boolean sendBinaryData(Resource resource, SlingHttpServletRequest request,
+      SlingHttpServletResponse response) throws IOException {
     InputStream is = resource.adaptTo(InputStream.class);
     if (is == null) {
-      return null;
+      return false;
     }
     try {
-      return IOUtils.toByteArray(is);
+      // content length is provided by the resource provider after adapting to input stream
+      long contentLength = resource.getResourceMetadata().getContentLength();
+      InputStream binaryData = is;
+      if (contentLength < 0) {
+        // content length not known up front: read the first chunk, and if the binary is small it is read completely
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bufferLength = IOUtils.read(is, buffer);
+        if (bufferLength < BUFFER_SIZE) {
+          contentLength = bufferLength;
+        }
+        binaryData = new SequenceInputStream(new ByteArrayInputStream(buffer, 0, bufferLength), is);
+      }
+      if (contentLength == 0) {
+        return false;
+      }
+
+      // check for byte range request
+      HttpByteRange range = null;
+      if (contentLength > 0 && request.getHeader(HttpByteRange.HEADER_IF_RANGE) == null) {
+        range = HttpByteRange.parse(request.getHeader(HttpByteRange.HEADER_RANGE), contentLength);
+      }
+      if (range != null && !range.isSatisfiable()) {
+        response.setHeader(HttpByteRange.HEADER_CONTENT_RANGE, range.getContentRangeHeader());
+        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return true;
+      }
+
+      String contentType = getContentType(resource, request);
+      if (contentLength > 0) {
+        response.setHeader(HttpByteRange.HEADER_ACCEPT_RANGES, HttpByteRange.UNIT_BYTES);
+      }
+      if (range != null) {
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader(HttpByteRange.HEADER_CONTENT_RANGE, range.getContentRangeHeader());
+        setResponseHeaders(contentType, range.getLength(), request, response);
+      }
+      else {
+        setResponseHeaders(contentType, contentLength, request, response);
+      }
+
+      // stream binary data
+      OutputStream out = response.getOutputStream();
+      if (range != null) {
+        IOUtils.copyLarge(binaryData, out, range.getStart(), range.getLength());
+      }
+      else {
+        IOUtils.copyLarge(binaryData, out);
+      }
+      out.flush();
+      return true;
     }
     finally {
       is.close();
@@ -140,18 +199,25 @@ abstract class AbstractMediaFileServlet extends SlingSafeMethodsServlet {
   }
 
   /**
-   * Send binary data to output stream. Respect optional content disposition header handling.
-   * @param binaryData Binary data array.
+   * Set content type and length headers. Respect optional content disposition header handling.
    * @param contentType Content type
+   * @param contentLength Content length or -1 if it is not known up front
    * @param request Request
    * @param response Response
    */
-  protected void sendBinaryData(byte[] binaryData, String contentType,
-      SlingHttpServletRequest request, SlingHttpServletResponse response) throws IOException {
+  protected void setResponseHeaders(String contentType, long contentLength,
+      SlingHttpServletRequest request, SlingHttpServletResponse response) {
 
     // set content type and length
     response.setContentType(contentType);
-    response.setContentLength(binaryData.length);
+    if (contentLength >= 0) {
+      if (contentLength <= Integer.MAX_VALUE) {
+        response.setContentLength((int)contentLength);
+      }
+      else {
+        response.setHeader(HEADER_CONTENT_LENGTH, Long.toString(contentLength));
+      }
+    }
 
     // Handling of the "force download" selector
     if (RequestPath.hasSelector(request, SELECTOR_DOWNLOAD)) {
@@ -169,11 +235,6 @@ abstract class AbstractMediaFileServlet extends SlingSafeMethodsServlet {
       response.setHeader(HEADER_CONTENT_DISPOSITION, dispositionHeader.toString());
     }
 
-    // write binary data
-    OutputStream out = response.getOutputStream();
-    out.write(binaryData);
-    out.flush();
-
   }
 
 }
@@ -0,0 +1,162 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Single byte range parsed from a HTTP <code>Range</code> request header.
+ * Multiple ranges are not supported - in this case the full content is delivered.
+ */
+final class HttpByteRange {
+
+  /**
+   * Range header
+   */
+  static final String HEADER_RANGE = "Range";
+
+  /**
+   * If-Range header
+   */
+  static final String HEADER_IF_RANGE = "If-Range";
+
+  /**
+   * Content-Range header
+   */
+  static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+  /**
+   * Accept-Ranges header
+   */
+  static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
+  /**
+   * Byte range unit
+   */
+  static final String UNIT_BYTES = "bytes";
+
+  private static final String UNIT_PREFIX = UNIT_BYTES + "=";
+
+  private final long start;
+  private final long end;
+  private final long contentLength;
+
+  private HttpByteRange(long start, long end, long contentLength) {
+    this.start = start;
+    this.end = end;
+    this.contentLength = contentLength;
+  }
+
+  /**
+   * @return First byte position (inclusive)
+   */
+  long getStart() {
+    return start;
+  }
+
+  /**
+   * @return Last byte position (inclusive)
+   */
+  long getEnd() {
+    return end;
+  }
+
+  /**
+   * @return Number of bytes in range
+   */
+  long getLength() {
+    return end - start + 1;
+  }
+
+  /**
+   * @return true if the range can be delivered, false if 416 (Range Not Satisfiable) has to be sent.
+   */
+  boolean isSatisfiable() {
+    return start <= end;
+  }
+
+  /**
+   * @return Value for Content-Range header
+   */
+  String getContentRangeHeader() {
+    if (isSatisfiable()) {
+      return UNIT_BYTES + " " + start + "-" + end + "/" + contentLength;
+    }
+    else {
+      return UNIT_BYTES + " */" + contentLength;
+    }
+  }
+
+  /**
+   * Parse range header.
+   * @param rangeHeader Range header value
+   * @param contentLength Content length of the full binary
+   * @return Byte range or null if no valid single byte range is requested and the full content should be delivered
+   */
+  static @Nullable HttpByteRange parse(@Nullable String rangeHeader, long contentLength) {
+    if (contentLength <= 0 || !StringUtils.startsWith(rangeHeader, UNIT_PREFIX)) {
+      return null;
+    }
+    String rangeSpec = StringUtils.trim(StringUtils.substringAfter(rangeHeader, UNIT_PREFIX));
+    if (StringUtils.contains(rangeSpec, ",") || !StringUtils.contains(rangeSpec, "-")) {
+      return null;
+    }
+    String startPart = StringUtils.trim(StringUtils.substringBefore(rangeSpec, "-"));
+    String endPart = StringUtils.trim(StringUtils.substringAfter(rangeSpec, "-"));
+    if (!isNumberOrEmpty(startPart) || !isNumberOrEmpty(endPart)) {
+      return null;
+    }
+
+    long start;
+    long end;
+    if (startPart.isEmpty()) {
+      // suffix range: last n bytes
+      if (endPart.isEmpty()) {
+        return null;
+      }
+      long suffixLength = NumberUtils.toLong(endPart, -1);
+      if (suffixLength < 0) {
+        return null;
+      }
+      start = Math.max(contentLength - suffixLength, 0);
+      end = suffixLength == 0 ? -1 : contentLength - 1;
+    }
+    else {
+      start = NumberUtils.toLong(startPart, -1);
+      end = endPart.isEmpty() ? contentLength - 1 : Math.min(NumberUtils.toLong(endPart, -1), contentLength - 1);
+      if (start < 0 || (!endPart.isEmpty() && NumberUtils.toLong(endPart, -1) < start)) {
+        // syntactically invalid range - ignore
+        return null;
+      }
+      if (start >= contentLength) {
+        // mark as not satisfiable
+        end = start - 1;
+      }
+    }
+    return new HttpByteRange(start, end, contentLength);
+  }
+
+  private static boolean isNumberOrEmpty(String value) {
+    return value.isEmpty() || StringUtils.isNumeric(value);
+  }
+
+}
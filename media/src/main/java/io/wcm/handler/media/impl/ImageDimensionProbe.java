@@ -0,0 +1,501 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.dam.api.Rendition;
+import com.day.cq.dam.api.handler.store.AssetStore;
+import com.day.image.Layer;
+
+import io.wcm.handler.media.Dimension;
+
+/**
+ * Detects the dimension of image binaries by reading only the container headers
+ * (JPEG SOF, PNG IHDR, GIF screen descriptor, WebP VP8/VP8L/VP8X, TIFF IFD, SVG root element).
+ * Only if the header could not be parsed the image is decoded completely into a {@link Layer}.
+ */
+public final class ImageDimensionProbe {
+
+  /**
+   * Maximum number of bytes that are read or skipped in the binary stream while looking for the dimension header.
+   */
+  static final int MAX_HEADER_BYTES = 1024 * 1024;
+
+  /**
+   * Maximum number of characters of a SVG file that are inspected for finding the svg root element.
+   */
+  static final int MAX_SVG_HEADER_CHARS = 16 * 1024;
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int SIGNATURE_LENGTH = 12;
+
+  private static final Pattern SVG_ROOT_ELEMENT = Pattern.compile("<svg(\\s[^>]*)?>", Pattern.DOTALL);
+  private static final Pattern SVG_LENGTH = Pattern.compile("^\\s*(\\d+(\\.\\d+)?)\\s*(px)?\\s*$");
+
+  private static final AtomicLong HEADER_PROBE_COUNT = new AtomicLong();
+  private static final AtomicLong DECODE_COUNT = new AtomicLong();
+
+  private static final Logger log = LoggerFactory.getLogger(ImageDimensionProbe.class);
+
+  private ImageDimensionProbe() {
+    // static methods only
+  }
+
+  /**
+   * Get dimension of rendition resource. Tries to read the image headers first,
+   * falls back to {@link ResourceLayerUtil#toLayer(Resource, AssetStore)} if this is not possible.
+   * @param renditionResource Rendition resource
+   * @param assetStore Asset store service
+   * @return Dimension or null if it could not be detected
+   */
+  public static @Nullable Dimension getDimension(@NotNull Resource renditionResource, @NotNull AssetStore assetStore) {
+    Rendition rendition = renditionResource.adaptTo(Rendition.class);
+    if (rendition != null) {
+      Dimension dimension = probe(rendition);
+      if (dimension != null) {
+        return dimension;
+      }
+    }
+    DECODE_COUNT.incrementAndGet();
+    Layer layer = ResourceLayerUtil.toLayer(renditionResource, assetStore);
+    if (layer == null) {
+      return null;
+    }
+    return toDimension(layer.getWidth(), layer.getHeight());
+  }
+
+  /**
+   * Get dimension of rendition. Tries to read the image headers first,
+   * falls back to decoding the binary into a {@link Layer} if this is not possible.
+   * @param rendition Rendition
+   * @return Dimension or null if it could not be detected
+   */
+  public static @Nullable Dimension getDimension(@NotNull Rendition rendition) {
+    Dimension dimension = probe(rendition);
+    if (dimension != null) {
+      return dimension;
+    }
+    DECODE_COUNT.incrementAndGet();
+    try (InputStream is = rendition.getStream()) {
+      if (is == null) {
+        return null;
+      }
+      Layer layer = new Layer(is);
+      return toDimension(layer.getWidth(), layer.getHeight());
+    }
+    catch (IOException ex) {
+      log.warn("Unable to read binary stream to layer for rendition {}", rendition.getPath(), ex);
+      return null;
+    }
+  }
+
+  /**
+   * @return Number of dimensions that were detected by reading the image headers only.
+   */
+  static long getHeaderProbeCount() {
+    return HEADER_PROBE_COUNT.get();
+  }
+
+  /**
+   * @return Number of dimensions that required decoding the full image binary.
+   */
+  static long getDecodeCount() {
+    return DECODE_COUNT.get();
+  }
+
+  /**
+   * Reset the header probe and decode counters.
+   */
+  static void resetCounters() {
+    HEADER_PROBE_COUNT.set(0);
+    DECODE_COUNT.set(0);
+  }
+
+  private static @Nullable Dimension probe(@NotNull Rendition rendition) {
+    try (InputStream is = rendition.getStream()) {
+      if (is == null) {
+        return null;
+      }
+      Dimension dimension = probe(is);
+      if (dimension != null) {
+        HEADER_PROBE_COUNT.incrementAndGet();
+      }
+      else {
+        log.debug("Unable to detect dimension from image header of rendition {}", rendition.getPath());
+      }
+      return dimension;
+    }
+    catch (IOException ex) {
+      log.debug("Unable to read image header of rendition {}", rendition.getPath(), ex);
+      return null;
+    }
+  }
+
+  /**
+   * Detect image dimension by reading the container headers from the given stream.
+   * The stream is not closed by this method.
+   * @param stream Binary stream
+   * @return Dimension or null if the format is not supported or the header is invalid
+   */
+  public static @Nullable Dimension probe(@NotNull InputStream stream) {
+    try {
+      InputStream is = new BufferedInputStream(stream, BUFFER_SIZE);
+      is.mark(SIGNATURE_LENGTH);
+      byte[] signature = new byte[SIGNATURE_LENGTH];
+      int signatureLength = readFully(is, signature);
+      is.reset();
+
+      HeaderReader reader = new HeaderReader(is);
+      if (startsWith(signature, signatureLength, 0xFF, 0xD8, 0xFF)) {
+        return probeJpeg(reader);
+      }
+      if (startsWith(signature, signatureLength, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+        return probePng(reader);
+      }
+      if (startsWith(signature, signatureLength, 'G', 'I', 'F', '8')) {
+        return probeGif(reader);
+      }
+      if (startsWith(signature, signatureLength, 'R', 'I', 'F', 'F')
+          && signatureLength >= SIGNATURE_LENGTH && signature[8] == 'W' && signature[9] == 'E'
+          && signature[10] == 'B' && signature[11] == 'P') {
+        return probeWebp(reader);
+      }
+      if (startsWith(signature, signatureLength, 'I', 'I', 0x2A, 0x00)
+          || startsWith(signature, signatureLength, 'M', 'M', 0x00, 0x2A)) {
+        return probeTiff(reader, signature[0] == 'M');
+      }
+      return probeSvg(is);
+    }
+    catch (IOException ex) {
+      // header truncated or header limit exceeded
+      log.trace("Unable to probe image header: {}", ex.getMessage());
+      return null;
+    }
+  }
+
+  private static @Nullable Dimension probeJpeg(HeaderReader reader) throws IOException {
+    // skip SOI marker
+    reader.skip(2);
+    while (true) {
+      if (reader.u8() != 0xFF) {
+        return null;
+      }
+      int marker = reader.u8();
+      while (marker == 0xFF) {
+        // fill bytes
+        marker = reader.u8();
+      }
+      if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+        // markers without payload
+        continue;
+      }
+      if (marker == 0xD9 || marker == 0xDA) {
+        // end of image or start of scan reached without start of frame
+        return null;
+      }
+      int length = reader.u16();
+      if (length < 2) {
+        return null;
+      }
+      if (isJpegStartOfFrame(marker)) {
+        // sample precision
+        reader.u8();
+        int height = reader.u16();
+        int width = reader.u16();
+        return toDimension(width, height);
+      }
+      reader.skip(length - 2L);
+    }
+  }
+
+  private static boolean isJpegStartOfFrame(int marker) {
+    // SOF0-SOF15 except DHT, JPG and DAC
+    return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+  }
+
+  private static @Nullable Dimension probePng(HeaderReader reader) throws IOException {
+    // signature + IHDR chunk length
+    reader.skip(12);
+    if (reader.u32() != 0x49484452L) {
+      // first chunk must be IHDR
+      return null;
+    }
+    long width = reader.u32();
+    long height = reader.u32();
+    return toDimension(width, height);
+  }
+
+  private static @Nullable Dimension probeGif(HeaderReader reader) throws IOException {
+    reader.skip(6);
+    reader.littleEndian();
+    int width = reader.u16();
+    int height = reader.u16();
+    return toDimension(width, height);
+  }
+
+  private static @Nullable Dimension probeWebp(HeaderReader reader) throws IOException {
+    // RIFF header and WEBP format marker
+    reader.skip(12);
+    long chunkType = reader.u32();
+    reader.littleEndian();
+    // chunk size
+    reader.skip(4);
+    if (chunkType == 0x56503858L) {
+      // VP8X: extended format with canvas size
+      reader.skip(4);
+      long width = reader.u24() + 1L;
+      long height = reader.u24() + 1L;
+      return toDimension(width, height);
+    }
+    if (chunkType == 0x5650384CL) {
+      // VP8L: lossless format
+      if (reader.u8() != 0x2F) {
+        return null;
+      }
+      long bits = reader.u32();
+      long width = (bits & 0x3FFF) + 1L;
+      long height = ((bits >> 14) & 0x3FFF) + 1L;
+      return toDimension(width, height);
+    }
+    if (chunkType == 0x56503820L) {
+      // VP8: lossy format - skip frame tag and check start code
+      reader.skip(3);
+      if (reader.u8() != 0x9D || reader.u8() != 0x01 || reader.u8() != 0x2A) {
+        return null;
+      }
+      int width = reader.u16() & 0x3FFF;
+      int height = reader.u16() & 0x3FFF;
+      return toDimension(width, height);
+    }
+    return null;
+  }
+
+  private static @Nullable Dimension probeTiff(HeaderReader reader, boolean bigEndian) throws IOException {
+    if (!bigEndian) {
+      reader.littleEndian();
+    }
+    reader.skip(4);
+    long ifdOffset = reader.u32();
+    reader.seek(ifdOffset);
+    int entryCount = reader.u16();
+    long width = 0;
+    long height = 0;
+    for (int i = 0; i < entryCount && (width == 0 || height == 0); i++) {
+      int tag = reader.u16();
+      int type = reader.u16();
+      // value count
+      reader.skip(4);
+      long value;
+      if (type == 3) {
+        // SHORT
+        value = reader.u16();
+        reader.skip(2);
+      }
+      else if (type == 4) {
+        // LONG
+        value = reader.u32();
+      }
+      else {
+        reader.skip(4);
+        continue;
+      }
+      if (tag == 256) {
+        width = value;
+      }
+      else if (tag == 257) {
+        height = value;
+      }
+    }
+    return toDimension(width, height);
+  }
+
+  private static @Nullable Dimension probeSvg(InputStream is) throws IOException {
+    Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
+    char[] buffer = new char[MAX_SVG_HEADER_CHARS];
+    int length = 0;
+    int read;
+    while (length < buffer.length && (read = reader.read(buffer, length, buffer.length - length)) != -1) {
+      length += read;
+    }
+    String header = new String(buffer, 0, length);
+    if (!StringUtils.startsWith(StringUtils.stripStart(header, "\uFEFF \t\r\n"), "<")) {
+      return null;
+    }
+    Matcher rootElement = SVG_ROOT_ELEMENT.matcher(header);
+    if (!rootElement.find()) {
+      return null;
+    }
+    String attributes = StringUtils.defaultString(rootElement.group(1));
+    long width = parseSvgLength(getSvgAttribute(attributes, "width"));
+    long height = parseSvgLength(getSvgAttribute(attributes, "height"));
+    if (width <= 0 || height <= 0) {
+      // fallback to view box if width/height are missing or have relative units
+      String viewBox = getSvgAttribute(attributes, "viewBox");
+      String[] parts = StringUtils.split(StringUtils.defaultString(viewBox), " ,\t\r\n");
+      if (parts.length == 4) {
+        width = parseSvgLength(parts[2]);
+        height = parseSvgLength(parts[3]);
+      }
+    }
+    return toDimension(width, height);
+  }
+
+  private static @Nullable String getSvgAttribute(String attributes, String name) {
+    Matcher matcher = Pattern.compile("\\s" + name + "\\s*=\\s*(\"([^\"]*)\"|'([^']*)')").matcher(attributes);
+    if (matcher.find()) {
+      return matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+    }
+    return null;
+  }
+
+  private static long parseSvgLength(@Nullable String value) {
+    if (value == null) {
+      return 0;
+    }
+    Matcher matcher = SVG_LENGTH.matcher(value);
+    if (matcher.matches()) {
+      return Math.round(Double.parseDouble(matcher.group(1)));
+    }
+    return 0;
+  }
+
+  private static int readFully(InputStream is, byte[] buffer) throws IOException {
+    int length = 0;
+    int read;
+    while (length < buffer.length && (read = is.read(buffer, length, buffer.length - length)) != -1) {
+      length += read;
+    }
+    return length;
+  }
+
+  private static boolean startsWith(byte[] signature, int signatureLength, int... expected) {
+    if (signatureLength < expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if ((signature[i] & 0xFF) != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static @Nullable Dimension toDimension(long width, long height) {
+    if (width > 0L && height > 0L) {
+      return new Dimension(width, height);
+    }
+    return null;
+  }
+
+  /**
+   * Reads integer values from the header stream and enforces the maximum number of header bytes.
+   */
+  private static final class HeaderReader {
+
+    private final InputStream is;
+    private boolean bigEndian = true;
+    private long position;
+
+    HeaderReader(InputStream is) {
+      this.is = is;
+    }
+
+    void littleEndian() {
+      this.bigEndian = false;
+    }
+
+    int u8() throws IOException {
+      checkLimit(1);
+      int value = is.read();
+      if (value == -1) {
+        throw new EOFException("Unexpected end of image header.");
+      }
+      position++;
+      return value;
+    }
+
+    int u16() throws IOException {
+      int b1 = u8();
+      int b2 = u8();
+      return bigEndian ? (b1 << 8) | b2 : (b2 << 8) | b1;
+    }
+
+    long u24() throws IOException {
+      long b1 = u8();
+      long b2 = u8();
+      long b3 = u8();
+      return bigEndian ? (b1 << 16) | (b2 << 8) | b3 : (b3 << 16) | (b2 << 8) | b1;
+    }
+
+    long u32() throws IOException {
+      long b1 = u16();
+      long b2 = u16();
+      return bigEndian ? (b1 << 16) | b2 : (b2 << 16) | b1;
+    }
+
+    void skip(long count) throws IOException {
+      checkLimit(count);
+      long remaining = count;
+      while (remaining > 0) {
+        long skipped = is.skip(remaining);
+        if (skipped <= 0) {
+          if (is.read() == -1) {
+            throw new EOFException("Unexpected end of image header.");
+          }
+          skipped = 1;
+        }
+        remaining -= skipped;
+        position += skipped;
+      }
+    }
+
+    void seek(long offset) throws IOException {
+      if (offset < position) {
+        throw new IOException("Unable to seek backwards in image header.");
+      }
+      skip(offset - position);
+    }
+
+    private void checkLimit(long count) throws IOException {
+      if (position + count > MAX_HEADER_BYTES) {
+        throw new IOException("Image header exceeds " + MAX_HEADER_BYTES + " bytes.");
+      }
+    }
+
+  }
+
+}
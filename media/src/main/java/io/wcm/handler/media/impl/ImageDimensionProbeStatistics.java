@@ -0,0 +1,57 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * Exposes the header probe and decode counters of {@link ImageDimensionProbe} via JMX.
+ */
+@Component(service = ImageDimensionProbeStatisticsMBean.class,
+    immediate = true,
+    property = "jmx.objectname=io.wcm.handler.media:type=ImageDimensionProbe")
+public final class ImageDimensionProbeStatistics implements ImageDimensionProbeStatisticsMBean {
+
+  @Override
+  public long getHeaderProbeCount() {
+    return ImageDimensionProbe.getHeaderProbeCount();
+  }
+
+  @Override
+  public long getDecodeCount() {
+    return ImageDimensionProbe.getDecodeCount();
+  }
+
+  @Override
+  public double getHeaderProbeRate() {
+    long headerProbeCount = getHeaderProbeCount();
+    long total = headerProbeCount + getDecodeCount();
+    if (total == 0) {
+      return 0d;
+    }
+    return (double)headerProbeCount / total;
+  }
+
+  @Override
+  public void reset() {
+    ImageDimensionProbe.resetCounters();
+  }
+
+}
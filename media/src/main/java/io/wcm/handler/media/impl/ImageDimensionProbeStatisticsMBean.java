@@ -0,0 +1,47 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+/**
+ * JMX management interface for {@link ImageDimensionProbeStatistics}.
+ */
+public interface ImageDimensionProbeStatisticsMBean {
+
+  /**
+   * @return Number of image dimensions that were detected by reading the image headers only
+   */
+  long getHeaderProbeCount();
+
+  /**
+   * @return Number of image dimensions that required decoding the full image binary
+   */
+  long getDecodeCount();
+
+  /**
+   * @return Ratio of image dimensions detected by reading the image headers to all detected image dimensions
+   */
+  double getHeaderProbeRate();
+
+  /**
+   * Reset all statistics.
+   */
+  void reset();
+
+}
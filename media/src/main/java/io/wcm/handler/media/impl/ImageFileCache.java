@@ -0,0 +1,552 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+/**
+ * Caches images rendered by {@link ImageFileServlet} in a small in-heap tier and a bounded on-disk tier.
+ * Cache entries are keyed by rendition path, last modified date of the binary and the transformation selectors.
+ * All entries of a rendition are invalidated as soon as a different last modified date is requested for it.
+ * The disk tier survives restarts, files are read via memory-mapping and evicted in LRU order.
+ */
+@Component(service = ImageFileCache.class, immediate = true)
+@Designate(ocd = ImageFileCache.Config.class)
+public final class ImageFileCache {
+
+  @ObjectClassDefinition(
+      name = "wcm.io Media Handler Image File Cache",
+      description = "Caches resized, cropped and rotated images rendered by the image file servlet.")
+  @interface Config {
+
+    @AttributeDefinition(name = "Enabled", description = "Switch to enable or disable the image file cache.")
+    boolean enabled() default true;
+
+    @AttributeDefinition(name = "Heap size (KB)", description = "Maximum size of rendered images kept in heap memory.")
+    long heapMaxSizeKb() default 16 * 1024;
+
+    @AttributeDefinition(name = "Max. heap entry size (KB)", description = "Rendered images larger than this "
+        + "are only stored on disk.")
+    long heapMaxEntrySizeKb() default 512;
+
+    @AttributeDefinition(name = "Disk size (MB)", description = "Maximum size of rendered images stored on disk. "
+        + "Set to 0 to disable the disk cache.")
+    long diskMaxSizeMb() default 512;
+
+    @AttributeDefinition(name = "Directory", description = "Directory for the disk cache. "
+        + "If not set a directory within the bundle data area is used.")
+    String directory();
+
+  }
+
+  static final String DEFAULT_DIRECTORY = "imagefilecache";
+  private static final String FILE_EXTENSION = ".bin";
+  private static final String TEMP_FILE_EXTENSION = ".tmp";
+  static final int MAX_TRACKED_PATHS = 10000;
+
+  private static final Logger log = LoggerFactory.getLogger(ImageFileCache.class);
+
+  private boolean enabled;
+  private long heapMaxEntrySize;
+  private long diskMaxSize;
+  private File directory;
+
+  private Cache<Key, byte[]> heapCache;
+
+  // disk cache index in LRU order (guarded by synchronization on diskIndex)
+  private final LinkedHashMap<Key, DiskEntry> diskIndex = new LinkedHashMap<>(16, 0.75f, true);
+  private long diskSize;
+
+  // last modified date and number of disk entries per rendition path that is currently cached, in LRU order
+  // (guarded by synchronization on diskIndex). Only used for removing outdated entries early - as the last modified
+  // date is part of the cache key outdated entries are never served, so it is safe to limit its size.
+  private final LinkedHashMap<String, PathInfo> pathInfos = new LinkedHashMap<String, PathInfo>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, PathInfo> eldest) {
+      return size() > MAX_TRACKED_PATHS;
+    }
+  };
+
+  @Activate
+  private void activate(BundleContext bundleContext, Config config) {
+    this.enabled = config.enabled();
+    if (!enabled) {
+      return;
+    }
+    this.heapMaxEntrySize = config.heapMaxEntrySizeKb() * 1024L;
+    this.heapCache = CacheBuilder.newBuilder()
+        .maximumWeight(Math.max(config.heapMaxSizeKb(), 0) * 1024L)
+        .weigher((Key key, byte[] value) -> value.length)
+        .build();
+
+    this.diskMaxSize = config.diskMaxSizeMb() * 1024L * 1024L;
+    if (diskMaxSize > 0) {
+      if (StringUtils.isNotBlank(config.directory())) {
+        directory = new File(config.directory());
+      }
+      else {
+        directory = bundleContext.getDataFile(DEFAULT_DIRECTORY);
+      }
+      if (directory == null || !(directory.isDirectory() || directory.mkdirs())) {
+        log.warn("Unable to create image file cache directory {}, disk cache is disabled.", directory);
+        directory = null;
+      }
+      else {
+        loadDiskIndex();
+      }
+    }
+  }
+
+  @Deactivate
+  private void deactivate() {
+    this.enabled = false;
+    if (heapCache != null) {
+      heapCache.invalidateAll();
+    }
+    synchronized (diskIndex) {
+      diskIndex.clear();
+      pathInfos.clear();
+      diskSize = 0;
+    }
+  }
+
+  /**
+   * @return true if cache is enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Get cached image.
+   * @param key Cache key
+   * @return Image binary data or null if not cached
+   */
+  public @Nullable ByteBuffer get(@NotNull Key key) {
+    if (!enabled) {
+      return null;
+    }
+    invalidateIfModified(key, false);
+
+    byte[] data = heapCache.getIfPresent(key);
+    if (data != null) {
+      return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    DiskEntry diskEntry;
+    synchronized (diskIndex) {
+      diskEntry = diskIndex.get(key);
+    }
+    if (diskEntry == null) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(diskEntry.file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, diskEntry.dataOffset, diskEntry.dataLength);
+      if (diskEntry.dataLength <= heapMaxEntrySize) {
+        // promote small images to heap cache
+        byte[] heapData = new byte[(int)diskEntry.dataLength];
+        buffer.duplicate().get(heapData);
+        heapCache.put(key, heapData);
+      }
+      return buffer.asReadOnlyBuffer();
+    }
+    catch (IOException ex) {
+      log.warn("Unable to read image file cache entry {}", diskEntry.file, ex);
+      removeDiskEntry(key);
+      return null;
+    }
+  }
+
+  /**
+   * Put rendered image to cache.
+   * @param key Cache key
+   * @param data Image binary data
+   */
+  public void put(@NotNull Key key, @NotNull byte[] data) {
+    if (!enabled || data.length == 0) {
+      return;
+    }
+    invalidateIfModified(key, true);
+
+    if (data.length <= heapMaxEntrySize) {
+      heapCache.put(key, data);
+    }
+    if (directory != null && data.length <= diskMaxSize) {
+      putDiskEntry(key, data);
+    }
+  }
+
+  /**
+   * @return Number of rendition paths whose last modified date is tracked
+   */
+  int getTrackedPathCount() {
+    synchronized (diskIndex) {
+      return pathInfos.size();
+    }
+  }
+
+  /**
+   * Write cached image data to output stream.
+   * @param data Image data as returned by {@link #get(Key)}
+   * @param out Output stream
+   * @throws IOException I/O exception
+   */
+  public static void write(@NotNull ByteBuffer data, @NotNull OutputStream out) throws IOException {
+    ByteBuffer buffer = data.duplicate();
+    if (buffer.hasArray()) {
+      out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+    else {
+      byte[] chunk = new byte[Math.min(buffer.remaining(), AbstractMediaFileServlet.BUFFER_SIZE)];
+      while (buffer.hasRemaining()) {
+        int length = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, length);
+        out.write(chunk, 0, length);
+      }
+    }
+  }
+
+  /**
+   * Removes all cached entries of the given rendition path if they were rendered from a binary
+   * with a different last modified date.
+   * @param key Cache key
+   * @param track Start tracking the last modified date of the key's path if it is not tracked yet
+   */
+  private void invalidateIfModified(Key key, boolean track) {
+    List<DiskEntry> removedEntries = new ArrayList<>();
+    synchronized (diskIndex) {
+      PathInfo pathInfo = pathInfos.get(key.path);
+      if (pathInfo != null && pathInfo.lastModified == key.lastModified) {
+        return;
+      }
+      if (pathInfo == null) {
+        if (track) {
+          pathInfos.put(key.path, new PathInfo(key.lastModified));
+        }
+        return;
+      }
+      pathInfos.remove(key.path);
+      if (track) {
+        pathInfos.put(key.path, new PathInfo(key.lastModified));
+      }
+      Iterator<Map.Entry<Key, DiskEntry>> entries = diskIndex.entrySet().iterator();
+      while (entries.hasNext()) {
+        Map.Entry<Key, DiskEntry> entry = entries.next();
+        if (StringUtils.equals(entry.getKey().path, key.path)) {
+          removedEntries.add(entry.getValue());
+          diskSize -= entry.getValue().size();
+          entries.remove();
+        }
+      }
+    }
+    log.debug("Invalidate cached images of {}", key.path);
+    heapCache.asMap().keySet().removeIf(cachedKey -> StringUtils.equals(cachedKey.path, key.path));
+    removedEntries.forEach(entry -> deleteFile(entry.file));
+  }
+
+  /**
+   * Update number of disk entries of the given rendition path, and stop tracking it if no disk entry is left.
+   * Has to be called while holding the lock on diskIndex.
+   * @param key Cache key
+   * @param delta Number of added or removed disk entries
+   */
+  private void updateDiskEntryCount(Key key, int delta) {
+    PathInfo pathInfo = pathInfos.get(key.path);
+    if (pathInfo == null) {
+      if (delta > 0) {
+        pathInfo = new PathInfo(key.lastModified);
+        pathInfos.put(key.path, pathInfo);
+      }
+      else {
+        return;
+      }
+    }
+    pathInfo.diskEntryCount += delta;
+    if (pathInfo.diskEntryCount <= 0) {
+      pathInfos.remove(key.path);
+    }
+  }
+
+  private void putDiskEntry(Key key, byte[] data) {
+    byte[] keyBytes = key.toString().getBytes(StandardCharsets.UTF_8);
+    File file = new File(directory, Hashing.sha256().hashString(key.toString(), StandardCharsets.UTF_8).toString() + FILE_EXTENSION);
+    File tempFile = new File(directory, file.getName() + "." + Thread.currentThread().getId() + TEMP_FILE_EXTENSION);
+    try {
+      try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tempFile.toPath()))) {
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.write(data);
+      }
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException ex) {
+      log.warn("Unable to write image file cache entry {}", file, ex);
+      deleteFile(tempFile);
+      return;
+    }
+
+    List<DiskEntry> evictedEntries = new ArrayList<>();
+    synchronized (diskIndex) {
+      DiskEntry previous = diskIndex.put(key, new DiskEntry(file, Integer.BYTES + keyBytes.length, data.length));
+      if (previous != null) {
+        diskSize -= previous.size();
+      }
+      else {
+        updateDiskEntryCount(key, 1);
+      }
+      diskSize += Integer.BYTES + keyBytes.length + data.length;
+      evictedEntries.addAll(evictDiskEntries());
+    }
+    evictedEntries.forEach(entry -> deleteFile(entry.file));
+  }
+
+  private void removeDiskEntry(Key key) {
+    DiskEntry removed;
+    synchronized (diskIndex) {
+      removed = diskIndex.remove(key);
+      if (removed != null) {
+        diskSize -= removed.size();
+        updateDiskEntryCount(key, -1);
+      }
+    }
+    if (removed != null) {
+      deleteFile(removed.file);
+    }
+  }
+
+  /**
+   * Evict least recently used disk entries until the disk cache size is within its bounds.
+   * Has to be called while holding the lock on diskIndex.
+   * @return Evicted entries
+   */
+  private List<DiskEntry> evictDiskEntries() {
+    List<DiskEntry> evictedEntries = new ArrayList<>();
+    Iterator<Map.Entry<Key, DiskEntry>> entries = diskIndex.entrySet().iterator();
+    while (diskSize > diskMaxSize && entries.hasNext()) {
+      Map.Entry<Key, DiskEntry> entry = entries.next();
+      diskSize -= entry.getValue().size();
+      evictedEntries.add(entry.getValue());
+      entries.remove();
+      updateDiskEntryCount(entry.getKey(), -1);
+    }
+    return evictedEntries;
+  }
+
+  /**
+   * Rebuild disk index from files of previous runs. Oldest files are evicted first.
+   */
+  private void loadDiskIndex() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    List<DiskEntry> evictedEntries;
+    synchronized (diskIndex) {
+      for (File file : files) {
+        if (StringUtils.endsWith(file.getName(), TEMP_FILE_EXTENSION)) {
+          deleteFile(file);
+          continue;
+        }
+        Key key = readKey(file);
+        if (key == null) {
+          deleteFile(file);
+          continue;
+        }
+        int headerLength = Integer.BYTES + key.toString().getBytes(StandardCharsets.UTF_8).length;
+        diskIndex.put(key, new DiskEntry(file, headerLength, file.length() - headerLength));
+        diskSize += file.length();
+        PathInfo pathInfo = pathInfos.get(key.path);
+        if (pathInfo != null && pathInfo.lastModified < key.lastModified) {
+          pathInfo.lastModified = key.lastModified;
+        }
+        updateDiskEntryCount(key, 1);
+      }
+      evictedEntries = evictDiskEntries();
+    }
+    evictedEntries.forEach(entry -> deleteFile(entry.file));
+    log.debug("Loaded {} image file cache entries from {}", diskIndex.size(), directory);
+  }
+
+  private static @Nullable Key readKey(File file) {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+      if (channel.read(lengthBuffer, 0) != Integer.BYTES) {
+        return null;
+      }
+      int keyLength = lengthBuffer.getInt(0);
+      if (keyLength <= 0 || keyLength > file.length() - Integer.BYTES) {
+        return null;
+      }
+      ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+      if (channel.read(keyBuffer, Integer.BYTES) != keyLength) {
+        return null;
+      }
+      return Key.fromString(new String(keyBuffer.array(), StandardCharsets.UTF_8));
+    }
+    catch (IOException ex) {
+      log.debug("Unable to read image file cache entry {}", file, ex);
+      return null;
+    }
+  }
+
+  private static void deleteFile(File file) {
+    try {
+      Files.deleteIfExists(file.toPath());
+    }
+    catch (IOException ex) {
+      log.debug("Unable to delete image file cache entry {}", file, ex);
+    }
+  }
+
+
+  /**
+   * Cache key for rendered images.
+   */
+  public static final class Key {
+
+    private static final String SEPARATOR = "|";
+
+    private final String path;
+    private final long lastModified;
+    private final String selectors;
+    private final String contentType;
+    private final double quality;
+
+    /**
+     * @param path Path of the rendition resource
+     * @param lastModified Last modified date of the rendition binary
+     * @param selectors Normalized image transformation selectors
+     * @param contentType Content type of the rendered image
+     * @param quality Image quality of the rendered image
+     */
+    public Key(@NotNull String path, long lastModified, @NotNull String selectors,
+        @NotNull String contentType, double quality) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.selectors = selectors;
+      this.contentType = contentType;
+      this.quality = quality;
+    }
+
+    static @Nullable Key fromString(String value) {
+      // the separator is not allowed in JCR names, so it cannot be part of the path
+      String[] parts = StringUtils.splitPreserveAllTokens(value, SEPARATOR);
+      if (parts.length != 5) {
+        return null;
+      }
+      try {
+        return new Key(parts[0], Long.parseLong(parts[1]), parts[2], parts[3], Double.parseDouble(parts[4]));
+      }
+      catch (NumberFormatException ex) {
+        return null;
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, lastModified, selectors, contentType, quality);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)obj;
+      return StringUtils.equals(path, other.path)
+          && lastModified == other.lastModified
+          && StringUtils.equals(selectors, other.selectors)
+          && StringUtils.equals(contentType, other.contentType)
+          && Double.compare(quality, other.quality) == 0;
+    }
+
+    @Override
+    public String toString() {
+      return path + SEPARATOR + lastModified + SEPARATOR + selectors + SEPARATOR + contentType + SEPARATOR + quality;
+    }
+
+  }
+
+  private static final class PathInfo {
+
+    private long lastModified;
+    private int diskEntryCount;
+
+    PathInfo(long lastModified) {
+      this.lastModified = lastModified;
+    }
+
+  }
+
+  private static final class DiskEntry {
+
+    private final File file;
+    private final long dataOffset;
+    private final long dataLength;
+
+    DiskEntry(File file, long dataOffset, long dataLength) {
+      this.file = file;
+      this.dataOffset = dataOffset;
+      this.dataLength = dataLength;
+    }
+
+    long size() {
+      return dataOffset + dataLength;
+    }
+
+  }
+
+}
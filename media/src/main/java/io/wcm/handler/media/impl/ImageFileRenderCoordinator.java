@@ -0,0 +1,278 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Coordinates rendering of images in {@link ImageFileServlet}:
+ * <ul>
+ * <li>Concurrent requests for the same image are collapsed - only one thread renders the image,
+ * the others wait for it and share the rendered result.</li>
+ * <li>The number of images rendered in parallel is limited to protect the request thread pool.</li>
+ * </ul>
+ */
+@Component(service = ImageFileRenderCoordinator.class, immediate = true)
+@Designate(ocd = ImageFileRenderCoordinator.Config.class)
+public final class ImageFileRenderCoordinator {
+
+  @ObjectClassDefinition(
+      name = "wcm.io Media Handler Image File Render Coordinator",
+      description = "Collapses concurrent requests for the same image and limits the number of images "
+          + "rendered in parallel by the image file servlet.")
+  @interface Config {
+
+    @AttributeDefinition(name = "Max. concurrent renderings", description = "Maximum number of images that are "
+        + "decoded and rendered in parallel. If set to 0 the number of available processors is used.")
+    int maxConcurrentRenderings() default 0;
+
+    @AttributeDefinition(name = "Wait timeout (ms)", description = "Maximum time a request waits for a render permit "
+        + "or for the result of another request rendering the same image.")
+    long waitTimeoutMillis() default 10000;
+
+  }
+
+  private Semaphore permits;
+  private long waitTimeoutMillis;
+
+  private final ConcurrentMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+  private final AtomicLong renderCount = new AtomicLong();
+  private final AtomicLong sharedCount = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+
+  @Activate
+  private void activate(Config config) {
+    int maxConcurrentRenderings = config.maxConcurrentRenderings();
+    if (maxConcurrentRenderings <= 0) {
+      maxConcurrentRenderings = Runtime.getRuntime().availableProcessors();
+    }
+    this.permits = new Semaphore(maxConcurrentRenderings, true);
+    this.waitTimeoutMillis = config.waitTimeoutMillis();
+  }
+
+  /**
+   * Render image, or wait for the result if the same image is currently rendered by another thread.
+   * The rendered image is only buffered as byte array if other requests are waiting for it.
+   * @param key Key identifying the rendered image
+   * @param renderer Renders the image
+   * @return Rendered image or null if the image could not be rendered
+   * @throws IOException If rendering failed
+   * @throws TimeoutException If no render permit or result of concurrent rendering was available within the timeout
+   */
+  public @Nullable Rendering render(@NotNull String key, @NotNull Renderer renderer)
+      throws IOException, TimeoutException {
+    InFlight candidate = new InFlight();
+    InFlight current = inFlight.compute(key, (k, existing) -> {
+      if (existing != null) {
+        existing.waiters.incrementAndGet();
+        return existing;
+      }
+      return candidate;
+    });
+    if (current != candidate) {
+      sharedCount.incrementAndGet();
+      byte[] data = await(current.future);
+      return data != null ? new BufferedRendering(data) : null;
+    }
+    try {
+      Rendering rendering = renderWithPermit(renderer);
+      // no further requests can join after removing the in-flight entry - share result with those already waiting
+      inFlight.remove(key, candidate);
+      if (candidate.waiters.get() == 0) {
+        return rendering;
+      }
+      if (rendering == null) {
+        candidate.future.complete(null);
+        return null;
+      }
+      byte[] data = rendering.toByteArray();
+      candidate.future.complete(data);
+      return new BufferedRendering(data);
+    }
+    catch (IOException | TimeoutException | RuntimeException ex) {
+      candidate.future.completeExceptionally(ex);
+      throw ex;
+    }
+    finally {
+      inFlight.remove(key, candidate);
+    }
+  }
+
+  private byte[] await(CompletableFuture<byte[]> future) throws IOException, TimeoutException {
+    try {
+      return future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for image rendering.", ex);
+    }
+    catch (TimeoutException ex) {
+      timeoutCount.incrementAndGet();
+      throw ex;
+    }
+    catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      if (cause instanceof TimeoutException) {
+        throw (TimeoutException)cause;
+      }
+      throw new IOException("Image rendering failed.", cause);
+    }
+  }
+
+  private @Nullable Rendering renderWithPermit(Renderer renderer) throws IOException, TimeoutException {
+    try {
+      if (!permits.tryAcquire(waitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        timeoutCount.incrementAndGet();
+        throw new TimeoutException("No image render permit available within " + waitTimeoutMillis + "ms.");
+      }
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for image render permit.", ex);
+    }
+    try {
+      renderCount.incrementAndGet();
+      return renderer.render();
+    }
+    finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * @return Number of images rendered
+   */
+  public long getRenderCount() {
+    return renderCount.get();
+  }
+
+  /**
+   * @return Number of requests that shared the result of a concurrent rendering
+   */
+  public long getSharedCount() {
+    return sharedCount.get();
+  }
+
+  /**
+   * @return Number of requests that timed out waiting for a render permit or a concurrent rendering
+   */
+  public long getTimeoutCount() {
+    return timeoutCount.get();
+  }
+
+
+  /**
+   * Renders an image.
+   */
+  @FunctionalInterface
+  public interface Renderer {
+
+    /**
+     * @return Rendered image or null if the image could not be rendered
+     * @throws IOException If rendering failed
+     */
+    @Nullable
+    Rendering render() throws IOException;
+
+  }
+
+  /**
+   * Rendered image that is either written directly to the response or encoded to a byte array.
+   */
+  public interface Rendering {
+
+    /**
+     * @return true if the encoded image is available as byte array without further encoding
+     */
+    boolean isBuffered();
+
+    /**
+     * @return Encoded image binary data
+     * @throws IOException If encoding failed
+     */
+    @NotNull byte[] toByteArray() throws IOException;
+
+    /**
+     * Write encoded image to the given stream.
+     * @param out Output stream
+     * @throws IOException If encoding or writing failed
+     */
+    void write(@NotNull OutputStream out) throws IOException;
+
+  }
+
+  /**
+   * Rendering of already encoded image binary data.
+   */
+  static final class BufferedRendering implements Rendering {
+
+    private final byte[] data;
+
+    BufferedRendering(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public boolean isBuffered() {
+      return true;
+    }
+
+    @Override
+    public @NotNull byte[] toByteArray() {
+      return data;
+    }
+
+    @Override
+    public void write(@NotNull OutputStream out) throws IOException {
+      out.write(data);
+    }
+
+  }
+
+  private static final class InFlight {
+
+    private final CompletableFuture<byte[]> future = new CompletableFuture<>();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+  }
+
+}
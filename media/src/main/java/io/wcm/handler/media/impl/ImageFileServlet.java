@@ -23,17 +23,27 @@ import static io.wcm.handler.media.impl.ImageTransformation.isValidRotation;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.Servlet;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.servlets.HttpConstants;
 import org.jetbrains.annotations.NotNull;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.day.cq.commons.jcr.JcrConstants;
 import com.day.cq.dam.api.handler.store.AssetStore;
@@ -43,6 +53,7 @@ import com.drew.lang.annotations.Nullable;
 import io.wcm.handler.media.CropDimension;
 import io.wcm.handler.media.spi.MediaHandlerConfig;
 import io.wcm.sling.commons.adapter.AdaptTo;
+import io.wcm.wcm.commons.caching.ModificationDate;
 import io.wcm.wcm.commons.contenttype.ContentType;
 import io.wcm.wcm.commons.contenttype.FileExtension;
 
@@ -67,74 +78,119 @@ public final class ImageFileServlet extends AbstractMediaFileServlet {
 
   @Reference
   private AssetStore assetStore;
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private ImageFileCache imageFileCache;
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private ImageFileRenderCoordinator renderCoordinator;
+
+  private static final Logger log = LoggerFactory.getLogger(ImageFileServlet.class);
 
   @Override
-  protected byte[] getBinaryData(Resource resource, SlingHttpServletRequest request) throws IOException {
+  protected boolean sendBinaryData(Resource resource, SlingHttpServletRequest request,
+      SlingHttpServletResponse response) throws IOException {
     // get media app config
     MediaHandlerConfig config = AdaptTo.notNull(request, MediaHandlerConfig.class);
 
-    // check for image scaling parameters
-    int width = 0;
-    int height = 0;
-    String[] selectors = request.getRequestPathInfo().getSelectors();
-    if (selectors.length >= 3) {
-      width = NumberUtils.toInt(selectors[1]);
-      height = NumberUtils.toInt(selectors[2]);
+    // check for image transformation selectors
+    ImageFileSelectors selectors = ImageFileSelectors.parse(request.getRequestPathInfo().getSelectors());
+    if (selectors == null) {
+      return false;
     }
-    if (width <= 0 || height <= 0) {
-      return null;
+    String contentType = getContentType(resource, request);
+    double quality = config.getDefaultImageQuality(contentType);
+
+    // key identifying the rendered image, used for caching and for collapsing concurrent renderings
+    Date lastModified = ModificationDate.get(resource);
+    ImageFileCache.Key renderKey = new ImageFileCache.Key(resource.getPath(),
+        lastModified != null ? lastModified.getTime() : 0L, selectors.toSelectorString(), contentType, quality);
+
+    // deliver from cache if this image was rendered before from the same binary
+    // (without last modified date cached entries cannot be invalidated reliably)
+    ImageFileCache.Key cacheKey = null;
+    if (imageFileCache != null && imageFileCache.isEnabled() && lastModified != null) {
+      cacheKey = renderKey;
+      ByteBuffer cachedData = imageFileCache.get(cacheKey);
+      if (cachedData != null) {
+        setResponseHeaders(contentType, cachedData.remaining(), request, response);
+        OutputStream out = response.getOutputStream();
+        ImageFileCache.write(cachedData, out);
+        out.flush();
+        return true;
+      }
     }
 
-    // check for cropping parameter
-    CropDimension cropDimension = null;
-    if (selectors.length >= 4) {
-      String cropString = selectors[3];
-      if (!StringUtils.equals(cropString, "-")) {
-        try {
-          cropDimension = CropDimension.fromCropString(cropString);
-        }
-        catch (IllegalArgumentException ex) {
-          // ignore
-        }
+    // render image - the coordinator shares the result with concurrent requests for the same image
+    ImageFileRenderCoordinator.Rendering rendering;
+    ImageFileRenderCoordinator.Renderer renderer = () -> {
+      Layer layer = getTransformedLayer(resource, selectors);
+      return layer != null ? new LayerRendering(layer, contentType, quality) : null;
+    };
+    if (renderCoordinator != null) {
+      try {
+        rendering = renderCoordinator.render(renderKey.toString(), renderer);
+      }
+      catch (TimeoutException ex) {
+        log.warn("Rendering image {} timed out: {}", resource.getPath(), ex.getMessage());
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        return true;
       }
     }
+    else {
+      rendering = renderer.render();
+    }
+    if (rendering == null) {
+      return false;
+    }
 
-    // check for rotation parameter
-    int rotation = 0;
-    if (selectors.length >= 5) {
-      String rotationString = selectors[4];
-      rotation = NumberUtils.toInt(rotationString);
-      if (!isValidRotation(rotation)) {
-        rotation = 0;
+    OutputStream out;
+    if (cacheKey != null || rendering.isBuffered()) {
+      // encode to byte array to put it into the cache
+      byte[] data = rendering.toByteArray();
+      if (cacheKey != null) {
+        imageFileCache.put(cacheKey, data);
       }
+      setResponseHeaders(contentType, data.length, request, response);
+      out = response.getOutputStream();
+      out.write(data);
+    }
+    else {
+      // encode image directly to response - content length is not known up front
+      setResponseHeaders(contentType, -1, request, response);
+      out = response.getOutputStream();
+      rendering.write(out);
     }
+    out.flush();
+    return true;
+  }
 
+  /**
+   * Get layer from binary data and apply cropping, rotation and resizing as requested by the selectors.
+   * @param resource Resource
+   * @param selectors Image transformation selectors
+   * @return Layer or null if binary data could not be loaded
+   */
+  private @Nullable Layer getTransformedLayer(Resource resource, ImageFileSelectors selectors) {
     Layer layer = ResourceLayerUtil.toLayer(resource, assetStore);
     if (layer == null) {
       return null;
     }
 
     // if required: crop image
-    if (cropDimension != null) {
-      layer.crop(cropDimension.getRectangle());
+    if (selectors.cropDimension != null) {
+      layer.crop(selectors.cropDimension.getRectangle());
     }
 
     // if required: rotate image
-    if (rotation != 0) {
-      layer.rotate(rotation);
+    if (selectors.rotation != 0) {
+      layer.rotate(selectors.rotation);
     }
 
     // resize layer
-    if (width <= layer.getWidth() && height <= layer.getHeight()) {
-      layer.resize(width, height);
+    if (selectors.width <= layer.getWidth() && selectors.height <= layer.getHeight()) {
+      layer.resize(selectors.width, selectors.height);
     }
 
-    // stream to byte array
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    String contentType = getContentType(resource, request);
-    layer.write(contentType, config.getDefaultImageQuality(contentType), bos);
-    bos.flush();
-    return bos.toByteArray();
+    return layer;
   }
 
   @Override
@@ -207,4 +263,108 @@ public final class ImageFileServlet extends AbstractMediaFileServlet {
     return result.toString();
   }
 
+
+  /**
+   * Transformed image layer that is encoded on demand.
+   */
+  private static final class LayerRendering implements ImageFileRenderCoordinator.Rendering {
+
+    private final Layer layer;
+    private final String contentType;
+    private final double quality;
+
+    LayerRendering(Layer layer, String contentType, double quality) {
+      this.layer = layer;
+      this.contentType = contentType;
+      this.quality = quality;
+    }
+
+    @Override
+    public boolean isBuffered() {
+      return false;
+    }
+
+    @Override
+    public @NotNull byte[] toByteArray() throws IOException {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      layer.write(contentType, quality, bos);
+      return bos.toByteArray();
+    }
+
+    @Override
+    public void write(@NotNull OutputStream out) throws IOException {
+      layer.write(contentType, quality, out);
+    }
+
+  }
+
+  /**
+   * Image transformation parameters parsed from request selectors.
+   */
+  private static final class ImageFileSelectors {
+
+    private final int width;
+    private final int height;
+    private final CropDimension cropDimension;
+    private final int rotation;
+
+    private ImageFileSelectors(int width, int height, CropDimension cropDimension, int rotation) {
+      this.width = width;
+      this.height = height;
+      this.cropDimension = cropDimension;
+      this.rotation = rotation;
+    }
+
+    /**
+     * @param selectors Request selectors
+     * @return Parsed selectors or null if no valid width/height is given
+     */
+    static @Nullable ImageFileSelectors parse(String[] selectors) {
+      // check for image scaling parameters
+      int width = 0;
+      int height = 0;
+      if (selectors.length >= 3) {
+        width = NumberUtils.toInt(selectors[1]);
+        height = NumberUtils.toInt(selectors[2]);
+      }
+      if (width <= 0 || height <= 0) {
+        return null;
+      }
+
+      // check for cropping parameter
+      CropDimension cropDimension = null;
+      if (selectors.length >= 4) {
+        String cropString = selectors[3];
+        if (!StringUtils.equals(cropString, "-")) {
+          try {
+            cropDimension = CropDimension.fromCropString(cropString);
+          }
+          catch (IllegalArgumentException ex) {
+            // ignore
+          }
+        }
+      }
+
+      // check for rotation parameter
+      int rotation = 0;
+      if (selectors.length >= 5) {
+        String rotationString = selectors[4];
+        rotation = NumberUtils.toInt(rotationString);
+        if (!isValidRotation(rotation)) {
+          rotation = 0;
+        }
+      }
+
+      return new ImageFileSelectors(width, height, cropDimension, rotation);
+    }
+
+    /**
+     * @return Normalized selector string without content disposition selector
+     */
+    String toSelectorString() {
+      return buildSelectorString(width, height, cropDimension, rotation != 0 ? rotation : null, false);
+    }
+
+  }
+
 }
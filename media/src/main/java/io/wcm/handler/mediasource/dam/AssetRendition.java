@@ -31,8 +31,6 @@ import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataName
 import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataNameConstants.PN_IMAGE_HEIGHT;
 import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataNameConstants.PN_IMAGE_WIDTH;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
@@ -48,10 +46,10 @@ import org.slf4j.LoggerFactory;
 
 import com.day.cq.dam.api.Asset;
 import com.day.cq.dam.api.Rendition;
-import com.day.image.Layer;
 
 import io.wcm.handler.media.Dimension;
 import io.wcm.handler.media.MediaFileType;
+import io.wcm.handler.media.impl.ImageDimensionProbe;
 import io.wcm.sling.commons.adapter.AdaptTo;
 
 /**
@@ -169,7 +167,8 @@ public final class AssetRendition {
   }
 
   /**
-   * Fallback: Read dimension by loading image binary into memory.
+   * Fallback: Read dimension from image binary. Only the image headers are read if possible,
+   * the image is loaded into memory only if the header could not be parsed.
    * @param rendition Rendition
    * @param suppressLogWarningNoRenditionsMetadata If set to true, no log warnings is generated when
    *          renditions metadata containing the with/height of the rendition does not exist (yet).
@@ -178,27 +177,13 @@ public final class AssetRendition {
   @SuppressWarnings("PMD.GuardLogStatement")
   private static @Nullable Dimension getDimensionFromImageBinary(@NotNull Rendition rendition,
       boolean suppressLogWarningNoRenditionsMetadata) {
-    try (InputStream is = rendition.getStream()) {
-      if (is != null) {
-        if (!suppressLogWarningNoRenditionsMetadata) {
-          log.warn("Unable to detect rendition metadata for {}, "
-              + "fallback to inefficient detection by loading image into in memory. "
-              + "Please check if the service user for the bundle 'io.wcm.handler.media' is configured properly.",
-              rendition.getPath());
-        }
-        Layer layer = new Layer(is);
-        long width = layer.getWidth();
-        long height = layer.getHeight();
-        return toDimension(width, height);
-      }
-      else {
-        log.warn("Unable to get binary stream for rendition {}", rendition.getPath());
-      }
+    if (!suppressLogWarningNoRenditionsMetadata) {
+      log.warn("Unable to detect rendition metadata for {}, "
+          + "fallback to inefficient detection from image binary. "
+          + "Please check if the service user for the bundle 'io.wcm.handler.media' is configured properly.",
+          rendition.getPath());
     }
-    catch (IOException ex) {
-      log.warn("Unable to read binary stream to layer for rendition {}", rendition.getPath(), ex);
-    }
-    return null;
+    return ImageDimensionProbe.getDimension(rendition);
   }
 
   /**
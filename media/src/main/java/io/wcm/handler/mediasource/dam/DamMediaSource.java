@@ -35,6 +35,7 @@ import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.models.annotations.Model;
 import org.apache.sling.models.annotations.injectorspecific.InjectionStrategy;
+import org.apache.sling.models.annotations.injectorspecific.OSGiService;
 import org.apache.sling.models.annotations.injectorspecific.Self;
 import org.apache.sling.models.annotations.injectorspecific.SlingObject;
 import org.jetbrains.annotations.NotNull;
@@ -67,6 +68,7 @@ import io.wcm.handler.media.markup.MediaMarkupBuilderUtil;
 import io.wcm.handler.media.spi.MediaHandlerConfig;
 import io.wcm.handler.media.spi.MediaSource;
 import io.wcm.handler.mediasource.dam.impl.DamAsset;
+import io.wcm.handler.mediasource.dam.impl.RenditionIndexCache;
 import io.wcm.sling.models.annotations.AemObject;
 
 /**
@@ -92,6 +94,8 @@ public final class DamMediaSource extends MediaSource {
   private MediaHandlerConfig mediaHandlerConfig;
   @Self
   private MediaFormatHandler mediaFormatHandler;
+  @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+  private RenditionIndexCache renditionIndexCache;
 
   private static final Logger log = LoggerFactory.getLogger(DamMediaSource.class);
 
@@ -144,7 +148,7 @@ public final class DamMediaSource extends MediaSource {
         damAsset = assetResource.adaptTo(com.day.cq.dam.api.Asset.class);
       }
       if (damAsset != null) {
-        Asset asset = new DamAsset(damAsset, media, adaptable);
+        Asset asset = new DamAsset(damAsset, media, adaptable, renditionIndexCache);
         media.setAsset(asset);
 
         // resolve rendition(s)
@@ -26,6 +26,7 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.wrappers.ValueMapDecorator;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.day.cq.dam.api.DamConstants;
 
@@ -46,18 +47,30 @@ public final class DamAsset extends SlingAdaptable implements Asset {
   private final Integer rotation;
   private final MediaArgs defaultMediaArgs;
   private final ValueMap properties;
+  private final RenditionIndexCache renditionIndexCache;
 
   /**
    * @param damAsset DAM asset
    * @param media Media metadata
    */
   public DamAsset(com.day.cq.dam.api.Asset damAsset, Media media, Adaptable adaptable) {
+    this(damAsset, media, adaptable, null);
+  }
+
+  /**
+   * @param damAsset DAM asset
+   * @param media Media metadata
+   * @param renditionIndexCache Rendition index cache (optional)
+   */
+  public DamAsset(com.day.cq.dam.api.Asset damAsset, Media media, Adaptable adaptable,
+      @Nullable RenditionIndexCache renditionIndexCache) {
     this.damAsset = damAsset;
     this.cropDimension = media.getCropDimension();
     this.rotation = media.getRotation();
     this.defaultMediaArgs = media.getMediaRequest().getMediaArgs();
     this.properties = new ValueMapDecorator(damAsset.getMetadata());
     this.adaptable = adaptable;
+    this.renditionIndexCache = renditionIndexCache;
   }
 
   @Override
@@ -159,7 +172,8 @@ public final class DamAsset extends SlingAdaptable implements Asset {
    * @return DAM rendition instance (may be invalid rendition)
    */
   protected Rendition getDamRendition(MediaArgs mediaArgs) {
-    return new DamRendition(this.damAsset, this.cropDimension, this.rotation, mediaArgs, adaptable);
+    return new DamRendition(this.damAsset, this.cropDimension, this.rotation, mediaArgs, adaptable,
+        renditionIndexCache);
   }
 
   @Override
@@ -56,15 +56,26 @@ class DamRendition extends SlingAdaptable implements Rendition {
    * @param mediaArgs Media args
    */
   DamRendition(Asset asset, CropDimension cropDimension, Integer rotation, MediaArgs mediaArgs, Adaptable adaptable) {
+    this(asset, cropDimension, rotation, mediaArgs, adaptable, null);
+  }
+
+  /**
+   * @param asset DAM asset
+   * @param cropDimension Crop dimension
+   * @param mediaArgs Media args
+   * @param renditionIndexCache Rendition index cache (optional)
+   */
+  DamRendition(Asset asset, CropDimension cropDimension, Integer rotation, MediaArgs mediaArgs, Adaptable adaptable,
+      RenditionIndexCache renditionIndexCache) {
     this.mediaArgs = mediaArgs;
 
     // resolve rendition from DAM assets
     RenditionHandler renditionHandler;
     if (cropDimension != null || rotation != null) {
-      renditionHandler = new TransformedRenditionHandler(asset, cropDimension, rotation);
+      renditionHandler = new TransformedRenditionHandler(asset, cropDimension, rotation, renditionIndexCache);
     }
     else {
-      renditionHandler = new DefaultRenditionHandler(asset);
+      renditionHandler = new DefaultRenditionHandler(asset, renditionIndexCache);
     }
     RenditionMetadata resolvedRendition = renditionHandler.getRendition(mediaArgs);
 
@@ -74,7 +85,7 @@ class DamRendition extends SlingAdaptable implements Rendition {
       DamAutoCropping autoCropping = new DamAutoCropping(asset, mediaArgs);
       List<CropDimension> autoCropDimensions = autoCropping.calculateAutoCropDimensions();
       for (CropDimension autoCropDimension : autoCropDimensions) {
-        renditionHandler = new TransformedRenditionHandler(asset, autoCropDimension, null);
+        renditionHandler = new TransformedRenditionHandler(asset, autoCropDimension, null, renditionIndexCache);
         resolvedRendition = renditionHandler.getRendition(mediaArgs);
         if (resolvedRendition != null) {
           break;
@@ -22,10 +22,10 @@ package io.wcm.handler.mediasource.dam.impl;
 import static io.wcm.handler.media.format.impl.MediaFormatSupport.getRequestedFileExtensions;
 import static io.wcm.handler.media.format.impl.MediaFormatSupport.visitMediaFormats;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
-import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -47,17 +47,36 @@ import io.wcm.handler.mediasource.dam.AssetRendition;
 class DefaultRenditionHandler implements RenditionHandler {
 
   private Set<RenditionMetadata> renditions;
+  private RenditionCandidates renditionCandidates;
   private final RenditionMetadata originalRendition;
   private final Asset asset;
+  private final Map<String, RenditionInfo> renditionIndex;
 
   /**
    * @param asset DAM asset
    */
   DefaultRenditionHandler(Asset asset) {
+    this(asset, null);
+  }
+
+  /**
+   * @param asset DAM asset
+   * @param renditionIndexCache Rendition index cache (optional)
+   */
+  DefaultRenditionHandler(Asset asset, @Nullable RenditionIndexCache renditionIndexCache) {
     this.asset = asset;
+    this.renditionIndex = renditionIndexCache != null ? renditionIndexCache.get(asset) : null;
 
     Rendition damOriginalRendition = asset.getOriginal();
-    originalRendition = damOriginalRendition != null ? new RenditionMetadata(damOriginalRendition) : null;
+    if (damOriginalRendition == null) {
+      originalRendition = null;
+    }
+    else {
+      RenditionInfo originalRenditionInfo = getRenditionInfo(damOriginalRendition.getName());
+      originalRendition = originalRenditionInfo != null
+          ? new RenditionMetadata(damOriginalRendition, originalRenditionInfo)
+          : new RenditionMetadata(damOriginalRendition);
+    }
   }
 
   protected RenditionMetadata getOriginalRendition() {
@@ -70,9 +89,16 @@ class DefaultRenditionHandler implements RenditionHandler {
   Set<RenditionMetadata> getAvailableRenditions(MediaArgs mediaArgs) {
     if (this.renditions == null) {
       // gather rendition infos of all renditions and sort them by size (smallest or virtual crop rendition first)
+      // renditions are always listed with the current user's asset, the index only provides their metadata
       Set<RenditionMetadata> candidates = new TreeSet<>();
       for (Rendition rendition : asset.getRenditions()) {
-        addRendition(candidates, rendition, mediaArgs);
+        RenditionInfo renditionInfo = getRenditionInfo(rendition.getName());
+        if (renditionInfo != null) {
+          addRendition(candidates, rendition, renditionInfo, mediaArgs);
+        }
+        else {
+          addRendition(candidates, rendition, mediaArgs);
+        }
       }
       candidates = postProcessCandidates(candidates);
       this.renditions = ImmutableSet.<RenditionMetadata>copyOf(candidates);
@@ -110,6 +136,29 @@ class DefaultRenditionHandler implements RenditionHandler {
     candidates.add(renditionMetadata);
   }
 
+  /**
+   * adds rendition from the cached rendition index to the list of candidates, if it should be available for resolving
+   * @param candidates Candidates
+   * @param rendition Rendition
+   * @param renditionInfo Cached rendition metadata
+   */
+  private void addRendition(Set<RenditionMetadata> candidates, Rendition rendition, RenditionInfo renditionInfo,
+      MediaArgs mediaArgs) {
+    // ignore AEM-generated thumbnail renditions unless allowed via mediaargs
+    if (!mediaArgs.isIncludeAssetThumbnails() && renditionInfo.isThumbnailRendition()) {
+      return;
+    }
+    // ignore AEM-generated web renditions unless allowed via mediaargs
+    boolean isIncludeAssetWebRenditions = mediaArgs.isIncludeAssetWebRenditions() != null
+        ? mediaArgs.isIncludeAssetWebRenditions()
+        : true;
+    if (!isIncludeAssetWebRenditions && renditionInfo.isWebRendition()) {
+      return;
+    }
+    RenditionMetadata renditionMetadata = createRenditionMetadata(rendition, renditionInfo);
+    candidates.add(renditionMetadata);
+  }
+
   /**
    * Create rendition metadata for given rendition. May be overridden by subclasses.
    * @param rendition Rendition
@@ -120,29 +169,33 @@ class DefaultRenditionHandler implements RenditionHandler {
   }
 
   /**
-   * Get all renditions that match the requested list of file extension.
-   * @param fileExtensions List of file extensions
-   * @return Matching renditions
+   * Create rendition metadata for given rendition from cached rendition metadata. May be overridden by subclasses.
+   * @param rendition Rendition
+   * @param renditionInfo Cached rendition metadata
+   * @return Rendition metadata
    */
-  private Set<RenditionMetadata> getRendtionsMatchingFileExtensions(String[] fileExtensions, MediaArgs mediaArgs) {
+  protected RenditionMetadata createRenditionMetadata(Rendition rendition, RenditionInfo renditionInfo) {
+    return new RenditionMetadata(rendition, renditionInfo);
+  }
 
-    // if no file extension restriction get all renditions
-    Set<RenditionMetadata> allRenditions = getAvailableRenditions(mediaArgs);
-    if (fileExtensions == null || fileExtensions.length == 0) {
-      return allRenditions;
+  private @Nullable RenditionInfo getRenditionInfo(String renditionName) {
+    if (this.renditionIndex != null) {
+      return this.renditionIndex.get(renditionName);
     }
+    return null;
+  }
 
-    // otherwise return those with matching extensions
-    Set<RenditionMetadata> matchingRenditions = new TreeSet<>();
-    for (RenditionMetadata rendition : allRenditions) {
-      for (String fileExtension : fileExtensions) {
-        if (StringUtils.equalsIgnoreCase(fileExtension, rendition.getFileExtension())) {
-          matchingRenditions.add(rendition);
-          break;
-        }
-      }
+  /**
+   * Get all renditions that match the requested list of file extension.
+   * @param fileExtensions List of file extensions
+   * @return Matching renditions
+   */
+  private RenditionCandidates getRendtionsMatchingFileExtensions(String[] fileExtensions, MediaArgs mediaArgs) {
+    if (this.renditionCandidates == null) {
+      this.renditionCandidates = new RenditionCandidates(getAvailableRenditions(mediaArgs));
     }
-    return matchingRenditions;
+    // if no file extension restriction get all renditions, otherwise those with matching extensions
+    return this.renditionCandidates.filterFileExtensions(fileExtensions);
   }
 
   /**
@@ -166,7 +219,7 @@ class DefaultRenditionHandler implements RenditionHandler {
     boolean isSizeMatchingRequest = isSizeMatchingRequest(mediaArgs, requestedFileExtensions);
 
     // get rendition candidates matching for file extensions
-    Set<RenditionMetadata> candidates = getRendtionsMatchingFileExtensions(requestedFileExtensions, mediaArgs);
+    RenditionCandidates candidates = getRendtionsMatchingFileExtensions(requestedFileExtensions, mediaArgs);
 
     // if request does not contain any size restrictions return original image or first by filename matching rendition
     if (!isSizeMatchingRequest) {
@@ -235,14 +288,10 @@ class DefaultRenditionHandler implements RenditionHandler {
    * @param mediaArgs Media args
    * @return Rendition or null if none found
    */
-  private RenditionMetadata getExactMatchRendition(final Set<RenditionMetadata> candidates, MediaArgs mediaArgs) {
+  private RenditionMetadata getExactMatchRendition(final RenditionCandidates candidates, MediaArgs mediaArgs) {
     // check for fixed width and/or height request
     if (mediaArgs.getFixedWidth() > 0 || mediaArgs.getFixedHeight() > 0) {
-      for (RenditionMetadata candidate : candidates) {
-        if (candidate.matches(mediaArgs.getFixedWidth(), mediaArgs.getFixedHeight())) {
-          return candidate;
-        }
-      }
+      return candidates.findExactMatch(mediaArgs.getFixedWidth(), mediaArgs.getFixedHeight());
     }
 
     // otherwise check for media format restriction
@@ -250,17 +299,15 @@ class DefaultRenditionHandler implements RenditionHandler {
       return visitMediaFormats(mediaArgs, new MediaFormatVisitor<RenditionMetadata>() {
         @Override
         public @Nullable RenditionMetadata visit(@NotNull MediaFormat mediaFormat) {
-          for (RenditionMetadata candidate : candidates) {
-            if (candidate.matches((int)mediaFormat.getEffectiveMinWidth(),
-                (int)mediaFormat.getEffectiveMinHeight(),
-                (int)mediaFormat.getEffectiveMaxWidth(),
-                (int)mediaFormat.getEffectiveMaxHeight(),
-                mediaFormat.getRatio())) {
-              candidate.setMediaFormat(mediaFormat);
-              return candidate;
-            }
+          RenditionMetadata candidate = candidates.findFirstMatch((int)mediaFormat.getEffectiveMinWidth(),
+              (int)mediaFormat.getEffectiveMinHeight(),
+              (int)mediaFormat.getEffectiveMaxWidth(),
+              (int)mediaFormat.getEffectiveMaxHeight(),
+              mediaFormat.getRatio());
+          if (candidate != null) {
+            candidate.setMediaFormat(mediaFormat);
           }
-          return null;
+          return candidate;
         }
       });
     }
@@ -280,12 +327,12 @@ class DefaultRenditionHandler implements RenditionHandler {
    * @param candidates Candidates
    * @return Original or first rendition of candidates or null
    */
-  private RenditionMetadata getOriginalOrFirstRendition(Set<RenditionMetadata> candidates) {
+  private RenditionMetadata getOriginalOrFirstRendition(RenditionCandidates candidates) {
     if (this.originalRendition != null && candidates.contains(this.originalRendition)) {
       return this.originalRendition;
     }
     else if (!candidates.isEmpty()) {
-      return candidates.iterator().next();
+      return candidates.getFirst();
     }
     else {
       return null;
@@ -299,7 +346,7 @@ class DefaultRenditionHandler implements RenditionHandler {
    * @param mediaArgs Media args
    * @return Rendition or null
    */
-  private RenditionMetadata getVirtualRendition(final Set<RenditionMetadata> candidates, MediaArgs mediaArgs) {
+  private RenditionMetadata getVirtualRendition(final RenditionCandidates candidates, MediaArgs mediaArgs) {
 
     // get from fixed with/height
     if (mediaArgs.getFixedWidth() > 0 || mediaArgs.getFixedHeight() > 0) {
@@ -338,24 +385,15 @@ class DefaultRenditionHandler implements RenditionHandler {
    * @param destRatio Destination ratio
    * @return Rendition or null
    */
-  private RenditionMetadata getVirtualRendition(Set<RenditionMetadata> candidates,
+  private RenditionMetadata getVirtualRendition(RenditionCandidates candidates,
       long destWidth, long destHeight, double destRatio) {
 
     // if ratio is defined get first rendition with matching ratio and same or bigger size
-    if (destRatio > 0) {
-      for (RenditionMetadata candidate : candidates) {
-        if (candidate.matches(destWidth, destHeight, 0, 0, destRatio)) {
-          return getVirtualRendition(candidate, destWidth, destHeight, destRatio);
-        }
-      }
-    }
     // otherwise get first rendition which is same or bigger in width and height
-    else {
-      for (RenditionMetadata candidate : candidates) {
-        if (candidate.matches(destWidth, destHeight, 0, 0, 0d)) {
-          return getVirtualRendition(candidate, destWidth, destHeight, 0d);
-        }
-      }
+    double ratio = destRatio > 0 ? destRatio : 0d;
+    RenditionMetadata candidate = candidates.findFirstMatch(destWidth, destHeight, 0, 0, ratio);
+    if (candidate != null) {
+      return getVirtualRendition(candidate, destWidth, destHeight, ratio);
     }
 
     // none found
@@ -0,0 +1,293 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.mediasource.dam.impl;
+
+import static io.wcm.handler.media.format.MediaFormatHandler.RATIO_TOLERANCE;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.wcm.handler.media.format.Ratio;
+import io.wcm.handler.mediasource.dam.AssetRendition;
+
+/**
+ * Rendition candidates of an asset prepared for fast lookups by dimension.
+ * <p>
+ * The candidates are kept in their natural order (see {@link RenditionMetadata#compareTo(RenditionMetadata)}).
+ * Virtual and original renditions are always preferred and checked first, all other renditions are sorted by
+ * width and height. Their widths, heights and ratios are held in primitive arrays, so exact and minimum size
+ * lookups use a binary search on the width, and ratio lookups use an index sorted by ratio.
+ * The result of each lookup is the same as iterating over all candidates and returning the first match.
+ * </p>
+ */
+final class RenditionCandidates {
+
+  private final Set<RenditionMetadata> renditionSet;
+  private final RenditionMetadata[] renditions;
+  // number of leading virtual or original renditions that are not sorted by size
+  private final int preferredCount;
+  private final long[] widths;
+  private final long[] heights;
+  private final double[] ratios;
+  // positions of sorted renditions ordered by ratio, and the ratio values in the same order
+  private final int[] ratioIndex;
+  private final double[] sortedRatios;
+  // candidates filtered by requested file extensions
+  private final Map<String, RenditionCandidates> fileExtensionPartitions = new HashMap<>();
+
+  /**
+   * @param renditionSet Rendition candidates in natural order
+   */
+  RenditionCandidates(@NotNull Set<RenditionMetadata> renditionSet) {
+    this.renditionSet = renditionSet;
+    this.renditions = renditionSet.toArray(new RenditionMetadata[0]);
+
+    int count = renditions.length;
+    int preferred = 0;
+    while (preferred < count && isPreferred(renditions[preferred])) {
+      preferred++;
+    }
+    this.preferredCount = preferred;
+
+    this.widths = new long[count];
+    this.heights = new long[count];
+    this.ratios = new double[count];
+    for (int i = 0; i < count; i++) {
+      widths[i] = renditions[i].getWidth();
+      heights[i] = renditions[i].getHeight();
+      ratios[i] = Ratio.get(widths[i], heights[i]);
+    }
+
+    Integer[] positions = new Integer[count - preferredCount];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = preferredCount + i;
+    }
+    Arrays.sort(positions, Comparator.comparingDouble((Integer position) -> ratios[position]));
+    this.ratioIndex = new int[positions.length];
+    this.sortedRatios = new double[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+      ratioIndex[i] = positions[i];
+      sortedRatios[i] = ratios[positions[i]];
+    }
+  }
+
+  private static boolean isPreferred(RenditionMetadata rendition) {
+    return rendition instanceof VirtualTransformedRenditionMetadata
+        || (rendition.getRendition() != null && AssetRendition.isOriginal(rendition.getRendition()));
+  }
+
+  /**
+   * @return All candidates in natural order
+   */
+  @NotNull
+  Set<RenditionMetadata> getRenditions() {
+    return this.renditionSet;
+  }
+
+  /**
+   * Get candidates that match one of the given file extensions.
+   * @param fileExtensions File extensions. If null or empty all candidates are returned.
+   * @return Rendition candidates
+   */
+  @NotNull
+  RenditionCandidates filterFileExtensions(@Nullable String[] fileExtensions) {
+    if (fileExtensions == null || fileExtensions.length == 0) {
+      return this;
+    }
+    Set<String> normalizedFileExtensions = new TreeSet<>();
+    for (String fileExtension : fileExtensions) {
+      normalizedFileExtensions.add(normalizeFileExtension(fileExtension));
+    }
+    return fileExtensionPartitions.computeIfAbsent(StringUtils.join(normalizedFileExtensions, ","),
+        key -> filter(normalizedFileExtensions));
+  }
+
+  private RenditionCandidates filter(Set<String> normalizedFileExtensions) {
+    Set<RenditionMetadata> matchingRenditions = new LinkedHashSet<>();
+    for (RenditionMetadata rendition : renditions) {
+      if (normalizedFileExtensions.contains(normalizeFileExtension(rendition.getFileExtension()))) {
+        matchingRenditions.add(rendition);
+      }
+    }
+    return new RenditionCandidates(matchingRenditions);
+  }
+
+  private static String normalizeFileExtension(String fileExtension) {
+    return StringUtils.lowerCase(StringUtils.defaultString(fileExtension), Locale.ENGLISH);
+  }
+
+  /**
+   * Get first candidate that matches the given width/height exactly
+   * (see {@link RenditionMetadata#matches(long, long)}).
+   * @param width Width or 0
+   * @param height Height or 0
+   * @return Rendition or null
+   */
+  @Nullable
+  RenditionMetadata findExactMatch(long width, long height) {
+    for (int i = 0; i < preferredCount; i++) {
+      if (renditions[i].matches(width, height)) {
+        return renditions[i];
+      }
+    }
+    if (width > 0) {
+      for (int i = firstIndexWithMinWidth(width); i < renditions.length && widths[i] == width; i++) {
+        if (height == 0 || heights[i] == height) {
+          return renditions[i];
+        }
+      }
+      return null;
+    }
+    for (int i = preferredCount; i < renditions.length; i++) {
+      if (height == 0 || heights[i] == height) {
+        return renditions[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get first candidate that matches the given size and ratio restrictions
+   * (see {@link RenditionMetadata#matches(long, long, long, long, double)}).
+   * @param minWidth Min. width or 0
+   * @param minHeight Min. height or 0
+   * @param maxWidth Max. width or 0
+   * @param maxHeight Max. height or 0
+   * @param ratio Ratio or 0
+   * @return Rendition or null
+   */
+  @Nullable
+  RenditionMetadata findFirstMatch(long minWidth, long minHeight, long maxWidth, long maxHeight, double ratio) {
+    for (int i = 0; i < preferredCount; i++) {
+      if (renditions[i].matches(minWidth, minHeight, maxWidth, maxHeight, ratio)) {
+        return renditions[i];
+      }
+    }
+
+    if (ratio > 0) {
+      // look up all candidates within ratio tolerance and return the first of them in natural order
+      int match = -1;
+      for (int i = firstIndexWithRatioAbove(ratio - RATIO_TOLERANCE);
+          i < sortedRatios.length && sortedRatios[i] < ratio + RATIO_TOLERANCE; i++) {
+        int position = ratioIndex[i];
+        if ((match < 0 || position < match)
+            && matchesSize(position, minWidth, minHeight, maxWidth, maxHeight)) {
+          match = position;
+        }
+      }
+      return match >= 0 ? renditions[match] : null;
+    }
+
+    int start = minWidth > 0 ? firstIndexWithMinWidth(minWidth) : preferredCount;
+    for (int i = start; i < renditions.length; i++) {
+      if (maxWidth > 0 && widths[i] > maxWidth) {
+        break;
+      }
+      if (matchesSize(i, minWidth, minHeight, maxWidth, maxHeight)) {
+        return renditions[i];
+      }
+    }
+    return null;
+  }
+
+  private boolean matchesSize(int position, long minWidth, long minHeight, long maxWidth, long maxHeight) {
+    long width = widths[position];
+    long height = heights[position];
+    return (minWidth <= 0 || width >= minWidth)
+        && (minHeight <= 0 || height >= minHeight)
+        && (maxWidth <= 0 || width <= maxWidth)
+        && (maxHeight <= 0 || height <= maxHeight);
+  }
+
+  /**
+   * @return First position in sorted renditions with width greater or equal the given width.
+   */
+  private int firstIndexWithMinWidth(long width) {
+    int low = preferredCount;
+    int high = renditions.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (widths[mid] < width) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return First index in ratio index with ratio greater than the given ratio.
+   */
+  private int firstIndexWithRatioAbove(double ratio) {
+    int low = 0;
+    int high = sortedRatios.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortedRatios[mid] <= ratio) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return true if there are no candidates
+   */
+  boolean isEmpty() {
+    return renditions.length == 0;
+  }
+
+  /**
+   * @return First candidate in natural order or null
+   */
+  @Nullable
+  RenditionMetadata getFirst() {
+    return renditions.length > 0 ? renditions[0] : null;
+  }
+
+  /**
+   * @param rendition Rendition
+   * @return true if rendition is a candidate
+   */
+  boolean contains(@Nullable RenditionMetadata rendition) {
+    return rendition != null && renditionSet.contains(rendition);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(renditions);
+  }
+
+}
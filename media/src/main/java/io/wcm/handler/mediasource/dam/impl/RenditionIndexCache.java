@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.mediasource.dam.impl;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.Rendition;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Caches the metadata of all renditions of DAM assets across requests, so resolving renditions does not
+ * require reading the asset and rendition metadata of each rendition again.
+ * Entries are keyed by asset path and validated against the asset's last modified date. Additionally they are
+ * invalidated by the rendition metadata listener service on each DAM event for the asset.
+ * The index is only used to look up the metadata of renditions by name. The renditions themselves are always
+ * listed with the current user's asset, so renditions not accessible for the current user are never used.
+ */
+@Component(service = RenditionIndexCache.class, immediate = true)
+@Designate(ocd = RenditionIndexCache.Config.class)
+public final class RenditionIndexCache {
+
+  @ObjectClassDefinition(
+      name = "wcm.io Media Handler Rendition Index Cache",
+      description = "Caches width, height and other metadata of DAM asset renditions used for resolving renditions.")
+  @interface Config {
+
+    @AttributeDefinition(name = "Enabled", description = "Switch to enable or disable the rendition index cache.")
+    boolean enabled() default true;
+
+    @AttributeDefinition(name = "Max. assets", description = "Maximum number of assets kept in the cache.")
+    long maxAssets() default 10000;
+
+  }
+
+  private boolean enabled;
+  private Cache<String, IndexEntry> cache;
+  // incremented on each invalidation to detect entries that were invalidated while they were read
+  private final AtomicLong invalidationCount = new AtomicLong();
+
+  @Activate
+  private void activate(Config config) {
+    this.enabled = config.enabled();
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(config.maxAssets())
+        .build();
+  }
+
+  /**
+   * Get metadata of all renditions of the given asset. Reads the metadata from the repository if
+   * the asset is not cached or was modified since.
+   * @param asset DAM asset
+   * @return Rendition metadata by rendition name or null if cache is disabled
+   */
+  @Nullable
+  Map<String, RenditionInfo> get(@NotNull Asset asset) {
+    if (!enabled) {
+      return null;
+    }
+    String assetPath = asset.getPath();
+    long lastModified = asset.getLastModified();
+    IndexEntry entry = cache.getIfPresent(assetPath);
+    if (entry == null || entry.lastModified != lastModified) {
+      long invalidationCountBeforeRead = invalidationCount.get();
+      entry = readIndexEntry(asset);
+      if (invalidationCount.get() == invalidationCountBeforeRead) {
+        cache.put(assetPath, entry);
+      }
+    }
+    return entry.renditions;
+  }
+
+  /**
+   * Reads metadata of all renditions of the given asset.
+   * @param asset Asset
+   * @return Index entry
+   */
+  private static @NotNull IndexEntry readIndexEntry(@NotNull Asset asset) {
+    ImmutableMap.Builder<String, RenditionInfo> renditions = ImmutableMap.builder();
+    for (Rendition rendition : asset.getRenditions()) {
+      renditions.put(rendition.getName(), RenditionInfo.of(rendition));
+    }
+    return new IndexEntry(asset.getLastModified(), renditions.build());
+  }
+
+  /**
+   * Removes cached rendition metadata for the given asset.
+   * @param assetPath Asset path
+   */
+  public void invalidate(@NotNull String assetPath) {
+    if (cache != null) {
+      invalidationCount.incrementAndGet();
+      cache.invalidate(assetPath);
+    }
+  }
+
+  /**
+   * @return Number of cached assets
+   */
+  long size() {
+    return cache.size();
+  }
+
+
+  private static final class IndexEntry {
+
+    private final long lastModified;
+    private final Map<String, RenditionInfo> renditions;
+
+    IndexEntry(long lastModified, Map<String, RenditionInfo> renditions) {
+      this.lastModified = lastModified;
+      this.renditions = renditions;
+    }
+
+  }
+
+}
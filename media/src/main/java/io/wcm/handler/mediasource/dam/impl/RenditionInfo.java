@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.mediasource.dam.impl;
+
+import org.apache.commons.io.FilenameUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.day.cq.dam.api.Rendition;
+
+import io.wcm.handler.media.Dimension;
+import io.wcm.handler.media.MediaFileType;
+import io.wcm.handler.mediasource.dam.AssetRendition;
+
+/**
+ * Immutable, resource resolver independent metadata of a DAM rendition as stored in {@link RenditionIndexCache}.
+ */
+final class RenditionInfo {
+
+  private final String name;
+  private final String fileName;
+  private final String fileExtension;
+  private final long width;
+  private final long height;
+  private final long fileSize;
+  private final String mimeType;
+  private final boolean original;
+  private final boolean thumbnailRendition;
+  private final boolean webRendition;
+  private final boolean vectorImage;
+
+  private RenditionInfo(Rendition rendition) {
+    this.name = rendition.getName();
+    this.fileName = AssetRendition.getFilename(rendition);
+    this.fileExtension = FilenameUtils.getExtension(this.fileName);
+    Dimension dimension = AssetRendition.getDimension(rendition);
+    if (dimension != null) {
+      this.width = dimension.getWidth();
+      this.height = dimension.getHeight();
+    }
+    else {
+      this.width = 0;
+      this.height = 0;
+    }
+    this.fileSize = rendition.getSize();
+    this.mimeType = rendition.getMimeType();
+    this.original = AssetRendition.isOriginal(rendition);
+    this.thumbnailRendition = AssetRendition.isThumbnailRendition(rendition);
+    this.webRendition = AssetRendition.isWebRendition(rendition);
+    this.vectorImage = MediaFileType.isVectorImage(this.fileExtension);
+  }
+
+  /**
+   * @param rendition DAM rendition
+   * @return Rendition info with all metadata read from the given rendition
+   */
+  static @NotNull RenditionInfo of(@NotNull Rendition rendition) {
+    return new RenditionInfo(rendition);
+  }
+
+  /**
+   * @return Rendition node name
+   */
+  public @NotNull String getName() {
+    return this.name;
+  }
+
+  /**
+   * @return File name (asset name for original rendition)
+   */
+  public @NotNull String getFileName() {
+    return this.fileName;
+  }
+
+  /**
+   * @return File extension
+   */
+  public @NotNull String getFileExtension() {
+    return this.fileExtension;
+  }
+
+  /**
+   * @return Image width or 0 if unknown
+   */
+  public long getWidth() {
+    return this.width;
+  }
+
+  /**
+   * @return Image height or 0 if unknown
+   */
+  public long getHeight() {
+    return this.height;
+  }
+
+  /**
+   * @return File size
+   */
+  public long getFileSize() {
+    return this.fileSize;
+  }
+
+  /**
+   * @return Mime type
+   */
+  public @Nullable String getMimeType() {
+    return this.mimeType;
+  }
+
+  /**
+   * @return true if rendition is the original file of the asset
+   */
+  public boolean isOriginal() {
+    return this.original;
+  }
+
+  /**
+   * @return true if rendition is an AEM-generated thumbnail rendition
+   */
+  public boolean isThumbnailRendition() {
+    return this.thumbnailRendition;
+  }
+
+  /**
+   * @return true if rendition is an AEM-generated web rendition
+   */
+  public boolean isWebRendition() {
+    return this.webRendition;
+  }
+
+  /**
+   * @return true if rendition is a vector image
+   */
+  public boolean isVectorImage() {
+    return this.vectorImage;
+  }
+
+  @Override
+  public String toString() {
+    return this.name + " (" + this.width + "x" + this.height + ")";
+  }
+
+}
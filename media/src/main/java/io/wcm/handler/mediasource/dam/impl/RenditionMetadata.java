@@ -48,6 +48,7 @@ import io.wcm.handler.mediasource.dam.AssetRendition;
 class RenditionMetadata extends SlingAdaptable implements Comparable<RenditionMetadata> {
 
   private final Rendition rendition;
+  private final RenditionInfo renditionInfo;
   private final String fileName;
   private final String fileExtension;
   private final long width;
@@ -59,15 +60,28 @@ class RenditionMetadata extends SlingAdaptable implements Comparable<RenditionMe
    * @param rendition DAM rendition
    */
   RenditionMetadata(Rendition rendition) {
+    this(rendition, null, AssetRendition.getFilename(rendition), AssetRendition.getDimension(rendition));
+  }
+
+  /**
+   * @param rendition DAM rendition
+   * @param renditionInfo Cached metadata of the DAM rendition
+   */
+  RenditionMetadata(Rendition rendition, RenditionInfo renditionInfo) {
+    this(rendition, renditionInfo, renditionInfo.getFileName(),
+        new Dimension(renditionInfo.getWidth(), renditionInfo.getHeight()));
+  }
+
+  private RenditionMetadata(Rendition rendition, RenditionInfo renditionInfo, String fileName, Dimension dimension) {
     this.rendition = rendition;
+    this.renditionInfo = renditionInfo;
 
     // get filename and extension
-    this.fileName = AssetRendition.getFilename(rendition);
+    this.fileName = fileName;
     this.fileExtension = FilenameUtils.getExtension(this.fileName);
     this.isVectorImage = MediaFileType.isVectorImage(this.fileExtension);
 
     // get image width/height
-    Dimension dimension = AssetRendition.getDimension(rendition);
     if (dimension != null) {
       this.width = dimension.getWidth();
       this.height = dimension.getHeight();
@@ -119,6 +133,9 @@ class RenditionMetadata extends SlingAdaptable implements Comparable<RenditionMe
    * @return File size
    */
   public long getFileSize() {
+    if (this.renditionInfo != null) {
+      return this.renditionInfo.getFileSize();
+    }
     return this.rendition.getSize();
   }
 
@@ -133,6 +150,9 @@ class RenditionMetadata extends SlingAdaptable implements Comparable<RenditionMe
    * @return Mime type
    */
   public String getMimeType() {
+    if (this.renditionInfo != null) {
+      return this.renditionInfo.getMimeType();
+    }
     return this.rendition.getMimeType();
   }
 
@@ -46,7 +46,18 @@ public class TransformedRenditionHandler extends DefaultRenditionHandler {
    * @param cropDimension Crop dimension
    */
   TransformedRenditionHandler(Asset asset, CropDimension cropDimension, Integer rotation) {
-    super(asset);
+    this(asset, cropDimension, rotation, null);
+  }
+
+  /**
+   * @param asset DAM asset
+   * @param cropDimension Crop dimension
+   * @param rotation Rotation
+   * @param renditionIndexCache Rendition index cache (optional)
+   */
+  TransformedRenditionHandler(Asset asset, CropDimension cropDimension, Integer rotation,
+      RenditionIndexCache renditionIndexCache) {
+    super(asset, renditionIndexCache);
     this.cropDimension = cropDimension;
     this.rotation = (rotation != null && isValidRotation(rotation)) ? rotation : null;
   }
@@ -19,6 +19,9 @@
  */
 package io.wcm.handler.mediasource.dam.impl.metadata;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -64,6 +67,22 @@ public final class AssetSynchonizationService {
     return new LockWithLogging(lazyWeakLock.get(assetPath), assetPath);
   }
 
+  /**
+   * Get locks for multiple assets. The locks are returned in a consistent stripe order, so acquiring them
+   * one after another in the returned order does not lead to deadlocks with other threads doing the same.
+   * The list may contain the same lock multiple times if assets share a stripe - they are reentrant.
+   * @param assetPaths Asset paths
+   * @return Locks
+   */
+  public List<Lock> getLocks(Collection<String> assetPaths) {
+    String lockName = assetPaths.toString();
+    List<Lock> locks = new ArrayList<>();
+    for (Lock lock : lazyWeakLock.bulkGet(assetPaths)) {
+      locks.add(new LockWithLogging(lock, lockName));
+    }
+    return locks;
+  }
+
 
   /**
    * Wrap the lock instance to apply trace logging on the methods that are actually used.
@@ -0,0 +1,872 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.mediasource.dam.impl.metadata;
+
+import static com.day.cq.commons.jcr.JcrConstants.JCR_CONTENT;
+import static com.day.cq.commons.jcr.JcrConstants.JCR_LASTMODIFIED;
+import static com.day.cq.commons.jcr.JcrConstants.JCR_PRIMARYTYPE;
+import static com.day.cq.commons.jcr.JcrConstants.NT_UNSTRUCTURED;
+import static com.day.cq.dam.api.DamConstants.NT_DAM_ASSET;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.handler.store.AssetStore;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.wcm.handler.mediasource.dam.impl.RenditionIndexCache;
+import io.wcm.sling.commons.adapter.AdaptTo;
+
+/**
+ * Generates rendition metadata for all existing assets in a DAM subtree, e.g. for assets that were uploaded before
+ * the rendition metadata workflow process and listener service were in place.
+ * <p>
+ * The job is started, resumed, stopped and monitored via JMX. Assets are processed in batches by a bounded thread
+ * pool, synchronized with the listener service and workflow process by the asset locks of
+ * {@link AssetSynchonizationService}. Progress is checkpointed to the repository, so an interrupted run can be resumed
+ * after the last asset up to which all assets were processed. Assets that failed are recorded in the checkpoint and
+ * retried when the run is resumed.
+ * </p>
+ */
+@Component(service = RenditionMetadataBackfillJobMBean.class, immediate = true,
+    property = {
+        "jmx.objectname=io.wcm.handler.media:type=RenditionMetadataBackfillJob"
+    })
+@Designate(ocd = RenditionMetadataBackfillJob.Config.class)
+public final class RenditionMetadataBackfillJob implements RenditionMetadataBackfillJobMBean {
+
+  @ObjectClassDefinition(
+      name = "wcm.io Media Handler Rendition Metadata Backfill Job",
+      description = "Generates rendition metadata for existing assets in a DAM subtree. "
+          + "The job is started, resumed and monitored via JMX.")
+  static @interface Config {
+
+    @AttributeDefinition(name = "Traversal strategy", description = "Order in which the DAM subtree is traversed.")
+    TraversalStrategy traversalStrategy() default TraversalStrategy.DEPTH_FIRST;
+
+    @AttributeDefinition(name = "Parallelism", description = "Number of asset batches processed in parallel. "
+        + "Setting it to 0 processes all assets synchronously in the thread starting the job "
+        + "(not recommended for production environments).")
+    int parallelism() default 2;
+
+    @AttributeDefinition(name = "Assets per commit", description = "Number of assets that are processed in one "
+        + "resource resolver session and committed together.")
+    int assetsPerCommit() default 20;
+
+    @AttributeDefinition(name = "Max. commits per second", description = "Limits the rate of commits to reduce "
+        + "the load on the repository. Setting it to 0 disables throttling.")
+    double maxCommitsPerSecond() default 5;
+
+    @AttributeDefinition(name = "Checkpoint path", description = "Repository path the progress is stored at.")
+    String checkpointPath() default "/var/wcm-io/handler/media/renditionMetadataBackfill";
+
+    @AttributeDefinition(name = "Checkpoint interval", description = "Minimum time in seconds between writing "
+        + "two checkpoints.")
+    int checkpointIntervalSeconds() default 10;
+
+    @AttributeDefinition(name = "Count assets", description = "Count all assets before processing them "
+        + "to be able to estimate the remaining time.")
+    boolean countAssets() default true;
+
+    @AttributeDefinition(name = "Auto resume", description = "Resume an interrupted run when the service is started.")
+    boolean autoResume() default false;
+
+  }
+
+  /**
+   * Order in which the DAM subtree is traversed. Children are visited sorted by name, so the order is stable
+   * across runs and an interrupted run can be resumed after a given asset path.
+   */
+  enum TraversalStrategy {
+
+    /**
+     * Process each folder completely before its next sibling folder.
+     */
+    DEPTH_FIRST {
+      @Override
+      int compare(@NotNull String path1, @NotNull String path2) {
+        return compareSegments(StringUtils.split(path1, '/'), StringUtils.split(path2, '/'));
+      }
+
+      @Override
+      boolean canSkipSubtree(@NotNull String folderPath, @NotNull String resumeAfterPath) {
+        // all descendants of a folder preceding the resume path (and not being an ancestor of it) are processed
+        return compare(folderPath, resumeAfterPath) < 0 && !StringUtils.startsWith(resumeAfterPath, folderPath + "/");
+      }
+    },
+
+    /**
+     * Process all assets of one folder level before descending to the next level.
+     */
+    BREADTH_FIRST {
+      @Override
+      int compare(@NotNull String path1, @NotNull String path2) {
+        String[] segments1 = StringUtils.split(path1, '/');
+        String[] segments2 = StringUtils.split(path2, '/');
+        int result = Integer.compare(segments1.length, segments2.length);
+        if (result == 0) {
+          result = compareSegments(segments1, segments2);
+        }
+        return result;
+      }
+
+      @Override
+      boolean canSkipSubtree(@NotNull String folderPath, @NotNull String resumeAfterPath) {
+        return false;
+      }
+    };
+
+    /**
+     * Compare paths in the order they are visited by this traversal strategy.
+     * @param path1 Path 1
+     * @param path2 Path 2
+     * @return Negative value if path 1 is visited first, positive value if path 2 is visited first
+     */
+    abstract int compare(@NotNull String path1, @NotNull String path2);
+
+    /**
+     * @param folderPath Folder path
+     * @param resumeAfterPath Path of asset after which processing is resumed
+     * @return true if all assets in the folder are visited before the resume path
+     */
+    abstract boolean canSkipSubtree(@NotNull String folderPath, @NotNull String resumeAfterPath);
+
+    private static int compareSegments(String[] segments1, String[] segments2) {
+      int length = Math.min(segments1.length, segments2.length);
+      for (int i = 0; i < length; i++) {
+        int result = segments1[i].compareTo(segments2[i]);
+        if (result != 0) {
+          return result;
+        }
+      }
+      return Integer.compare(segments1.length, segments2.length);
+    }
+
+  }
+
+  enum Status {
+    IDLE,
+    COUNTING,
+    RUNNING,
+    STOPPING,
+    STOPPED,
+    INTERRUPTED,
+    FINISHED,
+    FAILED
+  }
+
+  static final String PN_ROOT_PATH = "rootPath";
+  static final String PN_TRAVERSAL_STRATEGY = "traversalStrategy";
+  static final String PN_LAST_PROCESSED_PATH = "lastProcessedPath";
+  static final String PN_PROCESSED_COUNT = "processedCount";
+  static final String PN_ERROR_COUNT = "errorCount";
+  static final String PN_STATUS = "status";
+  static final String PN_FAILED_PATHS = "failedPaths";
+
+  // maximum number of failed asset paths recorded in the checkpoint for retry
+  static final int MAX_FAILED_PATHS = 1000;
+
+  private static final Logger log = LoggerFactory.getLogger(RenditionMetadataBackfillJob.class);
+
+  @Reference
+  private ResourceResolverFactory resourceResolverFactory;
+  @Reference
+  private AssetSynchonizationService assetSynchronizationService;
+  @Reference
+  private AssetStore assetStore;
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private RenditionIndexCache renditionIndexCache;
+
+  private TraversalStrategy traversalStrategy;
+  private boolean synchronousProcessing;
+  private int assetsPerCommit;
+  private RateLimiter commitRateLimiter;
+  private String checkpointPath;
+  private long checkpointIntervalMillis;
+  private boolean countAssets;
+
+  private ExecutorService traversalExecutor;
+  private ExecutorService batchExecutor;
+  // limits the number of batches waiting for or in processing
+  private Semaphore batchPermits;
+  private int maxBatchesInFlight;
+
+  private volatile BackfillRun currentRun;
+
+  @Activate
+  private void activate(Config config) {
+    this.traversalStrategy = config.traversalStrategy();
+    this.synchronousProcessing = config.parallelism() <= 0;
+    this.assetsPerCommit = Math.max(config.assetsPerCommit(), 1);
+    if (config.maxCommitsPerSecond() > 0) {
+      this.commitRateLimiter = RateLimiter.create(config.maxCommitsPerSecond());
+    }
+    this.checkpointPath = config.checkpointPath();
+    this.checkpointIntervalMillis = TimeUnit.SECONDS.toMillis(Math.max(config.checkpointIntervalSeconds(), 0));
+    this.countAssets = config.countAssets();
+    if (!this.synchronousProcessing) {
+      this.traversalExecutor = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat(getClass().getSimpleName() + "-traversal").build());
+      this.batchExecutor = Executors.newFixedThreadPool(config.parallelism(),
+          new ThreadFactoryBuilder().setNameFormat(getClass().getSimpleName() + "-%d").build());
+      this.maxBatchesInFlight = config.parallelism() * 2;
+      this.batchPermits = new Semaphore(this.maxBatchesInFlight);
+    }
+    if (config.autoResume()) {
+      ValueMap checkpoint = readCheckpoint();
+      if (checkpoint != null && isResumable(checkpoint.get(PN_STATUS, String.class))) {
+        log.info("Auto-resume interrupted rendition metadata backfill for {}",
+            checkpoint.get(PN_ROOT_PATH, String.class));
+        resume(checkpoint);
+      }
+    }
+  }
+
+  @Deactivate
+  private void deactivate() {
+    BackfillRun run = this.currentRun;
+    if (run != null) {
+      run.stop(Status.INTERRUPTED);
+    }
+    shutdown(traversalExecutor);
+    shutdown(batchExecutor);
+    traversalExecutor = null;
+    batchExecutor = null;
+  }
+
+  private static void shutdown(@Nullable ExecutorService executor) {
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public String start(String rootPath) {
+    if (StringUtils.isBlank(rootPath)) {
+      return "No root path given.";
+    }
+    return startRun(new BackfillRun(rootPath, traversalStrategy, null, 0, 0, null));
+  }
+
+  @Override
+  public String resume() {
+    ValueMap checkpoint = readCheckpoint();
+    if (checkpoint == null) {
+      return "No checkpoint found at " + checkpointPath;
+    }
+    return resume(checkpoint);
+  }
+
+  private String resume(@NotNull ValueMap checkpoint) {
+    String rootPath = checkpoint.get(PN_ROOT_PATH, String.class);
+    if (rootPath == null) {
+      return "No root path stored in checkpoint at " + checkpointPath;
+    }
+    String[] failedPaths = checkpoint.get(PN_FAILED_PATHS, String[].class);
+    if (StringUtils.equals(checkpoint.get(PN_STATUS, String.class), Status.FINISHED.name())
+        && (failedPaths == null || failedPaths.length == 0)) {
+      return "Backfill for " + rootPath + " is already finished.";
+    }
+    TraversalStrategy strategy = TraversalStrategy.valueOf(checkpoint.get(PN_TRAVERSAL_STRATEGY,
+        traversalStrategy.name()));
+    return startRun(new BackfillRun(rootPath, strategy,
+        checkpoint.get(PN_LAST_PROCESSED_PATH, String.class),
+        checkpoint.get(PN_PROCESSED_COUNT, 0L),
+        checkpoint.get(PN_ERROR_COUNT, 0L),
+        failedPaths));
+  }
+
+  private String startRun(@NotNull BackfillRun run) {
+    synchronized (this) {
+      BackfillRun previousRun = this.currentRun;
+      if (previousRun != null && previousRun.isActive()) {
+        return "Backfill for " + previousRun.rootPath + " is already running.";
+      }
+      this.currentRun = run;
+    }
+    if (synchronousProcessing) {
+      run.execute();
+    }
+    else {
+      try {
+        traversalExecutor.execute(run::execute);
+      }
+      catch (RejectedExecutionException ex) {
+        run.status = Status.FAILED;
+        return "Backfill service is not active.";
+      }
+    }
+    return "Started backfill for " + run.rootPath
+        + (run.resumeAfterPath != null ? " after " + run.resumeAfterPath : "") + ".";
+  }
+
+  @Override
+  public String stop() {
+    BackfillRun run = this.currentRun;
+    if (run == null || !run.isActive()) {
+      return "No backfill running.";
+    }
+    run.stop(Status.STOPPED);
+    return "Stopping backfill for " + run.rootPath + ".";
+  }
+
+  @Override
+  public String getStatus() {
+    BackfillRun run = this.currentRun;
+    return run != null ? run.status.name() : Status.IDLE.name();
+  }
+
+  @Override
+  public String getRootPath() {
+    BackfillRun run = this.currentRun;
+    return run != null ? run.rootPath : null;
+  }
+
+  @Override
+  public String getLastProcessedPath() {
+    BackfillRun run = this.currentRun;
+    return run != null ? run.lastProcessedPath : null;
+  }
+
+  @Override
+  public long getTotalCount() {
+    BackfillRun run = this.currentRun;
+    return run != null ? run.totalCount : -1;
+  }
+
+  @Override
+  public long getProcessedCount() {
+    BackfillRun run = this.currentRun;
+    return run != null ? run.processedCount.get() : 0;
+  }
+
+  @Override
+  public long getErrorCount() {
+    BackfillRun run = this.currentRun;
+    return run != null ? run.errorCount.get() : 0;
+  }
+
+  @Override
+  public long getCommitCount() {
+    BackfillRun run = this.currentRun;
+    return run != null ? run.commitCount.get() : 0;
+  }
+
+  @Override
+  public double getThroughputPerSecond() {
+    BackfillRun run = this.currentRun;
+    return run != null ? run.getThroughputPerSecond() : 0d;
+  }
+
+  @Override
+  public long getEstimatedRemainingSeconds() {
+    BackfillRun run = this.currentRun;
+    if (run == null || run.totalCount < 0) {
+      return -1;
+    }
+    double throughput = run.getThroughputPerSecond();
+    if (throughput <= 0) {
+      return -1;
+    }
+    long remaining = Math.max(run.totalCount - run.processedCount.get(), 0);
+    return Math.round(remaining / throughput);
+  }
+
+  private static boolean isResumable(@Nullable String status) {
+    return StringUtils.equalsAny(status, Status.COUNTING.name(), Status.RUNNING.name(),
+        Status.STOPPING.name(), Status.INTERRUPTED.name());
+  }
+
+  private @Nullable ValueMap readCheckpoint() {
+    try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(null)) {
+      Resource checkpoint = resourceResolver.getResource(checkpointPath);
+      if (checkpoint == null) {
+        return null;
+      }
+      // detach properties from resource resolver
+      return new ValueMapDecorator(new HashMap<>(checkpoint.getValueMap()));
+    }
+    catch (LoginException ex) {
+      log.error("Missing service user mapping for 'io.wcm.handler.media' - "
+          + "see https://wcm.io/handler/media/configuration.html", ex);
+      return null;
+    }
+  }
+
+  private void invalidateRenditionIndex(String assetPath) {
+    RenditionIndexCache cache = this.renditionIndexCache;
+    if (cache != null) {
+      cache.invalidate(assetPath);
+    }
+  }
+
+
+  /**
+   * State of a single backfill run.
+   */
+  private final class BackfillRun {
+
+    private final String rootPath;
+    private final TraversalStrategy strategy;
+    private final String resumeAfterPath;
+    private final long processedCountAtStart;
+
+    private volatile Status status = Status.COUNTING;
+    private volatile Status stopStatus;
+    private volatile long totalCount = -1;
+    private volatile long startTime;
+    private volatile String lastProcessedPath;
+    private final AtomicLong processedCount;
+    private final AtomicLong errorCount;
+    private final AtomicLong commitCount = new AtomicLong();
+
+    // batches are checkpointed in the order they were traversed, also if they finish out of order
+    private long nextBatchSequence;
+    private long nextCheckpointSequence;
+    private final Map<Long, String> completedBatches = new HashMap<>();
+    private long lastCheckpointTime;
+    // assets that failed and are retried on resume, guarded by completedBatches
+    private final Set<String> failedPaths = new LinkedHashSet<>();
+
+    BackfillRun(String rootPath, TraversalStrategy strategy, String resumeAfterPath,
+        long processedCount, long errorCount, String[] failedPaths) {
+      this.rootPath = rootPath;
+      this.strategy = strategy;
+      this.resumeAfterPath = resumeAfterPath;
+      this.lastProcessedPath = resumeAfterPath;
+      this.processedCountAtStart = processedCount;
+      this.processedCount = new AtomicLong(processedCount);
+      this.errorCount = new AtomicLong(errorCount);
+      if (failedPaths != null) {
+        this.failedPaths.addAll(Arrays.asList(failedPaths));
+      }
+    }
+
+    boolean isActive() {
+      return status == Status.COUNTING || status == Status.RUNNING || status == Status.STOPPING;
+    }
+
+    void stop(Status targetStatus) {
+      this.stopStatus = targetStatus;
+      if (isActive()) {
+        this.status = Status.STOPPING;
+      }
+    }
+
+    private boolean isStopRequested() {
+      return stopStatus != null;
+    }
+
+    double getThroughputPerSecond() {
+      if (startTime == 0) {
+        return 0d;
+      }
+      long elapsedMillis = System.currentTimeMillis() - startTime;
+      if (elapsedMillis <= 0) {
+        return 0d;
+      }
+      return (processedCount.get() - processedCountAtStart) * 1000d / elapsedMillis;
+    }
+
+    void execute() {
+      try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(null)) {
+        if (countAssets) {
+          AtomicLong count = new AtomicLong();
+          traverse(resourceResolver, assetPath -> count.incrementAndGet());
+          totalCount = processedCountAtStart + count.get();
+          log.info("Start rendition metadata backfill for {} assets in {}", count.get(), rootPath);
+        }
+        else {
+          log.info("Start rendition metadata backfill for {}", rootPath);
+        }
+        if (!isStopRequested()) {
+          status = Status.RUNNING;
+        }
+        startTime = System.currentTimeMillis();
+        synchronized (completedBatches) {
+          writeCheckpoint();
+        }
+        retryFailedAssets();
+
+        List<String> batch = new ArrayList<>();
+        traverse(resourceResolver, assetPath -> {
+          batch.add(assetPath);
+          if (batch.size() >= assetsPerCommit) {
+            submit(new ArrayList<>(batch));
+            batch.clear();
+          }
+        });
+        if (!batch.isEmpty() && !isStopRequested()) {
+          submit(batch);
+        }
+        awaitBatches();
+
+        status = isStopRequested() ? stopStatus : Status.FINISHED;
+        log.info("Finished rendition metadata backfill for {} with status {}: {} assets processed, {} error(s)",
+            rootPath, status, processedCount.get(), errorCount.get());
+      }
+      catch (LoginException ex) {
+        status = Status.FAILED;
+        log.error("Missing service user mapping for 'io.wcm.handler.media' - "
+            + "see https://wcm.io/handler/media/configuration.html", ex);
+      }
+      catch (RuntimeException ex) {
+        status = Status.FAILED;
+        log.error("Rendition metadata backfill for {} failed.", rootPath, ex);
+      }
+      finally {
+        synchronized (completedBatches) {
+          writeCheckpoint();
+        }
+      }
+    }
+
+    /**
+     * Traverse all assets below the root path in the order of the traversal strategy, skipping all assets
+     * up to and including the resume path.
+     * @param resourceResolver Resource resolver
+     * @param assetPathConsumer Receives the asset paths
+     */
+    private void traverse(@NotNull ResourceResolver resourceResolver, @NotNull Consumer<String> assetPathConsumer) {
+      Resource root = resourceResolver.getResource(rootPath);
+      if (root == null) {
+        log.warn("Root path for rendition metadata backfill does not exist: {}", rootPath);
+        return;
+      }
+      Deque<Resource> pending = new ArrayDeque<>();
+      pending.add(root);
+      while (!pending.isEmpty() && !isStopRequested()) {
+        Resource resource = (strategy == TraversalStrategy.DEPTH_FIRST) ? pending.pollLast() : pending.pollFirst();
+        String path = resource.getPath();
+        if (resource.isResourceType(NT_DAM_ASSET)) {
+          if (resumeAfterPath == null || strategy.compare(path, resumeAfterPath) > 0) {
+            assetPathConsumer.accept(path);
+          }
+          continue;
+        }
+        if (resumeAfterPath != null && strategy.canSkipSubtree(path, resumeAfterPath)) {
+          continue;
+        }
+        List<Resource> children = new ArrayList<>();
+        for (Resource child : resource.getChildren()) {
+          if (!StringUtils.equals(child.getName(), JCR_CONTENT)) {
+            children.add(child);
+          }
+        }
+        children.sort(Comparator.comparing(Resource::getName));
+        if (strategy == TraversalStrategy.DEPTH_FIRST) {
+          // stack is processed from the end - push in reverse order to visit children sorted by name
+          for (int i = children.size() - 1; i >= 0; i--) {
+            pending.addLast(children.get(i));
+          }
+        }
+        else {
+          pending.addAll(children);
+        }
+      }
+    }
+
+    private void submit(@NotNull List<String> assetPaths) {
+      long sequence = nextBatchSequence++;
+      if (synchronousProcessing) {
+        processBatch(sequence, assetPaths);
+        return;
+      }
+      batchPermits.acquireUninterruptibly();
+      try {
+        batchExecutor.execute(() -> {
+          try {
+            processBatch(sequence, assetPaths);
+          }
+          finally {
+            batchPermits.release();
+          }
+        });
+      }
+      catch (RejectedExecutionException ex) {
+        batchPermits.release();
+        stop(Status.INTERRUPTED);
+      }
+    }
+
+    private void awaitBatches() {
+      if (!synchronousProcessing) {
+        batchPermits.acquireUninterruptibly(maxBatchesInFlight);
+        batchPermits.release(maxBatchesInFlight);
+      }
+    }
+
+    /**
+     * Retry assets that failed in the previous run before traversing the remaining assets.
+     */
+    private void retryFailedAssets() {
+      List<String> retryPaths;
+      synchronized (completedBatches) {
+        retryPaths = new ArrayList<>(failedPaths);
+      }
+      if (retryPaths.isEmpty() || isStopRequested()) {
+        return;
+      }
+      log.info("Retry rendition metadata generation for {} failed asset(s) in {}", retryPaths.size(), rootPath);
+      for (List<String> retryBatch : Lists.partition(retryPaths, assetsPerCommit)) {
+        if (isStopRequested()) {
+          break;
+        }
+        List<String> stillFailedPaths = processAssets(retryBatch);
+        if (stillFailedPaths == null) {
+          break;
+        }
+        errorCount.addAndGet(stillFailedPaths.size());
+        processedCount.addAndGet(retryBatch.size() - stillFailedPaths.size());
+        synchronized (completedBatches) {
+          failedPaths.removeAll(retryBatch);
+          failedPaths.addAll(stillFailedPaths);
+        }
+      }
+      synchronized (completedBatches) {
+        writeCheckpoint();
+      }
+    }
+
+    /**
+     * Generate rendition metadata for all assets of the batch. Failed assets are recorded for retry,
+     * the checkpoint is not advanced past failed assets that could not be recorded.
+     * @param sequence Batch sequence number
+     * @param assetPaths Asset paths
+     */
+    private void processBatch(long sequence, @NotNull List<String> assetPaths) {
+      if (!isStopRequested()) {
+        // throttle before processing to not block the listener service while waiting
+        if (commitRateLimiter != null) {
+          commitRateLimiter.acquire();
+        }
+        List<String> batchFailedPaths = processAssets(assetPaths);
+        if (batchFailedPaths == null) {
+          // batch was not processed - do not checkpoint it
+          return;
+        }
+        errorCount.addAndGet(batchFailedPaths.size());
+        processedCount.addAndGet(assetPaths.size() - batchFailedPaths.size());
+        batchCompleted(sequence, assetPaths.get(assetPaths.size() - 1), batchFailedPaths);
+      }
+    }
+
+    /**
+     * Generate rendition metadata for the given assets in a single resource resolver session and commit.
+     * If the commit fails, e.g. due to a concurrent change by the listener service, each asset is processed and
+     * committed separately.
+     * @param assetPaths Asset paths
+     * @return Paths of assets that failed, or null if the assets could not be processed at all
+     */
+    @SuppressWarnings("PMD.GuardLogStatement")
+    private @Nullable List<String> processAssets(@NotNull List<String> assetPaths) {
+      List<String> batchFailedPaths = new ArrayList<>();
+      try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(null)) {
+        RenditionMetadataGenerator generator = new RenditionMetadataGenerator(resourceResolver, assetStore, false);
+        try {
+          for (String assetPath : assetPaths) {
+            processAsset(assetPath, resourceResolver, generator);
+          }
+          commit(resourceResolver);
+        }
+        catch (PersistenceException | RuntimeException ex) {
+          resourceResolver.revert();
+          if (assetPaths.size() == 1) {
+            batchFailedPaths.add(assetPaths.get(0));
+            log.warn("Unable to generate rendition metadata for {}: {}", assetPaths.get(0), ex.getMessage(), ex);
+          }
+          else {
+            log.debug("Commit failed for {} asset(s), commit each asset separately: {}",
+                assetPaths.size(), ex.getMessage());
+            for (String assetPath : assetPaths) {
+              try {
+                processAsset(assetPath, resourceResolver, generator);
+                commit(resourceResolver);
+              }
+              catch (PersistenceException | RuntimeException singleEx) {
+                resourceResolver.revert();
+                batchFailedPaths.add(assetPath);
+                log.warn("Unable to generate rendition metadata for {}: {}", assetPath, singleEx.getMessage(), singleEx);
+              }
+            }
+          }
+        }
+        for (String assetPath : assetPaths) {
+          invalidateRenditionIndex(assetPath);
+        }
+        return batchFailedPaths;
+      }
+      catch (LoginException ex) {
+        log.error("Missing service user mapping for 'io.wcm.handler.media' - "
+            + "see https://wcm.io/handler/media/configuration.html", ex);
+        stop(Status.FAILED);
+        return null;
+      }
+    }
+
+    /**
+     * Generate rendition metadata for a single asset. The asset is locked only while it is processed,
+     * concurrent changes after releasing the lock are detected on commit.
+     */
+    private void processAsset(@NotNull String assetPath, @NotNull ResourceResolver resourceResolver,
+        @NotNull RenditionMetadataGenerator generator) {
+      Lock lock = assetSynchronizationService.getLock(assetPath);
+      lock.lock();
+      try {
+        Resource assetResource = resourceResolver.getResource(assetPath);
+        Asset asset = (assetResource != null) ? assetResource.adaptTo(Asset.class) : null;
+        if (asset == null) {
+          log.debug("Unable to read asset at {} with user {}", assetPath, resourceResolver.getUserID());
+          return;
+        }
+        generator.processAllRenditions(asset);
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    private void commit(@NotNull ResourceResolver resourceResolver) throws PersistenceException {
+      if (resourceResolver.hasChanges()) {
+        resourceResolver.commit();
+        commitCount.incrementAndGet();
+      }
+    }
+
+    private void batchCompleted(long sequence, @NotNull String lastAssetPath,
+        @NotNull Collection<String> batchFailedPaths) {
+      synchronized (completedBatches) {
+        if (!batchFailedPaths.isEmpty()) {
+          if (failedPaths.size() + batchFailedPaths.size() > MAX_FAILED_PATHS) {
+            // too many failures - stop without checkpointing past the failed assets
+            log.error("Stop rendition metadata backfill for {}: more than {} assets failed.",
+                rootPath, MAX_FAILED_PATHS);
+            stop(Status.FAILED);
+            return;
+          }
+          failedPaths.addAll(batchFailedPaths);
+        }
+        completedBatches.put(sequence, lastAssetPath);
+        String checkpointAssetPath = null;
+        String path = completedBatches.remove(nextCheckpointSequence);
+        while (path != null) {
+          checkpointAssetPath = path;
+          nextCheckpointSequence++;
+          path = completedBatches.remove(nextCheckpointSequence);
+        }
+        if (checkpointAssetPath != null) {
+          lastProcessedPath = checkpointAssetPath;
+          if (System.currentTimeMillis() - lastCheckpointTime >= checkpointIntervalMillis) {
+            writeCheckpoint();
+          }
+        }
+      }
+    }
+
+    /**
+     * Store progress of this run in the repository. Has to be called synchronized on completedBatches.
+     */
+    private void writeCheckpoint() {
+      lastCheckpointTime = System.currentTimeMillis();
+      try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(null)) {
+        Resource checkpoint = ResourceUtil.getOrCreateResource(resourceResolver, checkpointPath,
+            ImmutableMap.<String, Object>of(JCR_PRIMARYTYPE, NT_UNSTRUCTURED), null, false);
+        ModifiableValueMap props = AdaptTo.notNull(checkpoint, ModifiableValueMap.class);
+        props.put(PN_ROOT_PATH, rootPath);
+        props.put(PN_TRAVERSAL_STRATEGY, strategy.name());
+        if (lastProcessedPath != null) {
+          props.put(PN_LAST_PROCESSED_PATH, lastProcessedPath);
+        }
+        else {
+          props.remove(PN_LAST_PROCESSED_PATH);
+        }
+        props.put(PN_PROCESSED_COUNT, processedCount.get());
+        props.put(PN_ERROR_COUNT, errorCount.get());
+        if (!failedPaths.isEmpty()) {
+          props.put(PN_FAILED_PATHS, failedPaths.toArray(new String[0]));
+        }
+        else {
+          props.remove(PN_FAILED_PATHS);
+        }
+        props.put(PN_STATUS, status.name());
+        props.put(JCR_LASTMODIFIED, Calendar.getInstance());
+        resourceResolver.commit();
+      }
+      catch (LoginException | PersistenceException ex) {
+        log.warn("Unable to write rendition metadata backfill checkpoint to {}: {}",
+            checkpointPath, ex.getMessage(), ex);
+      }
+    }
+
+  }
+
+}
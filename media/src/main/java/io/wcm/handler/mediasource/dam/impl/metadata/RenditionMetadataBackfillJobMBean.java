@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.mediasource.dam.impl.metadata;
+
+/**
+ * JMX management interface for {@link RenditionMetadataBackfillJob}.
+ */
+public interface RenditionMetadataBackfillJobMBean {
+
+  /**
+   * Start a new backfill run for all assets below the given root path. Progress of previous runs is discarded.
+   * @param rootPath DAM root path
+   * @return Status message
+   */
+  String start(String rootPath);
+
+  /**
+   * Resume the last backfill run from the checkpoint stored in the repository.
+   * @return Status message
+   */
+  String resume();
+
+  /**
+   * Stop the current backfill run. Assets already scheduled for processing are finished and checkpointed.
+   * @return Status message
+   */
+  String stop();
+
+  /**
+   * @return Status of the current or last backfill run
+   */
+  String getStatus();
+
+  /**
+   * @return DAM root path of the current or last backfill run
+   */
+  String getRootPath();
+
+  /**
+   * @return Path of the last asset up to which all assets were processed
+   */
+  String getLastProcessedPath();
+
+  /**
+   * @return Number of assets to be processed in this run, or -1 if not known
+   */
+  long getTotalCount();
+
+  /**
+   * @return Number of assets processed
+   */
+  long getProcessedCount();
+
+  /**
+   * @return Number of assets that could not be processed
+   */
+  long getErrorCount();
+
+  /**
+   * @return Number of commits
+   */
+  long getCommitCount();
+
+  /**
+   * @return Number of assets processed per second in the current run
+   */
+  double getThroughputPerSecond();
+
+  /**
+   * @return Estimated remaining time in seconds, or -1 if not known
+   */
+  long getEstimatedRemainingSeconds();
+
+}
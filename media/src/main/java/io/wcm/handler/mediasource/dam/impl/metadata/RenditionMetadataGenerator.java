@@ -54,12 +54,11 @@ import org.slf4j.LoggerFactory;
 import com.day.cq.dam.api.Asset;
 import com.day.cq.dam.api.Rendition;
 import com.day.cq.dam.api.handler.store.AssetStore;
-import com.day.image.Layer;
 import com.google.common.collect.ImmutableMap;
 
 import io.wcm.handler.media.Dimension;
 import io.wcm.handler.media.MediaFileType;
-import io.wcm.handler.media.impl.ResourceLayerUtil;
+import io.wcm.handler.media.impl.ImageDimensionProbe;
 import io.wcm.sling.commons.adapter.AdaptTo;
 import io.wcm.wcm.commons.contenttype.ContentType;
 
@@ -70,15 +69,27 @@ public final class RenditionMetadataGenerator {
 
   private final ResourceResolver resourceResolver;
   private final AssetStore assetStore;
+  private final boolean autoCommit;
 
   private static final Logger log = LoggerFactory.getLogger(RenditionMetadataGenerator.class);
 
   /**
    * @param resourceResolver Resource resolver
+   * @param assetStore Asset store
    */
   public RenditionMetadataGenerator(ResourceResolver resourceResolver, AssetStore assetStore) {
+    this(resourceResolver, assetStore, true);
+  }
+
+  /**
+   * @param resourceResolver Resource resolver
+   * @param assetStore Asset store
+   * @param autoCommit If false, changes are not committed after each rendition - the caller has to commit them.
+   */
+  public RenditionMetadataGenerator(ResourceResolver resourceResolver, AssetStore assetStore, boolean autoCommit) {
     this.resourceResolver = resourceResolver;
     this.assetStore = assetStore;
+    this.autoCommit = autoCommit;
   }
 
   /**
@@ -189,7 +200,7 @@ public final class RenditionMetadataGenerator {
     }
 
     // calculate rendition dimension
-    // (record duration of converting resource to layer for debugging)
+    // (record duration of detecting the dimension for debugging)
     long startTime = System.currentTimeMillis();
     Dimension dimension = getRenditionDimension(renditionResource);
     long conversionDuration = System.currentTimeMillis() - startTime;
@@ -215,7 +226,7 @@ public final class RenditionMetadataGenerator {
       props.put(PN_IMAGE_HEIGHT, dimension.getHeight());
       props.put(JCR_LASTMODIFIED, Calendar.getInstance());
       props.put(JCR_LAST_MODIFIED_BY, resourceResolver.getUserID());
-      resourceResolver.commit();
+      commit();
       return true;
     }
     catch (PersistenceException ex) {
@@ -269,7 +280,7 @@ public final class RenditionMetadataGenerator {
     try {
       log.debug("Remove rendition metadata at {}.", metadataResource.getPath());
       resourceResolver.delete(metadataResource);
-      resourceResolver.commit();
+      commit();
       return true;
     }
     catch (PersistenceException ex) {
@@ -277,17 +288,20 @@ public final class RenditionMetadataGenerator {
     }
   }
 
+  private void commit() throws PersistenceException {
+    if (autoCommit) {
+      resourceResolver.commit();
+    }
+  }
+
   /**
    * Get dimension (with/height) of rendition.
+   * Reads only the image headers if possible, and decodes the full image binary only as fallback.
    * @param renditionResource Rendition
    * @return Dimension or null if it could not be detected
    */
   private Dimension getRenditionDimension(Resource renditionResource) {
-    Layer layer = ResourceLayerUtil.toLayer(renditionResource, assetStore);
-    if (layer == null) {
-      return null;
-    }
-    return new Dimension(layer.getWidth(), layer.getHeight());
+    return ImageDimensionProbe.getDimension(renditionResource, assetStore);
   }
 
   /**
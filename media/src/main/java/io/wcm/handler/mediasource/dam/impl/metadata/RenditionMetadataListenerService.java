@@ -21,10 +21,18 @@ package io.wcm.handler.mediasource.dam.impl.metadata;
 
 import static com.day.cq.dam.api.DamConstants.ORIGINAL_FILE;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.io.FilenameUtils;
@@ -41,6 +49,8 @@ import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventConstants;
 import org.osgi.service.event.EventHandler;
@@ -51,24 +61,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.day.cq.dam.api.DamEvent;
-import com.day.cq.dam.api.DamEvent.Type;
 import com.day.cq.dam.api.handler.store.AssetStore;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.wcm.handler.media.MediaFileType;
+import io.wcm.handler.mediasource.dam.impl.RenditionIndexCache;
 import io.wcm.wcm.commons.util.RunMode;
 
 /**
  * Background service that extracts additional metadata like width and height for DAM renditions.
  */
-@Component(service = EventHandler.class, immediate = true,
+@Component(service = { EventHandler.class, RenditionMetadataListenerServiceMBean.class }, immediate = true,
     // define explicit PID which was the old location of the implementation class
     configurationPid = "io.wcm.handler.mediasource.dam.impl.DamRenditionMetadataService",
     property = {
-        EventConstants.EVENT_TOPIC + "=" + DamEvent.EVENT_TOPIC
+        EventConstants.EVENT_TOPIC + "=" + DamEvent.EVENT_TOPIC,
+        "jmx.objectname=io.wcm.handler.media:type=RenditionMetadataListenerService"
     })
 @Designate(ocd = RenditionMetadataListenerService.Config.class)
-public final class RenditionMetadataListenerService implements EventHandler {
+public final class RenditionMetadataListenerService implements EventHandler, RenditionMetadataListenerServiceMBean {
 
   @ObjectClassDefinition(
       name = "wcm.io Media Handler Rendition Metadata Service",
@@ -87,6 +98,14 @@ public final class RenditionMetadataListenerService implements EventHandler {
         + "Setting it to 0 disables asynchronous processing completely (not recommended for production environments).")
     int threadPoolSize() default 10;
 
+    @AttributeDefinition(name = "Debounce window", description = "Time in milliseconds rendition events are collected "
+        + "per asset before they are processed together in a single resource resolver session and commit.")
+    int debounceMillis() default 500;
+
+    @AttributeDefinition(name = "Max. assets per commit", description = "Maximum number of assets with pending "
+        + "rendition events that are processed in one resource resolver session and committed together.")
+    int maxAssetsPerCommit() default 20;
+
   }
 
   private static final int REMOVE_EVENT_EXECUTION_DELAY_SECONDS = 10;
@@ -98,6 +117,8 @@ public final class RenditionMetadataListenerService implements EventHandler {
 
   private boolean enabled;
   private boolean synchronousProcessing;
+  private long debounceMillis;
+  private int maxAssetsPerCommit;
 
   @Reference
   private ResourceResolverFactory resourceResolverFactory;
@@ -107,9 +128,19 @@ public final class RenditionMetadataListenerService implements EventHandler {
   private AssetSynchonizationService assetSynchronizationService;
   @Reference
   private AssetStore assetStore;
+  @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+  private RenditionIndexCache renditionIndexCache;
 
   private ScheduledExecutorService executorService;
 
+  // pending rendition events per asset path in order of arrival
+  private final Map<String, PendingAsset> pendingAssets = new LinkedHashMap<>();
+
+  private final AtomicLong commitCount = new AtomicLong();
+  private final AtomicLong failedCommitCount = new AtomicLong();
+  private final AtomicLong committedAssetCount = new AtomicLong();
+  private final AtomicInteger lastCommitBatchSize = new AtomicInteger();
+
   @Activate
   @SuppressWarnings("deprecation")
   private void activate(ComponentContext componentContext, Config config) {
@@ -126,6 +157,8 @@ public final class RenditionMetadataListenerService implements EventHandler {
       this.enabled = false;
     }
     this.synchronousProcessing = config.threadPoolSize() <= 0;
+    this.debounceMillis = Math.max(config.debounceMillis(), 0);
+    this.maxAssetsPerCommit = Math.max(config.maxAssetsPerCommit(), 1);
     if (this.enabled && !this.synchronousProcessing) {
       this.executorService = Executors.newScheduledThreadPool(config.threadPoolSize(),
           new ThreadFactoryBuilder().setNameFormat(getClass().getSimpleName() + "-%d").build());
@@ -145,14 +178,46 @@ public final class RenditionMetadataListenerService implements EventHandler {
       }
       executorService = null;
     }
+    flushPendingAssets();
+  }
+
+  /**
+   * Process all pending assets regardless of their debounce window, so no queued events are lost on deactivation.
+   */
+  private void flushPendingAssets() {
+    List<PendingAsset> remaining;
+    synchronized (pendingAssets) {
+      remaining = new ArrayList<>(pendingAssets.values());
+      pendingAssets.clear();
+    }
+    if (remaining.isEmpty()) {
+      return;
+    }
+    log.info("Process rendition events of {} pending asset(s) on deactivation.", remaining.size());
+    for (int i = 0; i < remaining.size(); i += maxAssetsPerCommit) {
+      processBatch(remaining.subList(i, Math.min(i + maxAssetsPerCommit, remaining.size())));
+    }
+    // assets that failed again cannot be retried anymore
+    synchronized (pendingAssets) {
+      if (!pendingAssets.isEmpty()) {
+        log.warn("Dropped rendition events of {} asset(s) on deactivation: {}",
+            pendingAssets.size(), pendingAssets.keySet());
+        pendingAssets.clear();
+      }
+    }
   }
 
   @Override
   public void handleEvent(Event event) {
-    if (!enabled || !StringUtils.equals(event.getTopic(), DamEvent.EVENT_TOPIC)) {
+    if (!StringUtils.equals(event.getTopic(), DamEvent.EVENT_TOPIC)) {
       return;
     }
     DamEvent damEvent = DamEvent.fromEvent(event);
+    // drop cached rendition index on any change of the asset - independent of the run modes metadata is generated on
+    invalidateRenditionIndex(damEvent.getAssetPath());
+    if (!enabled) {
+      return;
+    }
     // process only rendition-related events
     if (SUPPORTED_EVENT_TYPES.contains(damEvent.getType())) {
       handleDamEvent(damEvent);
@@ -173,112 +238,274 @@ public final class RenditionMetadataListenerService implements EventHandler {
       return;
     }
 
-    RenditionMetadataEvent runnable = new RenditionMetadataEvent(event.getAssetPath(),
-        renditionPath, event.getType());
     if (synchronousProcessing) {
       // execute directly in synchronous mode (e.g. for unit tests)
-      runnable.run();
+      PendingAsset pendingAsset = new PendingAsset(event.getAssetPath());
+      pendingAsset.addEvent(renditionPath, event.getType(), 0);
+      processBatch(Collections.singletonList(pendingAsset));
     }
     else {
-      // decouple event processing from listener to avoid timeouts
-      executorService.schedule(runnable, runnable.getDelaySeconds(), TimeUnit.SECONDS);
+      // decouple event processing from listener to avoid timeouts, and collect all events of the same
+      // asset that arrive within the debounce window to process them together
+      long delayMillis = getDelayMillis(event.getType());
+      synchronized (pendingAssets) {
+        pendingAssets.computeIfAbsent(event.getAssetPath(), PendingAsset::new)
+            .addEvent(renditionPath, event.getType(), System.currentTimeMillis() + delayMillis);
+      }
+      schedule(delayMillis);
     }
   }
 
-  private final class RenditionMetadataEvent implements Runnable {
-
-    private final String assetPath;
-    private final String renditionPath;
-    private final DamEvent.Type eventType;
+  private long getDelayMillis(DamEvent.Type eventType) {
+    if (eventType == DamEvent.Type.RENDITION_REMOVED) {
+      // delay event handling in case of removed event for some time to avoid repository conflicts
+      // e.g. when new packages with sample content are installed remove and udpate events
+      // are quickly fired after another
+      return TimeUnit.SECONDS.toMillis(REMOVE_EVENT_EXECUTION_DELAY_SECONDS);
+    }
+    else {
+      return debounceMillis;
+    }
+  }
 
-    private int retryCount;
+  private void schedule(long delayMillis) {
+    ScheduledExecutorService executor = this.executorService;
+    if (executor != null && !executor.isShutdown()) {
+      executor.schedule(this::processDueAssets, delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
 
-    RenditionMetadataEvent(String assetPath, String renditionPath, Type eventType) {
-      this.assetPath = assetPath;
-      this.renditionPath = renditionPath;
-      this.eventType = eventType;
+  /**
+   * Process all assets for which the debounce window has passed, in batches of max. {@link Config#maxAssetsPerCommit()}.
+   */
+  private void processDueAssets() {
+    List<PendingAsset> batch = pollDueAssets();
+    while (!batch.isEmpty() && enabled) {
+      processBatch(batch);
+      batch = pollDueAssets();
     }
+  }
 
-    private int getDelaySeconds() {
-      if (eventType == DamEvent.Type.RENDITION_REMOVED) {
-        // delay event handling in case of removed event for some time to avoid repository conflicts
-        // e.g. when new packages with sample content are installed remove and udpate events
-        // are quickly fired after another
-        return REMOVE_EVENT_EXECUTION_DELAY_SECONDS;
-      }
-      else {
-        return 0;
+  private List<PendingAsset> pollDueAssets() {
+    long now = System.currentTimeMillis();
+    List<PendingAsset> batch = new ArrayList<>();
+    synchronized (pendingAssets) {
+      Iterator<PendingAsset> items = pendingAssets.values().iterator();
+      while (items.hasNext() && batch.size() < maxAssetsPerCommit) {
+        PendingAsset pendingAsset = items.next();
+        if (pendingAsset.dueTime <= now) {
+          items.remove();
+          batch.add(pendingAsset);
+        }
       }
     }
+    return batch;
+  }
 
-    @Override
-    @SuppressWarnings("PMD.GuardLogStatement")
-    public void run() {
-      // process event synchronized per asset path
-      Lock lock = assetSynchronizationService.getLock(assetPath);
+  /**
+   * Process rendition events of all given assets in a single resource resolver session and commit.
+   * If the commit fails, each asset is processed and committed separately, and only the failed assets are retried.
+   * @param batch Pending assets
+   */
+  @SuppressWarnings("PMD.GuardLogStatement")
+  private void processBatch(List<PendingAsset> batch) {
+    // process events synchronized per asset path
+    List<String> assetPaths = new ArrayList<>();
+    for (PendingAsset pendingAsset : batch) {
+      assetPaths.add(pendingAsset.assetPath);
+    }
+    List<Lock> locks = assetSynchronizationService.getLocks(assetPaths);
+    for (Lock lock : locks) {
       lock.lock();
+    }
 
-      ResourceResolver serviceResourceResolver = null;
-      try {
-        // open service user session for reading/writing rendition metadata
-        serviceResourceResolver = resourceResolverFactory.getServiceResourceResolver(null);
-
-        // make sure asset resource exists
-        Resource assetResource = serviceResourceResolver.getResource(assetPath);
-        if (assetResource == null) {
-          log.debug("Unable to read asset at {} with user {}", assetPath, serviceResourceResolver.getUserID());
-          return;
-        }
+    ResourceResolver serviceResourceResolver = null;
+    try {
+      // open service user session for reading/writing rendition metadata
+      serviceResourceResolver = resourceResolverFactory.getServiceResourceResolver(null);
+      RenditionMetadataGenerator generator = new RenditionMetadataGenerator(serviceResourceResolver, assetStore, false);
 
-        if (eventType == DamEvent.Type.RENDITION_UPDATED) {
-          renditionAddedOrUpdated(serviceResourceResolver);
-        }
-        else if (eventType == DamEvent.Type.RENDITION_REMOVED) {
-          renditionRemoved(serviceResourceResolver);
-        }
+      try {
+        processAndCommit(batch, serviceResourceResolver, generator);
       }
       catch (PersistenceException ex) {
-        // in case of persistence exception retry execution some times later
-        this.retryCount++;
-        if (this.retryCount >= MAX_RETRY_COUNT) {
-          // retried too often - log as error
-          log.error("Failed after {} attempts: {}", this.retryCount, ex.getMessage(), ex);
+        serviceResourceResolver.revert();
+        if (batch.size() == 1) {
+          retry(batch, ex);
         }
         else {
-          log.debug("Failed {} attempt(s), retry: {}", this.retryCount, ex.getMessage(), ex);
-          executorService.schedule(this, RETRY_DELAY_SECONDS, TimeUnit.SECONDS);
+          log.debug("Commit failed for {} asset(s), commit each asset separately: {}", batch.size(), ex.getMessage());
+          for (PendingAsset pendingAsset : batch) {
+            List<PendingAsset> singleAsset = Collections.singletonList(pendingAsset);
+            try {
+              processAndCommit(singleAsset, serviceResourceResolver, generator);
+            }
+            catch (PersistenceException singleEx) {
+              serviceResourceResolver.revert();
+              retry(singleAsset, singleEx);
+            }
+          }
         }
       }
-      catch (LoginException ex) {
-        log.error("Missing service user mapping for 'io.wcm.handler.media' - "
-            + "see https://wcm.io/handler/media/configuration.html", ex);
+
+      // rendition metadata has changed - drop cached rendition index again
+      for (String assetPath : assetPaths) {
+        invalidateRenditionIndex(assetPath);
+      }
+    }
+    catch (LoginException ex) {
+      log.error("Missing service user mapping for 'io.wcm.handler.media' - "
+          + "see https://wcm.io/handler/media/configuration.html", ex);
+    }
+    finally {
+      for (int i = locks.size() - 1; i >= 0; i--) {
+        locks.get(i).unlock();
+      }
+      if (serviceResourceResolver != null) {
+        serviceResourceResolver.close();
+      }
+    }
+  }
+
+  private void processAndCommit(List<PendingAsset> assets, ResourceResolver resolver,
+      RenditionMetadataGenerator generator) throws PersistenceException {
+    for (PendingAsset pendingAsset : assets) {
+      pendingAsset.process(resolver, generator);
+    }
+    if (resolver.hasChanges()) {
+      try {
+        resolver.commit();
+      }
+      catch (PersistenceException ex) {
+        failedCommitCount.incrementAndGet();
+        throw ex;
       }
-      finally {
-        lock.unlock();
-        if (serviceResourceResolver != null) {
-          serviceResourceResolver.close();
+      commitCount.incrementAndGet();
+      committedAssetCount.addAndGet(assets.size());
+      lastCommitBatchSize.set(assets.size());
+      log.debug("Committed rendition metadata for {} asset(s).", assets.size());
+    }
+  }
+
+  /**
+   * In case of persistence exception retry execution some times later. Events that arrived in the meantime
+   * for the same renditions take precedence.
+   * @param batch Failed batch
+   * @param ex Exception
+   */
+  @SuppressWarnings("PMD.GuardLogStatement")
+  private void retry(List<PendingAsset> batch, PersistenceException ex) {
+    boolean retryScheduled = false;
+    for (PendingAsset failedAsset : batch) {
+      int retryCount = failedAsset.retryCount + 1;
+      if (synchronousProcessing || retryCount >= MAX_RETRY_COUNT) {
+        // retried too often - log as error
+        log.error("Failed after {} attempts for {}: {}", retryCount, failedAsset.assetPath, ex.getMessage(), ex);
+        continue;
+      }
+      log.debug("Failed {} attempt(s) for {}, retry: {}", retryCount, failedAsset.assetPath, ex.getMessage(), ex);
+      long dueTime = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RETRY_DELAY_SECONDS);
+      synchronized (pendingAssets) {
+        PendingAsset pendingAsset = pendingAssets.computeIfAbsent(failedAsset.assetPath, PendingAsset::new);
+        pendingAsset.retryCount = Math.max(pendingAsset.retryCount, retryCount);
+        for (Map.Entry<String, DamEvent.Type> entry : failedAsset.renditionEvents.entrySet()) {
+          pendingAsset.renditionEvents.putIfAbsent(entry.getKey(), entry.getValue());
         }
+        pendingAsset.dueTime = Math.max(pendingAsset.dueTime, dueTime);
+      }
+      retryScheduled = true;
+    }
+    if (retryScheduled) {
+      schedule(TimeUnit.SECONDS.toMillis(RETRY_DELAY_SECONDS));
+    }
+  }
+
+  private void invalidateRenditionIndex(String assetPath) {
+    RenditionIndexCache cache = this.renditionIndexCache;
+    if (cache != null && assetPath != null) {
+      cache.invalidate(assetPath);
+    }
+  }
+
+  @Override
+  public int getQueueDepth() {
+    synchronized (pendingAssets) {
+      int queueDepth = 0;
+      for (PendingAsset pendingAsset : pendingAssets.values()) {
+        queueDepth += pendingAsset.renditionEvents.size();
       }
+      return queueDepth;
     }
+  }
+
+  @Override
+  public long getCommitCount() {
+    return commitCount.get();
+  }
 
-    /**
-     * Create or update rendition metadata if rendition is created or updated.
-     * @throws PersistenceException Persistence exception
-     */
-    private void renditionAddedOrUpdated(ResourceResolver resolver) throws PersistenceException {
-      log.trace("Process rendition added/updated event: {}", renditionPath);
-      RenditionMetadataGenerator generator = new RenditionMetadataGenerator(resolver, assetStore);
-      generator.renditionAddedOrUpdated(renditionPath);
-    }
-
-    /**
-     * Remove rendition metadata node if rendition is removed.
-     * @throws PersistenceException Persistence exception
-     */
-    private void renditionRemoved(ResourceResolver resolver) throws PersistenceException {
-      log.trace("Process rendition removed event: {}", renditionPath);
-      RenditionMetadataGenerator generator = new RenditionMetadataGenerator(resolver, assetStore);
-      generator.renditionRemoved(renditionPath);
+  @Override
+  public long getFailedCommitCount() {
+    return failedCommitCount.get();
+  }
+
+  @Override
+  public double getAverageCommitBatchSize() {
+    long commits = commitCount.get();
+    if (commits == 0) {
+      return 0d;
+    }
+    return (double)committedAssetCount.get() / commits;
+  }
+
+  @Override
+  public int getLastCommitBatchSize() {
+    return lastCommitBatchSize.get();
+  }
+
+
+  /**
+   * Rendition events collected for a single asset.
+   */
+  private static final class PendingAsset {
+
+    private final String assetPath;
+    // latest event type per rendition path
+    private final Map<String, DamEvent.Type> renditionEvents = new LinkedHashMap<>();
+    private long dueTime;
+    private int retryCount;
+
+    PendingAsset(String assetPath) {
+      this.assetPath = assetPath;
+    }
+
+    void addEvent(String renditionPath, DamEvent.Type eventType, long eventDueTime) {
+      // remove first to keep order of arrival for the latest event
+      renditionEvents.remove(renditionPath);
+      renditionEvents.put(renditionPath, eventType);
+      dueTime = Math.max(dueTime, eventDueTime);
+    }
+
+    void process(ResourceResolver resolver, RenditionMetadataGenerator generator) throws PersistenceException {
+      // make sure asset resource exists
+      Resource assetResource = resolver.getResource(assetPath);
+      if (assetResource == null) {
+        log.debug("Unable to read asset at {} with user {}", assetPath, resolver.getUserID());
+        return;
+      }
+
+      for (Map.Entry<String, DamEvent.Type> entry : renditionEvents.entrySet()) {
+        String renditionPath = entry.getKey();
+        if (entry.getValue() == DamEvent.Type.RENDITION_UPDATED) {
+          // create or update rendition metadata if rendition is created or updated
+          log.trace("Process rendition added/updated event: {}", renditionPath);
+          generator.renditionAddedOrUpdated(renditionPath);
+        }
+        else if (entry.getValue() == DamEvent.Type.RENDITION_REMOVED) {
+          // remove rendition metadata node if rendition is removed
+          log.trace("Process rendition removed event: {}", renditionPath);
+          generator.renditionRemoved(renditionPath);
+        }
+      }
     }
 
   }
@@ -0,0 +1,52 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.mediasource.dam.impl.metadata;
+
+/**
+ * JMX management interface for {@link RenditionMetadataListenerService}.
+ */
+public interface RenditionMetadataListenerServiceMBean {
+
+  /**
+   * @return Number of rendition events waiting to be processed
+   */
+  int getQueueDepth();
+
+  /**
+   * @return Number of commits of rendition metadata changes
+   */
+  long getCommitCount();
+
+  /**
+   * @return Number of commits that failed and were reverted
+   */
+  long getFailedCommitCount();
+
+  /**
+   * @return Average number of assets per commit
+   */
+  double getAverageCommitBatchSize();
+
+  /**
+   * @return Number of assets in the last commit
+   */
+  int getLastCommitBatchSize();
+
+}
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.format.impl;
+
+import static io.wcm.handler.media.testcontext.DummyMediaFormats.EDITORIAL_1COL;
+import static io.wcm.handler.media.testcontext.DummyMediaFormats.EDITORIAL_2COL;
+import static io.wcm.handler.media.testcontext.DummyMediaFormats.EDITORIAL_STANDARD;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.wcm.handler.media.format.MediaFormat;
+import io.wcm.handler.media.format.MediaFormatBuilder;
+import io.wcm.handler.media.testcontext.DummyMediaFormatProvider;
+
+class MediaFormatIndexTest {
+
+  private MediaFormatIndex underTest;
+
+  @BeforeEach
+  void setUp() {
+    underTest = new MediaFormatIndex(new TreeSet<>(new DummyMediaFormatProvider().getMediaFormats()));
+  }
+
+  @Test
+  void testGetMediaFormat() {
+    assertSame(EDITORIAL_2COL, underTest.getMediaFormat("editorial_2col"));
+    assertNull(underTest.getMediaFormat("unknown"));
+  }
+
+  @Test
+  void testGetSameBiggerMediaFormats_Memoized() {
+    SortedSet<MediaFormat> result1 = underTest.getSameBiggerMediaFormats(EDITORIAL_2COL, true);
+    assertTrue(result1.contains(EDITORIAL_STANDARD));
+
+    // modifying the result does not affect subsequent lookups
+    result1.clear();
+    SortedSet<MediaFormat> result2 = underTest.getSameBiggerMediaFormats(EDITORIAL_2COL, true);
+    assertTrue(result2.contains(EDITORIAL_STANDARD));
+    assertEquals(result2, underTest.getSameBiggerMediaFormats(EDITORIAL_2COL, true));
+  }
+
+  @Test
+  void testGetSameSmallerMediaFormats() {
+    SortedSet<MediaFormat> result = underTest.getSameSmallerMediaFormats(EDITORIAL_2COL, true);
+    assertTrue(result.contains(EDITORIAL_1COL));
+    assertTrue(result.contains(EDITORIAL_2COL));
+    assertFalse(result.contains(EDITORIAL_STANDARD));
+  }
+
+  @Test
+  void testGetSameBiggerMediaFormats_NotInIndex() {
+    // media format with same name but different definition is not served from memoized results
+    MediaFormat customFormat = MediaFormatBuilder.create("editorial_2col")
+        .width(10000)
+        .height(5000)
+        .extensions("jpg")
+        .renditionGroup("/apps/test/renditiongroup/editorial_standard")
+        .build();
+    SortedSet<MediaFormat> result = underTest.getSameBiggerMediaFormats(customFormat, true);
+    assertFalse(result.contains(EDITORIAL_1COL));
+  }
+
+  @Test
+  void testDetectMediaFormats_ExtensionCaseInsensitive() {
+    assertEquals(underTest.detectMediaFormats("jpg", 0, 215, 102), underTest.detectMediaFormats("JPG", 0, 215, 102));
+    assertTrue(underTest.detectMediaFormats("jpg", 0, 215, 102).contains(EDITORIAL_1COL));
+    assertFalse(underTest.detectMediaFormats("xyz", 0, 215, 102).contains(EDITORIAL_1COL));
+  }
+
+}
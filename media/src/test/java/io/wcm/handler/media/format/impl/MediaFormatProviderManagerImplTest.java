@@ -20,11 +20,13 @@
 package io.wcm.handler.media.format.impl;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.sling.api.resource.Resource;
 import org.junit.jupiter.api.BeforeEach;
@@ -40,7 +42,6 @@ import com.google.common.collect.ImmutableSortedSet;
 
 import io.wcm.handler.media.format.MediaFormat;
 import io.wcm.handler.media.format.MediaFormatBuilder;
-import io.wcm.handler.media.format.MediaFormatProviderManager;
 import io.wcm.handler.media.spi.MediaFormatProvider;
 import io.wcm.sling.commons.caservice.impl.ContextAwareServiceResolverImpl;
 import io.wcm.testing.mock.aem.junit5.AemContext;
@@ -67,7 +68,7 @@ class MediaFormatProviderManagerImplTest {
   private MediaFormatProvider provider2;
 
   private Resource resource;
-  private MediaFormatProviderManager underTest;
+  private MediaFormatProviderManagerImpl underTest;
 
   @BeforeEach
   void setUp() {
@@ -115,4 +116,57 @@ class MediaFormatProviderManagerImplTest {
     assertEquals(ImmutableSortedSet.of(MF11, MF12, MF21), mediaFormats);
   }
 
+  @Test
+  void testCacheStats() {
+    underTest.getMediaFormats(resource);
+    underTest.getMediaFormats(resource);
+
+    assertEquals(1, underTest.getCacheSize());
+    assertEquals(1, underTest.getMissCount());
+    assertEquals(1, underTest.getHitCount());
+    assertEquals(1, underTest.getLoadCount());
+
+    underTest.invalidateCache();
+    assertEquals(0, underTest.getCacheSize());
+  }
+
+  @Test
+  void testInvalidateOnProviderRegistration() {
+    assertEquals(ImmutableSortedSet.of(MF11, MF12, MF21), underTest.getMediaFormats(resource));
+    long invalidationCount = underTest.getInvalidationCount();
+
+    MediaFormatProvider provider3 = mock(MediaFormatProvider.class);
+    MediaFormat mf31 = MediaFormatBuilder.create("mf31").build();
+    when(provider3.getMediaFormats()).thenReturn(ImmutableSortedSet.of(mf31));
+    context.registerService(MediaFormatProvider.class, provider3,
+        Constants.SERVICE_RANKING, 50);
+
+    assertEquals(invalidationCount + 1, underTest.getInvalidationCount());
+    assertEquals(ImmutableSortedSet.of(MF11, MF12, MF21, mf31), underTest.getMediaFormats(resource));
+  }
+
+  @Test
+  void testInvalidateWhileLoading() {
+    // invalidate cache while the media formats are loaded
+    MediaFormatProvider provider3 = mock(MediaFormatProvider.class);
+    MediaFormat mf31 = MediaFormatBuilder.create("mf31").build();
+    AtomicBoolean invalidated = new AtomicBoolean();
+    when(provider3.getMediaFormats()).thenAnswer(invocation -> {
+      if (invalidated.compareAndSet(false, true)) {
+        underTest.invalidateCache();
+      }
+      return ImmutableSortedSet.of(mf31);
+    });
+    context.registerService(MediaFormatProvider.class, provider3,
+        Constants.SERVICE_RANKING, 50);
+
+    assertEquals(ImmutableSortedSet.of(MF11, MF12, MF21, mf31), underTest.getMediaFormats(resource));
+
+    // index loaded before the invalidation is not kept in cache, but loaded again
+    assertEquals(2, underTest.getLoadCount());
+    assertEquals(1, underTest.getCacheSize());
+    underTest.getMediaFormats(resource);
+    assertEquals(2, underTest.getLoadCount());
+  }
+
 }
@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class HttpByteRangeTest {
+
+  @Test
+  void testStartEnd() {
+    HttpByteRange range = HttpByteRange.parse("bytes=10-19", 100);
+    assertTrue(range.isSatisfiable());
+    assertEquals(10, range.getStart());
+    assertEquals(19, range.getEnd());
+    assertEquals(10, range.getLength());
+    assertEquals("bytes 10-19/100", range.getContentRangeHeader());
+  }
+
+  @Test
+  void testOpenEnd() {
+    HttpByteRange range = HttpByteRange.parse("bytes=90-", 100);
+    assertEquals(90, range.getStart());
+    assertEquals(99, range.getEnd());
+  }
+
+  @Test
+  void testEndBeyondContentLength() {
+    HttpByteRange range = HttpByteRange.parse("bytes=90-200", 100);
+    assertEquals(90, range.getStart());
+    assertEquals(99, range.getEnd());
+  }
+
+  @Test
+  void testSuffix() {
+    HttpByteRange range = HttpByteRange.parse("bytes=-30", 100);
+    assertEquals(70, range.getStart());
+    assertEquals(99, range.getEnd());
+
+    range = HttpByteRange.parse("bytes=-300", 100);
+    assertEquals(0, range.getStart());
+    assertEquals(99, range.getEnd());
+  }
+
+  @Test
+  void testNotSatisfiable() {
+    HttpByteRange range = HttpByteRange.parse("bytes=100-", 100);
+    assertFalse(range.isSatisfiable());
+    assertEquals("bytes */100", range.getContentRangeHeader());
+
+    assertFalse(HttpByteRange.parse("bytes=-0", 100).isSatisfiable());
+  }
+
+  @Test
+  void testInvalid() {
+    assertNull(HttpByteRange.parse(null, 100));
+    assertNull(HttpByteRange.parse("bytes=10-19", 0));
+    assertNull(HttpByteRange.parse("items=10-19", 100));
+    assertNull(HttpByteRange.parse("bytes=0-10,20-30", 100));
+    assertNull(HttpByteRange.parse("bytes=20-10", 100));
+    assertNull(HttpByteRange.parse("bytes=-", 100));
+    assertNull(HttpByteRange.parse("bytes=a-b", 100));
+  }
+
+}
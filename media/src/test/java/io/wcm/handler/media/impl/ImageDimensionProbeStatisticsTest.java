@@ -0,0 +1,71 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import com.day.cq.dam.api.Rendition;
+
+import io.wcm.handler.media.Dimension;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+@ExtendWith(AemContextExtension.class)
+class ImageDimensionProbeStatisticsTest {
+
+  private final AemContext context = new AemContext();
+
+  private ImageDimensionProbeStatisticsMBean underTest;
+
+  @BeforeEach
+  void setUp() {
+    underTest = context.registerInjectActivateService(new ImageDimensionProbeStatistics());
+    underTest.reset();
+  }
+
+  @Test
+  void testCounters() {
+    assertEquals(0d, underTest.getHeaderProbeRate());
+
+    Rendition rendition = mock(Rendition.class);
+    when(rendition.getStream()).thenAnswer(invocation -> getClass().getResourceAsStream("/filetype/sample.png"));
+    assertEquals(new Dimension(100, 50), ImageDimensionProbe.getDimension(rendition));
+    assertEquals(1, underTest.getHeaderProbeCount());
+    assertEquals(0, underTest.getDecodeCount());
+
+    // header probe not possible - falls back to decoding
+    assertNull(ImageDimensionProbe.getDimension(mock(Rendition.class)));
+    assertEquals(1, underTest.getHeaderProbeCount());
+    assertEquals(1, underTest.getDecodeCount());
+    assertEquals(0.5d, underTest.getHeaderProbeRate());
+
+    underTest.reset();
+    assertEquals(0, underTest.getHeaderProbeCount());
+    assertEquals(0, underTest.getDecodeCount());
+  }
+
+}
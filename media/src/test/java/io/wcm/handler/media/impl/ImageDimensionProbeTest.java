@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.wcm.handler.media.Dimension;
+
+class ImageDimensionProbeTest {
+
+  @Test
+  void testJpeg() throws IOException {
+    assertEquals(new Dimension(100, 50), probe("/filetype/sample.jpg"));
+    assertEquals(new Dimension(215, 102), probe("/sample_image_215x102.jpg"));
+  }
+
+  @Test
+  void testPng() throws IOException {
+    assertEquals(new Dimension(100, 50), probe("/filetype/sample.png"));
+  }
+
+  @Test
+  void testGif() throws IOException {
+    assertEquals(new Dimension(100, 50), probe("/filetype/sample.gif"));
+  }
+
+  @Test
+  void testWebp() throws IOException {
+    assertEquals(new Dimension(100, 50), probe("/filetype/sample.webp"));
+  }
+
+  @Test
+  void testTiff() throws IOException {
+    assertEquals(new Dimension(100, 50), probe("/filetype/sample.tif"));
+  }
+
+  @Test
+  void testSvg() throws IOException {
+    assertEquals(new Dimension(100, 50), probe("/filetype/sample.svg"));
+  }
+
+  @Test
+  void testSvg_ViewBox() {
+    assertEquals(new Dimension(200, 80), probeString("<?xml version=\"1.0\"?>\n"
+        + "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"100%\" viewBox=\"0 0 200 80\"></svg>"));
+  }
+
+  @Test
+  void testSvg_NoDimension() {
+    assertNull(probeString("<svg xmlns=\"http://www.w3.org/2000/svg\"></svg>"));
+  }
+
+  @Test
+  void testUnsupported() throws IOException {
+    assertNull(probe("/sample.txt"));
+    assertNull(ImageDimensionProbe.probe(new ByteArrayInputStream(new byte[0])));
+  }
+
+  @Test
+  void testTruncatedHeader() {
+    assertNull(ImageDimensionProbe.probe(new ByteArrayInputStream(new byte[] {
+        (byte)0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0
+    })));
+  }
+
+  private static Dimension probe(String classpathResource) throws IOException {
+    try (InputStream is = ImageDimensionProbeTest.class.getResourceAsStream(classpathResource)) {
+      return ImageDimensionProbe.probe(is);
+    }
+  }
+
+  private static Dimension probeString(String content) {
+    return ImageDimensionProbe.probe(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+}
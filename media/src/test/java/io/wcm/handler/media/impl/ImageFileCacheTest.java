@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+import io.wcm.wcm.commons.contenttype.ContentType;
+
+@ExtendWith(AemContextExtension.class)
+class ImageFileCacheTest {
+
+  private static final String PATH = "/content/dam/sample.jpg/jcr:content/renditions/original";
+
+  private final AemContext context = new AemContext();
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testDisabled() {
+    ImageFileCache underTest = context.registerInjectActivateService(new ImageFileCache(),
+        "enabled", false);
+    assertFalse(underTest.isEnabled());
+
+    underTest.put(key(1000L, "image_file.10.20"), new byte[] { 0x01 });
+    assertNull(underTest.get(key(1000L, "image_file.10.20")));
+  }
+
+  @Test
+  void testHeapCache() throws IOException {
+    ImageFileCache underTest = context.registerInjectActivateService(new ImageFileCache(),
+        "diskMaxSizeMb", 0L);
+    assertTrue(underTest.isEnabled());
+
+    byte[] data = new byte[] { 0x01, 0x02, 0x03 };
+    underTest.put(key(1000L, "image_file.10.20"), data);
+
+    assertArrayEquals(data, toByteArray(underTest.get(key(1000L, "image_file.10.20"))));
+    assertNull(underTest.get(key(1000L, "image_file.10.30")));
+  }
+
+  @Test
+  void testDiskCache() throws IOException {
+    ImageFileCache underTest = context.registerInjectActivateService(new ImageFileCache(),
+        "heapMaxSizeKb", 0L,
+        "directory", tempDir.toString());
+
+    byte[] data = new byte[] { 0x01, 0x02, 0x03 };
+    underTest.put(key(1000L, "image_file.10.20"), data);
+
+    assertArrayEquals(data, toByteArray(underTest.get(key(1000L, "image_file.10.20"))));
+  }
+
+  @Test
+  void testDiskCache_Reload() throws IOException {
+    byte[] data = new byte[] { 0x01, 0x02, 0x03 };
+    ImageFileCache cache1 = context.registerInjectActivateService(new ImageFileCache(),
+        "directory", tempDir.toString());
+    cache1.put(key(1000L, "image_file.10.20"), data);
+
+    // new instance on same directory picks up entries from previous run
+    ImageFileCache cache2 = context.registerInjectActivateService(new ImageFileCache(),
+        "directory", tempDir.toString());
+    assertArrayEquals(data, toByteArray(cache2.get(key(1000L, "image_file.10.20"))));
+  }
+
+  @Test
+  void testInvalidateOnLastModifiedChange() {
+    ImageFileCache underTest = context.registerInjectActivateService(new ImageFileCache(),
+        "directory", tempDir.toString());
+
+    underTest.put(key(1000L, "image_file.10.20"), new byte[] { 0x01 });
+    underTest.put(key(1000L, "image_file.10.30"), new byte[] { 0x02 });
+    assertNotNull(underTest.get(key(1000L, "image_file.10.20")));
+
+    // binary was modified
+    assertNull(underTest.get(key(2000L, "image_file.10.20")));
+
+    // all entries of previous binary are removed
+    assertNull(underTest.get(key(1000L, "image_file.10.30")));
+    assertTrue(tempDir.toFile().listFiles().length == 0);
+  }
+
+  @Test
+  void testDiskCache_Eviction() {
+    ImageFileCache underTest = context.registerInjectActivateService(new ImageFileCache(),
+        "heapMaxSizeKb", 0L,
+        "diskMaxSizeMb", 1L,
+        "directory", tempDir.toString());
+
+    underTest.put(key(1000L, "image_file.10.20"), new byte[600 * 1024]);
+    underTest.put(key(1000L, "image_file.10.30"), new byte[600 * 1024]);
+
+    // least recently used entry is evicted
+    assertNull(underTest.get(key(1000L, "image_file.10.20")));
+    assertNotNull(underTest.get(key(1000L, "image_file.10.30")));
+  }
+
+  @Test
+  void testTrackedPaths() {
+    ImageFileCache underTest = context.registerInjectActivateService(new ImageFileCache(),
+        "heapMaxSizeKb", 0L,
+        "diskMaxSizeMb", 1L,
+        "directory", tempDir.toString());
+
+    // cache misses are not tracked
+    for (int i = 0; i < 100; i++) {
+      assertNull(underTest.get(new ImageFileCache.Key("/content/dam/miss" + i + ".jpg", 1000L, "image_file.10.20",
+          ContentType.JPEG, 0.85d)));
+    }
+    assertEquals(0, underTest.getTrackedPathCount());
+
+    underTest.put(new ImageFileCache.Key("/content/dam/image1.jpg", 1000L, "image_file.10.20",
+        ContentType.JPEG, 0.85d), new byte[600 * 1024]);
+    assertEquals(1, underTest.getTrackedPathCount());
+
+    // paths are not tracked anymore when all their entries are evicted
+    underTest.put(new ImageFileCache.Key("/content/dam/image2.jpg", 1000L, "image_file.10.20",
+        ContentType.JPEG, 0.85d), new byte[600 * 1024]);
+    assertEquals(1, underTest.getTrackedPathCount());
+  }
+
+  private static ImageFileCache.Key key(long lastModified, String selectors) {
+    return new ImageFileCache.Key(PATH, lastModified, selectors, ContentType.JPEG, 0.85d);
+  }
+
+  private static byte[] toByteArray(ByteBuffer data) throws IOException {
+    assertNotNull(data);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ImageFileCache.write(data, bos);
+    return bos.toByteArray();
+  }
+
+}
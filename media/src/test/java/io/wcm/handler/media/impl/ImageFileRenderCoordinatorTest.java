@@ -0,0 +1,177 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.media.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.wcm.handler.media.impl.ImageFileRenderCoordinator.Rendering;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+@ExtendWith(AemContextExtension.class)
+class ImageFileRenderCoordinatorTest {
+
+  private static final byte[] DATA = new byte[] { 0x01, 0x02, 0x03 };
+
+  private final AemContext context = new AemContext();
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void testRender() throws Exception {
+    ImageFileRenderCoordinator underTest = context.registerInjectActivateService(new ImageFileRenderCoordinator());
+
+    Rendering rendering = underTest.render("key1", () -> new TestRendering(DATA));
+    assertArrayEquals(DATA, rendering.toByteArray());
+    // without concurrent requests the rendering is not buffered
+    assertFalse(rendering.isBuffered());
+    assertNull(underTest.render("key2", () -> null));
+    assertEquals(2, underTest.getRenderCount());
+  }
+
+  @Test
+  void testRender_ConcurrentSameKey() throws Exception {
+    ImageFileRenderCoordinator underTest = context.registerInjectActivateService(new ImageFileRenderCoordinator());
+
+    CountDownLatch renderStarted = new CountDownLatch(1);
+    CountDownLatch renderContinue = new CountDownLatch(1);
+    AtomicInteger renderCalls = new AtomicInteger();
+
+    Future<Rendering> first = executor.submit(() -> underTest.render("key1", () -> {
+      renderCalls.incrementAndGet();
+      renderStarted.countDown();
+      await(renderContinue);
+      return new TestRendering(DATA);
+    }));
+    renderStarted.await(5, TimeUnit.SECONDS);
+    Future<Rendering> second = executor.submit(() -> underTest.render("key1", () -> {
+      renderCalls.incrementAndGet();
+      return new TestRendering(new byte[0]);
+    }));
+
+    // wait until second request joined the rendering of the first one
+    long timeout = System.currentTimeMillis() + 5000;
+    while (underTest.getSharedCount() == 0 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(5);
+    }
+    renderContinue.countDown();
+
+    // result is buffered to share it with the waiting request
+    Rendering firstRendering = first.get(5, TimeUnit.SECONDS);
+    Rendering secondRendering = second.get(5, TimeUnit.SECONDS);
+    assertTrue(firstRendering.isBuffered());
+    assertTrue(secondRendering.isBuffered());
+    assertArrayEquals(DATA, firstRendering.toByteArray());
+    assertArrayEquals(DATA, secondRendering.toByteArray());
+    assertEquals(1, renderCalls.get());
+    assertEquals(1, underTest.getSharedCount());
+  }
+
+  @Test
+  void testRender_NoPermit() throws Exception {
+    ImageFileRenderCoordinator underTest = context.registerInjectActivateService(new ImageFileRenderCoordinator(),
+        "maxConcurrentRenderings", 1,
+        "waitTimeoutMillis", 50L);
+
+    CountDownLatch renderStarted = new CountDownLatch(1);
+    CountDownLatch renderContinue = new CountDownLatch(1);
+    Future<Rendering> first = executor.submit(() -> underTest.render("key1", () -> {
+      renderStarted.countDown();
+      await(renderContinue);
+      return new TestRendering(DATA);
+    }));
+    renderStarted.await(5, TimeUnit.SECONDS);
+
+    // different image cannot be rendered while the only permit is in use
+    assertThrows(TimeoutException.class, () -> underTest.render("key2", () -> new TestRendering(DATA)));
+    assertEquals(1, underTest.getTimeoutCount());
+
+    renderContinue.countDown();
+    assertArrayEquals(DATA, first.get(5, TimeUnit.SECONDS).toByteArray());
+  }
+
+  @Test
+  void testRender_Exception() {
+    ImageFileRenderCoordinator underTest = context.registerInjectActivateService(new ImageFileRenderCoordinator());
+
+    assertThrows(IOException.class, () -> underTest.render("key1", () -> {
+      throw new IOException("failed");
+    }));
+  }
+
+  private static final class TestRendering implements Rendering {
+
+    private final byte[] data;
+
+    TestRendering(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public boolean isBuffered() {
+      return false;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+      return data;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+      out.write(data);
+    }
+
+  }
+
+  private static void await(CountDownLatch latch) throws IOException {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+}
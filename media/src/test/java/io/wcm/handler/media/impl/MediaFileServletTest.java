@@ -85,6 +85,50 @@ class MediaFileServletTest {
     assertEquals("attachment;filename=\"sample_image.jpg\"", context.response().getHeader(AbstractMediaFileServlet.HEADER_CONTENT_DISPOSITION));
   }
 
+  @Test
+  void testGet_Range() throws Exception {
+    context.request().addHeader(HttpByteRange.HEADER_RANGE, "bytes=100-199");
+
+    underTest.service(context.request(), context.response());
+
+    assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, context.response().getStatus());
+    assertEquals(ContentType.JPEG, context.response().getContentType());
+    assertEquals(100, context.response().getOutput().length);
+    assertEquals(100, context.response().getContentLength());
+    assertEquals("bytes 100-199/" + EXPECTED_CONTENT_LENGTH, context.response().getHeader(HttpByteRange.HEADER_CONTENT_RANGE));
+  }
+
+  @Test
+  void testGet_Range_Suffix() throws Exception {
+    context.request().addHeader(HttpByteRange.HEADER_RANGE, "bytes=-71");
+
+    underTest.service(context.request(), context.response());
+
+    assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, context.response().getStatus());
+    assertEquals(71, context.response().getOutput().length);
+    assertEquals("bytes 15400-15470/" + EXPECTED_CONTENT_LENGTH, context.response().getHeader(HttpByteRange.HEADER_CONTENT_RANGE));
+  }
+
+  @Test
+  void testGet_Range_NotSatisfiable() throws Exception {
+    context.request().addHeader(HttpByteRange.HEADER_RANGE, "bytes=20000-");
+
+    underTest.service(context.request(), context.response());
+
+    assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, context.response().getStatus());
+    assertEquals("bytes */" + EXPECTED_CONTENT_LENGTH, context.response().getHeader(HttpByteRange.HEADER_CONTENT_RANGE));
+  }
+
+  @Test
+  void testGet_Range_MultipleRanges() throws Exception {
+    context.request().addHeader(HttpByteRange.HEADER_RANGE, "bytes=0-10,20-30");
+
+    underTest.service(context.request(), context.response());
+
+    assertEquals(HttpServletResponse.SC_OK, context.response().getStatus());
+    assertEquals(EXPECTED_CONTENT_LENGTH, context.response().getOutput().length);
+  }
+
   @Test
   void testGet_NoResource() throws Exception {
     context.currentResource((Resource)null);
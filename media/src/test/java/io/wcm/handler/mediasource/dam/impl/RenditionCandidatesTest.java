@@ -0,0 +1,223 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.mediasource.dam.impl;
+
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataNameConstants.NN_RENDITIONS_METADATA;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataNameConstants.PN_IMAGE_HEIGHT;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataNameConstants.PN_IMAGE_WIDTH;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.day.cq.dam.api.Asset;
+
+import io.wcm.handler.media.MediaArgs;
+import io.wcm.handler.mediasource.dam.AbstractDamTest;
+import io.wcm.wcm.commons.contenttype.ContentType;
+
+@SuppressWarnings("null")
+class RenditionCandidatesTest extends AbstractDamTest {
+
+  private static final long[] WIDTHS = { 0, 100, 215, 450, 685, 960, 1000, 1280, 2000 };
+  private static final long[] HEIGHTS = { 0, 50, 102, 213, 325, 455, 485, 1024, 2000 };
+  private static final double[] RATIOS = { 0d, 1d, 16d / 9d, 215d / 102d, 1280d / 1024d, 960d / 485d };
+
+  private static final long RANDOM_SEED = 0x5eed1e55L;
+  private static final int RANDOM_ASSETS = 25;
+  private static final int RANDOM_LOOKUPS_PER_ASSET = 2000;
+  private static final String[] RANDOM_FILE_EXTENSIONS = { "jpg", "png", "gif" };
+  private static final String[] RANDOM_CONTENT_TYPES = { ContentType.JPEG, ContentType.PNG, ContentType.GIF };
+  // small dimension pool to produce renditions with equal width, height or ratio
+  private static final long[] RANDOM_DIMENSIONS = { 50, 100, 150, 200, 300, 400, 600, 800, 900, 1200, 1600 };
+
+  private Set<RenditionMetadata> renditions;
+  private RenditionCandidates underTest;
+
+  @BeforeEach
+  void setUp() {
+    Asset asset = context.resourceResolver().getResource(MEDIAITEM_PATH_STANDARD).adaptTo(Asset.class);
+    renditions = new DefaultRenditionHandler(asset)
+        .getAvailableRenditions(new MediaArgs().includeAssetThumbnails(true));
+    underTest = new RenditionCandidates(renditions);
+  }
+
+  @Test
+  void testFindExactMatch() {
+    for (long width : WIDTHS) {
+      for (long height : HEIGHTS) {
+        assertSame(findExactMatchLinear(width, height), underTest.findExactMatch(width, height),
+            "exact match " + width + "x" + height);
+      }
+    }
+  }
+
+  @Test
+  void testFindFirstMatch() {
+    for (long minWidth : WIDTHS) {
+      for (long minHeight : HEIGHTS) {
+        for (double ratio : RATIOS) {
+          assertSame(findFirstMatchLinear(minWidth, minHeight, 0, 0, ratio),
+              underTest.findFirstMatch(minWidth, minHeight, 0, 0, ratio),
+              "first match " + minWidth + "x" + minHeight + ", ratio " + ratio);
+          for (long maxWidth : WIDTHS) {
+            assertSame(findFirstMatchLinear(minWidth, minHeight, maxWidth, 0, ratio),
+                underTest.findFirstMatch(minWidth, minHeight, maxWidth, 0, ratio),
+                "first match " + minWidth + "x" + minHeight + ", max width " + maxWidth + ", ratio " + ratio);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void testFilterFileExtensions() {
+    assertSame(underTest, underTest.filterFileExtensions(null));
+    assertSame(underTest, underTest.filterFileExtensions(new String[0]));
+
+    RenditionCandidates jpg = underTest.filterFileExtensions(new String[] { "JPG" });
+    assertEquals(renditions.size(), jpg.getRenditions().size());
+    assertSame(jpg, underTest.filterFileExtensions(new String[] { "jpg" }));
+
+    assertTrue(underTest.filterFileExtensions(new String[] { "png" }).isEmpty());
+  }
+
+  @Test
+  void testGetFirst() {
+    assertSame(renditions.iterator().next(), underTest.getFirst());
+    assertTrue(underTest.contains(underTest.getFirst()));
+  }
+
+  /**
+   * Compares the lookups with a linear scan over the candidates for assets with random renditions.
+   */
+  @Test
+  void testRandomizedComparison() {
+    Random random = new Random(RANDOM_SEED);
+    for (int i = 0; i < RANDOM_ASSETS; i++) {
+      Asset asset = createRandomAsset(random, i);
+      renditions = new DefaultRenditionHandler(asset)
+          .getAvailableRenditions(new MediaArgs().includeAssetThumbnails(true));
+      underTest = new RenditionCandidates(renditions);
+
+      for (int j = 0; j < RANDOM_LOOKUPS_PER_ASSET; j++) {
+        String[] fileExtensions = random.nextBoolean() ? null
+            : new String[] { RANDOM_FILE_EXTENSIONS[random.nextInt(RANDOM_FILE_EXTENSIONS.length)] };
+        RenditionCandidates candidates = underTest.filterFileExtensions(fileExtensions);
+        Set<RenditionMetadata> expectedRenditions = filterFileExtensionsLinear(fileExtensions);
+        assertEquals(expectedRenditions, candidates.getRenditions(), "asset " + i + ", lookup " + j);
+
+        long width = randomDimension(random);
+        long height = randomDimension(random);
+        assertSame(findExactMatchLinear(expectedRenditions, width, height), candidates.findExactMatch(width, height),
+            "asset " + i + ", lookup " + j + ": exact match " + width + "x" + height);
+
+        long maxWidth = random.nextInt(3) == 0 ? randomDimension(random) : 0;
+        long maxHeight = random.nextInt(3) == 0 ? randomDimension(random) : 0;
+        double ratio = random.nextBoolean() ? 0d : (double)randomDimension(random) / Math.max(1, randomDimension(random));
+        assertSame(findFirstMatchLinear(expectedRenditions, width, height, maxWidth, maxHeight, ratio),
+            candidates.findFirstMatch(width, height, maxWidth, maxHeight, ratio),
+            "asset " + i + ", lookup " + j + ": first match " + width + "x" + height
+            + ", max " + maxWidth + "x" + maxHeight + ", ratio " + ratio);
+      }
+    }
+  }
+
+  private Asset createRandomAsset(Random random, int index) {
+    Asset asset = context.create().asset("/content/dam/random/asset" + index + ".jpg",
+        (int)RANDOM_DIMENSIONS[random.nextInt(RANDOM_DIMENSIONS.length)],
+        (int)RANDOM_DIMENSIONS[random.nextInt(RANDOM_DIMENSIONS.length)], ContentType.JPEG);
+    int renditionCount = 1 + random.nextInt(30);
+    for (int i = 0; i < renditionCount; i++) {
+      int fileType = random.nextInt(RANDOM_FILE_EXTENSIONS.length);
+      String fileExtension = RANDOM_FILE_EXTENSIONS[fileType];
+      String renditionName = "rendition" + i + "." + fileExtension;
+      context.create().assetRendition(asset, renditionName, "/filetype/sample." + fileExtension,
+          RANDOM_CONTENT_TYPES[fileType]);
+      // width/height is read from renditions metadata, so the sample binary can be used for all renditions
+      context.create().resource(asset.getPath() + "/jcr:content/" + NN_RENDITIONS_METADATA + "/" + renditionName,
+          PN_IMAGE_WIDTH, randomDimension(random),
+          PN_IMAGE_HEIGHT, randomDimension(random));
+    }
+    return asset;
+  }
+
+  private static long randomDimension(Random random) {
+    // mostly dimensions from the pool, sometimes zero or values in between
+    switch (random.nextInt(8)) {
+      case 0:
+        return 0;
+      case 1:
+        return 1 + random.nextInt(2000);
+      default:
+        return RANDOM_DIMENSIONS[random.nextInt(RANDOM_DIMENSIONS.length)];
+    }
+  }
+
+  private Set<RenditionMetadata> filterFileExtensionsLinear(String[] fileExtensions) {
+    if (fileExtensions == null) {
+      return renditions;
+    }
+    Set<RenditionMetadata> result = new LinkedHashSet<>();
+    for (RenditionMetadata candidate : renditions) {
+      for (String fileExtension : fileExtensions) {
+        if (fileExtension.equalsIgnoreCase(candidate.getFileExtension())) {
+          result.add(candidate);
+        }
+      }
+    }
+    return result;
+  }
+
+  private RenditionMetadata findExactMatchLinear(long width, long height) {
+    return findExactMatchLinear(renditions, width, height);
+  }
+
+  private static RenditionMetadata findExactMatchLinear(Set<RenditionMetadata> candidates, long width, long height) {
+    for (RenditionMetadata candidate : candidates) {
+      if (candidate.matches(width, height)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private RenditionMetadata findFirstMatchLinear(long minWidth, long minHeight, long maxWidth, long maxHeight,
+      double ratio) {
+    return findFirstMatchLinear(renditions, minWidth, minHeight, maxWidth, maxHeight, ratio);
+  }
+
+  private static RenditionMetadata findFirstMatchLinear(Set<RenditionMetadata> candidates,
+      long minWidth, long minHeight, long maxWidth, long maxHeight, double ratio) {
+    for (RenditionMetadata candidate : candidates) {
+      if (candidate.matches(minWidth, minHeight, maxWidth, maxHeight, ratio)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+}
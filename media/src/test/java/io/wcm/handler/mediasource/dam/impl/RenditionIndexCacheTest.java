@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.mediasource.dam.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.day.cq.dam.api.Asset;
+import com.day.cq.dam.api.DamEvent;
+import com.day.cq.dam.api.Rendition;
+import com.google.common.collect.ImmutableList;
+
+import io.wcm.handler.media.MediaArgs;
+import io.wcm.handler.mediasource.dam.AbstractDamTest;
+import io.wcm.handler.mediasource.dam.impl.metadata.AssetSynchonizationService;
+import io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataListenerService;
+import io.wcm.wcm.commons.util.RunMode;
+
+@SuppressWarnings("null")
+class RenditionIndexCacheTest extends AbstractDamTest {
+
+  private Asset asset;
+
+  @BeforeEach
+  void setUp() {
+    asset = context.resourceResolver().getResource(MEDIAITEM_PATH_STANDARD).adaptTo(Asset.class);
+  }
+
+  @Test
+  void testGet() {
+    RenditionIndexCache underTest = context.registerInjectActivateService(new RenditionIndexCache());
+
+    Map<String, RenditionInfo> renditions = underTest.get(asset);
+    assertNotNull(renditions);
+    assertEquals(asset.getRenditions().size(), renditions.size());
+    assertSame(renditions, underTest.get(asset));
+    assertEquals(1, underTest.size());
+
+    RenditionInfo thumbnail = getRenditionInfo(renditions, "cq5dam.thumbnail.215.102.jpg");
+    assertTrue(thumbnail.isThumbnailRendition());
+    assertFalse(thumbnail.isWebRendition());
+    assertEquals("jpg", thumbnail.getFileExtension());
+
+    RenditionInfo original = getRenditionInfo(renditions, "original");
+    assertTrue(original.isOriginal());
+    assertEquals("standard.jpg", original.getFileName());
+  }
+
+  @Test
+  void testInvalidate() {
+    RenditionIndexCache underTest = context.registerInjectActivateService(new RenditionIndexCache());
+
+    Map<String, RenditionInfo> renditions = underTest.get(asset);
+    underTest.invalidate(MEDIAITEM_PATH_STANDARD);
+    assertEquals(0, underTest.size());
+    assertNotSame(renditions, underTest.get(asset));
+  }
+
+  @Test
+  void testInvalidateOnDamEvent() {
+    RenditionIndexCache underTest = context.registerInjectActivateService(new RenditionIndexCache());
+
+    // rendition index is invalidated on DAM events even if metadata generation is not active on this instance
+    context.runMode(RunMode.PUBLISH);
+    context.registerInjectActivateService(new AssetSynchonizationService());
+    RenditionMetadataListenerService listener = context.registerInjectActivateService(
+        new RenditionMetadataListenerService(), "threadPoolSize", 0);
+
+    Map<String, RenditionInfo> renditions = underTest.get(asset);
+    listener.handleEvent(DamEvent.renditionUpdated(MEDIAITEM_PATH_STANDARD, null,
+        MEDIAITEM_PATH_STANDARD + "/jcr:content/renditions/cq5dam.web.450.213.jpg").toEvent());
+    assertEquals(0, underTest.size());
+    assertNotSame(renditions, underTest.get(asset));
+  }
+
+  @Test
+  void testDisabled() {
+    RenditionIndexCache underTest = context.registerInjectActivateService(new RenditionIndexCache(),
+        "enabled", false);
+
+    assertNull(underTest.get(asset));
+  }
+
+  @Test
+  void testRenditionNotAccessible() {
+    RenditionIndexCache underTest = context.registerInjectActivateService(new RenditionIndexCache());
+    assertEquals(asset.getRenditions().size(), underTest.get(asset).size());
+
+    // asset of a user that is only allowed to read the original rendition
+    Asset restrictedAsset = mock(Asset.class, delegatesTo(asset));
+    Rendition original = asset.getOriginal();
+    when(restrictedAsset.getRenditions()).thenReturn(ImmutableList.of(original));
+
+    Set<RenditionMetadata> renditions = new DefaultRenditionHandler(restrictedAsset, underTest)
+        .getAvailableRenditions(new MediaArgs());
+    assertEquals(1, renditions.size());
+    assertEquals(original.getPath(), renditions.iterator().next().getRendition().getPath());
+  }
+
+  @Test
+  void testRenditionHandler() {
+    RenditionIndexCache cache = context.registerInjectActivateService(new RenditionIndexCache());
+
+    MediaArgs mediaArgs = new MediaArgs();
+    RenditionMetadata expected = new DefaultRenditionHandler(asset).getRendition(mediaArgs);
+    RenditionMetadata rendition = new DefaultRenditionHandler(asset, cache).getRendition(mediaArgs);
+    assertEquals(expected.getRendition().getPath(), rendition.getRendition().getPath());
+    assertEquals(expected.getWidth(), rendition.getWidth());
+    assertEquals(expected.getHeight(), rendition.getHeight());
+    assertEquals(expected.getFileSize(), rendition.getFileSize());
+  }
+
+  @Test
+  void testRenditionHandler_FixedWidth() {
+    RenditionIndexCache cache = context.registerInjectActivateService(new RenditionIndexCache());
+    Asset asset1610 = context.resourceResolver().getResource(MEDIAITEM_PATH_16_10).adaptTo(Asset.class);
+
+    RenditionMetadata rendition = new DefaultRenditionHandler(asset1610, cache).getRendition(new MediaArgs()
+        .fixedWidth(160));
+    assertEquals(160, rendition.getWidth());
+    assertEquals(100, rendition.getHeight());
+  }
+
+  private static RenditionInfo getRenditionInfo(Map<String, RenditionInfo> renditions, String name) {
+    RenditionInfo renditionInfo = renditions.get(name);
+    if (renditionInfo == null) {
+      throw new AssertionError("Rendition not found: " + name);
+    }
+    return renditionInfo;
+  }
+
+}
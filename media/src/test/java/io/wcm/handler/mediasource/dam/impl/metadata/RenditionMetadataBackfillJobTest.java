@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.mediasource.dam.impl.metadata;
+
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataBackfillJob.PN_ERROR_COUNT;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataBackfillJob.PN_FAILED_PATHS;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataBackfillJob.PN_LAST_PROCESSED_PATH;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataBackfillJob.PN_PROCESSED_COUNT;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataBackfillJob.PN_ROOT_PATH;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataBackfillJob.PN_STATUS;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataBackfillJob.PN_TRAVERSAL_STRATEGY;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataNameConstants.NN_RENDITIONS_METADATA;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataNameConstants.PN_IMAGE_HEIGHT;
+import static io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataNameConstants.PN_IMAGE_WIDTH;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.AdditionalAnswers;
+import org.osgi.framework.Constants;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.wcm.handler.media.testcontext.MediaSourceDamAppAemContext;
+import io.wcm.handler.mediasource.dam.impl.metadata.RenditionMetadataBackfillJob.TraversalStrategy;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+@ExtendWith(AemContextExtension.class)
+class RenditionMetadataBackfillJobTest {
+
+  private static final String DAM_PATH = MediaSourceDamAppAemContext.DAM_PATH;
+  private static final String ASSET_PATH = DAM_PATH + "/standard.jpg";
+  private static final String RENDITIONS_METADATA_PATH = ASSET_PATH + "/jcr:content/" + NN_RENDITIONS_METADATA;
+  private static final String CHECKPOINT_PATH = "/var/test/backfill";
+
+  private final AemContext context = MediaSourceDamAppAemContext.newAemContext(ResourceResolverType.JCR_MOCK);
+
+  private RenditionMetadataBackfillJob underTest;
+
+  @BeforeEach
+  void setUp() {
+    context.registerInjectActivateService(new AssetSynchonizationService());
+    context.load().json("/mediasource/dam/damcontent-sample.json", DAM_PATH);
+
+    // add rendition without generating metadata
+    context.load().binaryFile("/sample_image_215x102.jpg", ASSET_PATH + "/jcr:content/renditions/test.jpg");
+
+    underTest = context.registerInjectActivateService(new RenditionMetadataBackfillJob(),
+        "parallelism", 0,
+        "assetsPerCommit", 2,
+        "maxCommitsPerSecond", 0d,
+        "checkpointPath", CHECKPOINT_PATH);
+  }
+
+  @Test
+  void testStart() {
+    underTest.start(DAM_PATH);
+
+    assertEquals("FINISHED", underTest.getStatus());
+    assertEquals(7, underTest.getTotalCount());
+    assertEquals(7, underTest.getProcessedCount());
+    assertEquals(0, underTest.getErrorCount());
+    assertEquals(ASSET_PATH, underTest.getLastProcessedPath());
+    assertRenditionMetadata("test.jpg", 215, 102);
+
+    ValueMap checkpoint = getCheckpoint();
+    assertEquals(DAM_PATH, checkpoint.get(PN_ROOT_PATH, String.class));
+    assertEquals("DEPTH_FIRST", checkpoint.get(PN_TRAVERSAL_STRATEGY, String.class));
+    assertEquals(ASSET_PATH, checkpoint.get(PN_LAST_PROCESSED_PATH, String.class));
+    assertEquals((Long)7L, checkpoint.get(PN_PROCESSED_COUNT, Long.class));
+    assertEquals("FINISHED", checkpoint.get(PN_STATUS, String.class));
+  }
+
+  @Test
+  void testStart_AssetFailed() throws LoginException {
+    String failingAssetPath = DAM_PATH + "/sixteen-ten.jpg";
+    AtomicBoolean failing = new AtomicBoolean(true);
+    registerFailingResourceResolverFactory(failingAssetPath, failing);
+    underTest = context.registerInjectActivateService(new RenditionMetadataBackfillJob(),
+        "parallelism", 0,
+        "assetsPerCommit", 2,
+        "maxCommitsPerSecond", 0d,
+        "checkpointPath", CHECKPOINT_PATH);
+
+    underTest.start(DAM_PATH);
+
+    // failed asset is not counted as processed, but recorded for retry
+    assertEquals("FINISHED", underTest.getStatus());
+    assertEquals(6, underTest.getProcessedCount());
+    assertEquals(1, underTest.getErrorCount());
+    assertRenditionMetadata("test.jpg", 215, 102);
+
+    ValueMap checkpoint = getCheckpoint();
+    assertEquals((Long)6L, checkpoint.get(PN_PROCESSED_COUNT, Long.class));
+    assertEquals((Long)1L, checkpoint.get(PN_ERROR_COUNT, Long.class));
+    assertArrayEquals(new String[] { failingAssetPath }, checkpoint.get(PN_FAILED_PATHS, String[].class));
+
+    // failed asset is retried on resume
+    failing.set(false);
+    underTest.resume();
+
+    assertEquals("FINISHED", underTest.getStatus());
+    assertEquals(7, underTest.getProcessedCount());
+    checkpoint = getCheckpoint();
+    assertEquals((Long)7L, checkpoint.get(PN_PROCESSED_COUNT, Long.class));
+    assertNull(checkpoint.get(PN_FAILED_PATHS, String[].class));
+  }
+
+  @Test
+  void testStart_InvalidRootPath() {
+    underTest.start("/content/dam/nonexisting");
+
+    assertEquals("FINISHED", underTest.getStatus());
+    assertEquals(0, underTest.getProcessedCount());
+  }
+
+  @Test
+  void testResume() {
+    writeCheckpoint(DAM_PATH + "/sixteen-ten.jpg", "INTERRUPTED");
+
+    underTest.resume();
+
+    // only asset after checkpoint is processed
+    assertEquals("FINISHED", underTest.getStatus());
+    assertEquals(6, underTest.getProcessedCount());
+    assertEquals(6, underTest.getTotalCount());
+    assertRenditionMetadata("test.jpg", 215, 102);
+  }
+
+  @Test
+  void testResume_AssetAlreadyProcessed() {
+    writeCheckpoint(ASSET_PATH, "INTERRUPTED");
+
+    underTest.resume();
+
+    assertEquals("FINISHED", underTest.getStatus());
+    assertEquals(5, underTest.getProcessedCount());
+    assertNull(context.resourceResolver().getResource(RENDITIONS_METADATA_PATH + "/test.jpg"));
+  }
+
+  @Test
+  void testResume_Finished() {
+    writeCheckpoint(DAM_PATH + "/sixteen-ten.jpg", "FINISHED");
+
+    underTest.resume();
+
+    assertEquals("IDLE", underTest.getStatus());
+    assertNull(context.resourceResolver().getResource(RENDITIONS_METADATA_PATH + "/test.jpg"));
+  }
+
+  @Test
+  void testResume_NoCheckpoint() {
+    underTest.resume();
+
+    assertEquals("IDLE", underTest.getStatus());
+  }
+
+  @Test
+  void testTraversalStrategy_DepthFirst() {
+    TraversalStrategy strategy = TraversalStrategy.DEPTH_FIRST;
+    assertTrue(strategy.compare("/content/dam/a/z", "/content/dam/b") < 0);
+    assertTrue(strategy.compare("/content/dam/a", "/content/dam/a/b") < 0);
+    assertTrue(strategy.compare("/content/dam/a/b", "/content/dam/a-b") < 0);
+    assertEquals(0, strategy.compare("/content/dam/a", "/content/dam/a"));
+
+    assertTrue(strategy.canSkipSubtree("/content/dam/a", "/content/dam/b/c"));
+    assertFalse(strategy.canSkipSubtree("/content/dam/b", "/content/dam/b/c"));
+    assertFalse(strategy.canSkipSubtree("/content/dam/c", "/content/dam/b/c"));
+  }
+
+  @Test
+  void testTraversalStrategy_BreadthFirst() {
+    TraversalStrategy strategy = TraversalStrategy.BREADTH_FIRST;
+    assertTrue(strategy.compare("/content/dam/b", "/content/dam/a/z") < 0);
+    assertTrue(strategy.compare("/content/dam/a/z", "/content/dam/b/a") < 0);
+    assertEquals(0, strategy.compare("/content/dam/a", "/content/dam/a"));
+
+    assertFalse(strategy.canSkipSubtree("/content/dam/a", "/content/dam/b/c"));
+  }
+
+  /**
+   * Registers a resource resolver factory with service resource resolvers that fail reading the given asset.
+   */
+  @SuppressWarnings("null")
+  private void registerFailingResourceResolverFactory(String failingAssetPath, AtomicBoolean failing)
+      throws LoginException {
+    ResourceResolverFactory resourceResolverFactory = context.getService(ResourceResolverFactory.class);
+    ResourceResolverFactory failingResourceResolverFactory = mock(ResourceResolverFactory.class);
+    when(failingResourceResolverFactory.getServiceResourceResolver(any())).thenAnswer(invocation -> {
+      ResourceResolver resourceResolver = mock(ResourceResolver.class,
+          AdditionalAnswers.delegatesTo(resourceResolverFactory.getServiceResourceResolver(null)));
+      if (failing.get()) {
+        doThrow(new IllegalStateException("Test failure")).when(resourceResolver).getResource(failingAssetPath);
+      }
+      return resourceResolver;
+    });
+    context.registerService(ResourceResolverFactory.class, failingResourceResolverFactory,
+        Constants.SERVICE_RANKING, 1000);
+  }
+
+  private void writeCheckpoint(String lastProcessedPath, String status) {
+    context.create().resource(CHECKPOINT_PATH, ImmutableMap.<String, Object>of(
+        PN_ROOT_PATH, DAM_PATH,
+        PN_TRAVERSAL_STRATEGY, "DEPTH_FIRST",
+        PN_LAST_PROCESSED_PATH, lastProcessedPath,
+        PN_PROCESSED_COUNT, 5L,
+        PN_STATUS, status));
+  }
+
+  @SuppressWarnings("null")
+  private ValueMap getCheckpoint() {
+    Resource checkpoint = context.resourceResolver().getResource(CHECKPOINT_PATH);
+    assertNotNull(checkpoint);
+    return checkpoint.getValueMap();
+  }
+
+  @SuppressWarnings("null")
+  private void assertRenditionMetadata(String renditionName, int width, int height) {
+    Resource metadata = context.resourceResolver().getResource(RENDITIONS_METADATA_PATH + "/" + renditionName);
+    assertNotNull(metadata);
+    ValueMap props = metadata.getValueMap();
+    assertEquals((Integer)width, props.get(PN_IMAGE_WIDTH, 0));
+    assertEquals((Integer)height, props.get(PN_IMAGE_HEIGHT, 0));
+  }
+
+}
@@ -35,6 +35,7 @@ import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
 import org.apache.sling.testing.mock.sling.ResourceResolverType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -202,6 +203,65 @@ class RenditionMetadataListenerServiceTest {
     assertRenditionMetadata("cq5dam.web.450.213.jpg", 450, 213, false);
   }
 
+  @Test
+  void testAddRenditions_CoalescedPerAsset() {
+    underTest = context.registerInjectActivateService(new RenditionMetadataListenerService(),
+        "threadPoolSize", 1,
+        "debounceMillis", 60000);
+
+    addRendition("test1.jpg");
+    addRendition("test2.jpg");
+    sendRenditionUpdatedEvent("test1.jpg");
+
+    // events are queued per rendition within the debounce window
+    assertEquals(2, underTest.getQueueDepth());
+    assertEquals(0, underTest.getCommitCount());
+    assertNoRenditionMetadata("test1.jpg");
+  }
+
+  @Test
+  void testAddRenditions_SingleCommit() throws InterruptedException {
+    underTest = context.registerInjectActivateService(new RenditionMetadataListenerService(),
+        "threadPoolSize", 1,
+        "debounceMillis", 50);
+
+    addRendition("test1.jpg");
+    addRendition("test2.jpg");
+    addRendition("test3.jpg");
+
+    long timeout = System.currentTimeMillis() + 5000;
+    while (underTest.getCommitCount() == 0 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10);
+    }
+
+    // all renditions of the asset are processed within one commit
+    assertEquals(0, underTest.getQueueDepth());
+    assertEquals(1, underTest.getCommitCount());
+    assertEquals(1, underTest.getLastCommitBatchSize());
+    context.resourceResolver().refresh();
+    assertRenditionMetadata("test1.jpg", 215, 102, true);
+    assertRenditionMetadata("test2.jpg", 215, 102, true);
+    assertRenditionMetadata("test3.jpg", 215, 102, true);
+  }
+
+  @Test
+  void testDeactivate_ProcessesPendingEvents() {
+    underTest = context.registerInjectActivateService(new RenditionMetadataListenerService(),
+        "threadPoolSize", 1,
+        "debounceMillis", 60000);
+
+    addRendition("test1.jpg");
+    assertEquals(1, underTest.getQueueDepth());
+
+    // pending events are processed on deactivation instead of being dropped
+    MockOsgi.deactivate(underTest, context.bundleContext());
+    assertEquals(0, underTest.getQueueDepth());
+    assertEquals(1, underTest.getCommitCount());
+    assertEquals(0, underTest.getFailedCommitCount());
+    context.resourceResolver().refresh();
+    assertRenditionMetadata("test1.jpg", 215, 102, true);
+  }
+
   private void addRendition(String renditionName) {
     Resource rendition = context.load().binaryFile("/sample_image_215x102.jpg", RENDITIONS_PATH + "/" + renditionName);
     underTest.handleEvent(DamEvent.renditionUpdated(assetResource.getPath(), null, rendition.getPath()).toEvent());
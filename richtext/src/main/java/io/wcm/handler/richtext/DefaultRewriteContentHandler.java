@@ -22,8 +22,12 @@ package io.wcm.handler.richtext;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.CharEncoding;
 import org.apache.commons.lang3.StringUtils;
@@ -42,17 +46,20 @@ import org.jdom2.Attribute;
 import org.jdom2.Content;
 import org.jdom2.Element;
 import org.jdom2.Text;
+import org.jdom2.filter.Filters;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.wcm.api.Page;
 import com.google.common.collect.ImmutableSet;
 
 import io.wcm.handler.link.Link;
 import io.wcm.handler.link.LinkHandler;
 import io.wcm.handler.link.LinkNameConstants;
+import io.wcm.handler.link.LinkRequest;
 import io.wcm.handler.link.SyntheticLinkResource;
 import io.wcm.handler.link.spi.LinkHandlerConfig;
 import io.wcm.handler.link.spi.LinkType;
@@ -61,6 +68,7 @@ import io.wcm.handler.link.type.MediaLinkType;
 import io.wcm.handler.media.Media;
 import io.wcm.handler.media.MediaHandler;
 import io.wcm.handler.richtext.impl.DataPropertyUtil;
+import io.wcm.handler.richtext.impl.RichTextOutputCache;
 import io.wcm.handler.richtext.util.RewriteContentHandler;
 import io.wcm.sling.commons.adapter.AdaptTo;
 import io.wcm.wcm.commons.contenttype.FileExtension;
@@ -83,6 +91,10 @@ public final class DefaultRewriteContentHandler implements RewriteContentHandler
   @Self
   private MediaHandler mediaHandler;
 
+  // links and media resolved in advance for anchor and image elements
+  private Map<Element, Link> preparedLinks = new IdentityHashMap<>();
+  private Map<Element, Media> preparedMedia = new IdentityHashMap<>();
+
   private static final Logger log = LoggerFactory.getLogger(DefaultRewriteContentHandler.class);
 
   /**
@@ -100,6 +112,56 @@ public final class DefaultRewriteContentHandler implements RewriteContentHandler
       "li"
       );
 
+  /**
+   * Collects all anchor and image elements and resolves their links and media at once before rewriting.
+   * Links are resolved as a batch via {@link LinkHandler#resolve(java.util.Collection)}, images with the same
+   * reference are resolved only once.
+   * @param parent Parent element
+   */
+  @Override
+  public void prepare(@NotNull Element parent) {
+    long startTime = System.nanoTime();
+    preparedLinks = new IdentityHashMap<>();
+    preparedMedia = new IdentityHashMap<>();
+
+    List<Element> anchorElements = new ArrayList<>();
+    List<LinkRequest> linkRequests = new ArrayList<>();
+    Map<String, Media> mediaByRef = new HashMap<>();
+    for (Element element : parent.getDescendants(Filters.element())) {
+      if (StringUtils.equalsIgnoreCase(element.getName(), "a")) {
+        SyntheticLinkResource resource = getAnchorLinkResource(element);
+        if (resource != null) {
+          anchorElements.add(element);
+          linkRequests.add(new LinkRequest(resource, null, null));
+        }
+      }
+      else if (StringUtils.equalsIgnoreCase(element.getName(), "img")) {
+        String ref = getImageRef(element);
+        Media media = mediaByRef.get(ref);
+        if (media == null) {
+          media = mediaHandler.get(ref).build();
+          mediaByRef.put(ref, media);
+        }
+        preparedMedia.put(element, media);
+      }
+    }
+
+    if (!linkRequests.isEmpty()) {
+      List<Link> links = linkHandler.resolve(linkRequests);
+      for (int i = 0; i < anchorElements.size(); i++) {
+        preparedLinks.put(anchorElements.get(i), links.get(i));
+      }
+    }
+
+    if (log.isDebugEnabled()) {
+      Resource currentResource = getCurrentResource();
+      log.debug("Resolved {} links and {} images ({} distinct) for rich text{} in {} ms.",
+          linkRequests.size(), preparedMedia.size(), mediaByRef.size(),
+          currentResource != null ? " of " + currentResource.getPath() : "",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+  }
+
   /**
    * Checks if the given element has to be rewritten.
    * Is called for every child single element of the parent given to rewriteContent method.
@@ -164,14 +226,15 @@ public final class DefaultRewriteContentHandler implements RewriteContentHandler
     // build anchor for link metadata
     Element anchorElement = buildAnchorElement(link, element);
 
-    // Replace anchor tag or remove anchor tag if invalid - add any sub-content in every case
+    // Replace anchor tag or remove anchor tag if invalid - move any sub-content in every case
+    // (sub-content is not copied to keep links and media prepared for nested elements)
     List<Content> content = new ArrayList<Content>();
     if (anchorElement != null) {
-      anchorElement.addContent(element.cloneContent());
+      anchorElement.addContent(element.removeContent());
       content.add(anchorElement);
     }
     else {
-      content.addAll(element.getContent());
+      content.addAll(element.removeContent());
     }
     return content;
   }
@@ -182,9 +245,45 @@ public final class DefaultRewriteContentHandler implements RewriteContentHandler
    * @return Link metadata
    */
   private Link getAnchorLink(Element element) {
+    Link link = preparedLinks.remove(element);
+    if (link == null) {
+      SyntheticLinkResource resource = getAnchorLinkResource(element);
+      if (resource == null) {
+        return linkHandler.invalid();
+      }
+
+      // build anchor via linkhandler
+      link = linkHandler.get(resource).build();
+    }
+
+    // track link targets for rich text output cache, including references to not (yet) existing targets
+    for (Object value : link.getLinkRequest().getResourceProperties().values()) {
+      if (value instanceof String) {
+        RichTextOutputCache.addDependency((String)value);
+      }
+    }
+    if (link.getTargetPage() != null) {
+      RichTextOutputCache.addDependency(link.getTargetPage().getPath());
+    }
+    for (Page redirectPage : link.getRedirectPages()) {
+      RichTextOutputCache.addDependency(redirectPage.getPath());
+    }
+    if (link.getTargetAsset() != null) {
+      RichTextOutputCache.addDependency(link.getTargetAsset().getPath());
+    }
+
+    return link;
+  }
+
+  /**
+   * Extracts link metadata from the DOM elements attributes into a synthetic link resource.
+   * @param element DOM element
+   * @return Synthetic link resource or null if no current resource is available
+   */
+  private @Nullable SyntheticLinkResource getAnchorLinkResource(Element element) {
     Resource currentResource = getCurrentResource();
     if (currentResource == null) {
-      return linkHandler.invalid();
+      return null;
     }
 
     SyntheticLinkResource resource = new SyntheticLinkResource(resourceResolver,
@@ -202,8 +301,7 @@ public final class DefaultRewriteContentHandler implements RewriteContentHandler
       }
     }
 
-    // build anchor via linkhandler
-    return linkHandler.get(resource).build();
+    return resource;
   }
 
   /**
@@ -417,11 +515,27 @@ public final class DefaultRewriteContentHandler implements RewriteContentHandler
    * @return Media metadata
    */
   private Media getImageMedia(Element element) {
+    String ref = getImageRef(element);
+    Media media = preparedMedia.remove(element);
+    if (media == null) {
+      media = mediaHandler.get(ref).build();
+    }
+
+    // track media targets for rich text output cache, including references to not (yet) existing targets
+    RichTextOutputCache.addDependency(ref);
+    if (media.getAsset() != null) {
+      RichTextOutputCache.addDependency(media.getAsset().getPath());
+    }
+
+    return media;
+  }
+
+  private String getImageRef(Element element) {
     String ref = element.getAttributeValue("src");
     if (StringUtils.isNotEmpty(ref)) {
       ref = unexternalizeImageRef(ref);
     }
-    return mediaHandler.get(ref).build();
+    return ref;
   }
 
   /**
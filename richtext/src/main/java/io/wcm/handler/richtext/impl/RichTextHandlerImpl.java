@@ -20,7 +20,9 @@
 package io.wcm.handler.richtext.impl;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
@@ -35,10 +37,12 @@ import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.Text;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.day.cq.wcm.api.Page;
+import com.day.cq.wcm.api.WCMMode;
 import com.google.common.collect.ImmutableList;
 
 import io.wcm.handler.richtext.RichText;
@@ -69,7 +73,10 @@ public final class RichTextHandlerImpl implements RichTextHandler {
   private Page currentPage;
   @OSGiService
   private ContextAwareServiceResolver serviceResolver;
+  @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+  private RichTextOutputCache outputCache;
 
+  private RichTextHandlerConfig richTextHandlerConfig;
   private List<RewriteContentHandler> rewriteContentHandlers;
 
   @Override
@@ -125,6 +132,62 @@ public final class RichTextHandlerImpl implements RichTextHandler {
       return ImmutableList.of();
     }
 
+    // get rewritten content from cache
+    String cacheKey = getOutputCacheKey(text);
+    if (cacheKey == null) {
+      return parseAndRewriteRichText(text);
+    }
+    List<Content> cachedContent = outputCache.get(cacheKey);
+    if (cachedContent != null) {
+      return cachedContent;
+    }
+
+    // track link and media targets resolved while rewriting
+    long generation = outputCache.getGeneration();
+    Set<String> dependencies = new HashSet<>();
+    Set<String> previousDependencies = RichTextOutputCache.trackDependencies(dependencies);
+    List<Content> content;
+    try {
+      content = parseAndRewriteRichText(text);
+    }
+    finally {
+      RichTextOutputCache.trackDependencies(previousDependencies);
+    }
+    outputCache.put(cacheKey, content, dependencies, text.length(), generation);
+    return content;
+  }
+
+  /**
+   * Builds key for output cache.
+   * @param text Rich text
+   * @return Cache key or null if output cache is not enabled
+   */
+  private @Nullable String getOutputCacheKey(@NotNull String text) {
+    if (outputCache == null || !outputCache.isEnabled()) {
+      return null;
+    }
+    RichTextHandlerConfig config = getRichTextHandlerConfig();
+    StringBuilder key = new StringBuilder()
+        .append(RichTextOutputCache.hash(text))
+        .append('|').append(config != null ? config.getClass().getName() : "-")
+        .append('|').append(currentPage != null ? currentPage.getPath() : "-");
+    if (adaptable instanceof SlingHttpServletRequest) {
+      SlingHttpServletRequest request = (SlingHttpServletRequest)adaptable;
+      key.append('|').append(request.getResource() != null ? request.getResource().getPath() : "-")
+          .append('|').append(WCMMode.fromRequest(request))
+          .append('|').append(request.getScheme()).append("://").append(request.getServerName())
+          .append(':').append(request.getServerPort())
+          // link post processors may inherit URL parameters like wcmmode or debugClientLibs to internal links
+          .append('|').append(StringUtils.defaultString(request.getQueryString()));
+    }
+    else if (adaptable instanceof Resource) {
+      key.append('|').append(((Resource)adaptable).getPath());
+    }
+    return key.toString();
+  }
+
+  private List<Content> parseAndRewriteRichText(String text) {
+
     // Parse text
     try {
       Element contentParent = RichTextUtil.parseText(text, true);
@@ -135,8 +198,8 @@ public final class RichTextHandlerImpl implements RichTextHandler {
         RichTextUtil.rewriteContent(contentParent, rewriter);
       }
 
-      // return xhtml elements
-      return ImmutableList.copyOf(contentParent.cloneContent());
+      // return xhtml elements - detach them from the parse root instead of copying them
+      return ImmutableList.copyOf(contentParent.removeContent());
     }
     catch (JDOMException ex) {
       if (log.isDebugEnabled()) {
@@ -169,9 +232,16 @@ public final class RichTextHandlerImpl implements RichTextHandler {
     return RichTextUtil.isEmpty(text);
   }
 
+  private RichTextHandlerConfig getRichTextHandlerConfig() {
+    if (richTextHandlerConfig == null) {
+      richTextHandlerConfig = serviceResolver.resolve(RichTextHandlerConfig.class, adaptable);
+    }
+    return richTextHandlerConfig;
+  }
+
   private List<RewriteContentHandler> getRewriterContentHandlers() {
     if (rewriteContentHandlers == null) {
-      RichTextHandlerConfig config = serviceResolver.resolve(RichTextHandlerConfig.class, adaptable);
+      RichTextHandlerConfig config = getRichTextHandlerConfig();
       if (config != null) {
         rewriteContentHandlers = new ArrayList<>();
         for (Class<? extends RewriteContentHandler> clazz : config.getRewriteContentHandlers()) {
@@ -0,0 +1,352 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.richtext.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jdom2.Content;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Caches rewritten rich text content across requests.
+ * <p>
+ * The cache key is built from a hash of the rich text, the resource and current page the rich text is rendered for,
+ * the rich text handler configuration, WCM mode, the requested host and the query string (URL parameters may be
+ * inherited to internal links). The paths of link and media targets resolved while rewriting the rich text are
+ * tracked, cached rich texts are invalidated when one of them changes.
+ * Any configuration change below /conf invalidates the whole cache.
+ * </p>
+ * <p>
+ * The cache is disabled by default. It should only be enabled if all rewrite content handlers produce results
+ * that only depend on the rich text and the link and media targets.
+ * </p>
+ */
+@Component(service = { RichTextOutputCache.class, RichTextOutputCacheMBean.class, ResourceChangeListener.class },
+    immediate = true,
+    property = {
+        ResourceChangeListener.PATHS + "=/content",
+        ResourceChangeListener.PATHS + "=/conf",
+        ResourceChangeListener.CHANGES + "=ADDED",
+        ResourceChangeListener.CHANGES + "=CHANGED",
+        ResourceChangeListener.CHANGES + "=REMOVED",
+        "jmx.objectname=io.wcm.handler.richtext:type=RichTextOutputCache"
+    })
+@Designate(ocd = RichTextOutputCache.Config.class)
+public final class RichTextOutputCache implements RichTextOutputCacheMBean, ResourceChangeListener,
+    ExternalResourceChangeListener {
+
+  @ObjectClassDefinition(
+      name = "wcm.io Rich Text Handler Output Cache",
+      description = "Caches rewritten rich text content across requests.")
+  @interface Config {
+
+    @AttributeDefinition(name = "Enabled", description = "Enable caching of rewritten rich text content.")
+    boolean enabled() default false;
+
+    @AttributeDefinition(name = "Max. size", description = "Maximum size of all cached rich texts in characters.")
+    long maxSize() default 10000000;
+
+    @AttributeDefinition(name = "Expiry", description = "Time in seconds rewritten rich texts are cached. "
+        + "Limits the lifetime of cached content depending on changes that are not tracked, e.g. on/off times.")
+    int expirySeconds() default 3600;
+
+  }
+
+  private static final String CONF_PATH = "/conf";
+
+  private static final ThreadLocal<Set<String>> DEPENDENCIES = new ThreadLocal<>();
+
+  private Cache<String, Entry> cache;
+  private final NavigableMap<String, Set<String>> keysByDependency = new ConcurrentSkipListMap<>();
+  private final AtomicLong generation = new AtomicLong();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong invalidationCount = new AtomicLong();
+
+  @Activate
+  private void activate(Config config) {
+    if (config.enabled()) {
+      this.cache = CacheBuilder.newBuilder()
+          .maximumWeight(config.maxSize())
+          .weigher((String key, Entry entry) -> entry.weight)
+          .expireAfterWrite(config.expirySeconds(), TimeUnit.SECONDS)
+          .removalListener(this::removeDependencies)
+          .build();
+    }
+  }
+
+  /**
+   * @return true if caching is enabled
+   */
+  public boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * @return Generation counter that is increased on each content change or invalidation. Pass it to
+   *         {@link #put(String, List, Set, int, long)} to avoid caching content processed concurrently to an
+   *         invalidation.
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * @param key Cache key
+   * @return Copy of cached content or null
+   */
+  public @Nullable List<Content> get(@NotNull String key) {
+    if (cache == null) {
+      return null;
+    }
+    Entry entry = cache.getIfPresent(key);
+    if (entry == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    return copy(entry.content);
+  }
+
+  /**
+   * @param key Cache key
+   * @param content Rewritten content - a copy is cached
+   * @param dependencies Paths of link and media targets the content depends on
+   * @param weight Weight of the entry, e.g. length of the rich text
+   * @param expectedGeneration Generation the content was processed with
+   */
+  public void put(@NotNull String key, @NotNull List<Content> content, @NotNull Set<String> dependencies,
+      int weight, long expectedGeneration) {
+    if (cache == null) {
+      return;
+    }
+    if (generation.get() != expectedGeneration) {
+      // content was changed while the rich text was processed
+      return;
+    }
+    for (String dependency : dependencies) {
+      keysByDependency.computeIfAbsent(dependency, path -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+    cache.put(key, new Entry(copy(content), ImmutableList.copyOf(dependencies), Math.max(weight, 1)));
+    if (generation.get() != expectedGeneration) {
+      // content was changed concurrently
+      cache.invalidate(key);
+    }
+  }
+
+  private static List<Content> copy(List<Content> content) {
+    ImmutableList.Builder<Content> copy = ImmutableList.builder();
+    for (Content item : content) {
+      copy.add(item.clone());
+    }
+    return copy.build();
+  }
+
+  private void removeDependencies(RemovalNotification<String, Entry> notification) {
+    String key = notification.getKey();
+    Entry entry = notification.getValue();
+    if (key == null || entry == null) {
+      return;
+    }
+    List<String> removedDependencies = entry.dependencies;
+    if (notification.getCause() == RemovalCause.REPLACED) {
+      // keep dependencies that are still referenced by the new entry for this key
+      Entry newEntry = cache.getIfPresent(key);
+      if (newEntry != null) {
+        removedDependencies = new ArrayList<>(removedDependencies);
+        removedDependencies.removeAll(newEntry.dependencies);
+      }
+    }
+    for (String dependency : removedDependencies) {
+      keysByDependency.computeIfPresent(dependency, (path, keys) -> {
+        keys.remove(key);
+        return keys.isEmpty() ? null : keys;
+      });
+    }
+  }
+
+  /**
+   * Builds a hash of the rich text for the cache key.
+   * @param text Rich text
+   * @return Hash
+   */
+  public static @NotNull String hash(@NotNull String text) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hash = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return hash.toString();
+    }
+    catch (NoSuchAlgorithmException ex) {
+      throw new RuntimeException("SHA-256 not available.", ex);
+    }
+  }
+
+  /**
+   * Start tracking dependencies in the current thread.
+   * @param dependencies Set to collect dependencies in, or null to stop tracking
+   * @return Set used for tracking before, or null
+   */
+  public static @Nullable Set<String> trackDependencies(@Nullable Set<String> dependencies) {
+    Set<String> previous = DEPENDENCIES.get();
+    if (dependencies != null) {
+      DEPENDENCIES.set(dependencies);
+    }
+    else {
+      DEPENDENCIES.remove();
+    }
+    return previous;
+  }
+
+  /**
+   * Record a link or media target path the currently rewritten rich text depends on.
+   * Does nothing if no dependencies are tracked in the current thread.
+   * @param path Content path
+   */
+  public static void addDependency(@Nullable String path) {
+    Set<String> dependencies = DEPENDENCIES.get();
+    if (dependencies != null && StringUtils.startsWith(path, "/")) {
+      dependencies.add(path);
+    }
+  }
+
+  @Override
+  public void onChange(@NotNull List<ResourceChange> changes) {
+    if (cache == null) {
+      return;
+    }
+    // avoid caching rich texts processed concurrently to the changes
+    generation.incrementAndGet();
+    for (ResourceChange change : changes) {
+      String path = change.getPath();
+      if (StringUtils.equals(path, CONF_PATH) || StringUtils.startsWith(path, CONF_PATH + "/")) {
+        invalidateCache();
+        return;
+      }
+      invalidate(path);
+    }
+  }
+
+  private void invalidate(@NotNull String changedPath) {
+    // changed path itself and its ancestors
+    String path = changedPath;
+    while (StringUtils.isNotEmpty(path)) {
+      invalidateKeys(keysByDependency.get(path));
+      path = StringUtils.substringBeforeLast(path, "/");
+    }
+    // descendants of changed path - '0' is the character following '/'
+    for (Set<String> keys : keysByDependency.subMap(changedPath + "/", true, changedPath + "0", false).values()) {
+      invalidateKeys(keys);
+    }
+  }
+
+  private void invalidateKeys(@Nullable Set<String> keys) {
+    if (keys == null) {
+      return;
+    }
+    invalidationCount.incrementAndGet();
+    // removed keys are removed from dependency map via removal listener
+    cache.invalidateAll(ImmutableList.copyOf(keys));
+  }
+
+  @Override
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  @Override
+  public double getHitRate() {
+    long hits = hitCount.get();
+    long total = hits + missCount.get();
+    if (total == 0) {
+      return 0d;
+    }
+    return (double)hits / total;
+  }
+
+  @Override
+  public long getSize() {
+    return cache != null ? cache.size() : 0;
+  }
+
+  @Override
+  public long getInvalidationCount() {
+    return invalidationCount.get();
+  }
+
+  @Override
+  public void invalidateCache() {
+    generation.incrementAndGet();
+    invalidationCount.incrementAndGet();
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+
+  private static final class Entry {
+
+    private final List<Content> content;
+    private final List<String> dependencies;
+    private final int weight;
+
+    Entry(List<Content> content, List<String> dependencies, int weight) {
+      this.content = content;
+      this.dependencies = dependencies;
+      this.weight = weight;
+    }
+
+  }
+
+}
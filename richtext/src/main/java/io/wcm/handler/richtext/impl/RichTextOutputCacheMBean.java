@@ -0,0 +1,57 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.richtext.impl;
+
+/**
+ * JMX management interface for {@link RichTextOutputCache}.
+ */
+public interface RichTextOutputCacheMBean {
+
+  /**
+   * @return Number of rich texts served from the cache
+   */
+  long getHitCount();
+
+  /**
+   * @return Number of rich texts that had to be processed
+   */
+  long getMissCount();
+
+  /**
+   * @return Ratio of cache hits to all cache lookups
+   */
+  double getHitRate();
+
+  /**
+   * @return Number of cached rich texts
+   */
+  long getSize();
+
+  /**
+   * @return Number of cached rich texts invalidated because a link or media target changed
+   */
+  long getInvalidationCount();
+
+  /**
+   * Invalidate all cached rich texts.
+   */
+  void invalidateCache();
+
+}
@@ -39,6 +39,15 @@ import org.osgi.annotation.versioning.ConsumerType;
 @ConsumerType
 public interface RewriteContentHandler {
 
+  /**
+   * Is called once with the parent given to rewriteContent method before any of its content is rewritten.
+   * Allows to collect and resolve all elements to rewrite in advance, e.g. as a batch.
+   * @param parent Parent element
+   */
+  default void prepare(@NotNull Element parent) {
+    // nothing to do by default
+  }
+
   /**
    * Checks if the given element has to be rewritten.
    * Is called for every child single element of the parent given to rewriteContent method.
@@ -20,9 +20,11 @@
 package io.wcm.handler.richtext.util;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.commons.lang3.StringUtils;
 import org.jdom2.Content;
@@ -31,6 +33,7 @@ import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.Text;
 import org.jdom2.input.SAXBuilder;
+import org.jdom2.input.sax.SAXEngine;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osgi.annotation.versioning.ProviderType;
@@ -47,16 +50,10 @@ public final class RichTextUtil {
 
   private static final int EMPTYTEXT_DEFAULT_TRESHOLD = 20;
 
-  private static final String XHTML_ENTITY_DEF =
-      "<!ENTITY % HTMLlat1 PUBLIC \"" + XHtmlResource.ENTITIES_LAT1.getPublicId() + "\" "
-          + "\"" + XHtmlResource.ENTITIES_LAT1.getSystemId() + "\">"
-          + "%HTMLlat1;"
-          + "<!ENTITY % HTMLsymbol PUBLIC \"" + XHtmlResource.ENTITIES_SYMBOL.getPublicId() + "\" "
-          + "\"" + XHtmlResource.ENTITIES_SYMBOL.getSystemId() + "\">"
-          + "%HTMLsymbol;"
-          + "<!ENTITY % HTMLspecial PUBLIC \"" + XHtmlResource.ENTITIES_SPECIAL.getPublicId() + "\" "
-          + "\"" + XHtmlResource.ENTITIES_SPECIAL.getSystemId() + "\">"
-          + "%HTMLspecial;";
+  // SAX engines are pooled to reuse the underlying parser - unlike thread locals of pooled request threads
+  // the pool is released together with the class loader when the bundle is stopped
+  private static final BlockingQueue<SAXEngine> SAX_ENGINE_POOL =
+      new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
 
   /**
    * Check if the given formatted text block is empty.
@@ -118,7 +115,7 @@ public final class RichTextUtil {
    */
   public static void addParsedText(@NotNull Element parent, @NotNull String text, boolean xhtmlEntities) throws JDOMException {
     Element root = parseText(text, xhtmlEntities);
-    parent.addContent(root.cloneContent());
+    parent.addContent(root.removeContent());
   }
 
   /**
@@ -140,24 +137,27 @@ public final class RichTextUtil {
    */
   public static @NotNull Element parseText(@NotNull String text, boolean xhtmlEntities) throws JDOMException {
 
-    // add root element
-    String xhtmlString =
-        (xhtmlEntities ? "<!DOCTYPE root [" + XHTML_ENTITY_DEF + "]>" : "")
-        + "<root>" + text + "</root>";
+    // replace XHTML entities with the referenced characters instead of declaring the XHTML entity sets via DOCTYPE
+    String xhtmlText = xhtmlEntities ? XHtmlEntities.resolve(text) : text;
 
+    SAXEngine saxEngine = SAX_ENGINE_POOL.poll();
+    if (saxEngine == null) {
+      saxEngine = new SAXBuilder().buildEngine();
+    }
+    // add root element
+    RootElementReader reader = new RootElementReader(xhtmlText);
     try {
-      SAXBuilder saxBuilder = new SAXBuilder();
-
-      if (xhtmlEntities) {
-        saxBuilder.setEntityResolver(XHtmlEntityResolver.getInstance());
-      }
-
-      Document doc = saxBuilder.build(new StringReader(xhtmlString));
+      Document doc = saxEngine.build(reader);
       return doc.getRootElement();
     }
     catch (IOException ex) {
       throw new RuntimeException("Error parsing XHTML fragment.", ex);
     }
+    finally {
+      // release the text, the parser may keep a reference to the reader until its next build
+      reader.close();
+      SAX_ENGINE_POOL.offer(saxEngine);
+    }
 
   }
 
@@ -168,48 +168,41 @@ public final class RichTextUtil {
    * @param rewriteContentHandler Rewrite content handler
    */
   public static void rewriteContent(@NotNull Element parent, @NotNull RewriteContentHandler rewriteContentHandler) {
+    rewriteContentHandler.prepare(parent);
+    rewriteChildContent(parent, rewriteContentHandler);
+  }
+
+  private static void rewriteChildContent(@NotNull Element parent, @NotNull RewriteContentHandler rewriteContentHandler) {
 
-    // iterate through content list and build new content list
+    // iterate through content list - a new content list is only built if content is removed or replaced
     List<Content> originalContent = parent.getContent();
-    List<Content> newContent = new ArrayList<Content>();
-    for (Content contentElement : originalContent) {
+    List<Content> newContent = null;
+    int size = originalContent.size();
+    for (int i = 0; i < size; i++) {
+      Content contentElement = originalContent.get(i);
+      List<Content> rewriteContent = null;
 
       // handle element
       if (contentElement instanceof Element) {
         Element element = (Element)contentElement;
 
         // check if rewrite is needed for element
-        List<Content> rewriteContent = rewriteContentHandler.rewriteElement(element);
-        if (rewriteContent != null) {
-          // element was removed
-          if (rewriteContent.isEmpty()) {
-            // do not add to newContent
-          }
+        rewriteContent = rewriteContentHandler.rewriteElement(element);
 
-          // element is the same - rewrite child elements
-          else if (rewriteContent.size() == 1 && rewriteContent.get(0) == element) { //NOPMD
-            rewriteContent(element, rewriteContentHandler);
-            newContent.add(element);
-          }
-
-          // element was replaced with other content - rewrite and add instead
-          else {
-            for (Content newContentItem : rewriteContent) {
-              if (newContentItem instanceof Element) {
-                Element newElement = (Element)newContentItem;
-                rewriteContent(newElement, rewriteContentHandler);
-              }
-              newContent.add(newContentItem.clone());
-            }
-          }
+        // element is the same or nothing to rewrite - rewrite child elements
+        if (rewriteContent == null || isSame(rewriteContent, element)) {
+          rewriteChildContent(element, rewriteContentHandler);
+          rewriteContent = null;
         }
 
-        // nothing to rewrite - do nothing, but rewrite child element
+        // element was replaced with other content - rewrite child elements of new content
         else {
-          rewriteContent(element, rewriteContentHandler);
-          newContent.add(element);
+          for (Content newContentItem : rewriteContent) {
+            if (newContentItem instanceof Element) {
+              rewriteChildContent((Element)newContentItem, rewriteContentHandler);
+            }
+          }
         }
-
       }
 
       // handle text node
@@ -217,44 +210,97 @@ public final class RichTextUtil {
         Text text = (Text)contentElement;
 
         // check if rewrite is needed for text node
-        List<Content> rewriteContent = rewriteContentHandler.rewriteText(text);
-        if (rewriteContent != null) {
-          // element was removed
-          if (rewriteContent.isEmpty()) {
-            // do not add to newContent
-          }
-
-          // element is the same - ignore
-          else if (rewriteContent.size() == 1 && rewriteContent.get(0) == text) { //NOPMD
-            // add original element
-            newContent.add(text);
-          }
-
-          // element was replaced with other content - add instead
-          else {
-            for (Content newContentItem : rewriteContent) {
-              newContent.add(newContentItem.clone());
-            }
-          }
+        rewriteContent = rewriteContentHandler.rewriteText(text);
+        if (rewriteContent != null && isSame(rewriteContent, text)) {
+          rewriteContent = null;
         }
+      }
 
-        // nothing to rewrite - do nothing, but add original text element
-        else {
-          newContent.add(text);
+      // content is kept - only add to new content list if it was already created
+      if (rewriteContent == null) {
+        if (newContent != null) {
+          newContent.add(contentElement);
         }
-
       }
 
-      // unknown element - just add to new content
+      // content was removed or replaced - build new content list with all content kept up to now
       else {
-        newContent.add(contentElement);
+        if (newContent == null) {
+          newContent = new ArrayList<>(size);
+          newContent.addAll(originalContent.subList(0, i));
+        }
+        for (Content newContentItem : rewriteContent) {
+          // content that is still attached somewhere else has to be copied
+          newContent.add(newContentItem.getParent() != null ? newContentItem.clone() : newContentItem);
+        }
       }
 
     }
 
     // replace original content with new content
-    parent.removeContent();
-    parent.addContent(newContent);
+    if (newContent != null) {
+      parent.removeContent();
+      parent.addContent(newContent);
+    }
+
+  }
+
+  private static boolean isSame(@NotNull List<Content> rewriteContent, @NotNull Content content) {
+    return rewriteContent.size() == 1 && rewriteContent.get(0) == content; //NOPMD
+  }
+
+
+  /**
+   * Reads the text wrapped in a "root" element without copying the text.
+   */
+  private static final class RootElementReader extends Reader {
+
+    private static final String START = "<root>";
+    private static final String END = "</root>";
+
+    private String text;
+    private int length;
+    private int pos;
+
+    RootElementReader(@NotNull String text) {
+      this.text = text;
+      this.length = START.length() + text.length() + END.length();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      if (pos >= length) {
+        return -1;
+      }
+      int count = 0;
+      while (count < len && pos < length) {
+        String segment;
+        int segmentPos;
+        if (pos < START.length()) {
+          segment = START;
+          segmentPos = pos;
+        }
+        else if (pos < START.length() + text.length()) {
+          segment = text;
+          segmentPos = pos - START.length();
+        }
+        else {
+          segment = END;
+          segmentPos = pos - START.length() - text.length();
+        }
+        int segmentCount = Math.min(len - count, segment.length() - segmentPos);
+        segment.getChars(segmentPos, segmentPos + segmentCount, cbuf, off + count);
+        count += segmentCount;
+        pos += segmentCount;
+      }
+      return count;
+    }
+
+    @Override
+    public void close() {
+      text = "";
+      length = 0;
+    }
 
   }
 
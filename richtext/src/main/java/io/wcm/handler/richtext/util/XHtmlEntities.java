@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.richtext.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * XHTML entities (Latin 1, symbols and special characters) loaded once from the XHTML entity sets.
+ * Replaces XHTML entity references in text fragments with the referenced characters, so the fragments
+ * can be parsed without a DOCTYPE declaration that has to load and parse the entity sets each time.
+ */
+final class XHtmlEntities {
+
+  private static final Pattern ENTITY_DECLARATION = Pattern.compile("<!ENTITY\\s+(\\w+)\\s+\"&#(\\d+);\"\\s*>");
+  private static final int MAX_ENTITY_NAME_LENGTH = 10;
+  private static final String[] PREDEFINED_ENTITIES = { "amp", "lt", "gt", "quot", "apos" };
+
+  private static final Map<String, String> ENTITIES = loadEntities(
+      XHtmlResource.ENTITIES_LAT1, XHtmlResource.ENTITIES_SYMBOL, XHtmlResource.ENTITIES_SPECIAL);
+
+  private XHtmlEntities() {
+    // static methods only
+  }
+
+  /**
+   * @param name Entity name
+   * @return Character(s) referenced by the entity or null if the entity is not an XHTML entity
+   */
+  static @Nullable String get(@NotNull String name) {
+    return ENTITIES.get(name);
+  }
+
+  /**
+   * Replaces all XHTML entity references in the given text with the referenced characters.
+   * The entities predefined by XML (amp, lt, gt, quot, apos), character references and unknown entities are
+   * left untouched, as well as comments and CDATA sections.
+   * @param text XHTML text fragment
+   * @return Text with XHTML entities replaced, or the same string instance if it contains no XHTML entities
+   */
+  static @NotNull String resolve(@NotNull String text) {
+    int pos = text.indexOf('&');
+    if (pos < 0) {
+      return text;
+    }
+    StringBuilder result = null;
+    int copiedPos = 0;
+    int length = text.length();
+    int i = 0;
+    while (i < length) {
+      char c = text.charAt(i);
+      if (c == '<') {
+        i = skipCommentOrCData(text, i);
+      }
+      else if (c == '&') {
+        int end = text.indexOf(';', i + 1);
+        if (end > i + 1 && end - i - 1 <= MAX_ENTITY_NAME_LENGTH) {
+          String value = ENTITIES.get(text.substring(i + 1, end));
+          if (value != null) {
+            if (result == null) {
+              result = new StringBuilder(length);
+            }
+            result.append(text, copiedPos, i).append(value);
+            copiedPos = end + 1;
+            i = end;
+          }
+        }
+        i++;
+      }
+      else {
+        i++;
+      }
+    }
+    if (result == null) {
+      return text;
+    }
+    result.append(text, copiedPos, length);
+    return result.toString();
+  }
+
+  /**
+   * @return Position after comment or CDATA section starting at the given position, or the next position if there
+   *         is none.
+   */
+  private static int skipCommentOrCData(@NotNull String text, int pos) {
+    String endMarker;
+    if (text.startsWith("<!--", pos)) {
+      endMarker = "-->";
+    }
+    else if (text.startsWith("<![CDATA[", pos)) {
+      endMarker = "]]>";
+    }
+    else {
+      return pos + 1;
+    }
+    int end = text.indexOf(endMarker, pos + 4);
+    if (end < 0) {
+      return text.length();
+    }
+    return end + endMarker.length();
+  }
+
+  private static Map<String, String> loadEntities(XHtmlResource... resources) {
+    Map<String, String> entities = new HashMap<>();
+    String resourceFolder = "/" + XHtmlEntities.class.getPackage().getName().replace('.', '/') + "/xhtml";
+    for (XHtmlResource resource : resources) {
+      String resourceName = resourceFolder + "/" + resource.getFilename();
+      try (InputStream is = XHtmlEntities.class.getResourceAsStream(resourceName)) {
+        if (is == null) {
+          throw new IOException("Resource '" + resourceName + "' not found in class path.");
+        }
+        Matcher matcher = ENTITY_DECLARATION.matcher(IOUtils.toString(is, StandardCharsets.UTF_8));
+        while (matcher.find()) {
+          entities.put(matcher.group(1), new String(Character.toChars(Integer.parseInt(matcher.group(2)))));
+        }
+      }
+      catch (IOException ex) {
+        throw new RuntimeException("Unable to load XHTML entities from " + resourceName, ex);
+      }
+    }
+    // entities predefined by XML are resolved by the parser - replacing them could break the markup
+    for (String predefinedEntity : PREDEFINED_ENTITIES) {
+      entities.remove(predefinedEntity);
+    }
+    return entities;
+  }
+
+}
@@ -20,5 +20,5 @@
 /**
  * Helper classes for RichText handling.
  */
-@org.osgi.annotation.versioning.Version("1.0.1")
+@org.osgi.annotation.versioning.Version("1.1.0")
 package io.wcm.handler.richtext.util;
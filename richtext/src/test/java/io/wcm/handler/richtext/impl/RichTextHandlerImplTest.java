@@ -21,12 +21,16 @@ package io.wcm.handler.richtext.impl;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.adapter.Adaptable;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
 import org.apache.sling.models.annotations.Model;
 import org.jdom2.Content;
 import org.jdom2.Element;
@@ -34,6 +38,7 @@ import org.jdom2.Text;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import com.day.cq.wcm.api.Page;
 import com.google.common.collect.ImmutableList;
 
 import io.wcm.handler.richtext.DefaultRewriteContentHandler;
@@ -43,6 +48,7 @@ import io.wcm.handler.richtext.RichTextNameConstants;
 import io.wcm.handler.richtext.TextMode;
 import io.wcm.handler.richtext.spi.RichTextHandlerConfig;
 import io.wcm.handler.richtext.testcontext.AppAemContext;
+import io.wcm.handler.richtext.testcontext.DummyAppTemplate;
 import io.wcm.handler.richtext.util.RewriteContentHandler;
 import io.wcm.sling.commons.adapter.AdaptTo;
 import io.wcm.sling.commons.resource.ImmutableValueMap;
@@ -165,6 +171,64 @@ class RichTextHandlerImplTest {
     assertEquals(PLAINTEXT_FRAGMENT_REWRITTEN, richText.getMarkup());
   }
 
+  @Test
+  void testOutputCache() {
+    RichTextOutputCache outputCache = context.registerInjectActivateService(new RichTextOutputCache(),
+        "enabled", true);
+    Page targetPage = context.create().page(AppAemContext.ROOTPATH_CONTENT + "/target",
+        DummyAppTemplate.CONTENT.getTemplatePath());
+    String text = "<p><a href='#' data-link-type='internal' data-link-content-ref='" + targetPage.getPath() + "'>"
+        + "Target</a></p>";
+
+    String markup = AdaptTo.notNull(adaptable(), RichTextHandler.class).get(text).build().getMarkup();
+    assertTrue(StringUtils.contains(markup, "/content/unittest/de_test/brand/de/target.html"), markup);
+    assertEquals(markup, AdaptTo.notNull(adaptable(), RichTextHandler.class).get(text).build().getMarkup());
+    assertEquals(1, outputCache.getHitCount());
+    assertEquals(1, outputCache.getMissCount());
+
+    // change of link target invalidates the cached rich text
+    outputCache.onChange(ImmutableList.of(
+        new ResourceChange(ChangeType.CHANGED, targetPage.getPath() + "/jcr:content", false)));
+    assertEquals(markup, AdaptTo.notNull(adaptable(), RichTextHandler.class).get(text).build().getMarkup());
+    assertEquals(1, outputCache.getHitCount());
+    assertEquals(2, outputCache.getMissCount());
+  }
+
+  @Test
+  void testOutputCache_QueryString() {
+    RichTextOutputCache outputCache = context.registerInjectActivateService(new RichTextOutputCache(),
+        "enabled", true);
+    String text = "<p>text</p>";
+
+    AdaptTo.notNull(context.request(), RichTextHandler.class).get(text).build();
+    AdaptTo.notNull(context.request(), RichTextHandler.class).get(text).build();
+    assertEquals(1, outputCache.getHitCount());
+    assertEquals(1, outputCache.getMissCount());
+
+    // URL parameters may be inherited to internal links
+    context.request().setQueryString("wcmmode=disabled");
+    AdaptTo.notNull(context.request(), RichTextHandler.class).get(text).build();
+    assertEquals(1, outputCache.getHitCount());
+    assertEquals(2, outputCache.getMissCount());
+  }
+
+  @Test
+  void testContent_MultipleLinks() {
+    Page targetPage = context.create().page(AppAemContext.ROOTPATH_CONTENT + "/target",
+        DummyAppTemplate.CONTENT.getTemplatePath());
+    String link = "<a href='#' data-link-type='internal' data-link-content-ref='" + targetPage.getPath() + "'>";
+    String text = "<p><a name='anchor1' id='anchor1'></a>" + link + "Target 1</a> "
+        + "<strong>" + link + "Target 2</a></strong> "
+        + "<a href='#' data-link-type='internal' data-link-content-ref='/content/invalid'>Invalid</a></p>"
+        + RICHTEXT_FRAGMENT;
+
+    String markup = AdaptTo.notNull(adaptable(), RichTextHandler.class).get(text).build().getMarkup();
+    assertEquals(2, StringUtils.countMatches(markup, "/content/unittest/de_test/brand/de/target.html"), markup);
+    assertTrue(StringUtils.startsWith(markup, "<p><a name=\"anchor1\" id=\"anchor1\"></a><a "), markup);
+    assertTrue(StringUtils.contains(markup, " Invalid</p>"), markup);
+    assertTrue(StringUtils.endsWith(markup, RICHTEXT_FRAGMENT_REWRITTEN), markup);
+  }
+
   @Test
   void testContentWithCustomRewriterContentHandler() {
     context.registerService(RichTextHandlerConfig.class, new RichTextHandlerConfig() {
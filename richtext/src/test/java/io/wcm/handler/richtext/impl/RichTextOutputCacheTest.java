@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.richtext.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+@ExtendWith(AemContextExtension.class)
+class RichTextOutputCacheTest {
+
+  private final AemContext context = new AemContext();
+
+  private RichTextOutputCache underTest;
+
+  @BeforeEach
+  void setUp() {
+    underTest = context.registerInjectActivateService(new RichTextOutputCache(), "enabled", true);
+  }
+
+  @Test
+  void testDisabled() {
+    RichTextOutputCache cache = context.registerInjectActivateService(new RichTextOutputCache());
+    assertFalse(cache.isEnabled());
+    cache.put("key1", content("p"), ImmutableSet.of(), 1, cache.getGeneration());
+    assertNull(cache.get("key1"));
+  }
+
+  @Test
+  void testGetPut() {
+    assertTrue(underTest.isEnabled());
+    assertNull(underTest.get("key1"));
+
+    List<Content> content = content("p");
+    underTest.put("key1", content, ImmutableSet.of("/content/page1"), 1, underTest.getGeneration());
+
+    List<Content> cachedContent = underTest.get("key1");
+    assertNotNull(cachedContent);
+    assertEquals(1, cachedContent.size());
+    assertEquals("p", ((Element)cachedContent.get(0)).getName());
+    assertNotSame(content.get(0), cachedContent.get(0));
+    assertNotSame(cachedContent.get(0), underTest.get("key1").get(0));
+
+    assertEquals(2, underTest.getHitCount());
+    assertEquals(1, underTest.getMissCount());
+    assertEquals(1, underTest.getSize());
+  }
+
+  @Test
+  void testPut_ConcurrentChange() {
+    long generation = underTest.getGeneration();
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/content/other", false)));
+    underTest.put("key1", content("p"), ImmutableSet.of("/content/page1"), 1, generation);
+    assertNull(underTest.get("key1"));
+  }
+
+  @Test
+  void testInvalidation() {
+    underTest.put("key1", content("p"), ImmutableSet.of("/content/page1"), 1, underTest.getGeneration());
+    underTest.put("key2", content("p"), ImmutableSet.of("/content/page2", "/content/dam/asset1.jpg"), 1,
+        underTest.getGeneration());
+    underTest.put("key3", content("p"), ImmutableSet.of("/content/page1/sub1"), 1, underTest.getGeneration());
+
+    // change below a dependency
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/content/page1/jcr:content", false)));
+    assertNull(underTest.get("key1"));
+    assertNotNull(underTest.get("key2"));
+    assertNotNull(underTest.get("key3"));
+
+    // removal of parent of a dependency
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.REMOVED, "/content/page1", false)));
+    assertNull(underTest.get("key3"));
+    assertNotNull(underTest.get("key2"));
+
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.ADDED, "/content/dam/asset1.jpg", false)));
+    assertNull(underTest.get("key2"));
+    assertEquals(3, underTest.getInvalidationCount());
+  }
+
+  @Test
+  void testInvalidation_ReplacedEntry() {
+    underTest.put("key1", content("p"), ImmutableSet.of("/content/page1", "/content/page2"), 1,
+        underTest.getGeneration());
+    underTest.put("key1", content("p"), ImmutableSet.of("/content/page1", "/content/page3"), 1,
+        underTest.getGeneration());
+    assertNotNull(underTest.get("key1"));
+
+    // dependency of replaced entry only
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/content/page2", false)));
+    assertNotNull(underTest.get("key1"));
+
+    // dependency shared with replaced entry
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/content/page1", false)));
+    assertNull(underTest.get("key1"));
+
+    underTest.put("key1", content("p"), ImmutableSet.of("/content/page1"), 1, underTest.getGeneration());
+    underTest.put("key1", content("p"), ImmutableSet.of("/content/page3"), 1, underTest.getGeneration());
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/content/page3", false)));
+    assertNull(underTest.get("key1"));
+  }
+
+  @Test
+  void testInvalidation_SiblingPath() {
+    underTest.put("key1", content("p"), ImmutableSet.of("/content/page1"), 1, underTest.getGeneration());
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/content/page10", false)));
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/content/page", false)));
+    assertNotNull(underTest.get("key1"));
+    assertEquals(0, underTest.getInvalidationCount());
+
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/content", false)));
+    assertNull(underTest.get("key1"));
+  }
+
+  @Test
+  void testInvalidation_Conf() {
+    underTest.put("key1", content("p"), ImmutableSet.of("/content/page1"), 1, underTest.getGeneration());
+    underTest.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/conf/site1/sling:configs", false)));
+    assertNull(underTest.get("key1"));
+  }
+
+  @Test
+  void testMaxSize() {
+    RichTextOutputCache cache = context.registerInjectActivateService(new RichTextOutputCache(),
+        "enabled", true, "maxSize", 100L);
+    // entries exceeding the max. size are not kept
+    cache.put("key1", content("p"), ImmutableSet.of(), 200, cache.getGeneration());
+    assertNull(cache.get("key1"));
+    cache.put("key2", content("p"), ImmutableSet.of(), 10, cache.getGeneration());
+    assertNotNull(cache.get("key2"));
+  }
+
+  @Test
+  void testTrackDependencies() {
+    RichTextOutputCache.addDependency("/content/page0");
+
+    Set<String> dependencies = new HashSet<>();
+    assertNull(RichTextOutputCache.trackDependencies(dependencies));
+    RichTextOutputCache.addDependency("/content/page1");
+    RichTextOutputCache.addDependency("relative");
+    RichTextOutputCache.addDependency(null);
+    assertEquals(dependencies, RichTextOutputCache.trackDependencies(null));
+
+    RichTextOutputCache.addDependency("/content/page2");
+    assertEquals(ImmutableSet.of("/content/page1"), dependencies);
+  }
+
+  @Test
+  void testHash() {
+    assertEquals(64, RichTextOutputCache.hash("<p>text</p>").length());
+    assertEquals(RichTextOutputCache.hash("<p>text</p>"), RichTextOutputCache.hash("<p>text</p>"));
+    assertNotEquals(RichTextOutputCache.hash("<p>text1</p>"), RichTextOutputCache.hash("<p>text2</p>"));
+  }
+
+  private static List<Content> content(String elementName) {
+    return ImmutableList.of(new Element(elementName));
+  }
+
+}
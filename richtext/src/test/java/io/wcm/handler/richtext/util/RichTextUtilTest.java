@@ -22,10 +22,15 @@ package io.wcm.handler.richtext.util;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.StringUtils;
 import org.jdom2.Content;
@@ -101,6 +106,10 @@ class RichTextUtilTest {
     }
     assertTrue(exception, "invalid-xhtml");
 
+    // parser is reused after a parsing error
+    element = RichTextUtil.parseText("<p>Jodelkaiser</p>");
+    assertEquals("Jodelkaiser", element.getChild("p").getText());
+
   }
 
   @Test
@@ -145,6 +154,25 @@ class RichTextUtilTest {
         rewriteContent("<test1 /><to-replace-single /><!-- comment --><test2 />"),
         "to-replace-single-commeont");
 
+    assertEquals("<test1 /><test-3 />text<test2 />",
+        rewriteContent("<test1 /><to-unwrap><test-3 />text</to-unwrap><test2 />"),
+        "to-unwrap");
+
+  }
+
+  @Test
+  void testRewriteContentKeepsUnchangedContent() throws Exception {
+    Element root = RichTextUtil.parseText("<test1><test2 /></test1>text<to-keep />");
+    List<Content> content = new ArrayList<>(root.getContent());
+    Content test2 = ((Element)content.get(0)).getContent(0);
+
+    RichTextUtil.rewriteContent(root, new TestRewriteContentHandler());
+
+    assertEquals(content.size(), root.getContentSize());
+    for (int i = 0; i < content.size(); i++) {
+      assertSame(content.get(i), root.getContent(i));
+    }
+    assertSame(test2, root.getChild("test1").getContent(0));
   }
 
   @Test
@@ -158,12 +186,52 @@ class RichTextUtilTest {
 
   }
 
+  @Test
+  void testRewriteContentPrepare() throws Exception {
+    Element root = RichTextUtil.parseText("<test1><to-replace-single><test2 /></to-replace-single></test1>");
+    TestRewriteContentHandler handler = new TestRewriteContentHandler();
+
+    RichTextUtil.rewriteContent(root, handler);
+
+    // prepare is called only once for the whole tree
+    assertEquals(1, handler.mPrepareCount);
+    assertEquals("<test1><replaced-element><test2 /></replaced-element></test1>", toStringContentOnly(root));
+  }
+
   @Test
   void testXhtmlEntities() throws Exception {
 
     Element element = RichTextUtil.parseText("Der Jodelkaiser aus dem &Ouml;tztal.", true);
     assertEquals("Der Jodelkaiser aus dem Ötztal.", element.getText());
 
+    element = RichTextUtil.parseText("<p title=\"&quot;&euro;&quot;\">a&nbsp;&lt;&amp;&gt;&#160;b</p>", true);
+    assertEquals("\"\u20ac\"", element.getChild("p").getAttributeValue("title"));
+    assertEquals("a\u00a0<&>\u00a0b", element.getChild("p").getText());
+
+    // unknown entity
+    assertThrows(JDOMException.class, () -> RichTextUtil.parseText("a &unknown; b", true));
+
+    // xhtml entities not supported
+    assertThrows(JDOMException.class, () -> RichTextUtil.parseText("a&nbsp;b", false));
+
+  }
+
+  @Test
+  void testParseTextConcurrently() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+        String text = "<p>text" + i + "</p>";
+        results.add(executor.submit(() -> RichTextUtil.parseText(text).getChild("p").getText()));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals("text" + i, results.get(i).get());
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
   }
 
   private String rewriteContent(String input) throws Exception {
@@ -202,6 +270,12 @@ class RichTextUtilTest {
   static class TestRewriteContentHandler implements RewriteContentHandler {
 
     private boolean mReplaceOnce;
+    private int mPrepareCount;
+
+    @Override
+    public void prepare(Element parent) {
+      mPrepareCount++;
+    }
 
     @Override
     public List<Content> rewriteElement(Element element) {
@@ -230,6 +304,10 @@ class RichTextUtilTest {
         return content;
       }
 
+      else if (StringUtils.equals(element.getName(), "to-unwrap")) {
+        return element.getContent();
+      }
+
       else if (StringUtils.equals(element.getName(), "to-replace-multiple")) {
         List<Content> content = new ArrayList<Content>();
         content.add(new Element("replaced-element-1"));
@@ -0,0 +1,61 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.richtext.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class XHtmlEntitiesTest {
+
+  @Test
+  void testGet() {
+    assertEquals("\u00a0", XHtmlEntities.get("nbsp"));
+    assertEquals("Ö", XHtmlEntities.get("Ouml"));
+    assertEquals("ϑ", XHtmlEntities.get("thetasym"));
+    assertEquals("€", XHtmlEntities.get("euro"));
+    assertNull(XHtmlEntities.get("amp"));
+    assertNull(XHtmlEntities.get("quot"));
+    assertNull(XHtmlEntities.get("unknown"));
+  }
+
+  @Test
+  void testResolve() {
+    assertEquals("a\u00a0b ä€", XHtmlEntities.resolve("a&nbsp;b &auml;&euro;"));
+    assertEquals("&amp; &lt; &gt; &quot; &apos; &#160;", XHtmlEntities.resolve("&amp; &lt; &gt; &quot; &apos; &#160;"));
+    assertEquals("<a title=\"©\">x</a>", XHtmlEntities.resolve("<a title=\"&copy;\">x</a>"));
+    assertEquals("&unknown; &nbsp", XHtmlEntities.resolve("&unknown; &nbsp"));
+  }
+
+  @Test
+  void testResolve_CommentsAndCData() {
+    assertEquals("<!-- &nbsp; -->\u00a0<![CDATA[&nbsp;]]>\u00a0",
+        XHtmlEntities.resolve("<!-- &nbsp; -->&nbsp;<![CDATA[&nbsp;]]>&nbsp;"));
+  }
+
+  @Test
+  void testResolve_Unchanged() {
+    String text = "<p>Der Jodelkaiser &amp; das Oetztal</p>";
+    assertSame(text, XHtmlEntities.resolve(text));
+  }
+
+}
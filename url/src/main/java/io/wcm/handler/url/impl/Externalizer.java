@@ -52,6 +52,22 @@ final class Externalizer {
    *         configured), and the path is URL-encoded if it contains special chars.
    */
   public static @Nullable String externalizeUrl(@NotNull String url, @NotNull ResourceResolver resolver, @Nullable SlingHttpServletRequest request) {
+    return externalizeUrl(url, resolver, request, null);
+  }
+
+  /**
+   * Externalizes an URL by applying Sling Mapping. Hostname and scheme are not added because they are added by the
+   * link handler depending on site URL configuration and secure/non-secure mode. URLs that are already externalized
+   * remain untouched.
+   * @param url Unexternalized URL (without scheme or hostname)
+   * @param resolver Resource resolver
+   * @param request Request
+   * @param mappingCache Cache for Sling Mapping results (optional)
+   * @return Exernalized URL without scheme or hostname, but with short URLs (if configured in Sling Mapping is
+   *         configured), and the path is URL-encoded if it contains special chars.
+   */
+  public static @Nullable String externalizeUrl(@NotNull String url, @NotNull ResourceResolver resolver,
+      @Nullable SlingHttpServletRequest request, @Nullable UrlMappingCache mappingCache) {
 
     // apply externalization only path part
     String path = url;
@@ -73,7 +89,10 @@ final class Externalizer {
     // 2. applies namespace mangling (e.g. replace jcr: with _jcr_)
     // 3. adds webapp context path if required
     // 4. url-encodes the whole url
-    if (request != null) {
+    if (mappingCache != null) {
+      path = mappingCache.map(path, resolver, request);
+    }
+    else if (request != null) {
       path = resolver.map(request, path);
     }
     else {
@@ -81,14 +100,17 @@ final class Externalizer {
     }
 
     // remove scheme and hostname (probably added by sling mapping), but leave path in escaped form
-    try {
-      path = new URI(path).getRawPath();
-      // replace %2F back to / for better readability
-      path = StringUtils.replace(path, "%2F", "/");
-    }
-    catch (URISyntaxException ex) {
-      throw new RuntimeException("Sling map method returned invalid URI: " + path, ex);
+    // (parsing the URI is only required if the path is not already a plain, escaped absolute path)
+    if (!isRawAbsolutePath(path)) {
+      try {
+        path = new URI(path).getRawPath();
+      }
+      catch (URISyntaxException ex) {
+        throw new RuntimeException("Sling map method returned invalid URI: " + path, ex);
+      }
     }
+    // replace %2F back to / for better readability
+    path = StringUtils.replace(path, "%2F", "/");
 
     // build full URL again
     if (path == null) {
@@ -139,6 +161,40 @@ final class Externalizer {
     return path + (urlRemainder != null ? urlRemainder : "");
   }
 
+  /**
+   * Checks if the given string is an absolute path without scheme, authority, query or fragment that contains
+   * only characters allowed in the raw path of an URI. For such paths {@link URI#getRawPath()} returns the
+   * path unchanged.
+   * @param path Path
+   * @return true if path is a raw absolute path
+   */
+  static boolean isRawAbsolutePath(@Nullable String path) {
+    if (path == null || path.isEmpty() || path.charAt(0) != '/' || path.startsWith("//")) {
+      return false;
+    }
+    int length = path.length();
+    for (int i = 1; i < length; i++) {
+      char c = path.charAt(i);
+      if (c == '%') {
+        if (i + 2 >= length
+            || Character.digit(path.charAt(i + 1), 16) < 0
+            || Character.digit(path.charAt(i + 2), 16) < 0) {
+          return false;
+        }
+        i += 2;
+      }
+      else if (!isRawPathChar(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isRawPathChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+        || "/-._~!$&'()*+,;=:@".indexOf(c) >= 0;
+  }
+
   /*
    * Detect as externalized:
    * - everything staring with protocol and a colon is handled as externalized (http:, tel:, mailto:, javascript: etc.)
@@ -19,69 +19,215 @@
  */
 package io.wcm.handler.url.impl;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.caconfig.resource.ConfigurationResourceResolver;
+import org.apache.sling.caconfig.resource.spi.ContextPathStrategy;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.day.cq.commons.jcr.JcrConstants;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 
 import io.wcm.handler.url.SiteRootDetector;
 import io.wcm.wcm.commons.util.Path;
 
 /**
  * Implements {@link SiteRootDetector}.
+ * <p>
+ * The site root level is cached per page (or other resource owning a jcr:content node), and is shared by all resources
+ * within its content. Cache entries are removed when resources at or above the cached path change, e.g. when a
+ * sling:configRef property is set or removed, or pages are moved. All entries are removed when the context path
+ * strategies change.
+ * </p>
+ * <p>
+ * Besides the site root level the context path is cached as well, which is used for looking up the site
+ * configuration.
+ * </p>
  */
-@Component(service = SiteRootDetector.class)
-public class SiteRootDetectorImpl implements SiteRootDetector {
+@Component(service = { SiteRootDetector.class, SiteRootDetectorImpl.class, ResourceChangeListener.class },
+    property = {
+        ResourceChangeListener.PATHS + "=/content",
+        ResourceChangeListener.PROPERTY_NAMES_HINT + "=sling:configRef"
+    })
+public class SiteRootDetectorImpl implements SiteRootDetector, ResourceChangeListener, ExternalResourceChangeListener {
 
   private static final int INVALID_SITE_ROOT_LEVEL = -1;
 
+  private static final String JCR_CONTENT_PATH_PART = "/" + JcrConstants.JCR_CONTENT;
+
   @Reference
   private ConfigurationResourceResolver configurationResourceResolver;
 
   private static final Logger log = LoggerFactory.getLogger(SiteRootDetectorImpl.class);
 
-  // cache resolving of site root level per resource path
-  private final Cache<String, Integer> cache = CacheBuilder.newBuilder()
-      .expireAfterWrite(1, TimeUnit.MINUTES)
+  // sorted index of the cached paths, allows to look up all cached paths below a changed path
+  private final NavigableSet<String> cachedPaths = new ConcurrentSkipListSet<>();
+
+  // cache resolving of site root level per page path - entries are removed on resource changes
+  private final Cache<String, SiteRoot> cache = CacheBuilder.newBuilder()
       .maximumSize(10000)
+      .<String, SiteRoot>removalListener(notification -> {
+        if (notification.getCause() != RemovalCause.REPLACED) {
+          cachedPaths.remove(notification.getKey());
+        }
+      })
       .build();
 
+  // incremented on each invalidation to detect site roots that were invalidated while they were detected
+  private final AtomicLong invalidationCount = new AtomicLong();
+
+  @Reference(service = ContextPathStrategy.class, cardinality = ReferenceCardinality.MULTIPLE,
+      policy = ReferencePolicy.DYNAMIC, policyOption = ReferencePolicyOption.GREEDY,
+      unbind = "unbindContextPathStrategy", updated = "updatedContextPathStrategy")
+  void bindContextPathStrategy(ContextPathStrategy contextPathStrategy) {
+    invalidateAll();
+  }
+
+  void unbindContextPathStrategy(ContextPathStrategy contextPathStrategy) {
+    invalidateAll();
+  }
+
+  void updatedContextPathStrategy(ContextPathStrategy contextPathStrategy) {
+    invalidateAll();
+  }
+
+  /**
+   * Site root levels depend on the configuration of the context path strategies.
+   */
+  private void invalidateAll() {
+    log.debug("Clear site root level cache");
+    invalidationCount.incrementAndGet();
+    cache.invalidateAll();
+    cachedPaths.clear();
+  }
+
   @Override
   public int getSiteRootLevel(@Nullable Resource contextResource) {
+    SiteRoot siteRoot = getSiteRoot(contextResource);
+    return siteRoot != null ? siteRoot.level : INVALID_SITE_ROOT_LEVEL;
+  }
+
+  /**
+   * Returns the context path of the "inner-most" context-aware configuration context.
+   * @param contextResource Context resource that is assumed to be inside the site context.
+   * @return Context path or null if it could not be detected
+   */
+  public @Nullable String getContextPath(@Nullable Resource contextResource) {
+    SiteRoot siteRoot = getSiteRoot(contextResource);
+    return siteRoot != null ? siteRoot.contextPath : null;
+  }
+
+  private @Nullable SiteRoot getSiteRoot(@Nullable Resource contextResource) {
     if (contextResource == null) {
-      return INVALID_SITE_ROOT_LEVEL;
+      return null;
     }
-    try {
-      return cache.get(contextResource.getPath(), () -> detectSiteRootLevel(contextResource));
+    String cachePath = getCachePath(contextResource.getPath());
+    SiteRoot siteRoot = cache.getIfPresent(cachePath);
+    if (siteRoot == null) {
+      long invalidationCountBeforeDetect = invalidationCount.get();
+      siteRoot = detectSiteRoot(getCacheResource(contextResource, cachePath));
+      // add to index before caching, so concurrent invalidations always find the cached path
+      cachedPaths.add(cachePath);
+      cache.put(cachePath, siteRoot);
+      if (invalidationCount.get() != invalidationCountBeforeDetect) {
+        // resources were changed while the site root was detected
+        cache.invalidate(cachePath);
+      }
     }
-    catch (ExecutionException ex) {
-      log.warn("Unexpected exception.", ex);
-      return INVALID_SITE_ROOT_LEVEL;
+    return siteRoot;
+  }
+
+  /**
+   * Remove cache entries for changed resources and all resources below them.
+   */
+  @Override
+  public void onChange(@NotNull List<ResourceChange> changes) {
+    invalidationCount.incrementAndGet();
+    for (ResourceChange change : changes) {
+      String path = getCachePath(change.getPath());
+      if ("/".equals(path)) {
+        invalidateAll();
+        continue;
+      }
+      log.debug("Clear site root level cache for {}", path);
+      cache.invalidate(path);
+      // all descendant paths start with "<path>/", '0' is the character following '/'
+      NavigableSet<String> descendantPaths = cachedPaths.subSet(path + "/", true, path + "0", false);
+      if (!descendantPaths.isEmpty()) {
+        cache.invalidateAll(new ArrayList<>(descendantPaths));
+        descendantPaths.clear();
+      }
     }
   }
 
-  private int detectSiteRootLevel(@Nullable Resource contextResource) {
-    if (contextResource != null) {
-      // assumption: inner-most context-aware configuration context path is site root path
-      String siteRootpath = configurationResourceResolver.getContextPath(contextResource);
-      if (siteRootpath != null) {
-        int level = Path.getAbsoluteLevel(siteRootpath, contextResource.getResourceResolver());
-        if (log.isDebugEnabled()) {
-          log.debug("Detect site root level for {}: {}", contextResource.getPath(), level);
-        }
-        return level;
+  /**
+   * Resources inside the content of a page share the site root level with the page.
+   * @param path Resource path
+   * @return Path of the resource owning the jcr:content node, or the path itself if it is not located in a
+   *         jcr:content node
+   */
+  static @NotNull String getCachePath(@NotNull String path) {
+    int pos = path.indexOf(JCR_CONTENT_PATH_PART);
+    while (pos >= 0) {
+      int end = pos + JCR_CONTENT_PATH_PART.length();
+      if (end == path.length() || path.charAt(end) == '/') {
+        return path.substring(0, pos);
+      }
+      pos = path.indexOf(JCR_CONTENT_PATH_PART, end);
+    }
+    return path;
+  }
+
+  private static @NotNull Resource getCacheResource(@NotNull Resource contextResource, @NotNull String cachePath) {
+    if (cachePath.equals(contextResource.getPath())) {
+      return contextResource;
+    }
+    Resource cacheResource = contextResource.getResourceResolver().getResource(cachePath);
+    return cacheResource != null ? cacheResource : contextResource;
+  }
+
+  private @NotNull SiteRoot detectSiteRoot(@NotNull Resource contextResource) {
+    // assumption: inner-most context-aware configuration context path is site root path
+    String siteRootpath = configurationResourceResolver.getContextPath(contextResource);
+    if (siteRootpath != null) {
+      int level = Path.getAbsoluteLevel(siteRootpath, contextResource.getResourceResolver());
+      if (log.isDebugEnabled()) {
+        log.debug("Detect site root level for {}: {}", contextResource.getPath(), level);
       }
+      return new SiteRoot(siteRootpath, level);
     }
-    return INVALID_SITE_ROOT_LEVEL;
+    return new SiteRoot(null, INVALID_SITE_ROOT_LEVEL);
+  }
+
+
+  private static final class SiteRoot {
+
+    private final String contextPath;
+    private final int level;
+
+    SiteRoot(@Nullable String contextPath, int level) {
+      this.contextPath = contextPath;
+      this.level = level;
+    }
+
   }
 
 }
@@ -20,16 +20,19 @@
 package io.wcm.handler.url.impl;
 
 import java.lang.annotation.Annotation;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.adapter.Adaptable;
 import org.apache.sling.api.adapter.AdapterFactory;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.caconfig.ConfigurationBuilder;
-import org.apache.sling.caconfig.resource.ConfigurationResourceResolver;
+import org.jetbrains.annotations.NotNull;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
@@ -44,29 +47,42 @@ import io.wcm.sling.commons.caservice.ContextAwareServiceResolver;
 
 /**
  * Adapts resources or requests to {@link UrlHandlerConfig} and {@link SiteConfig}.
+ * Site configurations are cached per context path, the cache is cleared on any change of configuration resources.
+ * Cached site configurations of context paths at or below changed content resources are removed as well, e.g. when
+ * a sling:configRef property is changed. The context path is taken from the cache of {@link SiteRootDetectorImpl}.
  */
-@Component(service = AdapterFactory.class,
+@Component(service = { AdapterFactory.class, ResourceChangeListener.class },
     property = {
         AdapterFactory.ADAPTABLE_CLASSES + "=org.apache.sling.api.resource.Resource",
         AdapterFactory.ADAPTABLE_CLASSES + "=org.apache.sling.api.SlingHttpServletRequest",
         AdapterFactory.ADAPTER_CLASSES + "=io.wcm.handler.url.spi.UrlHandlerConfig",
-        AdapterFactory.ADAPTER_CLASSES + "=io.wcm.handler.url.SiteConfig"
+        AdapterFactory.ADAPTER_CLASSES + "=io.wcm.handler.url.SiteConfig",
+        ResourceChangeListener.PATHS + "=/conf",
+        ResourceChangeListener.PATHS + "=/apps/conf",
+        ResourceChangeListener.PATHS + "=/libs/conf",
+        ResourceChangeListener.PATHS + "=/content",
+        ResourceChangeListener.PROPERTY_NAMES_HINT + "=sling:configRef"
     })
-public class UrlHandlerAdapterFactory implements AdapterFactory {
+public class UrlHandlerAdapterFactory
+    implements AdapterFactory, ResourceChangeListener, ExternalResourceChangeListener {
 
   @Reference
   private ContextAwareServiceResolver serviceResolver;
   @Reference
-  private ConfigurationResourceResolver configurationResourceResolver;
+  private SiteRootDetectorImpl siteRootDetector;
 
   private static final Logger log = LoggerFactory.getLogger(UrlHandlerAdapterFactory.class);
 
-  // cache resolving of site root level per resource path
+  private static final String CONTENT_PATH = "/content";
+
+  // cache site config per context path - cleared on configuration and configuration reference changes
   private final Cache<String, SiteConfig> siteConfigCache = CacheBuilder.newBuilder()
-      .expireAfterWrite(5, TimeUnit.SECONDS)
       .maximumSize(10000)
       .build();
 
+  // incremented on each invalidation to detect site configs that were invalidated while they were read
+  private final AtomicLong invalidationCount = new AtomicLong();
+
   @SuppressWarnings({ "unchecked", "null" })
   @Override
   public <AdapterType> AdapterType getAdapter(Object adaptable, Class<AdapterType> type) {
@@ -79,6 +95,33 @@ public class UrlHandlerAdapterFactory implements AdapterFactory {
     return null;
   }
 
+  @Override
+  public void onChange(@NotNull List<ResourceChange> changes) {
+    invalidationCount.incrementAndGet();
+    for (ResourceChange change : changes) {
+      String path = change.getPath();
+      if (!StringUtils.equals(path, CONTENT_PATH) && !StringUtils.startsWith(path, CONTENT_PATH + "/")) {
+        log.debug("Clear site config cache after configuration change at {}.", path);
+        siteConfigCache.invalidateAll();
+        return;
+      }
+      invalidateContextPaths(SiteRootDetectorImpl.getCachePath(path));
+    }
+  }
+
+  /**
+   * Remove cached site configs for context paths at or below the changed content path.
+   * Only few context paths are cached, one per site.
+   */
+  private void invalidateContextPaths(@NotNull String changedPath) {
+    for (String contextPath : siteConfigCache.asMap().keySet()) {
+      if (contextPath.equals(changedPath) || contextPath.startsWith(changedPath + "/")) {
+        log.debug("Clear site config cache for {}.", contextPath);
+        siteConfigCache.invalidate(contextPath);
+      }
+    }
+  }
+
   private Resource getContextResource(Object adaptable) {
     if (adaptable instanceof Resource) {
       return (Resource)adaptable;
@@ -93,53 +136,39 @@ public class UrlHandlerAdapterFactory implements AdapterFactory {
     if (contextResource == null) {
       return null;
     }
-    String contextRootPath = configurationResourceResolver.getContextPath(contextResource);
+    String contextRootPath = siteRootDetector.getContextPath(contextResource);
 
     // site root cannot be detected? then get SiteConfig directly from resource without any caching
     if (StringUtils.isBlank(contextRootPath)) {
       return getSiteConfigForResource(contextResource);
     }
 
-    // get site config for site root resource and cache the result (for a short time)
-    try {
-      return siteConfigCache.get(contextRootPath, () -> {
-        Resource siteRootResource = contextResource.getResourceResolver().getResource(contextRootPath);
-        return getSiteConfigForResourceCacheable(siteRootResource);
-      });
-    }
-    catch (ExecutionException ex) {
-      log.warn("Unexpected exception.", ex);
-      return null;
+    // get site config for site root resource and cache the result
+    SiteConfig siteConfig = siteConfigCache.getIfPresent(contextRootPath);
+    if (siteConfig == null) {
+      Resource siteRootResource = contextResource.getResourceResolver().getResource(contextRootPath);
+      if (siteRootResource == null) {
+        return getSiteConfigForResource(contextResource);
+      }
+      long invalidationCountBeforeRead = invalidationCount.get();
+      siteConfig = getSiteConfigForResourceCacheable(siteRootResource);
+      siteConfigCache.put(contextRootPath, siteConfig);
+      if (invalidationCount.get() != invalidationCountBeforeRead) {
+        // configuration was changed while the site config was read
+        siteConfigCache.invalidate(contextRootPath);
+      }
     }
+    return siteConfig;
   }
 
   /**
-   * Converts the SiteConfig instance to a newly created instance, because the original implementation
-   * implements lazy property reading and is connected to the original resource resolver implementation.
+   * Copies the values of the SiteConfig instance to a newly created immutable instance, because the original
+   * implementation implements lazy property reading and is connected to the original resource resolver implementation.
    * @param contextResource Context resource
    * @return Cacheable site configuration
    */
   private SiteConfig getSiteConfigForResourceCacheable(Resource contextResource) {
-    final SiteConfig siteConfig = getSiteConfigForResource(contextResource);
-    return new SiteConfig() {
-      @Override
-      public Class<? extends Annotation> annotationType() {
-        return SiteConfig.class;
-      }
-      @Override
-      public String siteUrl() {
-        return siteConfig.siteUrl();
-      }
-      @Override
-      public String siteUrlSecure() {
-        return siteConfig.siteUrlSecure();
-      }
-      @Override
-      public String siteUrlAuthor() {
-        return siteConfig.siteUrlAuthor();
-      }
-
-    };
+    return new ImmutableSiteConfig(getSiteConfigForResource(contextResource));
   }
 
   private SiteConfig getSiteConfigForResource(Resource contextResource) {
@@ -150,4 +179,42 @@ public class UrlHandlerAdapterFactory implements AdapterFactory {
     return configurationBuilder.as(SiteConfig.class);
   }
 
+
+  /**
+   * Site configuration with all values read eagerly, detached from the resource resolver.
+   */
+  private static final class ImmutableSiteConfig implements SiteConfig {
+
+    private final String siteUrl;
+    private final String siteUrlSecure;
+    private final String siteUrlAuthor;
+
+    ImmutableSiteConfig(SiteConfig siteConfig) {
+      this.siteUrl = siteConfig.siteUrl();
+      this.siteUrlSecure = siteConfig.siteUrlSecure();
+      this.siteUrlAuthor = siteConfig.siteUrlAuthor();
+    }
+
+    @Override
+    public Class<? extends Annotation> annotationType() {
+      return SiteConfig.class;
+    }
+
+    @Override
+    public String siteUrl() {
+      return siteUrl;
+    }
+
+    @Override
+    public String siteUrlSecure() {
+      return siteUrlSecure;
+    }
+
+    @Override
+    public String siteUrlAuthor() {
+      return siteUrlAuthor;
+    }
+
+  }
+
 }
@@ -65,6 +65,8 @@ public final class UrlHandlerImpl implements UrlHandler {
   private SlingSettingsService slingSettings;
   @OSGiService
   private ClientlibProxyRewriter clientlibProxyRewriter;
+  @OSGiService(injectionStrategy = InjectionStrategy.OPTIONAL)
+  private UrlMappingCache urlMappingCache;
 
   // optional injections (only available if called inside a request)
   @SlingObject(injectionStrategy = InjectionStrategy.OPTIONAL)
@@ -150,7 +152,7 @@ public final class UrlHandlerImpl implements UrlHandler {
     }
 
     // apply sling mapping, namespace mangling and add webapp context path if required
-    String externalizedUrl = Externalizer.externalizeUrl(url, resolver, request);
+    String externalizedUrl = Externalizer.externalizeUrl(url, resolver, request, urlMappingCache);
 
     // add link URL prefix (scheme/hostname or integrator placeholder) if required
     String linkUrlPrefix = getLinkUrlPrefix(urlMode, targetPage);
@@ -187,7 +189,7 @@ public final class UrlHandlerImpl implements UrlHandler {
     String externalizedUrl = clientlibProxyRewriter.rewriteStaticResourcePath(url);
 
     // apply sling mapping when externalizing URLs
-    externalizedUrl = Externalizer.externalizeUrl(externalizedUrl, resolver, request);
+    externalizedUrl = Externalizer.externalizeUrl(externalizedUrl, resolver, request, urlMappingCache);
 
     // add resource URL prefix (scheme/hostname or integrator placeholder) if required
     String resourceUrlPrefix = getResourceUrlPrefix(urlMode, resource);
@@ -202,127 +204,150 @@ public final class UrlHandlerImpl implements UrlHandler {
     return mode.getResourceUrlPrefix(self, slingSettings.getRunModes(), currentPage, targetResource);
   }
 
-  String buildUrl(String path, String selector, String extension, String suffix) { //NOPMD
+  /**
+   * Builds the URL from all URL parts in a single buffer.
+   * @param path Path
+   * @param selector Selector(s)
+   * @param extension Extension
+   * @param suffix Suffix
+   * @param queryString Query string
+   * @param inheritableParameterNames Names of parameters to inherit from the current request
+   * @param fragment Fragment
+   * @return URL or null if path is blank
+   */
+  String buildUrl(String path, String selector, String extension, String suffix, //NOPMD
+      String queryString, Set<String> inheritableParameterNames, String fragment) {
     if (StringUtils.isBlank(path)) {
       return null;
     }
 
-    // Extension url part
-    StringBuilder extensionPart = new StringBuilder();
-    if (StringUtils.isNotBlank(extension)) {
-      extensionPart.append('.').append(extension);
-    }
+    boolean hasExtension = StringUtils.isNotBlank(extension);
+    boolean hasSuffix = StringUtils.isNotBlank(suffix);
+    StringBuilder url = new StringBuilder(path.length()
+        + StringUtils.length(selector) + StringUtils.length(extension) * 2 + StringUtils.length(suffix)
+        + StringUtils.length(queryString) + StringUtils.length(fragment) + 16);
+    url.append(path);
 
     // Selector url part
-    StringBuilder selectorPart = new StringBuilder();
     if (StringUtils.isNotBlank(selector)) {
       // prepend delimiter to selector if required
       if (!StringUtils.startsWith(selector, ".")) {
-        selectorPart.append('.');
+        url.append('.');
       }
-      selectorPart.append(selector);
+      url.append(selector);
+    }
+    if (hasSuffix) {
+      // add a ".suffix" selector to avoid overlapping of filenames between suffixed and non-suffixed versions of the same page in the dispatcher cache
+      url.append('.').append(UrlHandler.SELECTOR_SUFFIX);
+    }
+
+    // Extension url part
+    if (hasExtension) {
+      url.append('.').append(extension);
     }
 
     // Suffix part
-    StringBuilder suffixPart = new StringBuilder();
-    if (StringUtils.isNotBlank(suffix)) {
+    if (hasSuffix) {
       // prepend delimiter to suffix if required and add extension
       if (!StringUtils.startsWith(suffix, "/")) {
-        suffixPart = suffixPart.append("/");
+        url.append('/');
       }
-      suffixPart.append(suffix);
+      url.append(suffix);
 
       // if suffix does not contain a file extension add main file extension
-      if (!StringUtils.contains(suffix, ".")) {
-        suffixPart.append(extensionPart);
+      if (hasExtension && !StringUtils.contains(suffix, ".")) {
+        url.append('.').append(extension);
       }
-
-      // add a ".suffix" selector to avoid overlapping of filenames between suffixed and non-suffixed versions of the same page in the dispatcher cache
-      selectorPart.append('.').append(UrlHandler.SELECTOR_SUFFIX);
     }
 
-    // build externalized url
-    return path + selectorPart.toString() + extensionPart.toString() + suffixPart.toString();
+    if (StringUtils.isNotEmpty(queryString) || inheritableParameterNames != null) {
+      appendQueryString(url, queryString, inheritableParameterNames);
+    }
+    if (StringUtils.isNotEmpty(fragment) && url.length() > 0) {
+      setFragment(url, fragment);
+    }
+    return url.toString();
   }
 
-  String appendQueryString(String url, String queryString, Set<String> inheritableParameterNames) {
-    if (StringUtils.isEmpty(url)) {
-      return url;
-    }
+  private void appendQueryString(StringBuilder url, String queryString, Set<String> inheritableParameterNames) {
 
-    // split url from existing query parameters
-    StringBuilder urlBuilder = new StringBuilder();
-    StringBuilder queryParams = new StringBuilder();
-    int separatorPos = url.indexOf('?');
+    // detect existing query parameters
+    int queryParamsStart;
+    int separatorPos = url.indexOf("?");
     if (separatorPos >= 0) {
-      queryParams.append(url.substring(separatorPos + 1));
-      urlBuilder.append(url.substring(0, separatorPos));
+      queryParamsStart = separatorPos + 1;
+      if (queryParamsStart == url.length()) {
+        // remove separator without query parameters
+        url.setLength(separatorPos);
+        queryParamsStart = -1;
+      }
     }
     else {
-      urlBuilder.append(url);
+      queryParamsStart = -1;
     }
 
     // append new query parameters
     if (StringUtils.isNotBlank(queryString)) {
-      if (queryParams.length() > 0) {
-        queryParams.append('&');
-      }
-      queryParams.append(queryString);
+      queryParamsStart = appendQueryParamSeparator(url, queryParamsStart);
+      url.append(queryString);
     }
 
     // inherit query parameters from current request (only if the parameter is not already included in the params list)
     if (inheritableParameterNames != null && request != null) {
       for (String parameterName : inheritableParameterNames) {
-        if (queryParams.indexOf(parameterName + "=") == -1) {
+        if (!containsQueryParam(url, queryParamsStart, parameterName)) {
           String[] values = RequestParam.getMultiple(request, parameterName);
           if (values != null) {
             for (String value : values) {
               if (StringUtils.isNotEmpty(value)) {
-                if (queryParams.length() > 0) {
-                  queryParams.append('&');
-                }
-                queryParams.append(parameterName);
-                queryParams.append('=');
-                queryParams.append(value);
+                queryParamsStart = appendQueryParamSeparator(url, queryParamsStart);
+                url.append(parameterName).append('=').append(value);
               }
             }
           }
         }
       }
     }
+  }
 
-    // build complete url
-    if (queryParams.length() > 0) {
-      urlBuilder.append('?');
-      urlBuilder.append(queryParams);
+  /**
+   * Appends '?' before the first query parameter, '&amp;' before all others.
+   * @return Start index of query parameters
+   */
+  private static int appendQueryParamSeparator(StringBuilder url, int queryParamsStart) {
+    if (queryParamsStart < 0) {
+      url.append('?');
+      return url.length();
     }
-    return urlBuilder.toString();
+    url.append('&');
+    return queryParamsStart;
   }
 
-  String setFragment(String url, String fragment) {
-    if (StringUtils.isEmpty(url)) {
-      return url;
+  /**
+   * Checks if "parameterName=" is contained in the query parameters.
+   */
+  private static boolean containsQueryParam(StringBuilder url, int queryParamsStart, String parameterName) {
+    if (queryParamsStart < 0) {
+      return false;
     }
+    return url.indexOf(parameterName + "=", queryParamsStart) >= 0;
+  }
+
+  private static void setFragment(StringBuilder url, String fragment) {
 
     // strip off anchor if already present
-    StringBuilder urlBuilder;
-    int index = url.indexOf('#');
+    int index = url.indexOf("#");
     if (index >= 0) {
-      urlBuilder = new StringBuilder(url.substring(0, index));
-    }
-    else {
-      urlBuilder = new StringBuilder(url);
+      url.setLength(index);
     }
 
     // prepend "#" for anchor if not present
     if (StringUtils.isNotBlank(fragment)) {
       if (!StringUtils.startsWith(fragment, "#")) {
-        urlBuilder.append('#');
+        url.append('#');
       }
-      urlBuilder.append(fragment);
+      url.append(fragment);
     }
-
-    return urlBuilder.toString();
   }
 
 }
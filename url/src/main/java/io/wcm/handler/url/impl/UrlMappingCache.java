@@ -0,0 +1,221 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.url.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the results of Sling Mapping ({@link ResourceResolver#map(SlingHttpServletRequest, String)})
+ * for the current request, and optionally for a short time across requests.
+ * The shared cache is invalidated when Sling reports changes of the mapping configuration below /etc/map
+ * or of vanity paths.
+ */
+@Component(service = { UrlMappingCache.class, UrlMappingCacheMBean.class, EventHandler.class },
+    immediate = true,
+    property = {
+        EventConstants.EVENT_TOPIC + "=" + SlingConstants.TOPIC_RESOURCE_RESOLVER_MAPPING_CHANGED,
+        "jmx.objectname=io.wcm.handler.url:type=UrlMappingCache"
+    })
+@Designate(ocd = UrlMappingCache.Config.class)
+public final class UrlMappingCache implements UrlMappingCacheMBean, EventHandler {
+
+  @ObjectClassDefinition(
+      name = "wcm.io URL Handler Mapping Cache",
+      description = "Caches results of Sling Mapping applied when externalizing URLs.")
+  @interface Config {
+
+    @AttributeDefinition(name = "Request cache", description = "Cache mapping results for the current request.")
+    boolean requestCacheEnabled() default true;
+
+    @AttributeDefinition(name = "Shared cache", description = "Cache mapping results across requests, "
+        + "per scheme, host, port and context path of the request.")
+    boolean sharedCacheEnabled() default false;
+
+    @AttributeDefinition(name = "Shared cache expiry", description = "Time in seconds mapping results are "
+        + "cached across requests.")
+    int sharedCacheExpirySeconds() default 10;
+
+    @AttributeDefinition(name = "Shared cache max. size", description = "Maximum number of mapping results "
+        + "cached across requests.")
+    long sharedCacheMaxSize() default 10000;
+
+  }
+
+  private static final String REQUEST_ATTRIBUTE = UrlMappingCache.class.getName();
+
+  private boolean requestCacheEnabled;
+  private Cache<String, String> sharedCache;
+
+  private final AtomicLong requestHitCount = new AtomicLong();
+  private final AtomicLong sharedHitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong invalidationCount = new AtomicLong();
+
+  @Activate
+  private void activate(Config config) {
+    this.requestCacheEnabled = config.requestCacheEnabled();
+    if (config.sharedCacheEnabled()) {
+      this.sharedCache = CacheBuilder.newBuilder()
+          .expireAfterWrite(config.sharedCacheExpirySeconds(), TimeUnit.SECONDS)
+          .maximumSize(config.sharedCacheMaxSize())
+          .build();
+    }
+  }
+
+  /**
+   * Apply Sling Mapping to the given path, or get the result from cache.
+   * @param path Path
+   * @param resolver Resource resolver
+   * @param request Request (optional)
+   * @return Mapped path
+   */
+  public @NotNull String map(@NotNull String path, @NotNull ResourceResolver resolver,
+      @Nullable SlingHttpServletRequest request) {
+
+    Map<String, String> requestCache = getRequestCache(request);
+    if (requestCache != null) {
+      String mappedPath = requestCache.get(path);
+      if (mappedPath != null) {
+        requestHitCount.incrementAndGet();
+        return mappedPath;
+      }
+    }
+
+    String sharedCacheKey = null;
+    if (sharedCache != null) {
+      sharedCacheKey = getSharedCacheKey(path, request);
+      String mappedPath = sharedCache.getIfPresent(sharedCacheKey);
+      if (mappedPath != null) {
+        sharedHitCount.incrementAndGet();
+        if (requestCache != null) {
+          requestCache.put(path, mappedPath);
+        }
+        return mappedPath;
+      }
+    }
+
+    missCount.incrementAndGet();
+    String mappedPath;
+    if (request != null) {
+      mappedPath = resolver.map(request, path);
+    }
+    else {
+      mappedPath = resolver.map(path);
+    }
+    if (requestCache != null) {
+      requestCache.put(path, mappedPath);
+    }
+    if (sharedCacheKey != null) {
+      sharedCache.put(sharedCacheKey, mappedPath);
+    }
+    return mappedPath;
+  }
+
+  @SuppressWarnings("unchecked")
+  private @Nullable Map<String, String> getRequestCache(@Nullable SlingHttpServletRequest request) {
+    if (!requestCacheEnabled || request == null) {
+      return null;
+    }
+    Object requestCache = request.getAttribute(REQUEST_ATTRIBUTE);
+    if (requestCache instanceof Map) {
+      return (Map<String, String>)requestCache;
+    }
+    Map<String, String> newRequestCache = new HashMap<>();
+    request.setAttribute(REQUEST_ATTRIBUTE, newRequestCache);
+    return newRequestCache;
+  }
+
+  private static String getSharedCacheKey(@NotNull String path, @Nullable SlingHttpServletRequest request) {
+    if (request == null) {
+      return path;
+    }
+    return request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort()
+        + request.getContextPath() + "|" + path;
+  }
+
+  @Override
+  public void handleEvent(Event event) {
+    invalidateCache();
+  }
+
+  @Override
+  public long getRequestHitCount() {
+    return requestHitCount.get();
+  }
+
+  @Override
+  public long getSharedHitCount() {
+    return sharedHitCount.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  @Override
+  public double getHitRate() {
+    long hits = requestHitCount.get() + sharedHitCount.get();
+    long total = hits + missCount.get();
+    if (total == 0) {
+      return 0d;
+    }
+    return (double)hits / total;
+  }
+
+  @Override
+  public long getSharedCacheSize() {
+    return sharedCache != null ? sharedCache.size() : 0;
+  }
+
+  @Override
+  public long getInvalidationCount() {
+    return invalidationCount.get();
+  }
+
+  @Override
+  public void invalidateCache() {
+    invalidationCount.incrementAndGet();
+    if (sharedCache != null) {
+      sharedCache.invalidateAll();
+    }
+  }
+
+}
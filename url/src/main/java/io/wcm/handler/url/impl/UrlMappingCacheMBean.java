@@ -0,0 +1,62 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.url.impl;
+
+/**
+ * JMX management interface for {@link UrlMappingCache}.
+ */
+public interface UrlMappingCacheMBean {
+
+  /**
+   * @return Number of mapping results served from the request-scoped cache
+   */
+  long getRequestHitCount();
+
+  /**
+   * @return Number of mapping results served from the shared cross-request cache
+   */
+  long getSharedHitCount();
+
+  /**
+   * @return Number of paths mapped by the resource resolver
+   */
+  long getMissCount();
+
+  /**
+   * @return Ratio of cache hits to all mapping requests
+   */
+  double getHitRate();
+
+  /**
+   * @return Number of entries in the shared cross-request cache
+   */
+  long getSharedCacheSize();
+
+  /**
+   * @return Number of invalidations of the shared cache caused by Sling mapping changes
+   */
+  long getInvalidationCount();
+
+  /**
+   * Invalidate the shared cross-request cache.
+   */
+  void invalidateCache();
+
+}
@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.url.impl.clientlib;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Immutable prefix tree of client library folder paths, organized by path segments.
+ * Modifications return a new instance that shares all unchanged subtrees with the previous one,
+ * so lookups need no synchronization and do not allocate any objects.
+ */
+final class ClientlibPathTrie {
+
+  static final ClientlibPathTrie EMPTY = new ClientlibPathTrie(false, new String[0], new ClientlibPathTrie[0]);
+
+  private final boolean marked;
+  private final String[] names;
+  private final ClientlibPathTrie[] children;
+
+  private ClientlibPathTrie(boolean marked, String[] names, ClientlibPathTrie[] children) {
+    this.marked = marked;
+    this.names = names;
+    this.children = children;
+  }
+
+  /**
+   * Checks if the path given by the first characters of a string is contained in this trie.
+   * @param path String starting with an absolute path
+   * @param endIndex End index of the path in the given string (exclusive)
+   * @return true if the path is contained
+   */
+  boolean contains(String path, int endIndex) {
+    if (endIndex < 2 || endIndex > path.length() || path.charAt(0) != '/') {
+      return false;
+    }
+    ClientlibPathTrie node = this;
+    int pos = 1;
+    while (true) {
+      int next = path.indexOf('/', pos);
+      if (next < 0 || next > endIndex) {
+        next = endIndex;
+      }
+      if (next == pos) {
+        // empty path segment
+        return false;
+      }
+      node = node.getChild(path, pos, next);
+      if (node == null) {
+        return false;
+      }
+      if (next == endIndex) {
+        return node.marked;
+      }
+      pos = next + 1;
+    }
+  }
+
+  /**
+   * @param path Absolute path
+   * @return true if the path is contained
+   */
+  boolean contains(String path) {
+    return contains(path, path.length());
+  }
+
+  /**
+   * @param path Absolute path
+   * @return Trie containing the given path
+   */
+  ClientlibPathTrie add(String path) {
+    return mark(toSegments(path), 0, true);
+  }
+
+  /**
+   * @param path Absolute path
+   * @return Trie not containing the given path, paths below it are kept
+   */
+  ClientlibPathTrie remove(String path) {
+    return mark(toSegments(path), 0, false);
+  }
+
+  /**
+   * @param path Absolute path
+   * @return Trie containing neither the given path nor any path below it
+   */
+  ClientlibPathTrie removeTree(String path) {
+    return removeTree(toSegments(path), 0);
+  }
+
+  boolean isEmpty() {
+    return !marked && names.length == 0;
+  }
+
+  private static String[] toSegments(String path) {
+    return StringUtils.split(path, '/');
+  }
+
+  private ClientlibPathTrie mark(String[] segments, int index, boolean value) {
+    if (index == segments.length) {
+      if (marked == value) {
+        return this;
+      }
+      return new ClientlibPathTrie(value, names, children);
+    }
+    int pos = Arrays.binarySearch(names, segments[index]);
+    if (pos < 0 && !value) {
+      return this;
+    }
+    ClientlibPathTrie child = pos >= 0 ? children[pos] : EMPTY;
+    ClientlibPathTrie newChild = child.mark(segments, index + 1, value);
+    if (newChild == child) {
+      return this;
+    }
+    return withChild(pos, segments[index], newChild);
+  }
+
+  private ClientlibPathTrie removeTree(String[] segments, int index) {
+    if (index == segments.length) {
+      return EMPTY;
+    }
+    int pos = Arrays.binarySearch(names, segments[index]);
+    if (pos < 0) {
+      return this;
+    }
+    ClientlibPathTrie child = children[pos];
+    ClientlibPathTrie newChild = child.removeTree(segments, index + 1);
+    if (newChild == child) {
+      return this;
+    }
+    return withChild(pos, segments[index], newChild);
+  }
+
+  /**
+   * Copy this node with a replaced, inserted or removed (if empty) child.
+   * @param pos Result of binary search for the child name
+   * @param name Child name
+   * @param child New child
+   * @return New node
+   */
+  private ClientlibPathTrie withChild(int pos, String name, ClientlibPathTrie child) {
+    String[] newNames;
+    ClientlibPathTrie[] newChildren;
+    if (pos >= 0 && child.isEmpty()) {
+      newNames = new String[names.length - 1];
+      newChildren = new ClientlibPathTrie[children.length - 1];
+      System.arraycopy(names, 0, newNames, 0, pos);
+      System.arraycopy(names, pos + 1, newNames, pos, names.length - pos - 1);
+      System.arraycopy(children, 0, newChildren, 0, pos);
+      System.arraycopy(children, pos + 1, newChildren, pos, children.length - pos - 1);
+    }
+    else if (pos >= 0) {
+      newNames = names;
+      newChildren = children.clone();
+      newChildren[pos] = child;
+    }
+    else if (child.isEmpty()) {
+      return this;
+    }
+    else {
+      int insertPos = -pos - 1;
+      newNames = new String[names.length + 1];
+      newChildren = new ClientlibPathTrie[children.length + 1];
+      System.arraycopy(names, 0, newNames, 0, insertPos);
+      System.arraycopy(names, insertPos, newNames, insertPos + 1, names.length - insertPos);
+      System.arraycopy(children, 0, newChildren, 0, insertPos);
+      System.arraycopy(children, insertPos, newChildren, insertPos + 1, children.length - insertPos);
+      newNames[insertPos] = name;
+      newChildren[insertPos] = child;
+    }
+    return new ClientlibPathTrie(marked, newNames, newChildren);
+  }
+
+  /**
+   * Binary search for child with the name given by a region of the path string.
+   */
+  private ClientlibPathTrie getChild(String path, int start, int end) {
+    int low = 0;
+    int high = names.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(names[mid], path, start, end);
+      if (cmp < 0) {
+        low = mid + 1;
+      }
+      else if (cmp > 0) {
+        high = mid - 1;
+      }
+      else {
+        return children[mid];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Compares name with a region of the path string, consistent with {@link String#compareTo(String)}.
+   */
+  private static int compare(String name, String path, int start, int end) {
+    int length = end - start;
+    int minLength = Math.min(name.length(), length);
+    for (int i = 0; i < minLength; i++) {
+      int diff = name.charAt(i) - path.charAt(start + i);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return name.length() - length;
+  }
+
+}
@@ -19,60 +19,257 @@
  */
 package io.wcm.handler.url.impl.clientlib;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
-import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+
 /**
  * Rewrites resource links to client libraries that are in "allowProxy" mode to /etc.clientlibs.
+ * The paths of all client libraries with "allowProxy" mode are kept in a prefix tree, which is built by a single
+ * query on activation and updated incrementally on changes below /apps and /libs.
+ * Paths not contained in the prefix tree are looked up once and remembered until a resource at or above them
+ * changes - this covers a failed service login on activation and changes not reported by resource change events.
  */
-@Component(service = ClientlibProxyRewriter.class, immediate = true)
-public class ClientlibProxyRewriterImpl implements ClientlibProxyRewriter {
+@Component(service = { ClientlibProxyRewriter.class, ResourceChangeListener.class }, immediate = true,
+    property = {
+        ResourceChangeListener.PATHS + "=/apps",
+        ResourceChangeListener.PATHS + "=/libs",
+        ResourceChangeListener.CHANGES + "=ADDED",
+        ResourceChangeListener.CHANGES + "=CHANGED",
+        ResourceChangeListener.CHANGES + "=REMOVED"
+    })
+public class ClientlibProxyRewriterImpl
+    implements ClientlibProxyRewriter, ResourceChangeListener, ExternalResourceChangeListener {
+
+  private static final String NT_CLIENTLIBRARY = "cq:ClientLibraryFolder";
+  private static final String PN_ALLOWPROXY = "allowProxy";
+
+  private static final String CLIENTLIBS_QUERY = "SELECT * FROM [" + NT_CLIENTLIBRARY + "] AS s "
+      + "WHERE ISDESCENDANTNODE(s, '/apps') OR ISDESCENDANTNODE(s, '/libs')";
+  private static final String CLIENTLIBS_SUBTREE_QUERY = "SELECT * FROM [" + NT_CLIENTLIBRARY + "] AS s "
+      + "WHERE ISDESCENDANTNODE(s, '%s')";
+
+  private static final String RESOURCES_PATH_PART = "/resources/";
+
+  /**
+   * Service user for accessing clientlib resources below /apps and /libs
+   */
+  private static final String CLIENTLIBS_SERVICE = "clientlibs-service";
 
-  private static final Pattern STATIC_RESOURCE_PATH_PATTERN = Pattern.compile("^(/(apps|libs)/.*)/resources/.*$");
+  private static final String SERVICE_USER_MAPPING_WARNING = "Missing service user mapping for "
+      + "'io.wcm.handler.url:" + CLIENTLIBS_SERVICE + "' - see https://wcm.io/handler/url/configuration.html";
 
   private static final Logger log = LoggerFactory.getLogger(ClientlibProxyRewriterImpl.class);
 
   @Reference
   private ResourceResolverFactory resourceResolverFactory;
 
-  private volatile ClientlibPathCache clientlibPathCache;
+  private volatile ClientlibPathTrie allowProxyClientlibPaths = ClientlibPathTrie.EMPTY;
 
-  @Deactivate
-  @SuppressWarnings("PMD.SignatureDeclareThrowsException")
-  private void deactivate() throws Exception {
-    if (clientlibPathCache != null) {
-      this.clientlibPathCache.close();
+  // sorted index of the paths in noAllowProxyClientlibPaths, allows to look up all paths below a changed path
+  private final NavigableSet<String> noAllowProxyClientlibPathIndex = new ConcurrentSkipListSet<>();
+
+  // paths that were looked up and are no client library with allowProxy, removed when they or their parents change
+  private final Cache<String, Boolean> noAllowProxyClientlibPaths = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .<String, Boolean>removalListener(notification -> {
+        if (notification.getCause() != RemovalCause.REPLACED) {
+          noAllowProxyClientlibPathIndex.remove(notification.getKey());
+        }
+      })
+      .build();
+
+  // incremented on every change, guarded by this
+  private long changeCount;
+
+  @Activate
+  private void activate() {
+    try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+      ClientlibPathTrie trie = addAllowProxyClientlibs(ClientlibPathTrie.EMPTY,
+          resourceResolver.findResources(CLIENTLIBS_QUERY, Query.JCR_SQL2));
+      synchronized (this) {
+        allowProxyClientlibPaths = trie;
+      }
+    }
+    catch (LoginException ex) {
+      // fall back to looking up each client library path on first access
+      log.warn(SERVICE_USER_MAPPING_WARNING);
     }
-    this.clientlibPathCache = null;
   }
 
-  private ClientlibPathCache getClientlibPathCache() {
-    if (this.clientlibPathCache == null) {
-      // lazy initialization
+  /**
+   * Update client library paths for changed resources.
+   */
+  @Override
+  public void onChange(@NotNull List<ResourceChange> changes) {
+    synchronized (this) {
+      changeCount++;
+      for (ResourceChange change : changes) {
+        invalidateNoAllowProxyClientlibPaths(change.getPath());
+      }
+    }
+    try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+      synchronized (this) {
+        ClientlibPathTrie trie = allowProxyClientlibPaths;
+        String lastScannedPath = null;
+        for (ResourceChange change : changes) {
+          String path = change.getPath();
+          if (change.getType() == ChangeType.REMOVED) {
+            trie = trie.removeTree(path);
+            lastScannedPath = null;
+            continue;
+          }
+          if (isAllowProxyClientlib(resourceResolver.getResource(path))) {
+            log.debug("Detected client library with allowProxy: {}", path);
+            trie = trie.add(path);
+          }
+          else {
+            trie = trie.remove(path);
+          }
+          // a moved or copied folder is reported only with its root path, so scan the subtree for client libraries
+          if (change.getType() == ChangeType.ADDED && !isDescendant(path, lastScannedPath)) {
+            trie = addAllowProxyClientlibs(trie, resourceResolver.findResources(
+                String.format(CLIENTLIBS_SUBTREE_QUERY, path.replace("'", "''")), Query.JCR_SQL2));
+            lastScannedPath = path;
+          }
+        }
+        allowProxyClientlibPaths = trie;
+      }
+    }
+    catch (LoginException ex) {
+      log.warn(SERVICE_USER_MAPPING_WARNING);
+      // drop changed paths, they are looked up again on next access
       synchronized (this) {
-        if (this.clientlibPathCache == null) {
-          this.clientlibPathCache = new ClientlibPathCache(resourceResolverFactory);
+        ClientlibPathTrie trie = allowProxyClientlibPaths;
+        for (ResourceChange change : changes) {
+          trie = trie.removeTree(change.getPath());
+        }
+        allowProxyClientlibPaths = trie;
+      }
+    }
+  }
+
+  /**
+   * Removes remembered paths at or below the given path.
+   * @param path Changed path
+   */
+  private void invalidateNoAllowProxyClientlibPaths(String path) {
+    noAllowProxyClientlibPaths.invalidate(path);
+    // all descendant paths start with "<path>/", '0' is the character following '/'
+    NavigableSet<String> descendantPaths = noAllowProxyClientlibPathIndex.subSet(path + "/", true, path + "0", false);
+    if (!descendantPaths.isEmpty()) {
+      noAllowProxyClientlibPaths.invalidateAll(new ArrayList<>(descendantPaths));
+    }
+  }
+
+  private static ClientlibPathTrie addAllowProxyClientlibs(ClientlibPathTrie trie, Iterator<Resource> clientlibs) {
+    ClientlibPathTrie result = trie;
+    while (clientlibs.hasNext()) {
+      Resource clientlib = clientlibs.next();
+      if (isAllowProxy(clientlib)) {
+        log.debug("Detected client library with allowProxy: {}", clientlib.getPath());
+        result = result.add(clientlib.getPath());
+      }
+    }
+    return result;
+  }
+
+  private static boolean isDescendant(String path, String parentPath) {
+    return parentPath != null && path.startsWith(parentPath)
+        && path.length() > parentPath.length() && path.charAt(parentPath.length()) == '/';
+  }
+
+  /**
+   * Looks up a path not contained in the prefix tree, and remembers the result until the next change.
+   * @param clientlibPath Path of a (potential) client library
+   * @return true if it is a client library with allowProxy
+   */
+  private boolean lookupAllowProxyClientlib(String clientlibPath) {
+    if (noAllowProxyClientlibPaths.getIfPresent(clientlibPath) != null) {
+      return false;
+    }
+    long expectedChangeCount;
+    synchronized (this) {
+      expectedChangeCount = changeCount;
+    }
+    boolean allowProxy = false;
+    try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+      allowProxy = isAllowProxyClientlib(resourceResolver.getResource(clientlibPath));
+    }
+    catch (LoginException ex) {
+      log.warn(SERVICE_USER_MAPPING_WARNING);
+    }
+    synchronized (this) {
+      // do not store results that may have been outdated by a concurrent change
+      if (changeCount == expectedChangeCount) {
+        if (allowProxy) {
+          log.debug("Detected client library with allowProxy: {}", clientlibPath);
+          allowProxyClientlibPaths = allowProxyClientlibPaths.add(clientlibPath);
+        }
+        else {
+          noAllowProxyClientlibPathIndex.add(clientlibPath);
+          noAllowProxyClientlibPaths.put(clientlibPath, Boolean.TRUE);
         }
       }
     }
-    return this.clientlibPathCache;
+    return allowProxy;
+  }
+
+  private ResourceResolver getServiceResourceResolver() throws LoginException {
+    return resourceResolverFactory.getServiceResourceResolver(
+        Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, (Object)CLIENTLIBS_SERVICE));
+  }
+
+  private static boolean isAllowProxyClientlib(Resource resource) {
+    if (resource == null) {
+      return false;
+    }
+    Node node = resource.adaptTo(Node.class);
+    try {
+      return node != null && node.isNodeType(NT_CLIENTLIBRARY) && isAllowProxy(resource);
+    }
+    catch (RepositoryException ex) {
+      log.warn("Unable to check node type of {}", resource.getPath(), ex);
+      return false;
+    }
+  }
+
+  private static boolean isAllowProxy(Resource clientlib) {
+    return clientlib.getValueMap().get(PN_ALLOWPROXY, false);
   }
 
   @Override
   public @NotNull String rewriteStaticResourcePath(@NotNull String path) {
-    Matcher matcher = STATIC_RESOURCE_PATH_PATTERN.matcher(path);
-    if (matcher.matches()) {
-      String clientlibPath = matcher.group(1);
-      boolean clientlibProxyMode = getClientlibPathCache().isClientlibWithAllowProxy(clientlibPath);
-      if (clientlibProxyMode) {
+    if (path.startsWith("/apps/") || path.startsWith("/libs/")) {
+      int resourcesPos = path.lastIndexOf(RESOURCES_PATH_PART);
+      if (resourcesPos > 5 && (allowProxyClientlibPaths.contains(path, resourcesPos)
+          || lookupAllowProxyClientlib(path.substring(0, resourcesPos)))) {
         return rewriteClientlibProxyPath(path);
       }
     }
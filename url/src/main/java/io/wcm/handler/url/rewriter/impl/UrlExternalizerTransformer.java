@@ -21,6 +21,8 @@ package io.wcm.handler.url.rewriter.impl;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.cocoon.xml.sax.AbstractSAXPipe;
 import org.apache.cocoon.xml.sax.AttributesImpl;
@@ -43,6 +45,8 @@ class UrlExternalizerTransformer extends AbstractSAXPipe implements Transformer
 
   private UrlExternalizerTransformerConfig transformerConfig;
   private UrlHandler urlHandler;
+  private Map<String, String> rewrittenUrls;
+  private final AttributesImpl rewrittenAttrs = new AttributesImpl();
 
   private static final Logger log = LoggerFactory.getLogger(UrlExternalizerTransformer.class.getName());
 
@@ -51,14 +55,14 @@ class UrlExternalizerTransformer extends AbstractSAXPipe implements Transformer
     log.trace("Initialize UrlExternalizerTransformer with config: {}", config.getConfiguration());
     transformerConfig = new UrlExternalizerTransformerConfig(config.getConfiguration());
     urlHandler = pipelineContext.getRequest().adaptTo(UrlHandler.class);
+    rewrittenUrls = null;
   }
 
   @Override
-  @SuppressWarnings("PMD.UseStringBufferForStringAppends")
   public void startElement(String nsUri, String name, String raw, Attributes attrs) throws SAXException {
 
     // check if for this element an attribute for rewriting is configured
-    String rewriteAttr = transformerConfig.getElementAttributeNames().get(name);
+    String rewriteAttr = transformerConfig.getAttributeName(name);
     if (rewriteAttr == null) {
       log.trace("Rewrite element {}: Skip - No rewrite attribute configured.", name);
       super.startElement(nsUri, name, raw, attrs);
@@ -88,24 +92,63 @@ class UrlExternalizerTransformer extends AbstractSAXPipe implements Transformer
       return;
     }
 
+    // the same URLs (e.g. of images or client libraries) are often referenced multiple times in one response
+    if (rewrittenUrls == null) {
+      rewrittenUrls = new HashMap<>();
+    }
+    String rewrittenUrl = rewrittenUrls.get(url);
+    if (rewrittenUrl == null) {
+      rewrittenUrl = rewriteUrl(url);
+      rewrittenUrls.put(url, rewrittenUrl);
+    }
+
+    if (StringUtils.equals(url, rewrittenUrl)) {
+      log.debug("Rewrite element {}: Skip - URL is already externalized: {}", name, url);
+      super.startElement(nsUri, name, raw, attrs);
+      return;
+    }
+
+    // set new attribute value - attributes are only valid during the startElement call, so the instance can be reused
+    log.debug("Rewrite element {}: Rewrite URL {} to {}", name, url, rewrittenUrl);
+    rewrittenAttrs.setAttributes(attrs);
+    rewrittenAttrs.setValue(attributeIndex, rewrittenUrl);
+    super.startElement(nsUri, name, raw, rewrittenAttrs);
+  }
+
+  /**
+   * Externalize URL.
+   * @param url URL from attribute value
+   * @return Rewritten URL, or the given URL if it is already externalized
+   */
+  @SuppressWarnings("PMD.UseStringBufferForStringAppends")
+  private String rewriteUrl(String url) {
+
+    // skip URLs that are already externalized before any decoding
+    if (isExternalized(url)) {
+      return url;
+    }
+
     // split off query string or fragment that may be appended to the URL
+    String path = url;
     String urlRemainder = null;
-    int urlRemainderPos = StringUtils.indexOfAny(url, '?', '#');
+    int urlRemainderPos = StringUtils.indexOfAny(path, '?', '#');
     if (urlRemainderPos >= 0) {
-      urlRemainder = url.substring(urlRemainderPos);
-      url = url.substring(0, urlRemainderPos);
+      urlRemainder = path.substring(urlRemainderPos);
+      path = path.substring(0, urlRemainderPos);
     }
 
     // decode URL (without URL remainder)
-    try {
-      url = URLDecoder.decode(url, CharEncoding.UTF_8);
-    }
-    catch (UnsupportedEncodingException ex) {
-      throw new RuntimeException("Unsupported encoding.", ex);
+    if (path.indexOf('%') >= 0 || path.indexOf('+') >= 0) {
+      try {
+        path = URLDecoder.decode(path, CharEncoding.UTF_8);
+      }
+      catch (UnsupportedEncodingException ex) {
+        throw new RuntimeException("Unsupported encoding.", ex);
+      }
     }
 
     // externalize URL (if it is not already externalized)
-    String rewrittenUrl = urlHandler.get(url).buildExternalResourceUrl();
+    String rewrittenUrl = urlHandler.get(path).buildExternalResourceUrl();
     if (urlRemainder != null) {
       if (rewrittenUrl == null) {
         rewrittenUrl = urlRemainder;
@@ -115,17 +158,35 @@ class UrlExternalizerTransformer extends AbstractSAXPipe implements Transformer
       }
     }
 
-    if (StringUtils.equals(url, rewrittenUrl)) {
-      log.debug("Rewrite element {}: Skip - URL is already externalized: {}", name, url);
-      super.startElement(nsUri, name, raw, attrs);
-      return;
+    if (rewrittenUrl == null || StringUtils.equals(path, rewrittenUrl)) {
+      return url;
     }
+    return rewrittenUrl;
+  }
 
-    // set new attribute value
-    log.debug("Rewrite element {}: Rewrite URL {} to {}", name, url, rewrittenUrl);
-    AttributesImpl newAttrs = new AttributesImpl(attrs);
-    newAttrs.setValue(attributeIndex, rewrittenUrl);
-    super.startElement(nsUri, name, raw, newAttrs);
+  /**
+   * Checks the first characters of the URL if it has a scheme, is protocol-relative or only a fragment.
+   * @param url URL
+   * @return true if URL is already externalized
+   */
+  static boolean isExternalized(String url) {
+    char firstChar = url.charAt(0);
+    if (firstChar == '#') {
+      return true;
+    }
+    if (firstChar == '/') {
+      return url.length() > 1 && url.charAt(1) == '/';
+    }
+    for (int i = 1; i < url.length(); i++) {
+      char c = url.charAt(i);
+      if (c == ':') {
+        return true;
+      }
+      if (c == '/') {
+        return false;
+      }
+    }
+    return false;
   }
 
   @Override
@@ -41,11 +41,18 @@ class UrlExternalizerTransformerConfig {
   private static final String ELEMENT_ATTRIBUTE_SEPARATOR = ":";
 
   private final Map<String, String> elementAttributeNames;
+  private final String[] elementNames;
+  private final String[] attributeNames;
 
   private static final Logger log = LoggerFactory.getLogger(UrlExternalizerTransformerConfig.class.getName());
 
   UrlExternalizerTransformerConfig(ValueMap config) {
     this.elementAttributeNames = toElementAttributeNamesMap(config.get(PN_REWRITE_ELEMENTS, REWRITE_ELEMENTS_DEFAULT));
+    this.elementNames = elementAttributeNames.keySet().toArray(new String[0]);
+    this.attributeNames = new String[elementNames.length];
+    for (int i = 0; i < elementNames.length; i++) {
+      attributeNames[i] = elementAttributeNames.get(elementNames[i]);
+    }
   }
 
   private static Map<String, String> toElementAttributeNamesMap(String[] elementAttributeNames) {
@@ -70,4 +77,19 @@ class UrlExternalizerTransformerConfig {
     return this.elementAttributeNames;
   }
 
+  /**
+   * Get attribute name to rewrite for the given element. Only few elements are configured, so a linear scan
+   * is cheaper than a hash lookup which has to compute the hash code of each element name passed by the parser.
+   * @param elementName Element name
+   * @return Attribute name or null if no attribute is configured for this element
+   */
+  public String getAttributeName(String elementName) {
+    for (int i = 0; i < elementNames.length; i++) {
+      if (elementNames[i].equals(elementName)) {
+        return attributeNames[i];
+      }
+    }
+    return null;
+  }
+
 }
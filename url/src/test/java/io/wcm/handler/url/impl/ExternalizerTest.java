@@ -132,6 +132,25 @@ class ExternalizerTest {
     assertTrue(Externalizer.isExternalized(IntegratorPlaceholder.URL_CONTENT + "/path1"));
   }
 
+  @Test
+  void testIsRawAbsolutePath() {
+    assertTrue(Externalizer.isRawAbsolutePath("/"));
+    assertTrue(Externalizer.isRawAbsolutePath("/content/aa/bb/_jcr_content.png"));
+    assertTrue(Externalizer.isRawAbsolutePath("/content/path%20with/spaces%C3%A4.html"));
+    assertTrue(Externalizer.isRawAbsolutePath("/content/ns:path/a;b=c"));
+
+    assertFalse(Externalizer.isRawAbsolutePath(null));
+    assertFalse(Externalizer.isRawAbsolutePath(""));
+    assertFalse(Externalizer.isRawAbsolutePath("relative/path"));
+    assertFalse(Externalizer.isRawAbsolutePath("//www.heise.de/path1"));
+    assertFalse(Externalizer.isRawAbsolutePath("http://www.heise.de/path1"));
+    assertFalse(Externalizer.isRawAbsolutePath("/path with/spaces"));
+    assertFalse(Externalizer.isRawAbsolutePath("/path?query"));
+    assertFalse(Externalizer.isRawAbsolutePath("/path#fragment"));
+    assertFalse(Externalizer.isRawAbsolutePath("/path%2"));
+    assertFalse(Externalizer.isRawAbsolutePath("/path%zz"));
+  }
+
   @Test
   void testMangleNamespaces() {
     assertEquals("/content/aa/bb/content.png", Externalizer.mangleNamespaces("/content/aa/bb/content.png"));
@@ -24,10 +24,23 @@ import static io.wcm.testing.mock.wcmio.sling.ContextPlugins.WCMIO_SLING;
 import static io.wcm.testing.mock.wcmio.wcm.ContextPlugins.WCMIO_WCM;
 import static org.apache.sling.testing.mock.caconfig.ContextPlugins.CACONFIG;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.caconfig.resource.ConfigurationResourceResolver;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.osgi.framework.Constants;
+
+import com.google.common.collect.ImmutableList;
 
 import io.wcm.handler.url.SiteRootDetector;
 import io.wcm.testing.mock.aem.junit5.AemContext;
@@ -62,4 +75,135 @@ class SiteRootDetectorImplTest {
     assertEquals(-1, underTest.getSiteRootLevel(null));
   }
 
+  @Test
+  void testGetSiteRootLevel_PageContent() {
+    assertEquals(ROOT_LEVEL, getSiteRootLevel("/content/test1/test2/test3"));
+    assertEquals(ROOT_LEVEL, getSiteRootLevel("/content/test1/test2/test3/jcr:content"));
+    assertEquals(ROOT_LEVEL, getSiteRootLevel("/content/test1/test2/test3/jcr:content/comp1"));
+    assertEquals(ROOT_LEVEL, getSiteRootLevel("/content/test1/test2/test4/jcr:content/comp1"));
+  }
+
+  @Test
+  void testCacheInvalidation() {
+    ConfigurationResourceResolver configurationResourceResolver = mock(ConfigurationResourceResolver.class);
+    when(configurationResourceResolver.getContextPath(any(Resource.class))).thenReturn("/content/test1/test2");
+    context.registerService(ConfigurationResourceResolver.class, configurationResourceResolver,
+        Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+    SiteRootDetectorImpl detector = context.registerInjectActivateService(new SiteRootDetectorImpl());
+
+    Resource page1 = context.create().resource("/content/test1/test2/test3");
+    Resource comp1 = context.create().resource("/content/test1/test2/test3/jcr:content/comp1");
+    Resource comp2 = context.create().resource("/content/test1/test2/test3/jcr:content/comp2");
+    Resource page2 = context.create().resource("/content/test1/test2/test4");
+
+    assertEquals(2, detector.getSiteRootLevel(page1));
+    assertEquals(2, detector.getSiteRootLevel(comp1));
+    assertEquals(2, detector.getSiteRootLevel(comp2));
+    assertEquals(2, detector.getSiteRootLevel(page2));
+    verify(configurationResourceResolver, times(2)).getContextPath(any(Resource.class));
+
+    // configuration reference added to page content
+    when(configurationResourceResolver.getContextPath(any(Resource.class))).thenReturn("/content/test1/test2/test3");
+    detector.onChange(ImmutableList.of(
+        new ResourceChange(ChangeType.CHANGED, "/content/test1/test2/test3/jcr:content", false)));
+
+    assertEquals(3, detector.getSiteRootLevel(comp1));
+    assertEquals(2, detector.getSiteRootLevel(page2));
+    verify(configurationResourceResolver, times(3)).getContextPath(any(Resource.class));
+
+    // parent removed
+    detector.onChange(ImmutableList.of(new ResourceChange(ChangeType.REMOVED, "/content/test1", false)));
+    assertEquals(3, detector.getSiteRootLevel(page2));
+    verify(configurationResourceResolver, times(4)).getContextPath(any(Resource.class));
+  }
+
+  @Test
+  void testCacheInvalidation_SiblingPath() {
+    ConfigurationResourceResolver configurationResourceResolver = mock(ConfigurationResourceResolver.class);
+    when(configurationResourceResolver.getContextPath(any(Resource.class))).thenReturn("/content/test1");
+    context.registerService(ConfigurationResourceResolver.class, configurationResourceResolver,
+        Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+    SiteRootDetectorImpl detector = context.registerInjectActivateService(new SiteRootDetectorImpl());
+
+    Resource page1 = context.create().resource("/content/test1/page1");
+    Resource page2 = context.create().resource("/content/test10/page2");
+    Resource page3 = context.create().resource("/content/test1-copy/page3");
+
+    assertEquals(1, detector.getSiteRootLevel(page1));
+    assertEquals(1, detector.getSiteRootLevel(page2));
+    assertEquals(1, detector.getSiteRootLevel(page3));
+    verify(configurationResourceResolver, times(3)).getContextPath(any(Resource.class));
+
+    // only paths below the changed path are invalidated
+    detector.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/content/test1", false)));
+    assertEquals(1, detector.getSiteRootLevel(page1));
+    assertEquals(1, detector.getSiteRootLevel(page2));
+    assertEquals(1, detector.getSiteRootLevel(page3));
+    verify(configurationResourceResolver, times(4)).getContextPath(any(Resource.class));
+
+    // change on root invalidates all paths
+    detector.onChange(ImmutableList.of(new ResourceChange(ChangeType.CHANGED, "/", false)));
+    assertEquals(1, detector.getSiteRootLevel(page1));
+    assertEquals(1, detector.getSiteRootLevel(page2));
+    assertEquals(1, detector.getSiteRootLevel(page3));
+    verify(configurationResourceResolver, times(7)).getContextPath(any(Resource.class));
+  }
+
+  @Test
+  void testCacheInvalidation_ConcurrentChange() {
+    ConfigurationResourceResolver configurationResourceResolver = mock(ConfigurationResourceResolver.class);
+    context.registerService(ConfigurationResourceResolver.class, configurationResourceResolver,
+        Constants.SERVICE_RANKING, Integer.MAX_VALUE);
+    SiteRootDetectorImpl detector = context.registerInjectActivateService(new SiteRootDetectorImpl());
+    Resource page1 = context.create().resource("/content/test1/test2/test3");
+
+    // configuration reference is changed while the site root is detected
+    when(configurationResourceResolver.getContextPath(any(Resource.class))).thenAnswer(invocation -> {
+      detector.onChange(ImmutableList.of(
+          new ResourceChange(ChangeType.CHANGED, "/content/test1/test2/jcr:content", false)));
+      return "/content/test1/test2";
+    });
+    assertEquals(2, detector.getSiteRootLevel(page1));
+
+    when(configurationResourceResolver.getContextPath(any(Resource.class))).thenReturn("/content/test1/test2/test3");
+    assertEquals(3, detector.getSiteRootLevel(page1));
+    assertEquals(3, detector.getSiteRootLevel(page1));
+    verify(configurationResourceResolver, times(2)).getContextPath(any(Resource.class));
+  }
+
+  @Test
+  void testGetContextPath() {
+    SiteRootDetectorImpl detector = (SiteRootDetectorImpl)underTest;
+    assertNull(detector.getContextPath(context.create().resource("/content")));
+    assertEquals("/content/test1/test2",
+        detector.getContextPath(context.create().resource("/content/test1/test2/test3/jcr:content/comp1")));
+    assertNull(detector.getContextPath(null));
+  }
+
+  @Test
+  void testContextPathStrategyChanged() {
+    Resource resource = context.create().resource("/content/test1/test2/test3/test4");
+    assertEquals(ROOT_LEVEL, underTest.getSiteRootLevel(resource));
+
+    // additional context path strategy with a deeper site root level
+    MockCAConfig.contextPathStrategyAbsoluteParent(context, ROOT_LEVEL + 1);
+    assertEquals(ROOT_LEVEL + 1, underTest.getSiteRootLevel(resource));
+  }
+
+  @Test
+  void testGetCachePath() {
+    assertEquals("/content/test1", SiteRootDetectorImpl.getCachePath("/content/test1"));
+    assertEquals("/content/test1", SiteRootDetectorImpl.getCachePath("/content/test1/jcr:content"));
+    assertEquals("/content/test1",
+        SiteRootDetectorImpl.getCachePath("/content/test1/jcr:content/comp1/jcr:content"));
+    assertEquals("/content/test1/jcr:contents/comp1",
+        SiteRootDetectorImpl.getCachePath("/content/test1/jcr:contents/comp1"));
+    assertEquals("/content/test1/jcr:contents",
+        SiteRootDetectorImpl.getCachePath("/content/test1/jcr:contents/jcr:content"));
+  }
+
+  private int getSiteRootLevel(String path) {
+    return underTest.getSiteRootLevel(context.create().resource(path));
+  }
+
 }
@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.url.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.testing.mock.caconfig.MockContextAwareConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import io.wcm.handler.url.SiteConfig;
+import io.wcm.handler.url.testcontext.AppAemContext;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+@ExtendWith(AemContextExtension.class)
+class UrlHandlerAdapterFactoryTest {
+
+  private final AemContext context = AppAemContext.newAemContext();
+
+  private UrlHandlerAdapterFactory underTest;
+
+  @BeforeEach
+  void setUp() {
+    underTest = context.registerInjectActivateService(new UrlHandlerAdapterFactory());
+  }
+
+  @Test
+  void testSiteConfig() {
+    SiteConfig siteConfig = getSiteConfig("/content/unittest/de_test/brand/de/section2/page2");
+    assertEquals("http://de.dummysite.org", siteConfig.siteUrl());
+    assertEquals("https://de.dummysite.org", siteConfig.siteUrlSecure());
+    assertEquals("https://author.dummysite.org", siteConfig.siteUrlAuthor());
+
+    // other page in same context
+    assertEquals("http://de.dummysite.org", getSiteConfig("/content/unittest/de_test/brand/de/section2/page3").siteUrl());
+
+    // page in other context
+    assertEquals("http://en.dummysite.org", getSiteConfig("/content/unittest/de_test/brand/en/section/page").siteUrl());
+  }
+
+  @Test
+  void testSiteConfig_ConfigurationChange() {
+    assertEquals("http://de.dummysite.org", getSiteConfig("/content/unittest/de_test/brand/de").siteUrl());
+
+    MockContextAwareConfig.writeConfiguration(context, "/content/unittest/de_test/brand/de", SiteConfig.class.getName(),
+        "siteUrl", "http://de-changed.dummysite.org");
+    underTest.onChange(Collections.singletonList(mock(ResourceChange.class)));
+
+    assertEquals("http://de-changed.dummysite.org", getSiteConfig("/content/unittest/de_test/brand/de").siteUrl());
+  }
+
+  @Test
+  void testSiteConfig_ContentChange() {
+    assertEquals("http://de.dummysite.org", getSiteConfig("/content/unittest/de_test/brand/de").siteUrl());
+
+    MockContextAwareConfig.writeConfiguration(context, "/content/unittest/de_test/brand/de", SiteConfig.class.getName(),
+        "siteUrl", "http://de-changed.dummysite.org");
+
+    // change in other context does not affect cached site config
+    underTest.onChange(Collections.singletonList(
+        new ResourceChange(ChangeType.CHANGED, "/content/unittest/de_test/brand/en/jcr:content", false)));
+    assertEquals("http://de.dummysite.org", getSiteConfig("/content/unittest/de_test/brand/de").siteUrl());
+
+    // configuration reference changed in context root page
+    underTest.onChange(Collections.singletonList(
+        new ResourceChange(ChangeType.CHANGED, "/content/unittest/de_test/brand/de/jcr:content", false)));
+    assertEquals("http://de-changed.dummysite.org", getSiteConfig("/content/unittest/de_test/brand/de").siteUrl());
+  }
+
+  @Test
+  @SuppressWarnings("null")
+  void testSiteConfig_DetachedFromResourceResolver() throws LoginException {
+    // populate cache with site config read with a resource resolver that is closed afterwards
+    try (ResourceResolver resourceResolver = context.getService(ResourceResolverFactory.class)
+        .getServiceResourceResolver(null)) {
+      Resource resource = resourceResolver.getResource("/content/unittest/de_test/brand/de");
+      assertNotNull(underTest.getAdapter(resource, SiteConfig.class));
+    }
+
+    SiteConfig siteConfig = getSiteConfig("/content/unittest/de_test/brand/de/section2/page2");
+    assertEquals("http://de.dummysite.org", siteConfig.siteUrl());
+    assertEquals("https://de.dummysite.org", siteConfig.siteUrlSecure());
+    assertEquals("https://author.dummysite.org", siteConfig.siteUrlAuthor());
+  }
+
+  private SiteConfig getSiteConfig(String path) {
+    Resource resource = context.resourceResolver().getResource(path);
+    assertNotNull(resource);
+    SiteConfig siteConfig = underTest.getAdapter(resource, SiteConfig.class);
+    assertNotNull(siteConfig);
+    return siteConfig;
+  }
+
+}
@@ -30,6 +30,9 @@ import static org.mockito.Mockito.when;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.apache.commons.lang3.CharEncoding;
@@ -57,6 +60,7 @@ import io.wcm.handler.url.integrator.IntegratorPlaceholder;
 import io.wcm.handler.url.testcontext.AppAemContext;
 import io.wcm.handler.url.testcontext.DummyAppTemplate;
 import io.wcm.sling.commons.adapter.AdaptTo;
+import io.wcm.sling.commons.request.RequestParam;
 import io.wcm.testing.mock.aem.junit5.AemContext;
 import io.wcm.testing.mock.aem.junit5.AemContextExtension;
 
@@ -64,6 +68,9 @@ import io.wcm.testing.mock.aem.junit5.AemContextExtension;
 @SuppressWarnings("null")
 class UrlHandlerImplTest {
 
+  private static final long RANDOM_SEED = 0x0123456789abcdefL;
+  private static final int RANDOM_COMBINATIONS = 3_000_000;
+
   final AemContext context = AppAemContext.newAemContext();
 
   protected Adaptable adaptable() {
@@ -641,6 +648,126 @@ class UrlHandlerImplTest {
 
   }
 
+  @Test
+  void testBuildUrlAllParts() {
+    UrlHandler urlHandler = AdaptTo.notNull(adaptable(), UrlHandler.class);
+
+    assertEquals("/the/path.sel1.suffix.ext/suffix1.ext?abc=def#anchor",
+        urlHandler.get("/the/path").selectors("sel1").extension("ext").suffix("suffix1")
+        .queryString("abc=def").fragment("anchor").build());
+    assertEquals("/the/path.ext?def=ghi#anchor",
+        urlHandler.get("/the/path.ext?def=ghi#otheranchor").queryString("abc").fragment("#anchor").build());
+    assertEquals("/the/path.ext?",
+        urlHandler.get("/the/path.ext?").queryString("").fragment(" ").build());
+
+    if (adaptable() instanceof SlingHttpServletRequest) {
+      context.request().setQueryString("i1=123&i2=456");
+      assertEquals("/the/path.html?i2=789&i1=123#anchor",
+          urlHandler.get("/the/path").extension("html").queryString("i2=789", ImmutableSet.of("i1", "i2"))
+          .fragment("anchor").build());
+    }
+  }
+
+  /**
+   * Compares URLs built by the URL handler with a reference implementation building the URL in separate steps
+   * for randomly combined URL parts.
+   */
+  @Test
+  void testBuildUrlRandomizedComparison() {
+    UrlHandler urlHandler = AdaptTo.notNull(adaptable(), UrlHandler.class);
+    SlingHttpServletRequest request = null;
+    if (adaptable() instanceof SlingHttpServletRequest) {
+      context.request().setQueryString("i1=123&i2=456&i2=789&i4=");
+      request = context.request();
+    }
+
+    String[] paths = { null, "", " ", "/the/path", "/the/path.html", "/the/path?x=1", "/the/path#frag",
+        "/the/path?", "/the/path?a=1#frag", "/the/path?b?c", "/the/path?i1=5", "/the/path?i2=", "/the/path?xi1=1" };
+    String[] selectors = { null, "", " ", "sel", ".sel", "sel1.sel2", "sel?x", "sel#frag" };
+    String[] extensions = { null, "", " ", "html", "ext", "x?y" };
+    String[] suffixes = { null, "", " ", "suffix1", "/suffix2", "suffix.ext", "suffix3/suffix4", "s?q=1", "s#x" };
+    String[] queryStrings = { null, "", " ", "a=1", "i1=2", "abc", "&x=y", "i2", "x#y", "?z", "i1" };
+    List<Set<String>> inheritableParameterNames = Arrays.asList(null, ImmutableSet.of(), ImmutableSet.of("i1"),
+        ImmutableSet.of("i1", "i2"), ImmutableSet.of("i3"), ImmutableSet.of("i4", "i1"), ImmutableSet.of("i2", "i1"));
+    String[] fragments = { null, "", " ", "anchor", "#anchor", "a#b", "#" };
+
+    Random random = new Random(RANDOM_SEED);
+    for (int i = 0; i < RANDOM_COMBINATIONS; i++) {
+      String path = paths[random.nextInt(paths.length)];
+      String selector = selectors[random.nextInt(selectors.length)];
+      String extension = extensions[random.nextInt(extensions.length)];
+      String suffix = suffixes[random.nextInt(suffixes.length)];
+      String queryString = queryStrings[random.nextInt(queryStrings.length)];
+      Set<String> inheritable = inheritableParameterNames.get(random.nextInt(inheritableParameterNames.size()));
+      String fragment = fragments[random.nextInt(fragments.length)];
+
+      String expected = buildUrlReference(request, path, selector, extension, suffix, queryString, inheritable,
+          fragment);
+      String actual = urlHandler.get(path).selectors(selector).extension(extension).suffix(suffix)
+          .queryString(queryString, inheritable).fragment(fragment).build();
+      assertEquals(expected, actual, "path=" + path + ", selector=" + selector + ", extension=" + extension
+          + ", suffix=" + suffix + ", queryString=" + queryString + ", inheritable=" + inheritable
+          + ", fragment=" + fragment);
+    }
+  }
+
+  /**
+   * Reference implementation building the URL in three steps: URL parts, query string and fragment.
+   */
+  private static String buildUrlReference(SlingHttpServletRequest request, String path, String selector, //NOPMD
+      String extension, String suffix, String queryString, Set<String> inheritableParameterNames, String fragment) {
+    if (StringUtils.isBlank(path)) {
+      return null;
+    }
+    String extensionPart = StringUtils.isNotBlank(extension) ? "." + extension : "";
+    String selectorPart = "";
+    if (StringUtils.isNotBlank(selector)) {
+      selectorPart = (StringUtils.startsWith(selector, ".") ? "" : ".") + selector;
+    }
+    String suffixPart = "";
+    if (StringUtils.isNotBlank(suffix)) {
+      suffixPart = (StringUtils.startsWith(suffix, "/") ? "" : "/") + suffix;
+      if (!StringUtils.contains(suffix, ".")) {
+        suffixPart += extensionPart;
+      }
+      selectorPart += "." + UrlHandler.SELECTOR_SUFFIX;
+    }
+    String url = path + selectorPart + extensionPart + suffixPart;
+
+    if (StringUtils.isNotEmpty(queryString) || inheritableParameterNames != null) {
+      String queryParams = StringUtils.substringAfter(url, "?");
+      url = StringUtils.substringBefore(url, "?");
+      if (StringUtils.isNotBlank(queryString)) {
+        queryParams += (queryParams.isEmpty() ? "" : "&") + queryString;
+      }
+      if (inheritableParameterNames != null && request != null) {
+        for (String parameterName : inheritableParameterNames) {
+          if (!queryParams.contains(parameterName + "=")) {
+            String[] values = RequestParam.getMultiple(request, parameterName);
+            if (values != null) {
+              for (String value : values) {
+                if (StringUtils.isNotEmpty(value)) {
+                  queryParams += (queryParams.isEmpty() ? "" : "&") + parameterName + "=" + value;
+                }
+              }
+            }
+          }
+        }
+      }
+      if (!queryParams.isEmpty()) {
+        url += "?" + queryParams;
+      }
+    }
+
+    if (StringUtils.isNotEmpty(fragment)) {
+      url = StringUtils.substringBefore(url, "#");
+      if (StringUtils.isNotBlank(fragment)) {
+        url += (StringUtils.startsWith(fragment, "#") ? "" : "#") + fragment;
+      }
+    }
+    return url;
+  }
+
   private static String externalizeLinkUrl(UrlHandler urlHandler, String url, Page targetPage) {
     return urlHandler.get(url).buildExternalLinkUrl(targetPage);
   }
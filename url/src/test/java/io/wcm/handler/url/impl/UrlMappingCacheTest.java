@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.url.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.osgi.service.event.Event;
+
+import io.wcm.handler.url.testcontext.AppAemContext;
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+@ExtendWith({ AemContextExtension.class, MockitoExtension.class })
+class UrlMappingCacheTest {
+
+  private final AemContext context = AppAemContext.newAemContext();
+
+  @Mock
+  private ResourceResolver resolver;
+
+  @BeforeEach
+  void setUp() {
+    when(resolver.map(any(SlingHttpServletRequest.class), anyString()))
+        .thenAnswer(invocation -> "/mapped" + invocation.getArgument(1));
+  }
+
+  @Test
+  void testRequestCache() {
+    UrlMappingCache underTest = context.registerInjectActivateService(new UrlMappingCache());
+    MockSlingHttpServletRequest request = context.request();
+
+    assertEquals("/mapped/content/page1.html", underTest.map("/content/page1.html", resolver, request));
+    assertEquals("/mapped/content/page1.html", underTest.map("/content/page1.html", resolver, request));
+    assertEquals("/mapped/content/page2.html", underTest.map("/content/page2.html", resolver, request));
+    verify(resolver, times(1)).map(request, "/content/page1.html");
+
+    // other request is not served from request cache, shared cache is disabled by default
+    MockSlingHttpServletRequest otherRequest = newRequest("localhost");
+    assertEquals("/mapped/content/page1.html", underTest.map("/content/page1.html", resolver, otherRequest));
+    verify(resolver, times(1)).map(otherRequest, "/content/page1.html");
+
+    assertEquals(1, underTest.getRequestHitCount());
+    assertEquals(0, underTest.getSharedHitCount());
+    assertEquals(3, underTest.getMissCount());
+    assertEquals(0.25d, underTest.getHitRate(), 0.0001d);
+    assertEquals(0, underTest.getSharedCacheSize());
+  }
+
+  @Test
+  void testSharedCache() {
+    UrlMappingCache underTest = context.registerInjectActivateService(new UrlMappingCache(),
+        "sharedCacheEnabled", true);
+
+    MockSlingHttpServletRequest request1 = newRequest("de.dummysite.org");
+    MockSlingHttpServletRequest request2 = newRequest("de.dummysite.org");
+    MockSlingHttpServletRequest request3 = newRequest("en.dummysite.org");
+
+    assertEquals("/mapped/content/page1.html", underTest.map("/content/page1.html", resolver, request1));
+    assertEquals("/mapped/content/page1.html", underTest.map("/content/page1.html", resolver, request2));
+    assertEquals("/mapped/content/page1.html", underTest.map("/content/page1.html", resolver, request3));
+    verify(resolver, times(1)).map(request1, "/content/page1.html");
+    verify(resolver, times(0)).map(request2, "/content/page1.html");
+    verify(resolver, times(1)).map(request3, "/content/page1.html");
+
+    assertEquals(0, underTest.getRequestHitCount());
+    assertEquals(1, underTest.getSharedHitCount());
+    assertEquals(2, underTest.getMissCount());
+    assertEquals(2, underTest.getSharedCacheSize());
+  }
+
+  @Test
+  void testSharedCache_MappingChanged() {
+    UrlMappingCache underTest = context.registerInjectActivateService(new UrlMappingCache(),
+        "sharedCacheEnabled", true);
+
+    assertEquals("/mapped/content/page1.html",
+        underTest.map("/content/page1.html", resolver, newRequest("de.dummysite.org")));
+    assertEquals(1, underTest.getSharedCacheSize());
+
+    underTest.handleEvent(new Event(SlingConstants.TOPIC_RESOURCE_RESOLVER_MAPPING_CHANGED, Collections.emptyMap()));
+
+    assertEquals(0, underTest.getSharedCacheSize());
+    assertEquals(1, underTest.getInvalidationCount());
+    assertEquals("/mapped/content/page1.html",
+        underTest.map("/content/page1.html", resolver, newRequest("de.dummysite.org")));
+    assertEquals(2, underTest.getMissCount());
+  }
+
+  private MockSlingHttpServletRequest newRequest(String serverName) {
+    MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.resourceResolver(),
+        context.bundleContext());
+    request.setServerName(serverName);
+    return request;
+  }
+
+}
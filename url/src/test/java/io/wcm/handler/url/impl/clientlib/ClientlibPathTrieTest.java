@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.url.impl.clientlib;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ClientlibPathTrieTest {
+
+  @Test
+  void testEmpty() {
+    ClientlibPathTrie underTest = ClientlibPathTrie.EMPTY;
+    assertTrue(underTest.isEmpty());
+    assertFalse(underTest.contains("/apps/app1/clientlib1"));
+    assertFalse(underTest.contains("/"));
+    assertFalse(underTest.contains(""));
+  }
+
+  @Test
+  void testAdd() {
+    ClientlibPathTrie underTest = ClientlibPathTrie.EMPTY
+        .add("/apps/app1/clientlib1")
+        .add("/apps/app1/clientlib1/sub")
+        .add("/apps/app2/clientlib2")
+        .add("/libs/app3/clientlib3");
+
+    assertTrue(underTest.contains("/apps/app1/clientlib1"));
+    assertTrue(underTest.contains("/apps/app1/clientlib1/sub"));
+    assertTrue(underTest.contains("/apps/app2/clientlib2"));
+    assertTrue(underTest.contains("/libs/app3/clientlib3"));
+
+    assertFalse(underTest.contains("/apps/app1"));
+    assertFalse(underTest.contains("/apps/app1/clientlib"));
+    assertFalse(underTest.contains("/apps/app1/clientlib11"));
+    assertFalse(underTest.contains("/apps/app1/clientlib1/"));
+    assertFalse(underTest.contains("/apps/app1//clientlib1"));
+    assertFalse(underTest.contains("/libs/app1/clientlib1"));
+    assertFalse(underTest.contains("apps/app1/clientlib1"));
+
+    // adding existing path returns same instance
+    assertSame(underTest, underTest.add("/apps/app2/clientlib2"));
+  }
+
+  @Test
+  void testContainsRegion() {
+    ClientlibPathTrie underTest = ClientlibPathTrie.EMPTY.add("/apps/app1/clientlib1");
+
+    String path = "/apps/app1/clientlib1/resources/img.png";
+    assertTrue(underTest.contains(path, path.indexOf("/resources/")));
+    assertFalse(underTest.contains(path, path.indexOf("/clientlib1")));
+    assertFalse(underTest.contains(path, path.length()));
+    assertFalse(underTest.contains(path, path.length() + 1));
+  }
+
+  @Test
+  void testRemove() {
+    ClientlibPathTrie original = ClientlibPathTrie.EMPTY
+        .add("/apps/app1/clientlib1")
+        .add("/apps/app1/clientlib1/sub")
+        .add("/apps/app2/clientlib2");
+
+    ClientlibPathTrie underTest = original.remove("/apps/app1/clientlib1");
+    assertFalse(underTest.contains("/apps/app1/clientlib1"));
+    assertTrue(underTest.contains("/apps/app1/clientlib1/sub"));
+    assertTrue(underTest.contains("/apps/app2/clientlib2"));
+
+    // original instance is not modified
+    assertTrue(original.contains("/apps/app1/clientlib1"));
+
+    // removing non-existing path returns same instance
+    assertSame(underTest, underTest.remove("/apps/app3/clientlib3"));
+
+    underTest = underTest.remove("/apps/app1/clientlib1/sub").remove("/apps/app2/clientlib2");
+    assertTrue(underTest.isEmpty());
+  }
+
+  @Test
+  void testRemoveTree() {
+    ClientlibPathTrie underTest = ClientlibPathTrie.EMPTY
+        .add("/apps/app1/clientlib1")
+        .add("/apps/app1/clientlib1/sub")
+        .add("/apps/app2/clientlib2")
+        .removeTree("/apps/app1");
+
+    assertFalse(underTest.contains("/apps/app1/clientlib1"));
+    assertFalse(underTest.contains("/apps/app1/clientlib1/sub"));
+    assertTrue(underTest.contains("/apps/app2/clientlib2"));
+
+    assertTrue(underTest.removeTree("/apps").isEmpty());
+  }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * #%L
+ * wcm.io
+ * %%
+ * Copyright (C) 2020 wcm.io
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package io.wcm.handler.url.impl.clientlib;
+
+import static com.day.cq.commons.jcr.JcrConstants.JCR_PRIMARYTYPE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import javax.jcr.query.Query;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.AdditionalAnswers;
+import org.osgi.framework.Constants;
+
+import com.google.common.collect.ImmutableList;
+
+import io.wcm.testing.mock.aem.junit5.AemContext;
+import io.wcm.testing.mock.aem.junit5.AemContextExtension;
+
+@ExtendWith(AemContextExtension.class)
+@SuppressWarnings("null")
+class ClientlibProxyRewriterImplTest {
+
+  private static final String CLIENTLIB_PATH = "/apps/app1/clientlibs/clientlib1";
+  private static final String RESOURCE_PATH = CLIENTLIB_PATH + "/resources/images/img.png";
+  private static final String PROXY_RESOURCE_PATH = "/etc.clientlibs/app1/clientlibs/clientlib1"
+      + "/resources/images/img.png";
+
+  private final AemContext context = new AemContext(ResourceResolverType.JCR_MOCK);
+
+  private ClientlibProxyRewriterImpl underTest;
+
+  @BeforeEach
+  void setUp() {
+    underTest = context.registerInjectActivateService(new ClientlibProxyRewriterImpl());
+  }
+
+  @Test
+  void testClientlibLifecycle() throws PersistenceException {
+    assertEquals(RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+
+    // add client library with allowProxy
+    context.create().resource(CLIENTLIB_PATH,
+        JCR_PRIMARYTYPE, "cq:ClientLibraryFolder",
+        "allowProxy", true);
+    context.resourceResolver().commit();
+    notifyChange(ChangeType.ADDED, CLIENTLIB_PATH);
+    assertEquals(PROXY_RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+
+    // disable allowProxy
+    context.resourceResolver().getResource(CLIENTLIB_PATH).adaptTo(ModifiableValueMap.class).remove("allowProxy");
+    context.resourceResolver().commit();
+    notifyChange(ChangeType.CHANGED, CLIENTLIB_PATH);
+    assertEquals(RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+
+    // enable allowProxy again
+    context.resourceResolver().getResource(CLIENTLIB_PATH).adaptTo(ModifiableValueMap.class).put("allowProxy", true);
+    context.resourceResolver().commit();
+    notifyChange(ChangeType.CHANGED, CLIENTLIB_PATH);
+    assertEquals(PROXY_RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+
+    // remove parent of client library
+    context.resourceResolver().delete(context.resourceResolver().getResource("/apps/app1"));
+    context.resourceResolver().commit();
+    notifyChange(ChangeType.REMOVED, "/apps/app1");
+    assertEquals(RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+  }
+
+  @Test
+  void testNoClientlib() {
+    context.create().resource(CLIENTLIB_PATH,
+        "allowProxy", true);
+    notifyChange(ChangeType.ADDED, CLIENTLIB_PATH);
+    assertEquals(RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+  }
+
+  @Test
+  void testOtherPaths() {
+    assertEquals("/content/app1/clientlibs/clientlib1/resources/images/img.png",
+        underTest.rewriteStaticResourcePath("/content/app1/clientlibs/clientlib1/resources/images/img.png"));
+    assertEquals("/apps/resources/images/img.png",
+        underTest.rewriteStaticResourcePath("/apps/resources/images/img.png"));
+    assertEquals("/apps/app1/clientlibs/clientlib1/img.png",
+        underTest.rewriteStaticResourcePath("/apps/app1/clientlibs/clientlib1/img.png"));
+  }
+
+  @Test
+  void testLookupWithoutChangeEvent() throws PersistenceException {
+    // add client library without notifying the change - looked up on access
+    context.create().resource(CLIENTLIB_PATH,
+        JCR_PRIMARYTYPE, "cq:ClientLibraryFolder",
+        "allowProxy", true);
+    context.resourceResolver().commit();
+    assertEquals(PROXY_RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+  }
+
+  @Test
+  void testLookupInvalidation() throws LoginException, PersistenceException {
+    ResourceResolver resourceResolver = mockServiceResourceResolver();
+    ResourceResolverFactory resourceResolverFactory = mockResourceResolverFactory(resourceResolver);
+    underTest = context.registerInjectActivateService(new ClientlibProxyRewriterImpl());
+    String otherResourcePath = "/apps/app2/clientlibs/clientlib2/resources/img.png";
+
+    // paths that are no client library with allowProxy are looked up only once
+    assertEquals(RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+    assertEquals(otherResourcePath, underTest.rewriteStaticResourcePath(otherResourcePath));
+    assertEquals(RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+    verify(resourceResolverFactory, times(3)).getServiceResourceResolver(any());
+
+    // add client library with allowProxy
+    context.create().resource(CLIENTLIB_PATH,
+        JCR_PRIMARYTYPE, "cq:ClientLibraryFolder",
+        "allowProxy", true);
+    context.resourceResolver().commit();
+
+    // changes of other paths keep the remembered paths
+    notifyChange(ChangeType.CHANGED, "/apps/app1/clientlibs/clientlib1-other");
+    notifyChange(ChangeType.CHANGED, "/apps/app1/clientlibs/clientlib1/css");
+    assertEquals(RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+    assertEquals(otherResourcePath, underTest.rewriteStaticResourcePath(otherResourcePath));
+    verify(resourceResolverFactory, times(5)).getServiceResourceResolver(any());
+
+    // change of a parent path removes the remembered paths below it
+    notifyChange(ChangeType.CHANGED, "/apps/app1");
+    assertEquals(PROXY_RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+    assertEquals(otherResourcePath, underTest.rewriteStaticResourcePath(otherResourcePath));
+    verify(resourceResolverFactory, times(7)).getServiceResourceResolver(any());
+  }
+
+  @Test
+  void testActivate() throws LoginException {
+    Resource clientlib = context.create().resource(CLIENTLIB_PATH,
+        JCR_PRIMARYTYPE, "cq:ClientLibraryFolder",
+        "allowProxy", true);
+    context.create().resource("/apps/app1/clientlibs/clientlib2",
+        JCR_PRIMARYTYPE, "cq:ClientLibraryFolder");
+
+    ResourceResolver resourceResolver = mockServiceResourceResolver();
+    doReturn(Collections.singletonList(clientlib).iterator()).when(resourceResolver)
+        .findResources(contains("FROM [cq:ClientLibraryFolder]"), eq(Query.JCR_SQL2));
+    ResourceResolverFactory resourceResolverFactory = mockResourceResolverFactory(resourceResolver);
+    underTest = context.registerInjectActivateService(new ClientlibProxyRewriterImpl());
+
+    assertEquals(PROXY_RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+
+    // client library detected by query on activation, no lookup required
+    verify(resourceResolverFactory, times(1)).getServiceResourceResolver(any());
+  }
+
+  @Test
+  void testActivate_LoginFailed() throws LoginException {
+    context.create().resource(CLIENTLIB_PATH,
+        JCR_PRIMARYTYPE, "cq:ClientLibraryFolder",
+        "allowProxy", true);
+
+    ResourceResolver resourceResolver = mockServiceResourceResolver();
+    ResourceResolverFactory resourceResolverFactory = mockResourceResolverFactory(resourceResolver);
+    when(resourceResolverFactory.getServiceResourceResolver(any()))
+        .thenThrow(new LoginException())
+        .thenReturn(resourceResolver);
+    underTest = context.registerInjectActivateService(new ClientlibProxyRewriterImpl());
+
+    // client library is looked up on first access
+    assertEquals(PROXY_RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+    assertEquals(PROXY_RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+    assertEquals("/apps/app1/clientlibs/other/resources/img.png",
+        underTest.rewriteStaticResourcePath("/apps/app1/clientlibs/other/resources/img.png"));
+    assertEquals("/apps/app1/clientlibs/other/resources/img.png",
+        underTest.rewriteStaticResourcePath("/apps/app1/clientlibs/other/resources/img.png"));
+
+    verify(resourceResolverFactory, times(3)).getServiceResourceResolver(any());
+  }
+
+  @Test
+  void testParentFolderAdded() throws LoginException {
+    ResourceResolver resourceResolver = mockServiceResourceResolver();
+    ResourceResolverFactory resourceResolverFactory = mockResourceResolverFactory(resourceResolver);
+    underTest = context.registerInjectActivateService(new ClientlibProxyRewriterImpl());
+
+    // folder with client library moved to /apps/app1 - only the folder itself is reported
+    Resource clientlib = context.create().resource(CLIENTLIB_PATH,
+        JCR_PRIMARYTYPE, "cq:ClientLibraryFolder",
+        "allowProxy", true);
+    doReturn(Collections.singletonList(clientlib).iterator()).when(resourceResolver)
+        .findResources(contains("ISDESCENDANTNODE(s, '/apps/app1')"), eq(Query.JCR_SQL2));
+    underTest.onChange(ImmutableList.of(
+        new ResourceChange(ChangeType.REMOVED, "/apps/app0", false),
+        new ResourceChange(ChangeType.ADDED, "/apps/app1", false),
+        new ResourceChange(ChangeType.ADDED, "/apps/app1/clientlibs", false)));
+
+    assertEquals(PROXY_RESOURCE_PATH, underTest.rewriteStaticResourcePath(RESOURCE_PATH));
+
+    // subtree scanned once, no lookup required
+    verify(resourceResolver, times(1)).findResources(contains("ISDESCENDANTNODE(s, '/apps/app1"), anyString());
+    verify(resourceResolverFactory, times(2)).getServiceResourceResolver(any());
+  }
+
+  private ResourceResolver mockServiceResourceResolver() {
+    ResourceResolver resourceResolver = mock(ResourceResolver.class,
+        AdditionalAnswers.delegatesTo(context.resourceResolver()));
+    doNothing().when(resourceResolver).close();
+    return resourceResolver;
+  }
+
+  private ResourceResolverFactory mockResourceResolverFactory(ResourceResolver resourceResolver) throws LoginException {
+    ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+    when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+    context.registerService(ResourceResolverFactory.class, resourceResolverFactory, Constants.SERVICE_RANKING, 1000);
+    return resourceResolverFactory;
+  }
+
+  private void notifyChange(ChangeType changeType, String path) {
+    underTest.onChange(Collections.singletonList(new ResourceChange(changeType, path, false)));
+  }
+
+}
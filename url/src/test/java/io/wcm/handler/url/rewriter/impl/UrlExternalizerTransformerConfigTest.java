@@ -20,6 +20,7 @@
 package io.wcm.handler.url.rewriter.impl;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import java.util.Map;
 
@@ -56,4 +57,12 @@ class UrlExternalizerTransformerConfigTest {
     assertEquals(expected, ImmutableMap.copyOf(underTest.getElementAttributeNames()));
   }
 
+  @Test
+  void testGetAttributeName() {
+    assertEquals("attr1", underTest.getAttributeName("element1"));
+    assertEquals("attr2", underTest.getAttributeName("element2"));
+    assertNull(underTest.getAttributeName("element3"));
+    assertNull(underTest.getAttributeName(null));
+  }
+
 }
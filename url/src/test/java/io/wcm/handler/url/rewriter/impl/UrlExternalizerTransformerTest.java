@@ -19,16 +19,20 @@
  */
 package io.wcm.handler.url.rewriter.impl;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.sling.rewriter.ProcessingComponentConfiguration;
 import org.apache.sling.rewriter.ProcessingContext;
-import org.apache.sling.rewriter.Transformer;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -39,6 +43,8 @@ import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 
+import com.google.common.collect.ImmutableList;
+
 import io.wcm.handler.url.integrator.IntegratorHandler;
 import io.wcm.handler.url.testcontext.AppAemContext;
 import io.wcm.sling.commons.resource.ImmutableValueMap;
@@ -58,7 +64,7 @@ class UrlExternalizerTransformerTest {
   @Mock
   private ProcessingComponentConfiguration processingComponentConfiguration;
 
-  private Transformer underTest;
+  private UrlExternalizerTransformer underTest;
 
   @BeforeEach
   void setUp() {
@@ -72,7 +78,7 @@ class UrlExternalizerTransformerTest {
 
     UrlExternalizerTransformerFactory factory = context.registerInjectActivateService(new UrlExternalizerTransformerFactory());
 
-    underTest = factory.createTransformer();
+    underTest = (UrlExternalizerTransformer)factory.createTransformer();
     underTest.setContentHandler(contentHandler);
   }
 
@@ -139,6 +145,48 @@ class UrlExternalizerTransformerTest {
     verifyTransformer("element1", "attr1", "#my-anchor");
   }
 
+  @Test
+  void testRewriteExternalizedUrl_IntegratorTemplateMode() {
+    context.requestPathInfo().setSelectorString(IntegratorHandler.SELECTOR_INTEGRATORTEMPLATE);
+    callTransformer("element1", "attr1", "http://host/my/url%20with%20space?param1=value1");
+    verifyTransformer("element1", "attr1", "http://host/my/url%20with%20space?param1=value1");
+  }
+
+  @Test
+  void testRewriteMultipleElements_IntegratorTemplateMode() throws SAXException {
+    context.requestPathInfo().setSelectorString(IntegratorHandler.SELECTOR_INTEGRATORTEMPLATE);
+
+    // attributes instance passed to content handler is reused, so record them during the calls
+    List<String> result = new ArrayList<>();
+    doAnswer(invocation -> result.add(invocation.getArgument(1) + ":"
+        + ComparableAttributes.serializedString(invocation.getArgument(3))))
+        .when(contentHandler).startElement(any(), any(), any(), any());
+
+    underTest.init(processingContext, processingComponentConfiguration);
+    underTest.startElement(null, "element1", null, toAttributes("attr1", "/my/url", "attr3", "value3"));
+    underTest.startElement(null, "element2", null, toAttributes("attr2", "/my/url"));
+    underTest.startElement(null, "element2", null, toAttributes("attr2", "//host/my/url"));
+
+    assertEquals(ImmutableList.of(
+        "element1:" + toAttributes("attr1", "http://de.dummysite.org/my/url", "attr3", "value3"),
+        "element2:" + toAttributes("attr2", "http://de.dummysite.org/my/url"),
+        "element2:" + toAttributes("attr2", "//host/my/url")), result);
+  }
+
+  @Test
+  void testRewriteMailtoUrl_IntegratorTemplateMode() {
+    context.requestPathInfo().setSelectorString(IntegratorHandler.SELECTOR_INTEGRATORTEMPLATE);
+    callTransformer("element1", "attr1", "mailto:info@dummysite.org");
+    verifyTransformer("element1", "attr1", "mailto:info@dummysite.org");
+  }
+
+  @Test
+  void testRewriteUrlWithColonInQuery_IntegratorTemplateMode() {
+    context.requestPathInfo().setSelectorString(IntegratorHandler.SELECTOR_INTEGRATORTEMPLATE);
+    callTransformer("element1", "attr1", "/my/url?param1=value:with:colon");
+    verifyTransformer("element1", "attr1", "http://de.dummysite.org/my/url?param1=value:with:colon");
+  }
+
   private void callTransformer(String elementName, String... attributes) {
     try {
       underTest.init(processingContext, processingComponentConfiguration);